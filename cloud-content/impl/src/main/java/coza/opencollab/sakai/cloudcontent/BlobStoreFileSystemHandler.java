@@ -4,20 +4,36 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.codec.binary.Base64;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.content.api.FileSystemHandler;
 
+import io.minio.ComposeObjectArgs;
+import io.minio.ComposeSource;
 import io.minio.GetObjectArgs;
 import io.minio.BucketExistsArgs;
 import io.minio.MakeBucketArgs;
@@ -25,6 +41,7 @@ import io.minio.GetPresignedObjectUrlArgs;
 import io.minio.MinioClient;
 import io.minio.PutObjectArgs;
 import io.minio.RemoveObjectArgs;
+import io.minio.errors.ErrorResponseException;
 import io.minio.http.Method;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -52,8 +69,17 @@ public class BlobStoreFileSystemHandler implements FileSystemHandler {
 
     private long maxBlobStreamSize;
     private int partSize;
+    // The first read of an upload, a body no bigger is sent without a pooled buffer
+    private static final int FIRST_READ = 64 * 1024;
     private int signedUrlExpiry;
 
+    // Parts of one upload sent at once, and part buffers shared by all uploads
+    private int uploadParallelism;
+    private BlockingQueue<byte[]> partBuffers;
+    private final AtomicInteger partBuffersCreated = new AtomicInteger();
+    private int maxPartBuffers;
+    private ExecutorService uploadExecutor;
+
     // Allow new-style property names for completeness
     public void setAccessKey(String accessKey) {
         this.identity = accessKey;
@@ -127,6 +153,23 @@ public class BlobStoreFileSystemHandler implements FileSystemHandler {
             this.partSize = (int) partSizeBytes;
         }
 
+        int configuredParallelism = serverConfigurationService.getInt("cloud.content.multipart.parallelism", 4);
+        if (configuredParallelism <= 0) {
+            String msg = "Invalid 'cloud.content.multipart.parallelism' (" + configuredParallelism + "): must be a positive integer";
+            log.error(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        this.uploadParallelism = configuredParallelism;
+        // Every part in flight holds a buffer, so this bounds the memory of all uploads together
+        this.maxPartBuffers = Math.max(2, serverConfigurationService.getInt("cloud.content.multipart.buffers", configuredParallelism * 2));
+        this.partBuffers = new ArrayBlockingQueue<>(maxPartBuffers);
+        AtomicInteger uploadThreads = new AtomicInteger();
+        this.uploadExecutor = Executors.newFixedThreadPool(maxPartBuffers, r -> {
+            Thread t = new Thread(r, "blobstore-upload-" + uploadThreads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
         // All checks passed; construct the MinIO client last
         this.client = MinioClient.builder()
                 .endpoint(endpoint)
@@ -164,7 +207,9 @@ public class BlobStoreFileSystemHandler implements FileSystemHandler {
     }
 
     public void destroy() {
-        // nothing to destroy
+        if (uploadExecutor != null) {
+            uploadExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -304,6 +349,14 @@ public class BlobStoreFileSystemHandler implements FileSystemHandler {
                     return new ByteArrayInputStream(memory.toByteArray());
                 }
             }
+        } catch (ErrorResponseException e) {
+            // a missing object is told apart from a failure to read it, as for a missing file
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                FileNotFoundException missing = new FileNotFoundException("No object " + can.name + " in " + can.container);
+                missing.initCause(e);
+                throw missing;
+            }
+            throw new IOException("Unable to read object", e);
         } catch (Exception e) {
             throw new IOException("Unable to read object", e);
         }
@@ -318,25 +371,176 @@ public class BlobStoreFileSystemHandler implements FileSystemHandler {
         ContainerAndName can = getContainerAndName(id, root, filePath);
         createContainerIfNotExist(can.container);
 
-        try (CountingInputStream cis = new CountingInputStream(stream)) {
-            Map<String, String> headers = new HashMap<>();
-            headers.put("x-amz-meta-id", Base64.encodeBase64String(id.getBytes(StandardCharsets.UTF_8)));
-            headers.put("x-amz-meta-path", filePath);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("x-amz-meta-id", Base64.encodeBase64String(id.getBytes(StandardCharsets.UTF_8)));
+        headers.put("x-amz-meta-path", filePath);
 
-            client.putObject(
-                    PutObjectArgs.builder()
+        // A small body is sent from a small buffer of its own, so it never waits for a pooled buffer
+        byte[] small = new byte[FIRST_READ];
+        int read = readFully(stream, small);
+        if (read < small.length) {
+            putPart(can.container, can.name, small, read, headers);
+            return read;
+        }
+
+        // Anything bigger is read into a pooled buffer, so all uploads together stay within the pool
+        byte[] first = takePartBuffer();
+        try {
+            System.arraycopy(small, 0, first, 0, read);
+            read = readFully(stream, first, read);
+            if (read < partSize) {
+                // Fits in one part: a single PUT of known length
+                putPart(can.container, can.name, first, read, headers);
+                partBuffers.offer(first);
+                return read;
+            }
+        } catch (IOException | RuntimeException e) {
+            partBuffers.offer(first);
+            throw e;
+        }
+        return saveParts(can, stream, first, headers);
+    }
+
+    /**
+     * Upload a body of more than one part as parts sent in parallel, each from a pooled buffer and checked by the
+     * store against its MD5, then composed into the object on the store. The parts are removed afterwards, and on
+     * failure nothing is left behind. The first part, already read into a pooled buffer, is sent like the others.
+     */
+    private long saveParts(ContainerAndName can, InputStream stream, byte[] first, Map<String, String> headers) throws IOException {
+        String prefix = can.name + ".parts/" + UUID.randomUUID() + "/";
+        Semaphore inFlight = new Semaphore(uploadParallelism);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<String> parts = new ArrayList<>();
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        long total = 0L;
+        try {
+            byte[] buffer = first;
+            int read = first.length;
+            while (true) {
+                String part = prefix + (parts.size() + 1);
+                parts.add(part);
+                total += read;
+                inFlight.acquireUninterruptibly();
+                byte[] body = buffer;
+                int length = read;
+                uploads.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        putPart(can.container, part, body, length, null);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        partBuffers.offer(body);
+                        inFlight.release();
+                    }
+                }, uploadExecutor));
+
+                if (read < buffer.length || failure.get() != null) break;
+                buffer = takePartBuffer();
+                try {
+                    read = readFully(stream, buffer);
+                } catch (IOException e) {
+                    partBuffers.offer(buffer);
+                    throw e;
+                }
+                if (read == 0) {
+                    partBuffers.offer(buffer);
+                    break;
+                }
+            }
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).join();
+            if (failure.get() != null) {
+                throw new IOException("Unable to save object " + can.container + "/" + can.name, failure.get());
+            }
+
+            List<ComposeSource> sources = new ArrayList<>(parts.size());
+            for (String part : parts) {
+                sources.add(ComposeSource.builder().bucket(can.container).object(part).build());
+            }
+            client.composeObject(
+                    ComposeObjectArgs.builder()
                             .bucket(can.container)
                             .object(can.name)
-                            .stream(cis, -1, partSize)
+                            .sources(sources)
                             .headers(headers)
                             .build());
-
-            return cis.getCount();
+            log.debug("Saved {} bytes to {}/{} in {} parts", total, can.container, can.name, parts.size());
+            return total;
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
             throw new IOException("Unable to save object", e);
+        } finally {
+            // Parts still being sent finish before they are removed
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).join();
+            for (String part : parts) {
+                try {
+                    client.removeObject(RemoveObjectArgs.builder().bucket(can.container).object(part).build());
+                } catch (Exception e) {
+                    log.warn("Failed to remove part {}/{}: {}", can.container, part, e.toString());
+                }
+            }
         }
     }
 
+    private void putPart(String container, String name, byte[] body, int length, Map<String, String> headers) throws IOException {
+        Map<String, String> partHeaders = (headers == null) ? new HashMap<>() : new HashMap<>(headers);
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(body, 0, length);
+            // The store refuses the part if it does not arrive intact
+            partHeaders.put("Content-MD5", Base64.encodeBase64String(md5.digest()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            client.putObject(
+                    PutObjectArgs.builder()
+                            .bucket(container)
+                            .object(name)
+                            .stream(new ByteArrayInputStream(body, 0, length), length, -1)
+                            .headers(partHeaders)
+                            .build());
+        } catch (Exception e) {
+            throw new IOException("Unable to save object " + container + "/" + name, e);
+        }
+    }
+
+    private byte[] takePartBuffer() throws IOException {
+        byte[] buffer = partBuffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (partBuffersCreated.incrementAndGet() <= maxPartBuffers) {
+            return new byte[partSize];
+        }
+        partBuffersCreated.decrementAndGet();
+        try {
+            return partBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for an upload buffer", e);
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        return readFully(in, buffer, 0);
+    }
+
+    /**
+     * Read into the buffer from the offset until it is full or the stream ends.
+     *
+     * @return the bytes in the buffer, including the offset
+     */
+    private static int readFully(InputStream in, byte[] buffer, int offset) throws IOException {
+        int n = offset;
+        while (n < buffer.length) {
+            int read = in.read(buffer, n, buffer.length - n);
+            if (read < 0) break;
+            n += read;
+        }
+        return n;
+    }
+
     @Override
     public boolean delete(String id, String root, String filePath) {
         ContainerAndName can = getContainerAndName(id, root, filePath);
@@ -394,39 +598,6 @@ public class BlobStoreFileSystemHandler implements FileSystemHandler {
         return can;
     }
 
-    /**
-     * Simple counting InputStream.
-     */
-    private static class CountingInputStream extends FilterInputStream {
-        private long count = 0;
-
-        protected CountingInputStream(InputStream in) {
-            super(in);
-        }
-
-        @Override
-        public int read() throws IOException {
-            int b = in.read();
-            if (b != -1) {
-                count++;
-            }
-            return b;
-        }
-
-        @Override
-        public int read(byte[] b, int off, int len) throws IOException {
-            int n = in.read(b, off, len);
-            if (n != -1) {
-                count += n;
-            }
-            return n;
-        }
-
-        public long getCount() {
-            return count;
-        }
-    }
-
     private static class ContainerAndName {
         String container;
         String name;
@@ -104,6 +104,7 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Stack;
 import java.util.TimeZone;
@@ -225,6 +226,11 @@ public class DavServlet extends HttpServlet
 	 */
 	private static final int INFINITY = 3; // To limit tree browsing a bit
 
+	/**
+	 * Collection members read at a time when listing a collection
+	 */
+	private static final int MEMBER_PAGE_SIZE = 500;
+
 	/**
 	 * PROPFIND - Specify a property mask.
 	 */
@@ -1459,10 +1465,43 @@ public class DavServlet extends HttpServlet
 			{
 				return null;
 			}
-			if (log.isDebugEnabled()) log.debug("DirContextSAKAI.list getting collection members and iterator");
-			List<ContentEntity> members = collection.getMemberResources();
-			Iterator<ContentEntity> it = members.iterator();
-			return it;
+			if (log.isDebugEnabled()) log.debug("DirContextSAKAI.list getting collection members a page at a time");
+			final String collectionId = collection.getId();
+			return new Iterator<ContentEntity>()
+			{
+				private List<ContentEntity> page = Collections.emptyList();
+
+				private int next = 0;
+
+				private boolean last = false;
+
+				public boolean hasNext()
+				{
+					if (next < page.size()) return true;
+					if (last) return false;
+
+					ContentEntity after = page.isEmpty() ? null : page.get(page.size() - 1);
+					try
+					{
+						page = contentHostingService.getCollectionMembers(collectionId, null, true, after, MEMBER_PAGE_SIZE);
+					}
+					catch (IdUnusedException | TypeException | PermissionException e)
+					{
+						log.debug("DirContextSAKAI.list - unable to read the members of " + collectionId + ": " + e);
+						page = Collections.emptyList();
+					}
+					next = 0;
+					// a page is short only at the end, members that fail to parse being read past
+					last = page.size() < MEMBER_PAGE_SIZE;
+					return !page.isEmpty();
+				}
+
+				public ContentEntity next()
+				{
+					if (!hasNext()) throw new NoSuchElementException();
+					return page.get(next++);
+				}
+			};
 		}
 	}
 
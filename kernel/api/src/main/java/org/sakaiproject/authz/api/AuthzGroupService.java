@@ -23,6 +23,7 @@ package org.sakaiproject.authz.api;
 
 import java.util.Collection;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -338,6 +339,50 @@ public interface AuthzGroupService extends EntityProducer
 	 * @return true if this user is allowed to perform the function in the named AuthzGroups, false if not.
 	 */
 	boolean isAllowed(String userId, String function, Collection<String> azGroups);
+
+	/**
+	 * Test if this user is allowed to perform the function in each of these collections of AuthzGroups.
+	 * Gives the same answers as isAllowed(String, String, Collection) for each collection, with one check for them all.
+	 * 
+	 * @param userId
+	 *        The user id.
+	 * @param function
+	 *        The function to open.
+	 * @param azGroupsByKey
+	 *        For each key (such as an entity reference), the collection of AuthzGroup ids to consult.
+	 * @return The keys whose AuthzGroups allow this user to perform the function.
+	 */
+	default Set<String> isAllowedMany(String userId, String function, Map<String, Collection<String>> azGroupsByKey)
+	{
+		Set<String> rv = new HashSet<>();
+		for (Map.Entry<String, Collection<String>> entry : azGroupsByKey.entrySet())
+		{
+			if (isAllowed(userId, function, entry.getValue())) rv.add(entry.getKey());
+		}
+		return rv;
+	}
+
+	/**
+	 * Test which of these users are allowed to perform the function in the named AuthzGroups.
+	 * Gives the same answers as isAllowed(String, String, Collection) for each user, with one check for them all.
+	 * 
+	 * @param userIds
+	 *        The user ids.
+	 * @param function
+	 *        The function to open.
+	 * @param azGroups
+	 *        A collection of AuthzGroup ids to consult.
+	 * @return The ids of the users who are allowed to perform the function in the named AuthzGroups.
+	 */
+	default Set<String> isAllowedUsers(Collection<String> userIds, String function, Collection<String> azGroups)
+	{
+		Set<String> rv = new HashSet<>();
+		for (String userId : userIds)
+		{
+			if (isAllowed(userId, function, azGroups)) rv.add(userId);
+		}
+		return rv;
+	}
 	
 	/**
 	 * Encode the role id to form the dummy user id that will be used to perform role checks.
@@ -21,6 +21,8 @@
 
 package org.sakaiproject.authz.api;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -54,6 +56,26 @@ public interface GroupProvider
 	 */
 	Map<String, String> getUserRolesForGroup(String id);
 
+	/**
+	 * Access the user id - role name maps for a number of external groups at once. Providers that can read
+	 * many groups in one call to the external system should override this, by default each group is read in turn.
+	 * 
+	 * @param ids The external group ids, each possibly compound as for {@link #getUserRolesForGroup(String)}.
+	 * @return a map of the external group id as given to its user id - role name map, with an entry for every id.
+	 */
+	default Map<String, Map<String, String>> getUserRolesForGroups(Collection<String> ids)
+	{
+		Map<String, Map<String, String>> rv = new HashMap<>();
+		for (String id : ids)
+		{
+			if (!rv.containsKey(id))
+			{
+				rv.put(id, getUserRolesForGroup(id));
+			}
+		}
+		return rv;
+	}
+
 	/**
 	 * Access the external group id - role name map for this user in all external groups.
 	 * 
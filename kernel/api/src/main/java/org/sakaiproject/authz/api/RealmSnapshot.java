@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.api;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An immutable, compact copy of the roles and members of an AuthzGroup, which is what the realm cache holds
+ * and ships between the servers of a cluster. Like SimpleRole and MemberWithRoleId it only holds JDK types
+ * so it can be serialized for distribution (KNL-1184).
+ * <p>
+ * Role ids, function names and user ids are kept in sorted arrays and referred to by index, the functions of each
+ * role are a BitSet over the function names, and each member is an index into the role ids plus a bit in the
+ * active and provided sets. Role ids and function names are interned, as the same few are used by every realm.
+ */
+public final class RealmSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] roleIds;
+    private final String[] roleDescriptions;
+    private final BitSet providerOnlyRoles;
+    private final String[] functions;
+    private final BitSet[] roleFunctions;
+    private final String[] userIds;
+    private final int[] memberRoles;
+    private final BitSet activeMembers;
+    private final BitSet providedMembers;
+
+    private RealmSnapshot(Collection<? extends Role> roles, Collection<? extends Member> members) {
+        TreeMap<String, Role> rolesById = new TreeMap<>();
+        Set<String> functionNames = new TreeSet<>();
+        for (Role role : roles) {
+            rolesById.put(role.getId(), role);
+            functionNames.addAll(role.getAllowedFunctions());
+        }
+        TreeMap<String, Member> membersById = new TreeMap<>();
+        for (Member member : members) {
+            if (member.getUserId() == null || member.getRole() == null) continue;
+            // a member whose role the realm does not define is dropped, as when the realm is read from the db
+            if (!rolesById.containsKey(member.getRole().getId())) continue;
+            membersById.put(member.getUserId(), member);
+        }
+
+        functions = intern(functionNames.toArray(new String[0]));
+        roleIds = intern(rolesById.keySet().toArray(new String[0]));
+        roleDescriptions = new String[roleIds.length];
+        providerOnlyRoles = new BitSet(roleIds.length);
+        roleFunctions = new BitSet[roleIds.length];
+        for (int i = 0; i < roleIds.length; i++) {
+            Role role = rolesById.get(roleIds[i]);
+            roleFunctions[i] = new BitSet(functions.length);
+            roleDescriptions[i] = role.getDescription();
+            providerOnlyRoles.set(i, role.isProviderOnly());
+            for (String function : role.getAllowedFunctions()) {
+                roleFunctions[i].set(Arrays.binarySearch(functions, function));
+            }
+        }
+
+        userIds = membersById.keySet().toArray(new String[0]);
+        memberRoles = new int[userIds.length];
+        activeMembers = new BitSet(userIds.length);
+        providedMembers = new BitSet(userIds.length);
+        for (int i = 0; i < userIds.length; i++) {
+            Member member = membersById.get(userIds[i]);
+            memberRoles[i] = Arrays.binarySearch(roleIds, member.getRole().getId());
+            activeMembers.set(i, member.isActive());
+            providedMembers.set(i, member.isProvided());
+        }
+    }
+
+    /**
+     * Make a snapshot of the roles and members of a realm.
+     *
+     * @param roles the roles of the realm
+     * @param members the members of the realm
+     * @return the snapshot
+     */
+    public static RealmSnapshot of(Collection<? extends Role> roles, Collection<? extends Member> members) {
+        return new RealmSnapshot(roles, members);
+    }
+
+    /**
+     * @return the number of roles, roles are numbered from 0 in role id order
+     */
+    public int getRoleCount() {
+        return roleIds.length;
+    }
+
+    public String getRoleId(int role) {
+        return roleIds[role];
+    }
+
+    public String getRoleDescription(int role) {
+        return roleDescriptions[role];
+    }
+
+    public boolean isRoleProviderOnly(int role) {
+        return providerOnlyRoles.get(role);
+    }
+
+    /**
+     * @param role the role number
+     * @return a new set of the functions the role allows
+     */
+    public Set<String> getRoleFunctions(int role) {
+        Set<String> rv = new HashSet<>();
+        BitSet allowed = roleFunctions[role];
+        for (int f = allowed.nextSetBit(0); f >= 0; f = allowed.nextSetBit(f + 1)) {
+            rv.add(functions[f]);
+        }
+        return rv;
+    }
+
+    /**
+     * @return the number of members, members are numbered from 0 in user id order
+     */
+    public int getMemberCount() {
+        return userIds.length;
+    }
+
+    public String getMemberUserId(int member) {
+        return userIds[member];
+    }
+
+    /**
+     * @param member the member number
+     * @return the number of the member's role
+     */
+    public int getMemberRole(int member) {
+        return memberRoles[member];
+    }
+
+    public boolean isMemberActive(int member) {
+        return activeMembers.get(member);
+    }
+
+    public boolean isMemberProvided(int member) {
+        return providedMembers.get(member);
+    }
+
+    /**
+     * Is this user an active member with a role that allows the function?
+     *
+     * @param userId the user id
+     * @param function the function
+     * @return true if the user's role grant allows the function, false if not
+     */
+    public boolean isMemberAllowed(String userId, String function) {
+        int member = findMember(userId);
+        int f = findFunction(function);
+        return member >= 0 && f >= 0 && activeMembers.get(member) && roleFunctions[memberRoles[member]].get(f);
+    }
+
+    /**
+     * Does this role allow the function?
+     *
+     * @param roleId the role id
+     * @param function the function
+     * @return true if the realm has the role and it allows the function, false if not
+     */
+    public boolean isRoleAllowed(String roleId, String function) {
+        int role = (roleId == null) ? -1 : Arrays.binarySearch(roleIds, roleId);
+        int f = findFunction(function);
+        return role >= 0 && f >= 0 && roleFunctions[role].get(f);
+    }
+
+    /**
+     * Is this user an active member with this role?
+     *
+     * @param userId the user id
+     * @param roleId the role id
+     * @return true if the user has the role, false if not
+     */
+    public boolean hasRole(String userId, String roleId) {
+        int member = findMember(userId);
+        return member >= 0 && activeMembers.get(member) && roleIds[memberRoles[member]].equals(roleId);
+    }
+
+    private int findMember(String userId) {
+        return (userId == null) ? -1 : Arrays.binarySearch(userIds, userId);
+    }
+
+    private int findFunction(String function) {
+        return (function == null) ? -1 : Arrays.binarySearch(functions, function);
+    }
+
+    private static String[] intern(String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = values[i].intern();
+        }
+        return values;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // strings arrive as new copies from other servers
+        intern(roleIds);
+        intern(functions);
+    }
+}
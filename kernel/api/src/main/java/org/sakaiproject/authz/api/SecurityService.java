@@ -22,7 +22,9 @@
 package org.sakaiproject.authz.api;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.sakaiproject.exception.IdUnusedException;
 import org.sakaiproject.exception.SakaiException;
@@ -102,6 +104,52 @@ public interface SecurityService
 	 */
 	List<User> unlockUsers(String lock, String reference);
 
+	/**
+	 * Which of these resources can the specified user id unlock the lock for?
+	 * Gives the same answers as calling unlock(userId, lock, reference) for each reference,
+	 * but works out all the answers that are not cached with one query.
+	 * 
+	 * @param userId
+	 *        The user id.
+	 * @param lock
+	 *        The lock id string.
+	 * @param references
+	 *        The resource reference strings.
+	 * @return The references the user can unlock the lock for (may be empty).
+	 */
+	default Set<String> unlockMany(String userId, String lock, Collection<String> references)
+	{
+		Set<String> rv = new HashSet<>();
+		for (String reference : references)
+		{
+			if (unlock(userId, lock, reference)) rv.add(reference);
+		}
+		return rv;
+	}
+
+	/**
+	 * Which of these user ids can unlock the lock for use with this resource?
+	 * Gives the same answers as calling unlock(userId, lock, reference) for each user id,
+	 * but works out all the answers that are not cached with one query.
+	 * 
+	 * @param lock
+	 *        The lock id string.
+	 * @param reference
+	 *        The resource reference string.
+	 * @param userIds
+	 *        The user ids.
+	 * @return The ids of the users who can unlock the lock (may be empty).
+	 */
+	default Set<String> unlockUsersMany(String lock, String reference, Collection<String> userIds)
+	{
+		Set<String> rv = new HashSet<>();
+		for (String userId : userIds)
+		{
+			if (unlock(userId, lock, reference)) rv.add(userId);
+		}
+		return rv;
+	}
+
 	/**
 	 * Is this a super special super (admin) user?
 	 * 
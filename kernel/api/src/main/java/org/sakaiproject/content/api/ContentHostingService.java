@@ -504,6 +504,34 @@ public interface ContentHostingService extends EntityProducer
 	 */
 	public List<ContentResource> getAllResources(String id);
 
+	/**
+	 * Access a page of the members of a collection, its collections first and then its resources, read from storage a page at a
+	 * time rather than all at once. Pass the last member of a page to get the page after it.
+	 * 
+	 * @param id
+	 *        The id of the collection.
+	 * @param sortProperty
+	 *        null to order the members by id, or ResourceProperties.PROP_CONTENT_LENGTH to order the resources by size.
+	 *        Collections are always in id order. Members cannot be ordered by their display name.
+	 * @param ascending
+	 *        true for ascending order, false for descending.
+	 * @param after
+	 *        The last member of the previous page, or null for the first page.
+	 * @param pageSize
+	 *        The most members to return, no more than MAXIMUM_PAGE_SIZE.
+	 * @exception IdUnusedException
+	 *            if the id does not exist.
+	 * @exception TypeException
+	 *            if the resource exists but is not a collection.
+	 * @exception PermissionException
+	 *            if the user does not have permissions to see this collection (or read through containing collections).
+	 * @exception IllegalArgumentException
+	 *            if the members cannot be sorted by the property.
+	 * @return The members, fewer than pageSize only on the last page. Members that cannot be read are skipped without shortening a page.
+	 */
+	public List<ContentEntity> getCollectionMembers(String id, String sortProperty, boolean ascending, ContentEntity after, int pageSize)
+			throws IdUnusedException, TypeException, PermissionException;
+
 	/**
 	 * Access a List of all the deleted ContentResource objects in this path (and below) which the current user has access.
 	 * 
@@ -29,6 +29,12 @@ public interface FileConversionService {
             , ContentHostingService.PPT_MIMETYPE
             , ContentHostingService.PPTX_MIMETYPE);
 
+    /** The priority of a conversion somebody is waiting for, converted ahead of any back-fill. */
+    public static final int PRIORITY_INTERACTIVE = 0;
+
+    /** The priority of a conversion nobody is waiting for yet, like a back-fill of existing files. */
+    public static final int PRIORITY_BULK = 10;
+
     /**
      * Can this service convert from this type to PDF? If the service is not enabled, this
      * will always return false. Otherwise it'll check against the configured list of supported
@@ -46,6 +52,15 @@ public interface FileConversionService {
      */
     void submit(String ref);
 
+    /**
+     * Queue the conversion at a priority. Lower priorities are converted first and, within a priority,
+     * each site with conversions waiting takes its turn. submit(ref) queues at PRIORITY_INTERACTIVE.
+     *
+     * @param ref The content ref we want to convert
+     * @param priority PRIORITY_INTERACTIVE, PRIORITY_BULK or a value between
+     */
+    void submit(String ref, int priority);
+
     /**
      * Start the queue processing threads. If the service isn't enabled, nothing will happen.
      */
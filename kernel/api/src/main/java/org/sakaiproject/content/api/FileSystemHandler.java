@@ -15,6 +15,7 @@
  */
 package org.sakaiproject.content.api;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -67,4 +68,16 @@ public interface FileSystemHandler {
      * @return If the path was deleted.
      */
     public boolean delete(String id, String root, String filePath);
+
+    /**
+     * Retrieve the file on local disk holding the asset, so it can be sent without being copied through the JVM.
+     * 
+     * @param id The id of the resource. Will not be null or empty.
+     * @param root The root of the storage. Could be null or empty.
+     * @param filePath The path to the file. Will not be null or empty.
+     * @return The readable local file, or null if the asset is not held in a local file.
+     */
+    default File getLocalFile(String id, String root, String filePath) {
+        return null;
+    }
 }
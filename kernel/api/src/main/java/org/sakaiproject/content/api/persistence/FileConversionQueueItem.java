@@ -40,7 +40,8 @@ import lombok.EqualsAndHashCode;
 @Entity
 @EqualsAndHashCode(onlyExplicitlyIncluded = true)
 @Table(name = "FILE_CONVERSION_QUEUE", indexes = {
-        @Index(name = "IDX_FCI_STATUS", columnList = "STATUS")
+        @Index(name = "IDX_FCI_STATUS", columnList = "STATUS"),
+        @Index(name = "IDX_FCI_STATUS_SITE", columnList = "STATUS, SITE_ID, PRIORITY, SUBMITTED")
 })
 public class FileConversionQueueItem implements PersistableEntity<Long> {
 
@@ -65,10 +66,31 @@ public class FileConversionQueueItem implements PersistableEntity<Long> {
     @Type(type = "org.hibernate.type.InstantType")
     private Instant lastAttemptStarted;
 
+    /** Lower is converted first, see FileConversionService.PRIORITY_INTERACTIVE and PRIORITY_BULK */
+    @Column(name = "PRIORITY")
+    private Integer priority;
+
+    /** The site the preview is added to, each site waiting gets its turn */
+    @Column(name = "SITE_ID", length = 99)
+    private String siteId;
+
+    @Column(name = "SUBMITTED")
+    @Type(type = "org.hibernate.type.InstantType")
+    private Instant submitted;
+
+    /** The server instance converting this item while IN_PROGRESS */
+    @Column(name = "LEASE_OWNER", length = 255)
+    private String leaseOwner;
+
+    /** When an IN_PROGRESS item may be claimed again, as its server has gone */
+    @Column(name = "LEASE_EXPIRES")
+    @Type(type = "org.hibernate.type.InstantType")
+    private Instant leaseExpires;
+
     /**
      * NOT_STARTED = first time around, or a retry
      * FAILED = max attemptes reached, give up.
-     * IN_PROGRESS = A worker is in the process of sending this to the converter
+     * IN_PROGRESS = A worker is in the process of sending this to the converter, until its lease expires
      */
     public enum Status {
         NOT_STARTED,
@@ -15,6 +15,7 @@
  */
 package org.sakaiproject.content.api.persistence;
 
+import java.time.Instant;
 import java.util.List;
 
 import org.sakaiproject.springframework.data.SpringCrudRepository;
@@ -23,4 +24,49 @@ public interface FileConversionServiceRepository extends SpringCrudRepository<Fi
 
     List<FileConversionQueueItem> findByStatus(FileConversionQueueItem.Status status);
     List<FileConversionQueueItem> findByReference(String reference);
+
+    /**
+     * The next item to convert for each of the sites with items waiting, the sites with the most urgent and then the
+     * oldest item first. An item is waiting if it is NOT_STARTED, or IN_PROGRESS with its lease expired.
+     *
+     * @param now the time leases are checked against
+     * @param limit the most sites to return an item for
+     */
+    List<FileConversionQueueItem> findNextPerSite(Instant now, int limit);
+
+    /**
+     * Claim an item for conversion, marking it IN_PROGRESS with a lease held by the owner. Only one server can
+     * claim a waiting item.
+     *
+     * @return true if the item was claimed, false if it was claimed elsewhere or is gone
+     */
+    boolean claim(Long id, String owner, Instant now, Instant leaseExpires);
+
+    /**
+     * Release an item the owner claimed, with the status given and no lease, so it can be tried again or is given
+     * up on. An item whose lease ran out and was claimed by another server is left to that server.
+     *
+     * @return true if the item was released, false if the owner no longer holds it
+     */
+    boolean release(Long id, String owner, FileConversionQueueItem.Status status);
+
+    /**
+     * Remove an item the owner claimed, once it is done with. An item whose lease ran out and was claimed by another
+     * server is left to that server.
+     *
+     * @return true if the item was removed, false if the owner no longer holds it
+     */
+    boolean deleteClaimed(Long id, String owner);
+
+    /**
+     * @param now the time leases are checked against
+     * @return the number of items waiting, NOT_STARTED or IN_PROGRESS with the lease expired
+     */
+    long countWaiting(Instant now);
+
+    /**
+     * @param now the time leases are checked against
+     * @return when the oldest item waiting was submitted, or null if there are none
+     */
+    Instant findOldestWaiting(Instant now);
 }
@@ -26,6 +26,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.sakaiproject.exception.ServerOverloadException;
 
@@ -121,6 +122,54 @@ public interface SqlService
 	 */
 	<T> List<T> dbRead(Connection conn, String sql, Object[] fields, SqlReader<T> reader);
 
+	/**
+	 * Process a query, filling in with fields, and hand each record read to the consumer as it is read, rather than collecting them all in a List. Records the reader
+	 * returns as null are skipped, and the reader may end the read early by throwing SqlReaderFinishedException. The rows are fetched from the db the default
+	 * streaming fetch size at a time, so large reads run in constant memory where the driver supports it.
+	 * 
+	 * @param sql
+	 *        The sql statement.
+	 * @param fields
+	 *        The array of fields for parameters.
+	 * @param reader
+	 *        The reader object to read each record.
+	 * @param consumer
+	 *        Given each object read, in order.
+	 * @param <T>
+	 *        The type of objects being returned by the SqlReader.
+	 */
+	default <T> void dbReadEach(String sql, Object[] fields, SqlReader<T> reader, Consumer<? super T> consumer)
+	{
+		dbReadEach(null, sql, fields, 0, reader, consumer);
+	}
+
+	/**
+	 * Process a query, filling in with fields, and hand each record read to the consumer as it is read, rather than collecting them all in a List. Records the reader
+	 * returns as null are skipped, and the reader may end the read early by throwing SqlReaderFinishedException.
+	 * <p>
+	 * Unlike dbRead, a connection borrowed for the read is not made the thread's transaction connection, so the consumer may run other queries while the read is open.
+	 * </p>
+	 * 
+	 * @param conn
+	 *        The db connection object to use, or null to use the transaction connection or borrow one.
+	 * @param sql
+	 *        The sql statement.
+	 * @param fields
+	 *        The array of fields for parameters.
+	 * @param fetchSize
+	 *        The number of rows to fetch from the db at a time, 0 for the default streaming fetch size.
+	 * @param reader
+	 *        The reader object to read each record.
+	 * @param consumer
+	 *        Given each object read, in order.
+	 * @param <T>
+	 *        The type of objects being returned by the SqlReader.
+	 */
+	default <T> void dbReadEach(Connection conn, String sql, Object[] fields, int fetchSize, SqlReader<T> reader, Consumer<? super T> consumer)
+	{
+		dbRead(conn, sql, fields, reader).forEach(consumer);
+	}
+
 	/**
 	 * Read a single field from the db, from multiple record - concatenating the binary values into value.
 	 * 
@@ -270,6 +319,23 @@ public interface SqlService
 	 */
 	boolean dbWriteBatch(Connection connection, String sql, List<Object[]> fieldsList);
 
+	/**
+	 * Execute the "insert" sql in a batch, returning the auto-update field Long values, one per inserted record.
+	 * This is the batch analog of {@link #dbInsert(Connection, String, Object[], String)}, executing the whole batch in one prepared statement.
+	 *
+	 * @param connection
+	 *        The connection to use.
+	 * @param sql
+	 *        The sql statement.
+	 * @param fieldsList
+	 *        The List of array of fields for parameters.
+	 * @param autoColumn
+	 *        The name of the db column that will have auto-update.
+	 * @return The auto-update values in the order of fieldsList (empty if the driver does not report generated keys for batches),
+	 *         or null if the batch failed.
+	 */
+	List<Long> dbInsertBatch(Connection connection, String sql, List<Object[]> fieldsList, String autoColumn);
+
 	/**
 	 * Execute the "write" sql - no response, using a set of fields from an array and a given connection logging no errors on failure.
 	 * 
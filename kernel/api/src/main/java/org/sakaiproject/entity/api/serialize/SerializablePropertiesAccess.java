@@ -22,6 +22,7 @@
 package org.sakaiproject.entity.api.serialize;
 
 import java.util.Map;
+import java.util.function.Supplier;
 
 
 /**
@@ -42,4 +43,14 @@ public interface SerializablePropertiesAccess
 	 */
 	void setSerializableProperties(Map<String, Object> properties);
 
+	/**
+	 * Set the properties from a decoder that may be left until the properties are first used,
+	 * so that entities read only for their other fields never decode their properties.
+	 * @param decoder supplies the decoded properties
+	 */
+	default void setSerializableProperties(Supplier<Map<String, Object>> decoder)
+	{
+		setSerializableProperties(decoder.get());
+	}
+
 }
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.site.api;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A user's membership of a site, as held in the index of the sites each user belongs to.
+ * It carries enough of the site to list it without reading the site itself.
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class SiteMembership implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String siteId;
+
+    private final String title;
+
+    private final String type;
+
+    /** The site's term property, null if it has none */
+    private final String term;
+
+    /** The user's role in the site, null if not known */
+    private final String role;
+
+    private final boolean published;
+
+    /** Set if the user may update the site */
+    private final boolean maintainer;
+
+    /** When the user last visited the site in ms, 0 if they have not since the index was built */
+    private final long lastVisited;
+
+    /**
+     * @return this membership visited at another time
+     */
+    public SiteMembership withLastVisited(long lastVisited) {
+        return new SiteMembership(siteId, title, type, term, role, published, maintainer, lastVisited);
+    }
+}
@@ -1109,6 +1109,27 @@ public interface SiteService extends EntityProducer
 	 */
 	List<Site> getUserSites(boolean requireDescription, String userID, boolean includeUnpublishedSites, List excludedSites);
 
+	/**
+	 * Access the sites a user belongs to from the index of each user's sites, without reading the sites themselves.
+	 * The index is kept up to date as sites and their memberships change. User sites, special sites and softly deleted
+	 * sites are left out, unpublished sites are included.
+	 * 
+	 * @param userId
+	 *        The user id.
+	 * @return The user's site memberships, in title order, empty if none.
+	 */
+	List<SiteMembership> getUserSiteMemberships(String userId);
+
+	/**
+	 * Record in the index of a user's sites that they just visited a site.
+	 * 
+	 * @param userId
+	 *        The user id.
+	 * @param siteId
+	 *        The id of the site visited.
+	 */
+	void setUserSiteVisited(String userId, String siteId);
+
 	/**
 	 * Access a list of Site objects that meet specified criteria.
 	 * NOTE: The sites returned may not have child objects loaded. If these sites need to be saved
@@ -1291,6 +1312,23 @@ public interface SiteService extends EntityProducer
 	 */
 	void setSiteSecurity(String siteId, Set<String> updateUsers, Set<String> visitUnpUsers, Set<String> visitUsers);
 
+	/**
+	 * Establish the internal security for some of the users of this site, leaving the security of the other users as it is.
+	 * Only the rows of users whose access changed are written, so this suits small changes to large sites.
+	 * 
+	 * @param siteId
+	 *        The id of the site.
+	 * @param userIds
+	 *        The set of String User Ids whose access is being set, any not in one of the other sets lose their access.
+	 * @param updateUsers
+	 *        The set of String User Ids, of those, who have update access.
+	 * @param visitUnpUsers
+	 *        The set of String User Ids, of those, who have visit unpublished access.
+	 * @param visitUsers
+	 *        The set of String User Ids, of those, who have visit access.
+	 */
+	void setSiteSecurityForUsers(String siteId, Set<String> userIds, Set<String> updateUsers, Set<String> visitUnpUsers, Set<String> visitUsers);
+
 	/**
 	 * Establish the internal security for user for all sites. Previous security settings are replaced for this user. Assigning a user with update implies the two reads; assigning a user with unp read implies the other read.
 	 * 
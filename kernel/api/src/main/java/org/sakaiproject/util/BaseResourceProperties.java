@@ -21,6 +21,8 @@
 
 package org.sakaiproject.util;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Date;
@@ -32,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Stack;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.StringUtils;
 import org.sakaiproject.component.cover.ComponentManager;
@@ -73,6 +76,9 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	/** If the full properties have not yet been read. */
 	protected transient boolean m_lazy = false;
 
+	/** Decodes the properties on first use, when they were set lazily, else null. */
+	private transient volatile Supplier<Map<String, Object>> m_decoder = null;
+
 	/**
 	 * Construct.
 	 */
@@ -128,13 +134,13 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 				if ("list".equals(element.getAttribute("list")))
 				{
 					// accumulate multiple values in a list
-					Object current = m_props.get(name);
+					Object current = props().get(name);
 
 					// if we don't have a value yet, make a list to hold this one
 					if (current == null)
 					{
 						List<String> values = new ArrayList<>();
-						m_props.put(name, values);
+						props().put(name, values);
 						values.add(value);
 					}
 
@@ -152,7 +158,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 				}
 				else
 				{
-					m_props.put(name, value);
+					props().put(name, value);
 				}
 			}
 		}
@@ -172,11 +178,11 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	{
 		Element properties = doc.createElement("properties");
 		((Element) stack.peek()).appendChild(properties);
-		Enumeration props = m_props.keys();
+		Enumeration props = props().keys();
 		while (props.hasMoreElements())
 		{
 			String name = (String) props.nextElement();
-			Object value = m_props.get(name);
+			Object value = props().get(name);
 			if (value instanceof String)
 			{
 				Element propElement = doc.createElement("property");
@@ -229,24 +235,24 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public Iterator<String> getPropertyNames()
 	{
-		if (m_props.size() == 0)
+		if (props().size() == 0)
 		{
 			return new EmptyIterator();
 		}
 
-		return new EnumerationIterator(m_props.keys());
+		return new EnumerationIterator(props().keys());
 	}
 
 	@Override
 	public int size()
 	{
-		return m_props.size();
+		return props().size();
 	}
 
 	@Override
 	public boolean isEmpty()
 	{
-		return m_props.isEmpty();
+		return props().isEmpty();
 	}
 
 	/**
@@ -259,7 +265,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public String getProperty(String name)
 	{
-		Object value = m_props.get(name);
+		Object value = props().get(name);
 		if (value instanceof String) return (String) value;
 
 		return null;
@@ -271,7 +277,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public Object get(String name)
 	{
-		return m_props.get(name);
+		return props().get(name);
 	}
 
 	/**
@@ -284,7 +290,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public List<String> getPropertyList(String name)
 	{
-		Object value = m_props.get(name);
+		Object value = props().get(name);
 		if (value == null) return null;
 
 		if (value instanceof String)
@@ -334,7 +340,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public String getPropertyFormatted(String name)
 	{
-		Object value = m_props.get(name);
+		Object value = props().get(name);
 
 		// if missing, return blank
 		if (value == null) return "";
@@ -917,7 +923,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 		// protect against a null put
 		if (value == null) value = "";
 
-		m_props.put(name, value);
+		props().put(name, value);
 	}
 
 	/**
@@ -935,13 +941,13 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 		if (value == null) value = "";
 
 		// accumulate multiple values in a list
-		Object current = m_props.get(name);
+		Object current = props().get(name);
 
 		// if we don't have a value yet, make a list to hold this one
 		if (current == null)
 		{
 			List values = new ArrayList<>();
-			m_props.put(name, values);
+			props().put(name, values);
 			values.add(value);
 		}
 
@@ -979,7 +985,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 				// Strings are immutable so can be placed directly in
 				if (value instanceof String)
 				{
-					m_props.put(name, value);
+					props().put(name, value);
 				}
 				
 				// deep copy the list
@@ -987,7 +993,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 				{
 					List list = new ArrayList<>();
 					list.addAll((List) value);
-					m_props.put(name, list);					
+					props().put(name, list);					
 				}
 			}
 		}
@@ -1011,11 +1017,11 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 			{
 				List list = new ArrayList<>();
 				list.addAll((List) value);
-				m_props.put(name, list);
+				props().put(name, list);
 			}
 			else
 			{
-				m_props.put(name, value);
+				props().put(name, value);
 			}
 		}
 	}
@@ -1026,7 +1032,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public void clear()
 	{
-		m_props.clear();
+		props().clear();
 	}
 
 	/**
@@ -1038,7 +1044,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public void removeProperty(String name)
 	{
-		m_props.remove(name);
+		props().remove(name);
 	}
 
 	/**
@@ -1097,14 +1103,14 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 					if ("list".equals(attributes.getValue("list")))
 					{
 						// accumulate multiple values in a list
-						Object current = m_props.get(name);
+						Object current = props().get(name);
 
 						// if we don't have a value yet, make a list to hold
 						// this one
 						if (current == null)
 						{
 							List values = new ArrayList<>();
-							m_props.put(name, values);
+							props().put(name, values);
 							values.add(value);
 						}
 
@@ -1122,7 +1128,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 					}
 					else
 					{
-						m_props.put(name, value);
+						props().put(name, value);
 					}
 				}
 			}
@@ -1130,6 +1136,41 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 		};
 	}
 
+	/**
+	 * Access the properties, decoding them first if they were set lazily.
+	 * The decoder is only dropped once it has succeeded, so properties that cannot be decoded
+	 * fail every access (and so every save) rather than reading as empty.
+	 * 
+	 * @return the hashtable of properties.
+	 * @throws IllegalStateException
+	 *         if the lazily set properties cannot be decoded.
+	 */
+	protected Hashtable<String, Object> props()
+	{
+		if (m_decoder != null)
+		{
+			synchronized (this)
+			{
+				Supplier<Map<String, Object>> decoder = m_decoder;
+				if (decoder != null)
+				{
+					Map<String, Object> decoded;
+					try
+					{
+						decoded = decoder.get();
+					}
+					catch (RuntimeException e)
+					{
+						throw new IllegalStateException("Failed to decode properties", e);
+					}
+					m_props.putAll(decoded);
+					m_decoder = null;
+				}
+			}
+		}
+		return m_props;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.entity.api.SerializableProperties#getSerializableProperties()
 	 */
@@ -1137,7 +1178,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	public Map<String, Object> getSerializableProperties()
 	{
 		Map<String, Object>  m = new HashMap<String, Object>();
-		m.putAll(m_props);
+		m.putAll(props());
 		return m;
 	}
 
@@ -1145,10 +1186,27 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	 * @see org.sakaiproject.entity.api.SerializableProperties#setSerializableProperties(java.util.Map)
 	 */
 	@Override
-	public void setSerializableProperties(Map<String, Object> properties)
+	public synchronized void setSerializableProperties(Map<String, Object> properties)
 	{
+		m_decoder = null;
 		m_props.clear();
 		m_props.putAll(properties);
 		
 	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.entity.api.serialize.SerializablePropertiesAccess#setSerializableProperties(java.util.function.Supplier)
+	 */
+	@Override
+	public synchronized void setSerializableProperties(Supplier<Map<String, Object>> decoder)
+	{
+		m_props.clear();
+		m_decoder = decoder;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		props();
+		out.defaultWriteObject();
+	}
 }
@@ -658,30 +658,26 @@ public abstract class DbAliasService extends BaseAliasService
 
 		public List getAll(String target)
 		{
-			List all = super.getAllResources();
-
-			// pick out from all those that are for this target
+			// pick out those that are for this target as all are read
 			List found = new Vector();
-			for (Iterator iAll = all.iterator(); iAll.hasNext();)
+			super.forEachResource(alias ->
 			{
-				BaseAliasEdit a = (BaseAliasEdit) iAll.next();
+				BaseAliasEdit a = (BaseAliasEdit) alias;
 				if (a.getTarget().equals(target)) found.add(a);
-			}
+			});
 
 			return found;
 		}
 
 		public List getAll(String target, int first, int last)
 		{
-			List all = super.getAllResources();
-
-			// pick out from all those that are for this target
+			// pick out those that are for this target as all are read
 			List found = new Vector();
-			for (Iterator iAll = all.iterator(); iAll.hasNext();)
+			super.forEachResource(alias ->
 			{
-				BaseAliasEdit a = (BaseAliasEdit) iAll.next();
+				BaseAliasEdit a = (BaseAliasEdit) alias;
 				if (a.getTarget().equals(target)) found.add(a);
-			}
+			});
 
 			// sort for position check
 			Collections.sort(found);
@@ -690,9 +686,7 @@ public abstract class DbAliasService extends BaseAliasService
 			if (first < 1) first = 1;
 			if (last >= found.size()) last = found.size();
 
-			found = found.subList(first - 1, last);
-
-			return found;
+			return found.subList(first - 1, last);
 		}
 
 		/**
@@ -708,17 +702,15 @@ public abstract class DbAliasService extends BaseAliasService
 		 */
 		public List search(String criteria, int first, int last)
 		{
-			List all = super.getAllResources();
-
 			List rv = new Vector();
-			for (Iterator i = all.iterator(); i.hasNext();)
+			super.forEachResource(alias ->
 			{
-				Alias a = (Alias) i.next();
+				Alias a = (Alias) alias;
 				if (StringUtil.containsIgnoreCase(a.getId(), criteria) || StringUtil.containsIgnoreCase(a.getTarget(), criteria))
 				{
 					rv.add(a);
 				}
-			}
+			});
 
 			Collections.sort(rv);
 
@@ -726,9 +718,7 @@ public abstract class DbAliasService extends BaseAliasService
 			if (first < 1) first = 1;
 			if (last >= rv.size()) last = rv.size();
 
-			rv = rv.subList(first - 1, last);
-
-			return rv;
+			return rv.subList(first - 1, last);
 		}
 
 		/**
@@ -740,19 +730,18 @@ public abstract class DbAliasService extends BaseAliasService
 		 */
 		public int countSearch(String criteria)
 		{
-			List all = super.getAllResources();
-
-			Vector rv = new Vector();
-			for (Iterator i = all.iterator(); i.hasNext();)
+			// count as the aliases stream by rather than collecting them
+			final int[] count = new int[1];
+			super.forEachResource(alias ->
 			{
-				Alias a = (Alias) i.next();
+				Alias a = (Alias) alias;
 				if (StringUtil.containsIgnoreCase(a.getId(), criteria) || StringUtil.containsIgnoreCase(a.getTarget(), criteria))
 				{
-					rv.add(a);
+					count[0]++;
 				}
-			}
+			});
 
-			return rv.size();
+			return count[0];
 		}
 
 		/**
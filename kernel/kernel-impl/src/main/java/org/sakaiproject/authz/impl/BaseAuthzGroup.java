@@ -39,6 +39,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.sakaiproject.authz.api.AuthzGroup;
 import org.sakaiproject.authz.api.AuthzGroupService;
 import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.RealmSnapshot;
 import org.sakaiproject.authz.api.Role;
 import org.sakaiproject.authz.api.RoleAlreadyDefinedException;
 import org.sakaiproject.authz.impl.DbAuthzGroupService.DbStorage.RealmLock;
@@ -771,7 +772,21 @@ public class BaseAuthzGroup implements AuthzGroup
 	 */
 	public boolean isAllowed(String user, String lock)
 	{
-		if (m_lazy) baseAuthzGroupService.m_storage.completeGet(this);
+		if (m_lazy)
+		{
+			// a realm not yet loaded can be checked against its cached snapshot
+			RealmSnapshot snapshot = baseAuthzGroupService.m_storage.getRealmSnapshot(getId());
+			if (snapshot != null)
+			{
+				if (snapshot.isMemberAllowed(user, lock)) return true;
+				for (String userRole : baseAuthzGroupService.getEmptyRoles(user))
+				{
+					if (snapshot.isRoleAllowed(userRole, lock)) return true;
+				}
+				return false;
+			}
+			baseAuthzGroupService.m_storage.completeGet(this);
+		}
 
 		// consider a role granted
 		BaseMember grant = (BaseMember) m_userGrants.get(user);
@@ -798,7 +813,12 @@ public class BaseAuthzGroup implements AuthzGroup
 	 */
 	public boolean hasRole(String user, String role)
 	{
-		if (m_lazy) baseAuthzGroupService.m_storage.completeGet(this);
+		if (m_lazy)
+		{
+			RealmSnapshot snapshot = baseAuthzGroupService.m_storage.getRealmSnapshot(getId());
+			if (snapshot != null) return snapshot.hasRole(user, role);
+			baseAuthzGroupService.m_storage.completeGet(this);
+		}
 
 		BaseMember grant = (BaseMember) m_userGrants.get(user);
 		if ((grant != null) && (grant.active) && (grant.role.getId().equals(role))) return true;
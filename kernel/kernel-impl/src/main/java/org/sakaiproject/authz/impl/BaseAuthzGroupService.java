@@ -29,6 +29,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.Stack;
 import java.util.UUID;
@@ -47,6 +48,8 @@ import org.sakaiproject.authz.api.GroupFullException;
 import org.sakaiproject.authz.api.GroupIdInvalidException;
 import org.sakaiproject.authz.api.GroupNotDefinedException;
 import org.sakaiproject.authz.api.GroupProvider;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.RealmSnapshot;
 import org.sakaiproject.authz.api.Role;
 import org.sakaiproject.authz.api.RoleAlreadyDefinedException;
 import org.sakaiproject.authz.api.RoleProvider;
@@ -675,18 +678,35 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		Set<String> existingUsers = existingAuthzGroup.getUsers();
 		Set<String> updatedUsers = updatedAuthzGroup.getUsers();
 
-		Set<String> removedUsers
+		// the users removed, added or with a changed role or active state
+		Set<String> changedUsers
 			= existingUsers.stream().filter(eu -> !updatedUsers.contains(eu)).collect(Collectors.toSet());
+		for (String userId : updatedUsers) {
+			Member existing = existingAuthzGroup.getMember(userId);
+			Member updated = updatedAuthzGroup.getMember(userId);
+			if (existing == null || updated == null || existing.isActive() != updated.isActive()
+					|| !Objects.equals(existing.getRole() == null ? null : existing.getRole().getId(), updated.getRole() == null ? null : updated.getRole().getId())) {
+				changedUsers.add(userId);
+			}
+		}
 		try {
-			((SakaiSecurity) securityService()).notifyMembersRemovedFromRealm(removedUsers, existingAuthzGroup.getReference());
+			((SakaiSecurity) securityService()).notifyRealmMembersChanged(changedUsers, existingAuthzGroup.getReference());
 		} catch (Exception e) {
-			log.warn("Failure while trying to notify SS about realm removal for AZG("
+			log.warn("Failure while trying to notify SS about member changes for AZG("
 						+ existingAuthzGroup.getId() + "): " + e, e);
 		}
 
 		completeSave(updatedAuthzGroup);
 	}
 
+	private void notifyRealmMemberChanged(AuthzGroup azGroup, String userId) {
+		try {
+			((SakaiSecurity) securityService()).notifyRealmMembersChanged(Collections.singleton(userId), azGroup.getReference());
+		} catch (Exception e) {
+			log.warn("Failure while trying to notify SS about member changes for AZG(" + azGroup.getId() + "): " + e, e);
+		}
+	}
+
 	/**
 	 * Complete the saving of the group, once id and security checks have been cleared.
 	 * 
@@ -775,6 +795,7 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		
 		// add user to the azGroup
 		m_storage.addNewUser(azGroup, userId, roleId, maxSize);
+		notifyRealmMemberChanged(azGroup, userId);
 
 		// track it
 		// KNL-523 set the event
@@ -785,9 +806,9 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		// close the azGroup object
 		((BaseAuthzGroup) azGroup).closeEdit();
 
-		// update the db with latest provider, and site security with the latest changes, using the updated azGroup
+		// update the db with latest provider, and site security with the latest changes for just this user, using the updated azGroup
 		BaseAuthzGroup updatedRealm = (BaseAuthzGroup) m_storage.get(azGroup.getId());
-		updateSiteSecurity(updatedRealm);
+		updateSiteSecurity(updatedRealm, Collections.singleton(userId));
 
 		// clear the event for next time
 		((BaseAuthzGroup) azGroup).setEvent(null);
@@ -820,6 +841,7 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		}
 		// remove user from the azGroup
 		m_storage.removeUser(azGroup, userId);
+		notifyRealmMemberChanged(azGroup, userId);
 
 		// track it
 		// KNL-523 set the event
@@ -830,9 +852,9 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		// close the azGroup object
 		((BaseAuthzGroup) azGroup).closeEdit();
 
-		// update the db with latest provider, and site security with the latest changes, using the updated azGroup
+		// update the db with latest provider, and site security with the latest changes for just this user, using the updated azGroup
 		BaseAuthzGroup updatedRealm = (BaseAuthzGroup) m_storage.get(azGroup.getId());
-		updateSiteSecurity(updatedRealm);
+		updateSiteSecurity(updatedRealm, Collections.singleton(userId));
 
 		// clear the event for next time
 		((BaseAuthzGroup) azGroup).setEvent(null);
@@ -1032,6 +1054,22 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		return m_storage.isAllowed(user, function, azGroups);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public Set<String> isAllowedMany(String user, String function, Map<String, Collection<String>> azGroupsByKey)
+	{
+		return m_storage.isAllowedMany(user, function, azGroupsByKey);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Set<String> isAllowedUsers(Collection<String> users, String function, Collection<String> azGroups)
+	{
+		return m_storage.isAllowedUsers(users, function, azGroups);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -1215,6 +1253,39 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		}
 	}
 
+	/**
+	 * Update the site security of some users based on the values in the AuthzGroup, if it is a site AuthzGroup,
+	 * leaving the other users as they are.
+	 * 
+	 * @param azGroup
+	 *        The AuthzGroup.
+	 * @param userIds
+	 *        The users whose membership may have changed.
+	 */
+	protected void updateSiteSecurity(AuthzGroup azGroup, Set<String> userIds)
+	{
+		// Special code for the site service
+		Reference ref = entityManager().newReference(azGroup.getId());
+		if (SiteService.APPLICATION_ID.equals(ref.getType()) && SiteService.SITE_SUBTYPE.equals(ref.getSubType()))
+		{
+			// collect the users, as getUsersIsAllowed does
+			Set<String> updUsers = new HashSet<>();
+			Set<String> unpUsers = new HashSet<>();
+			Set<String> visitUsers = new HashSet<>();
+			for (String userId : userIds)
+			{
+				Member member = azGroup.getMember(userId);
+				if (member == null || !member.isActive() || member.getRole() == null || userDirectoryService().isRoleViewType(userId)) continue;
+
+				if (member.getRole().isAllowed(SiteService.SECURE_UPDATE_SITE)) updUsers.add(userId);
+				if (member.getRole().isAllowed(SiteService.SITE_VISIT_UNPUBLISHED)) unpUsers.add(userId);
+				if (member.getRole().isAllowed(SiteService.SITE_VISIT)) visitUsers.add(userId);
+			}
+
+			siteService.setSiteSecurityForUsers(ref.getId(), userIds, updUsers, unpUsers, visitUsers);
+		}
+	}
+
 	/**
 	 * Update the site security when an AuthzGroup is deleted, if it is a site AuthzGroup.
 	 * 
@@ -1457,6 +1528,15 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		 */
 		void completeGet(BaseAuthzGroup azGroup);
 
+		/**
+		 * Get the cached snapshot of the roles and members of an AuthzGroup, without reading it from storage.
+		 * 
+		 * @param azGroupId
+		 *        The AuthzGroup id.
+		 * @return The cached snapshot, or null if it is not cached.
+		 */
+		RealmSnapshot getRealmSnapshot(String azGroupId);
+
 		/**
 		 * Test if this user is allowed to perform the function in the named AuthzGroup.
 		 * 
@@ -1483,6 +1563,32 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		 */
 		boolean isAllowed(String userId, String function, Collection<String> realms);
 
+		/**
+		 * Test if this user is allowed to perform the function in each of these collections of AuthzGroups.
+		 * 
+		 * @param userId
+		 *        The user id.
+		 * @param function
+		 *        The function to open.
+		 * @param realmsByKey
+		 *        For each key, the collection of AuthzGroup ids to consult.
+		 * @return The keys whose AuthzGroups allow this user to perform the function.
+		 */
+		Set<String> isAllowedMany(String userId, String function, Map<String, Collection<String>> realmsByKey);
+
+		/**
+		 * Test which of these users are allowed to perform the function in the named AuthzGroups.
+		 * 
+		 * @param userIds
+		 *        The user ids.
+		 * @param function
+		 *        The function to open.
+		 * @param realms
+		 *        A collection of AuthzGroup ids to consult.
+		 * @return The ids of the users who are allowed to perform the function in the named AuthzGroups.
+		 */
+		Set<String> isAllowedUsers(Collection<String> userIds, String function, Collection<String> realms);
+
 		/**
 		 * Get the set of user ids of users who are allowed to perform the function in the named AuthzGroups.
 		 * 
@@ -39,9 +39,13 @@ import java.util.Observable;
 import java.util.Observer;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 import org.sakaiproject.authz.api.AuthzGroup;
@@ -49,9 +53,8 @@ import org.sakaiproject.authz.api.AuthzGroup.RealmLockMode;
 import org.sakaiproject.authz.api.GroupFullException;
 import org.sakaiproject.authz.api.GroupNotDefinedException;
 import org.sakaiproject.authz.api.Member;
-import org.sakaiproject.authz.api.MemberWithRoleId;
+import org.sakaiproject.authz.api.RealmSnapshot;
 import org.sakaiproject.authz.api.Role;
-import org.sakaiproject.authz.api.SimpleRole;
 import org.sakaiproject.db.api.SqlReader;
 import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.entity.api.Entity;
@@ -138,6 +141,12 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 	/** KNL-1325 provide a more efficent refreshAuthzGroup */
     public static final String REFRESH_MAX_TIME_PROPKEY = "authzgroup.refresh.max.time";
     public static final String REFRESH_INTERVAL_PROPKEY = "authzgroup.refresh.interval";
+    public static final String REFRESH_THREADS_PROPKEY = "authzgroup.refresh.threads";
+    public static final String REFRESH_BATCH_SIZE_PROPKEY = "authzgroup.refresh.batch.size";
+    public static final String REFRESH_BATCH_WRITES_PROPKEY = "authzgroup.refresh.batch.writes";
+    public static final String REFRESH_SHARED_PROPKEY = "authzgroup.refresh.shared";
+    public static final String REFRESH_LEASE_TIME_PROPKEY = "authzgroup.refresh.lease.time";
+    public static final String REFRESH_SITE_USERS_PROPKEY = "authzgroup.refresh.site.users";
 
     /**
      * Number of seconds before running refreshAuthzGroupTask again to clear queue,
@@ -157,6 +166,33 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 	/** Queue of authzgroups to refresh used by refreshAuthzGroupTask */
 	private Map<String, AuthzGroup> refreshQueue;
 
+	/** Number of realms refreshed at once */
+	private long refreshThreads = 4;
+
+	/** Number of realms handed to a worker at once, their provider grants are read in one call */
+	private long refreshBatchSize = 20;
+
+	/** Write the changes to a realm's provided grants in batches rather than a row at a time */
+	private boolean refreshBatchWrites = true;
+
+	/** Carry the changes to a site realm's provided grants through to the site's users as it is refreshed */
+	private boolean refreshSiteUsers = true;
+
+	/** Number of seconds a server holds a realm it claimed from the shared queue */
+	private long refreshLeaseTime = 600;
+
+	/** Executor the realms are refreshed on */
+	private ExecutorService refreshExecutor;
+
+	/** The queue shared with the other servers in the cluster, null if each server works through its own */
+	private DbRealmRefreshQueue sharedRefreshQueue;
+
+	/** Realms refreshed and the ms spent refreshing them since the server started, and in the last run */
+	private final AtomicLong refreshedCount = new AtomicLong();
+	private final AtomicLong refreshedTime = new AtomicLong();
+	private volatile long lastRefreshCount = 0;
+	private volatile long lastRefreshElapsed = 0;
+
 	public void setDatabaseBeans(Map databaseBeans)
 	{
 		this.databaseBeans = databaseBeans;
@@ -286,9 +322,19 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 
             refreshTaskInterval = initConfig(REFRESH_INTERVAL_PROPKEY, serverConfigurationService().getString(REFRESH_INTERVAL_PROPKEY), refreshTaskInterval);
             refreshMaxTime = initConfig(REFRESH_MAX_TIME_PROPKEY, serverConfigurationService().getString(REFRESH_MAX_TIME_PROPKEY), refreshMaxTime);
+            refreshThreads = Math.max(1, initConfig(REFRESH_THREADS_PROPKEY, serverConfigurationService().getString(REFRESH_THREADS_PROPKEY), refreshThreads));
+            refreshBatchSize = Math.max(1, initConfig(REFRESH_BATCH_SIZE_PROPKEY, serverConfigurationService().getString(REFRESH_BATCH_SIZE_PROPKEY), refreshBatchSize));
+            refreshLeaseTime = initConfig(REFRESH_LEASE_TIME_PROPKEY, serverConfigurationService().getString(REFRESH_LEASE_TIME_PROPKEY), refreshLeaseTime);
+            refreshBatchWrites = serverConfigurationService().getBoolean(REFRESH_BATCH_WRITES_PROPKEY, refreshBatchWrites);
+            refreshSiteUsers = serverConfigurationService().getBoolean(REFRESH_SITE_USERS_PROPKEY, refreshSiteUsers);
 
             refreshQueue = Collections.synchronizedMap(new LinkedHashMap<>());
+            if (serverConfigurationService().getBoolean(REFRESH_SHARED_PROPKEY, false)) {
+                sharedRefreshQueue = new DbRealmRefreshQueue(sqlService(), dbAuthzGroupSql, serverConfigurationService().getServerIdInstance(), refreshLeaseTime * 1000L);
+                log.info("Realm refreshes are shared with the cluster, {} threads", refreshThreads);
+            }
 
+            refreshExecutor = Executors.newFixedThreadPool((int) refreshThreads);
             refreshScheduler = Executors.newSingleThreadScheduledExecutor();
             refreshScheduler.scheduleWithFixedDelay(
                 new RefreshAuthzGroupTask(),
@@ -325,7 +371,8 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 	*/
 	public void destroy()
 	{
-		refreshScheduler.shutdown();
+		refreshScheduler.shutdownNow();
+		refreshExecutor.shutdownNow();
 
 		// done with event watching
 		eventTrackingService().deleteObserver(this);
@@ -663,96 +710,218 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 		}
 	}
 	
-	/**
-	 * based on value from RealmRoleGroupCache
-	 * transform a Map<String, MemberWithRoleId> object into a Map<String, Member> object
-	 * KNL-1037
-	 */
-	private Map<String, Member> getMemberMap(Map<String, MemberWithRoleId> mMap, Map<?,?> roleMap)
-	{
-	    Map<String, Member> rv = new HashMap<String, Member>();
-	    for (Map.Entry<String, MemberWithRoleId> entry : mMap.entrySet())
-	    {
-	        String userId = entry.getKey();
-	        MemberWithRoleId m = entry.getValue();
-	        String roleId = m.getRoleId();
-	        if (roleId != null && roleMap != null && roleMap.containsKey(roleId))
-	        {
-	            Role role = (Role) roleMap.get(roleId);
-				rv.put(userId, new BaseMember(role, m.isActive(), m.isProvided(), userId, userDirectoryService()));
-	        }
-	    }
-	    return rv;
-	}
-	
-	/**
-	 * transform a Map<String, Member> object into a Map<String, MemberWithRoleId> object
-	 * to be used in RealmRoleGroupCache
-	 * KNL-1037
-	 */
-	private Map<String, MemberWithRoleId> getMemberWithRoleIdMap(Map<String, Member> userGrants)
-	{
-	    Map<String, MemberWithRoleId> rv = new HashMap<String, MemberWithRoleId>();
-	    for (Map.Entry<String, Member> entry : userGrants.entrySet())
-	    {
-	        String userId = entry.getKey();
-	        Member member = entry.getValue();
-	        rv.put(userId, new MemberWithRoleId(member));
-	    }
-	    return rv;
-	}
-
 	/**
 	 * Step through queue and call refreshAuthzGroup on all groups queued up for
-	 * a refresh
+	 * a refresh, handing them out in batches to the refresh executor
 	 */
 	protected class RefreshAuthzGroupTask implements Runnable {
 		@Override
 		public void run() {
-			if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() refreshing " + refreshQueue.size() + " realms");
-			if (refreshQueue.size() > 0) {
-				long numberRefreshed = 0;
-				long timeRefreshed = 0;
-				long longestRefreshed = 0;
-				String longestName = null;
-				
-				List<AuthzGroup> queueList = new ArrayList<AuthzGroup>(refreshQueue.values());
-
-				Iterator<AuthzGroup> it = queueList.iterator();
-				while (it.hasNext()) {
-					AuthzGroup azGroup = it.next();
-					String azGroupId = azGroup.getId();
-					if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() start refresh of azgroup: " + azGroupId);
-
-					numberRefreshed++;
-					long time = 0;
-					long start = System.currentTimeMillis();
-					try {
-						((DbStorage) m_storage).refreshAuthzGroupInternal((BaseAuthzGroup) azGroup);
-					} catch (Throwable e) {
-						log.error("RefreshAuthzGroupTask.run() Problem refreshing azgroup: " + azGroupId, e);
-					} finally {
-						time = (System.currentTimeMillis() - start);
-						refreshQueue.remove(azGroupId);
-						if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() refresh of azgroup: " + azGroupId + " took " + time/1e3 + " seconds");
+			if (sharedRefreshQueue != null) {
+				// move what this server queued to the queue shared with the cluster
+				List<String> queued = new ArrayList<>();
+				for (String azGroupId : snapshot(refreshQueue.keySet())) {
+					if (refreshQueue.remove(azGroupId) != null) queued.add(azGroupId);
+				}
+				if (!queued.isEmpty()) sharedRefreshQueue.add(queued);
+			} else if (refreshQueue.isEmpty()) {
+				return;
+			}
+			if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() refreshing " + getRefreshBacklog() + " realms");
+
+			RefreshRun refreshRun = new RefreshRun();
+			Iterator<AuthzGroup> local = sharedRefreshQueue == null ? snapshot(refreshQueue.values()).iterator() : null;
+			Semaphore workers = new Semaphore((int) refreshThreads);
+			try {
+				while (!refreshRun.delayed) {
+					workers.acquire();
+					List<BaseAuthzGroup> realms = new ArrayList<>();
+					Map<String, Long> claimed = null;
+					if (local != null) {
+						while (local.hasNext() && realms.size() < refreshBatchSize) {
+							realms.add((BaseAuthzGroup) local.next());
+						}
+					} else {
+						claimed = sharedRefreshQueue.claim((int) refreshBatchSize);
+						for (Map.Entry<String, Long> entry : claimed.entrySet()) {
+							BaseAuthzGroup azGroup = ((DbStorage) m_storage).getLazy(entry.getKey());
+							if (azGroup != null) {
+								realms.add(azGroup);
+							} else {
+								// removed since it was queued
+								sharedRefreshQueue.done(entry.getKey(), entry.getValue());
+							}
+						}
+						if (realms.isEmpty() && !claimed.isEmpty()) {
+							workers.release();
+							continue;
+						}
 					}
-					timeRefreshed += time;
-					if (time > longestRefreshed) {
-						longestRefreshed = time;
-						longestName = azGroupId;
+					if (realms.isEmpty()) {
+						workers.release();
+						break;
 					}
-					
-					if (it.hasNext() && (time > (refreshMaxTime * 1000L))) {
-						log.warn("RefreshAuthzGroupTask.run() " + azGroupId + " took " + time/1e3 + 
-								" seconds which is longer than the maximum allowed of " + refreshMaxTime + 
-								" seconds, delay processing the rest of the queue");
+
+					Map<String, Long> batchClaimed = claimed;
+					try {
+						refreshExecutor.execute(() -> {
+							try {
+								refreshBatch(realms, batchClaimed, refreshRun);
+							} finally {
+								workers.release();
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						// shutting down, claimed realms are taken up again when their lease expires
+						workers.release();
 						break;
 					}
 				}
-				log.info("RefreshAuthzGroupTask.run() refreshed " + numberRefreshed + " realms in " + timeRefreshed/1e3 + 
-						" seconds, longest realm was " + longestName + " at " + longestRefreshed/1e3 + " seconds");
+				// wait for the last batches
+				workers.acquire((int) refreshThreads);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
 			}
+
+			refreshRun.finish();
 		}
+
+		private <T> List<T> snapshot(Collection<T> queued) {
+			synchronized (refreshQueue) {
+				return new ArrayList<>(queued);
+			}
+		}
+	}
+
+	/**
+	 * Refresh a batch of realms, reading their provider grants in one call.
+	 *
+	 * @param claimed the realm ids claimed from the shared queue to when they were queued, or null if refreshed from the local queue
+	 */
+	private void refreshBatch(List<BaseAuthzGroup> realms, Map<String, Long> claimed, RefreshRun refreshRun) {
+		DbStorage storage = (DbStorage) m_storage;
+		Map<String, Map<String, String>> provided = null;
+		try {
+			provided = storage.getProviderUserRoles(realms);
+		} catch (Exception e) {
+			log.warn("RefreshAuthzGroupTask.run() Problem reading provider grants, reading each realm's in turn", e);
+		}
+
+		for (BaseAuthzGroup azGroup : realms) {
+			String azGroupId = azGroup.getId();
+			if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() start refresh of azgroup: " + azGroupId);
+
+			long time = 0;
+			long start = System.currentTimeMillis();
+			try {
+				storage.refreshAuthzGroupInternal(azGroup, provided == null ? null : provided.get(azGroup.getProviderGroupId()));
+			} catch (Throwable e) {
+				log.error("RefreshAuthzGroupTask.run() Problem refreshing azgroup: " + azGroupId, e);
+			} finally {
+				time = (System.currentTimeMillis() - start);
+				try {
+					if (claimed != null) {
+						sharedRefreshQueue.done(azGroupId, claimed.get(azGroupId));
+					} else {
+						refreshQueue.remove(azGroupId);
+					}
+				} catch (Exception e) {
+					log.warn("RefreshAuthzGroupTask.run() Problem removing azgroup: " + azGroupId + " from the queue", e);
+				}
+				if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() refresh of azgroup: " + azGroupId + " took " + time/1e3 + " seconds");
+			}
+			refreshRun.refreshed(azGroupId, time);
+		}
+	}
+
+	/**
+	 * The realms refreshed in one run of the RefreshAuthzGroupTask
+	 */
+	private class RefreshRun {
+		private final long started = System.currentTimeMillis();
+		private long numberRefreshed = 0;
+		private long timeRefreshed = 0;
+		private long longestRefreshed = 0;
+		private String longestName = null;
+
+		/** Set once a realm takes longer than allowed, no more batches are handed out this run */
+		private volatile boolean delayed = false;
+
+		private synchronized void refreshed(String azGroupId, long time) {
+			numberRefreshed++;
+			timeRefreshed += time;
+			if (time > longestRefreshed) {
+				longestRefreshed = time;
+				longestName = azGroupId;
+			}
+
+			if (!delayed && (time > (refreshMaxTime * 1000L))) {
+				log.warn("RefreshAuthzGroupTask.run() " + azGroupId + " took " + time/1e3 + 
+						" seconds which is longer than the maximum allowed of " + refreshMaxTime + 
+						" seconds, delay processing the rest of the queue");
+				delayed = true;
+			}
+		}
+
+		private synchronized void finish() {
+			if (numberRefreshed == 0) return;
+			long elapsed = System.currentTimeMillis() - started;
+			refreshedCount.addAndGet(numberRefreshed);
+			refreshedTime.addAndGet(timeRefreshed);
+			lastRefreshCount = numberRefreshed;
+			lastRefreshElapsed = elapsed;
+			log.info("RefreshAuthzGroupTask.run() refreshed " + numberRefreshed + " realms in " + timeRefreshed/1e3 + 
+					" seconds (" + elapsed/1e3 + " seconds elapsed on " + refreshThreads + " threads), longest realm was " +
+					longestName + " at " + longestRefreshed/1e3 + " seconds");
+		}
+	}
+
+	/**
+	 * @return the number of realms waiting for a refresh, across the cluster if the queue is shared
+	 */
+	public int getRefreshBacklog() {
+		int backlog = refreshQueue == null ? 0 : refreshQueue.size();
+		if (sharedRefreshQueue != null) {
+			backlog += sharedRefreshQueue.size();
+		}
+		return backlog;
+	}
+
+	/**
+	 * @return the number of realms this server refreshed since it started
+	 */
+	public long getRefreshedCount() {
+		return refreshedCount.get();
+	}
+
+	/**
+	 * @return the ms this server spent refreshing realms since it started, summed over the refresh threads
+	 */
+	public long getRefreshedTime() {
+		return refreshedTime.get();
+	}
+
+	/**
+	 * @return the number of realms refreshed in the last run that refreshed any
+	 */
+	public long getLastRefreshCount() {
+		return lastRefreshCount;
+	}
+
+	/**
+	 * @return the ms the last run that refreshed any realms took from start to finish
+	 */
+	public long getLastRefreshElapsed() {
+		return lastRefreshElapsed;
+	}
+
+	public long getRefreshThreads() {
+		return refreshThreads;
+	}
+
+	public boolean isRefreshShared() {
+		return sharedRefreshQueue != null;
 	}
 
 	/**
@@ -761,8 +930,6 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 	protected class DbStorage extends BaseDbFlatStorage implements BaseAuthzGroupService.Storage, SqlReader
 	{
 
-		private static final String REALM_USER_GRANTS_CACHE = "REALM_USER_GRANTS_CACHE";
-		private static final String REALM_ROLES_CACHE = "REALM_ROLES_CACHE";
 		private boolean promoteUsersToProvided = true;
 		private boolean promoteUsersToProvidedRole = false;
 		private EntityManager entityManager;
@@ -826,6 +993,14 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			return rv;
 		}
 
+		/**
+		 * Read a realm without completing the read, as it is refreshed from the provider.
+		 */
+		protected BaseAuthzGroup getLazy(String id)
+		{
+			return (BaseAuthzGroup) super.getResource(null, id);
+		}
+
 		/**
 		 * Complete the read process once the basic realm info has been read
 		 *
@@ -867,26 +1042,31 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 				super.readProperties(conn, realm.getKey(), realm.m_properties);
 			}
 
-			Map <String, Map> realmRoleGRCache = (Map<String, Map>)m_realmRoleGRCache.get(realm.getId());
+			RealmSnapshot snapshot = getRealmSnapshot(realm.getId());
 
 			if (log.isDebugEnabled()) {
-				log.debug("realmRoleGRCache: found {} in cache? {}", realm.getId(), (realmRoleGRCache != null));
+				log.debug("realmRoleGRCache: found {} in cache? {}", realm.getId(), (snapshot != null));
 			}
 
-			if (realmRoleGRCache != null) {
+			if (snapshot != null) {
 				// KNL-1037 read the cached role and membership information
-				Map<String, Role> roles = new HashMap<String, Role>();
-				
-				// dehydrate to SimpleRoles, which can be stored in a distributed Terracotta cache
-				Map<String, SimpleRole> roleProperties = realmRoleGRCache.get(REALM_ROLES_CACHE);
-				for (java.util.Map.Entry<String, SimpleRole> mapEntry : roleProperties.entrySet()) {
-					roles.put(mapEntry.getKey(), new BaseRole(mapEntry.getValue()));
-				}
-				Map<String, Member> userGrants = new HashMap<String, Member>();
-				
-				Map<String, MemberWithRoleId> userGrantsWithRoleIdMap = (Map<String, MemberWithRoleId>) realmRoleGRCache.get(REALM_USER_GRANTS_CACHE);
-				userGrants.putAll(getMemberMap(userGrantsWithRoleIdMap, roles));
-				
+				Map<String, Role> roles = new HashMap<String, Role>(snapshot.getRoleCount() * 2);
+				BaseRole[] rolesByNumber = new BaseRole[snapshot.getRoleCount()];
+				for (int i = 0; i < rolesByNumber.length; i++) {
+					BaseRole role = new BaseRole(snapshot.getRoleId(i));
+					role.allowFunctions(snapshot.getRoleFunctions(i));
+					role.setDescription(snapshot.getRoleDescription(i));
+					role.setProviderOnly(snapshot.isRoleProviderOnly(i));
+					rolesByNumber[i] = role;
+					roles.put(role.getId(), role);
+				}
+				Map<String, Member> userGrants = new HashMap<String, Member>(snapshot.getMemberCount() * 2);
+				for (int i = 0; i < snapshot.getMemberCount(); i++) {
+					String userId = snapshot.getMemberUserId(i);
+					userGrants.put(userId, new BaseMember(rolesByNumber[snapshot.getMemberRole(i)], snapshot.isMemberActive(i),
+							snapshot.isMemberProvided(i), userId, userDirectoryService()));
+				}
+
 				realm.m_roles = roles;
 				realm.m_userGrants = userGrants;
 			} else {
@@ -1010,16 +1190,8 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			        }
 			    });
 
-				Map<String, Map> payLoad = new HashMap<String, Map>();
-				// rehydrate from SimpleRole, which can be stored in a Terracotta cache
-				Map<String, SimpleRole> roleProperties = new HashMap<String, SimpleRole>();
-				for (java.util.Map.Entry<String, BaseRole> entry : ((Map<String, BaseRole>) realm.m_roles).entrySet()) {
-					roleProperties.put(entry.getKey(), entry.getValue().exportToSimpleRole());
-				}
-				Map<String, MemberWithRoleId> membersWithRoleIds = getMemberWithRoleIdMap(realm.m_userGrants);
-				payLoad.put(REALM_ROLES_CACHE, roleProperties);
-				payLoad.put(REALM_USER_GRANTS_CACHE, membersWithRoleIds);
-				m_realmRoleGRCache.put(realm.getId(), payLoad);
+				// cache a compact copy, which holds only JDK types so it can be stored in a distributed cache
+				m_realmRoleGRCache.put(realm.getId(), RealmSnapshot.of(realm.m_roles.values(), realm.m_userGrants.values()));
 			}
 
 			// RealmLock handling
@@ -1050,6 +1222,16 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			}
 		}
 
+		/**
+		 * {@inheritDoc}
+		 */
+		public RealmSnapshot getRealmSnapshot(String azGroupId)
+		{
+			Object cached = m_realmRoleGRCache.get(azGroupId);
+			// anything else was cached by an older version, and is read again from the db
+			return (cached instanceof RealmSnapshot) ? (RealmSnapshot) cached : null;
+		}
+
 		/**
 		 * {@inheritDoc}
 		 */
@@ -2255,6 +2437,206 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			return rv;
 		}
 
+		/**
+		 * {@inheritDoc}
+		 */
+		public Set<String> isAllowedMany(String userId, String lock, Map<String, Collection<String>> realmsByKey)
+		{
+			Set<String> rv = new HashSet<String>();
+			if ((lock == null) || (realmsByKey == null) || realmsByKey.isEmpty()) return rv;
+
+			// delegated access picks the realm and role per site, so leave those checks to isAllowed
+			if (isDelegatedAccessUser(userId))
+			{
+				for (Map.Entry<String, Collection<String>> entry : realmsByKey.entrySet())
+				{
+					if (entry.getValue() != null && !entry.getValue().isEmpty() && isAllowed(userId, lock, entry.getValue()))
+					{
+						rv.add(entry.getKey());
+					}
+				}
+				return rv;
+			}
+
+			Set<String> realms = new HashSet<String>();
+			for (Collection<String> keyRealms : realmsByKey.values())
+			{
+				if (keyRealms != null) realms.addAll(keyRealms);
+			}
+			if (realms.isEmpty()) return rv;
+
+			Map<String, Set<Integer>> functionRoles = new HashMap<String, Set<Integer>>();
+			Map<String, Map<String, Set<Integer>>> userRoles = new HashMap<String, Map<String, Set<Integer>>>();
+			Collection<String> userIds = (userId == null) ? Collections.<String>emptySet() : Collections.singleton(userId);
+			readFunctionAndUserRoles(lock, realms, userIds, functionRoles, userRoles);
+
+			Set<Integer> emptyRoleKeys = getRealmRoleKeys(getEmptyRoles(userId));
+			Map<String, Set<Integer>> rolesByRealm = userRoles.getOrDefault(userId, Collections.<String, Set<Integer>>emptyMap());
+			for (Map.Entry<String, Collection<String>> entry : realmsByKey.entrySet())
+			{
+				if (entry.getValue() != null && isAllowed(entry.getValue(), emptyRoleKeys, rolesByRealm, functionRoles))
+				{
+					rv.add(entry.getKey());
+				}
+			}
+
+			if (log.isDebugEnabled())
+				log.debug("isAllowedMany: userId=" + userId + " lock=" + lock + " keys=" + realmsByKey.size() + " allowed=" + rv.size());
+
+			return rv;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public Set<String> isAllowedUsers(Collection<String> userIds, String lock, Collection<String> realms)
+		{
+			Set<String> rv = new HashSet<String>();
+			if ((lock == null) || (userIds == null) || userIds.isEmpty() || (realms == null) || realms.isEmpty()) return rv;
+
+			Set<String> users = new HashSet<String>(userIds);
+			// delegated access picks the realm and role per site, so leave the current user's check to isAllowed
+			String currentUserId = sessionManager().getCurrentSessionUserId();
+			if (users.contains(currentUserId) && isDelegatedAccessUser(currentUserId))
+			{
+				users.remove(currentUserId);
+				if (isAllowed(currentUserId, lock, realms)) rv.add(currentUserId);
+			}
+			if (users.isEmpty()) return rv;
+
+			// the anonymous user (null) has no grants to read
+			Set<String> grantedUsers = new HashSet<String>(users);
+			grantedUsers.remove(null);
+
+			Map<String, Set<Integer>> functionRoles = new HashMap<String, Set<Integer>>();
+			Map<String, Map<String, Set<Integer>>> userRoles = new HashMap<String, Map<String, Set<Integer>>>();
+			readFunctionAndUserRoles(lock, realms, grantedUsers, functionRoles, userRoles);
+
+			for (String userId : users)
+			{
+				Set<Integer> emptyRoleKeys = getRealmRoleKeys(getEmptyRoles(userId));
+				Map<String, Set<Integer>> rolesByRealm = userRoles.getOrDefault(userId, Collections.<String, Set<Integer>>emptyMap());
+				if (isAllowed(realms, emptyRoleKeys, rolesByRealm, functionRoles))
+				{
+					rv.add(userId);
+				}
+			}
+
+			if (log.isDebugEnabled())
+				log.debug("isAllowedUsers: users=" + userIds.size() + " lock=" + lock + " realms=" + realms + " allowed=" + rv.size());
+
+			return rv;
+		}
+
+		/**
+		 * Read, with one query, the roles that have the function in these realms and the roles these users have in them.
+		 * 
+		 * @param lock
+		 *        The function.
+		 * @param realms
+		 *        The AuthzGroup ids.
+		 * @param userIds
+		 *        The user ids (may be empty).
+		 * @param functionRoles
+		 *        Filled with the keys of the roles that have the function, by realm.
+		 * @param userRoles
+		 *        Filled with the keys of the roles each user has (active), by user and realm.
+		 */
+		protected void readFunctionAndUserRoles(String lock, Collection<String> realms, Collection<String> userIds,
+				final Map<String, Set<Integer>> functionRoles, final Map<String, Map<String, Set<Integer>>> userRoles)
+		{
+			String realmInClause = orInClause(realms.size(), "SR.REALM_ID");
+			String userInClause = userIds.isEmpty() ? " 1=0 " : orInClause(userIds.size(), "SRRG.USER_ID");
+			String sql = dbAuthzGroupSql.getSelectRealmFunctionAndUserRolesSql(realmInClause, userInClause);
+
+			Object[] fields = new Object[1 + (2 * realms.size()) + userIds.size()];
+			int pos = 0;
+			fields[pos++] = lock;
+			for (String realm : realms)
+			{
+				fields[pos++] = realm;
+			}
+			for (String userId : userIds)
+			{
+				fields[pos++] = userId;
+			}
+			for (String realm : realms)
+			{
+				fields[pos++] = realm;
+			}
+
+			m_sql.dbRead(sql, fields, new SqlReader()
+			{
+				public Object readSqlResultRecord(ResultSet result)
+				{
+					try
+					{
+						String realm = result.getString(2);
+						Integer roleKey = result.getInt(4);
+						if ("F".equals(result.getString(1)))
+						{
+							functionRoles.computeIfAbsent(realm, k -> new HashSet<Integer>()).add(roleKey);
+						}
+						else
+						{
+							userRoles.computeIfAbsent(result.getString(3), k -> new HashMap<String, Set<Integer>>())
+									.computeIfAbsent(realm, k -> new HashSet<Integer>()).add(roleKey);
+						}
+					}
+					catch (SQLException e)
+					{
+						log.warn("readFunctionAndUserRoles: " + e);
+					}
+					return null;
+				}
+			});
+		}
+
+		/**
+		 * Work out isAllowed from the roles read with readFunctionAndUserRoles: the function is allowed if any of the realms gives it
+		 * to one of the empty roles, or to a role the user has in any of the realms.
+		 * 
+		 * @param realms
+		 *        The AuthzGroup ids to consult.
+		 * @param emptyRoleKeys
+		 *        The keys of the user's empty roles (.anon, .auth and the like).
+		 * @param userRolesByRealm
+		 *        The keys of the roles the user has, by realm.
+		 * @param functionRolesByRealm
+		 *        The keys of the roles that have the function, by realm.
+		 * @return true if allowed, false if not.
+		 */
+		protected boolean isAllowed(Collection<String> realms, Set<Integer> emptyRoleKeys, Map<String, Set<Integer>> userRolesByRealm,
+				Map<String, Set<Integer>> functionRolesByRealm)
+		{
+			Set<Integer> roleKeys = new HashSet<Integer>(emptyRoleKeys);
+			for (String realm : realms)
+			{
+				Set<Integer> userRoles = userRolesByRealm.get(realm);
+				if (userRoles != null) roleKeys.addAll(userRoles);
+			}
+
+			for (String realm : realms)
+			{
+				Set<Integer> functionRoles = functionRolesByRealm.get(realm);
+				if (functionRoles != null && !Collections.disjoint(functionRoles, roleKeys)) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Is this the current user, with delegated access turned on in their session?
+		 * 
+		 * @param userId
+		 *        The user id.
+		 * @return true if isAllowed may check this user's access through delegated access, false if not.
+		 */
+		private boolean isDelegatedAccessUser(String userId)
+		{
+			return userId != null && userId.equals(sessionManager().getCurrentSessionUserId())
+					&& sessionManager().getCurrentSession().getAttribute("delegatedaccess.accessmapflag") != null;
+		}
+
 		/**
 		 * Delegated access essentially behaves like roleswap except instead of just specifying which role, you can also specify
 		 * the realm as well.  The access map is populated by an Event Listener that listens for dac.checkaccess and is stored in the session
@@ -2691,12 +3073,40 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			}
 		}
 
+		/**
+		 * Read the user eid -> role name maps from the provider for a number of realms in one call
+		 * 
+		 * @return the maps keyed by the realms' provider group ids
+		 */
+		protected Map<String, Map<String, String>> getProviderUserRoles(Collection<BaseAuthzGroup> realms)
+		{
+			if (m_provider == null) return Collections.emptyMap();
+
+			Set<String> providerGroupIds = new HashSet<>();
+			for (BaseAuthzGroup realm : realms)
+			{
+				providerGroupIds.add(realm.getProviderGroupId());
+			}
+			return m_provider.getUserRolesForGroups(providerGroupIds);
+		}
+
 		/**
 		 * Update the realm with info from the provider
 		 * 
 		 * @param realm the realm to be refreshed
 		 */
 		protected void refreshAuthzGroupInternal(BaseAuthzGroup realm)
+		{
+			refreshAuthzGroupInternal(realm, null);
+		}
+
+		/**
+		 * Update the realm with info from the provider
+		 * 
+		 * @param realm the realm to be refreshed
+		 * @param target the user eid -> role name map already read from the provider, or null to read it now
+		 */
+		protected void refreshAuthzGroupInternal(BaseAuthzGroup realm, Map<String,String> target)
 		{
 			if ((realm == null) || (m_provider == null)) return;
 			log.debug("Refreshing authz group: {}", realm);
@@ -2731,7 +3141,10 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			// Note: the realm is still lazy - we have the realm id but don't need to worry about changing grants
 
 			// get the latest userEid -> role name map from the provider
-			Map<String,String> target = m_provider.getUserRolesForGroup(realm.getProviderGroupId());
+			if (target == null)
+			{
+				target = m_provider.getUserRolesForGroup(realm.getProviderGroupId());
+			}
 
 			// read the realm's grants
 			List<UserAndRole> grants = getGrants(realm);
@@ -2933,40 +3346,174 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			// if any, do it
 			if ((toDelete.size() > 0) || (toInsert.size() > 0))
 			{
-				// do these each in their own transaction, to avoid possible deadlock
-				// caused by transactions modifying more than one row at a time.
-
-				// delete
-				sql = dbAuthzGroupSql.getDeleteRealmRoleGroup4Sql();
-				Object[] fields = new Object[2];
-				fields[0] = caseId(realm.getId());
-				for (String userId : toDelete)
+				if (!refreshBatchWrites || !writeProviderGrantsBatch(realm, toDelete, toInsert))
 				{
-					fields[1] = userId;
-					m_sql.dbWrite(sql, fields);
-				}
+					// do these each in their own transaction, to avoid possible deadlock
+					// caused by transactions modifying more than one row at a time.
 
-				// insert
-				sql = dbAuthzGroupSql.getInsertRealmRoleGroup3Sql();
-				fields = new Object[5];
-				fields[0] = caseId(realm.getId());
-				fields[0] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup3_1Sql(), fields[0]);
-				for (UserAndRole uar : toInsert)
-				{
-					fields[1] = uar.userId;
-					fields[2] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup3_2Sql(), uar.role);
-					fields[3] = uar.active ? "1" : "0"; // KNL-1099
-					fields[4] = uar.provided ? "1" : "0"; // KNL-1099
+					// delete
+					sql = dbAuthzGroupSql.getDeleteRealmRoleGroup4Sql();
+					Object[] fields = new Object[2];
+					fields[0] = caseId(realm.getId());
+					for (String userId : toDelete)
+					{
+						fields[1] = userId;
+						m_sql.dbWrite(sql, fields);
+					}
 
-					m_sql.dbWrite(sql, fields);
+					// insert
+					sql = dbAuthzGroupSql.getInsertRealmRoleGroup3Sql();
+					fields = new Object[5];
+					fields[0] = caseId(realm.getId());
+					fields[0] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup3_1Sql(), fields[0]);
+					for (UserAndRole uar : toInsert)
+					{
+						fields[1] = uar.userId;
+						fields[2] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup3_2Sql(), uar.role);
+						fields[3] = uar.active ? "1" : "0"; // KNL-1099
+						fields[4] = uar.provided ? "1" : "0"; // KNL-1099
+
+						m_sql.dbWrite(sql, fields);
+					}
 				}
 				eventTrackingService().post(eventTrackingService().newEvent(SECURE_UPDATE_AUTHZ_GROUP, realm.getReference(), true));
+
+				// carry the changes through to the site's users, reading and writing only the changed users' rows
+				Reference siteRef = entityManager.newReference(realm.getId());
+				if (refreshSiteUsers && SiteService.APPLICATION_ID.equals(siteRef.getType()) && SiteService.SITE_SUBTYPE.equals(siteRef.getSubType()))
+				{
+					Set<String> changed = new HashSet<String>(toDelete);
+					for (UserAndRole uar : toInsert)
+					{
+						changed.add(uar.userId);
+					}
+					updateSiteSecurity(realm.getId(), siteRef.getId(), changed);
+				}
 			}
 			if (log.isDebugEnabled()) {
 				log.debug("refreshAuthzGroupInternal() deleted: "+ toDelete.size()+ " inserted: "+ toInsert.size()+ " provided: "+ existing.size()+ " nonProvider: "+ nonProvider.size());
 			}
 		}
 
+		/**
+		 * Update the site security of some users of a site, from their grants in the site's realm.
+		 * 
+		 * @param realmId
+		 *        The site's realm id.
+		 * @param siteId
+		 *        The site id.
+		 * @param userIds
+		 *        The users whose grants changed.
+		 */
+		protected void updateSiteSecurity(String realmId, String siteId, Set<String> userIds)
+		{
+			try
+			{
+				Set<String> updUsers = getUsersIsAllowed(SiteService.SECURE_UPDATE_SITE, realmId, userIds);
+				Set<String> unpUsers = getUsersIsAllowed(SiteService.SITE_VISIT_UNPUBLISHED, realmId, userIds);
+				Set<String> visitUsers = getUsersIsAllowed(SiteService.SITE_VISIT, realmId, userIds);
+
+				siteService.setSiteSecurityForUsers(siteId, userIds, updUsers, unpUsers, visitUsers);
+			}
+			catch (Exception e)
+			{
+				log.warn("updateSiteSecurity() site: {}, {}", siteId, e.toString());
+			}
+		}
+
+		/**
+		 * Which of these users have an active grant, in this realm, to a role with the function.
+		 */
+		private Set<String> getUsersIsAllowed(String lock, String realmId, Collection<String> userIds)
+		{
+			Map<String, Set<Integer>> functionRoles = new HashMap<String, Set<Integer>>();
+			Map<String, Map<String, Set<Integer>>> userRoles = new HashMap<String, Map<String, Set<Integer>>>();
+			readFunctionAndUserRoles(lock, Collections.singleton(realmId), userIds, functionRoles, userRoles);
+
+			Set<Integer> allowed = functionRoles.getOrDefault(realmId, Collections.emptySet());
+			Set<String> rv = new HashSet<String>();
+			for (Map.Entry<String, Map<String, Set<Integer>>> entry : userRoles.entrySet())
+			{
+				Set<Integer> roles = entry.getValue().get(realmId);
+				if (roles != null && !Collections.disjoint(roles, allowed))
+				{
+					rv.add(entry.getKey());
+				}
+			}
+			return rv;
+		}
+
+		/**
+		 * Write the changes to a realm's provided grants as one batch of deletes and one of inserts in a single transaction.
+		 * The rows are written in user id order so that refreshes running at once take their row locks in the same order.
+		 * 
+		 * @return true if written, false if rolled back, when the grants are to be written a row at a time
+		 */
+		private boolean writeProviderGrantsBatch(BaseAuthzGroup realm, List<String> toDelete, List<UserAndRole> toInsert)
+		{
+			Object realmId = caseId(realm.getId());
+			List<Object[]> deletes = new ArrayList<>();
+			toDelete.stream().distinct().sorted().forEach(userId -> deletes.add(new Object[] {realmId, userId}));
+
+			Object realmKey = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup3_1Sql(), realmId);
+			List<Object[]> inserts = new ArrayList<>();
+			toInsert.stream().sorted((a, b) -> a.userId.compareTo(b.userId)).forEach(uar -> inserts.add(new Object[] {realmKey, uar.userId,
+					getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup3_2Sql(), uar.role), uar.active ? "1" : "0", uar.provided ? "1" : "0"}));
+
+			Connection conn = null;
+			boolean wasCommit = true;
+			try
+			{
+				conn = m_sql.borrowConnection();
+				wasCommit = conn.getAutoCommit();
+				conn.setAutoCommit(false);
+
+				boolean ok = (deletes.isEmpty() || m_sql.dbWriteBatch(conn, dbAuthzGroupSql.getDeleteRealmRoleGroup4Sql(), deletes))
+						&& (inserts.isEmpty() || m_sql.dbWriteBatch(conn, dbAuthzGroupSql.getInsertRealmRoleGroup3Sql(), inserts));
+				if (ok)
+				{
+					conn.commit();
+				}
+				else
+				{
+					log.warn("writeProviderGrantsBatch() batch failed for realm: {}, writing a row at a time", realm.getId());
+					conn.rollback();
+				}
+				return ok;
+			}
+			catch (Exception e)
+			{
+				log.warn("writeProviderGrantsBatch() realm: {}, writing a row at a time, {}", realm.getId(), e.toString());
+				if (conn != null)
+				{
+					try
+					{
+						conn.rollback();
+					}
+					catch (Exception ee)
+					{
+						log.warn("writeProviderGrantsBatch() while rolling back: {}", ee.toString());
+					}
+				}
+				return false;
+			}
+			finally
+			{
+				if (conn != null)
+				{
+					try
+					{
+						conn.setAutoCommit(wasCommit);
+					}
+					catch (Exception e)
+					{
+						log.warn("writeProviderGrantsBatch() while setting auto commit: {}", e.toString());
+					}
+					m_sql.returnConnection(conn);
+				}
+			}
+		}
+
 		private List<UserAndRole> getGrants(AuthzGroup realm) {
 			// read the realm's grants
 			String sql = dbAuthzGroupSql.getSelectRealmRoleGroup2Sql();
@@ -144,6 +144,8 @@ public interface DbAuthzGroupSql
 	String getSelectRealmRoleKeySql();
 
 	String getSelectRealmRolesSql(String inClause);
+
+	String getSelectRealmFunctionAndUserRolesSql(String realmInClause, String userInClause);
 	
 	String getSelectRealmSize();
 
@@ -162,4 +164,19 @@ public interface DbAuthzGroupSql
     String getDeleteRealmLocksForRealmWithReferenceSql();
 
     String getDeleteRealmLocksForRealmSql();
+
+    String getInsertRealmRefreshSql();
+
+    String getUpdateRealmRefreshQueuedSql();
+
+    /** Realms waiting for a refresh that no server holds a live lease on, oldest first. */
+    String getSelectRealmRefreshSql(int limit);
+
+    String getClaimRealmRefreshSql();
+
+    String getDeleteRealmRefreshSql();
+
+    String getReleaseRealmRefreshSql();
+
+    String getCountRealmRefreshSql();
 }
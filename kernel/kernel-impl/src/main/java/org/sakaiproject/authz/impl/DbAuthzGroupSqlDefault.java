@@ -25,10 +25,12 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.Set;
 
+import org.sakaiproject.util.LimitSql;
+
 /**
  * methods for accessing authz data in a database.
  */
-public class DbAuthzGroupSqlDefault implements DbAuthzGroupSql
+public class DbAuthzGroupSqlDefault implements DbAuthzGroupSql, LimitSql
 {
 	public String getCountRealmFunctionSql()
 	{
@@ -501,6 +503,23 @@ public class DbAuthzGroupSqlDefault implements DbAuthzGroupSql
 				+ "where SRRG.USER_ID = ? and SRRG.ACTIVE = '1' and " + inClause + " ";
 	}
 
+	public String getSelectRealmFunctionAndUserRolesSql(String realmInClause, String userInClause)
+	{
+		StringBuilder sqlBuf = new StringBuilder();
+
+		// 'F' rows are the roles with the function in each realm, 'G' rows the roles granted to each user in each realm
+		sqlBuf.append("select 'F', SR.REALM_ID, '', SRRF.ROLE_KEY ");
+		sqlBuf.append("from SAKAI_REALM SR INNER JOIN SAKAI_REALM_RL_FN SRRF ON SR.REALM_KEY = SRRF.REALM_KEY ");
+		sqlBuf.append("INNER JOIN SAKAI_REALM_FUNCTION SRF ON SRRF.FUNCTION_KEY = SRF.FUNCTION_KEY ");
+		sqlBuf.append("where SRF.FUNCTION_NAME = ? and " + realmInClause + " ");
+		sqlBuf.append("union all ");
+		sqlBuf.append("select 'G', SR.REALM_ID, SRRG.USER_ID, SRRG.ROLE_KEY ");
+		sqlBuf.append("from SAKAI_REALM SR INNER JOIN SAKAI_REALM_RL_GR SRRG ON SR.REALM_KEY = SRRG.REALM_KEY ");
+		sqlBuf.append("where SRRG.ACTIVE = '1' and " + userInClause + " and " + realmInClause + " ");
+
+		return sqlBuf.toString();
+	}
+
 	public String getSelectRealmRoleSql()
 	{
 		return "select ROLE_NAME, ROLE_KEY from SAKAI_REALM_ROLE";
@@ -556,4 +575,39 @@ public class DbAuthzGroupSqlDefault implements DbAuthzGroupSql
 	public String getDeleteRealmLocksForRealmWithReferenceSql() {
 		return "DELETE FROM SAKAI_REALM_LOCKS WHERE REALM_KEY = (SELECT REALM_KEY FROM SAKAI_REALM WHERE REALM_ID = ?) AND REFERENCE = ?";
 	}
+
+	@Override
+	public String getInsertRealmRefreshSql() {
+		return "INSERT INTO SAKAI_REALM_REFRESH (REALM_ID, QUEUED) VALUES (?, ?)";
+	}
+
+	@Override
+	public String getUpdateRealmRefreshQueuedSql() {
+		return "UPDATE SAKAI_REALM_REFRESH SET QUEUED = ? WHERE REALM_ID = ?";
+	}
+
+	@Override
+	public String getSelectRealmRefreshSql(int limit) {
+		return limit("SELECT REALM_ID, QUEUED FROM SAKAI_REALM_REFRESH WHERE LEASE_EXPIRES IS NULL OR LEASE_EXPIRES < ? ORDER BY QUEUED", limit);
+	}
+
+	@Override
+	public String getClaimRealmRefreshSql() {
+		return "UPDATE SAKAI_REALM_REFRESH SET LEASE_OWNER = ?, LEASE_EXPIRES = ? WHERE REALM_ID = ? AND (LEASE_EXPIRES IS NULL OR LEASE_EXPIRES < ?)";
+	}
+
+	@Override
+	public String getDeleteRealmRefreshSql() {
+		return "DELETE FROM SAKAI_REALM_REFRESH WHERE REALM_ID = ? AND LEASE_OWNER = ? AND QUEUED <= ?";
+	}
+
+	@Override
+	public String getReleaseRealmRefreshSql() {
+		return "UPDATE SAKAI_REALM_REFRESH SET LEASE_OWNER = NULL, LEASE_EXPIRES = NULL WHERE REALM_ID = ? AND LEASE_OWNER = ?";
+	}
+
+	@Override
+	public String getCountRealmRefreshSql() {
+		return "SELECT COUNT(*) FROM SAKAI_REALM_REFRESH";
+	}
 }
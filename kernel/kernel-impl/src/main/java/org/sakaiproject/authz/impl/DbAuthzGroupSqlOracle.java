@@ -23,10 +23,13 @@ package org.sakaiproject.authz.impl;
 
 import java.util.Collection;
 import java.util.Set;
+
+import org.sakaiproject.util.LimitSql;
+
 /**
  * methods for accessing authz data in an oracle database.
  */
-public class DbAuthzGroupSqlOracle extends DbAuthzGroupSqlDefault
+public class DbAuthzGroupSqlOracle extends DbAuthzGroupSqlDefault implements LimitSql.FetchFirst
 {
 	/* KNL-382 */
 	private static final int ORA_1795_LIMIT = 999;
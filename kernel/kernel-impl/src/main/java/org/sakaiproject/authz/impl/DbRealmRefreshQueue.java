@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.impl;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sakaiproject.db.api.SqlService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The realms waiting for a refresh from the provider, held in SAKAI_REALM_REFRESH so that every server
+ * in the cluster can work through the same backlog.
+ *
+ * A server claims a realm by taking a lease on it with a conditional update, so no two servers refresh
+ * a realm at once. A realm whose server goes away is claimed again once the lease expires.
+ */
+@Slf4j
+public class DbRealmRefreshQueue {
+
+    private final SqlService sqlService;
+    private final DbAuthzGroupSql sql;
+    private final String owner;
+    private final long leaseMillis;
+
+    /**
+     * @param owner the name the leases of this server are taken in, unique in the cluster
+     * @param leaseMillis how long a claimed realm is held before another server may claim it
+     */
+    public DbRealmRefreshQueue(SqlService sqlService, DbAuthzGroupSql sql, String owner, long leaseMillis) {
+        this.sqlService = sqlService;
+        this.sql = sql;
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Queue realms for a refresh, a realm already waiting is moved to the back of the queue
+     * and one being refreshed is refreshed again after.
+     */
+    public void add(Collection<String> realmIds) {
+        long now = System.currentTimeMillis();
+        for (String realmId : realmIds) {
+            // the insert fails on a realm already queued
+            if (sqlService.dbWriteCount(sql.getInsertRealmRefreshSql(), new Object[] {realmId, now}, null, null, true) != 1) {
+                sqlService.dbWrite(sql.getUpdateRealmRefreshQueuedSql(), new Object[] {now, realmId});
+            }
+        }
+    }
+
+    /**
+     * Claim up to max of the oldest realms waiting that no other server holds.
+     *
+     * @return the realm ids claimed, in queue order, each to when it was queued
+     */
+    public Map<String, Long> claim(int max) {
+        Map<String, Long> claimed = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        // read more than needed, other servers may claim some first
+        List<Object[]> waiting = sqlService.dbRead(sql.getSelectRealmRefreshSql(max * 2), new Object[] {now}, result -> {
+            try {
+                return new Object[] {result.getString(1), result.getLong(2)};
+            } catch (SQLException e) {
+                log.warn("reading the realm refresh queue, {}", e.toString());
+                return null;
+            }
+        });
+        for (Object[] row : waiting) {
+            if (claimed.size() >= max) break;
+            if (row == null) continue;
+            String realmId = (String) row[0];
+            int count = sqlService.dbWriteCount(sql.getClaimRealmRefreshSql(), new Object[] {owner, now + leaseMillis, realmId, now}, null, null, false);
+            if (count == 1) {
+                claimed.put(realmId, (Long) row[1]);
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Finish with a claimed realm, it leaves the queue unless it was queued again while being refreshed.
+     *
+     * @param queued when the realm was queued, as returned by {@link #claim(int)}
+     */
+    public void done(String realmId, long queued) {
+        int count = sqlService.dbWriteCount(sql.getDeleteRealmRefreshSql(), new Object[] {realmId, owner, queued}, null, null, false);
+        if (count < 1) {
+            log.debug("Realm {} was queued again during its refresh", realmId);
+            sqlService.dbWrite(sql.getReleaseRealmRefreshSql(), new Object[] {realmId, owner});
+        }
+    }
+
+    /**
+     * @return the number of realms waiting or being refreshed, across the cluster
+     */
+    public int size() {
+        List<Integer> count = sqlService.dbRead(sql.getCountRealmRefreshSql(), null, result -> {
+            try {
+                return result.getInt(1);
+            } catch (SQLException e) {
+                log.warn("counting the realm refresh queue, {}", e.toString());
+                return null;
+            }
+        });
+        return count.isEmpty() || count.get(0) == null ? 0 : count.get(0);
+    }
+
+}
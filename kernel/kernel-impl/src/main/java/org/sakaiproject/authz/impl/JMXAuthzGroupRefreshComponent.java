@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.impl;
+
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Exports the backlog and throughput of the realm refreshes from the provider over JMX.
+ */
+@ManagedResource(objectName="org.sakaiproject:name=AuthzGroupRefresh", description="Sakai realm refresh backlog and throughput")
+public class JMXAuthzGroupRefreshComponent {
+
+    private DbAuthzGroupService authzGroupService;
+
+    @ManagedAttribute(description="Realms waiting for a refresh, across the cluster if the queue is shared", currencyTimeLimit=0)
+    public int getBacklog() {
+        return authzGroupService == null ? 0 : authzGroupService.getRefreshBacklog();
+    }
+
+    @ManagedAttribute(description="Set if the servers in the cluster share one queue", currencyTimeLimit=0)
+    public boolean isShared() {
+        return authzGroupService != null && authzGroupService.isRefreshShared();
+    }
+
+    @ManagedAttribute(description="Realms refreshed at once on this server", currencyTimeLimit=0)
+    public long getThreads() {
+        return authzGroupService == null ? 0 : authzGroupService.getRefreshThreads();
+    }
+
+    @ManagedAttribute(description="Realms refreshed on this server since it started", currencyTimeLimit=0)
+    public long getRefreshedCount() {
+        return authzGroupService == null ? 0 : authzGroupService.getRefreshedCount();
+    }
+
+    @ManagedAttribute(description="Time spent refreshing realms on this server since it started in ms, summed over the threads", currencyTimeLimit=0)
+    public long getRefreshedTime() {
+        return authzGroupService == null ? 0 : authzGroupService.getRefreshedTime();
+    }
+
+    @ManagedAttribute(description="Realms refreshed in the last run", currencyTimeLimit=0)
+    public long getLastRunCount() {
+        return authzGroupService == null ? 0 : authzGroupService.getLastRefreshCount();
+    }
+
+    @ManagedAttribute(description="Time the last run took in ms", currencyTimeLimit=0)
+    public long getLastRunTime() {
+        return authzGroupService == null ? 0 : authzGroupService.getLastRefreshElapsed();
+    }
+
+    @ManagedAttribute(description="Realms refreshed per minute in the last run", currencyTimeLimit=0)
+    public long getLastRunThroughput() {
+        long elapsed = getLastRunTime();
+        return elapsed == 0 ? 0 : getLastRunCount() * 60000L / elapsed;
+    }
+
+    public void setAuthzGroupService(AuthzGroupService authzGroupService) {
+        if (authzGroupService instanceof DbAuthzGroupService) {
+            this.authzGroupService = (DbAuthzGroupService) authzGroupService;
+        }
+    }
+
+}
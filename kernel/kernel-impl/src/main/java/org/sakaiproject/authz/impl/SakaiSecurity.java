@@ -22,6 +22,7 @@
 package org.sakaiproject.authz.impl;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 import lombok.extern.slf4j.Slf4j;
@@ -149,9 +150,6 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		m_cacheMinutes = Integer.parseInt(time);
 	}
 
-    
-	// student view roles, i.e. those you can role swap to
-	HashSet<String> svRoles;
 
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Init and Destroy
@@ -176,15 +174,10 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 				cacheDebugDetailed = false;
 			}
 
-			String[] externalRoles = serverConfigurationService.getString("studentview.roles", "").split(","); // get the roles that can be swapped to
-			svRoles = new HashSet<String>();
-			for (String externalRole : externalRoles) {
-				svRoles.add(externalRole.trim());
-			}
-
 			m_callCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.cache");
 			m_superCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.superCache");
 			m_contentCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.contentCache");
+			m_generationCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.generationCache");
 		}
         eventTrackingService().addObserver(this);
 	}
@@ -199,6 +192,14 @@ public abstract class SakaiSecurity implements SecurityService, Observer
      * Only used in the new caching system
      */
     Cache<String, Boolean> m_contentCache;
+    /**
+     * Cache for holding the current generation of each realm and user, and of the security cache as a whole.
+     * The keys of the cached results include the generations they were worked out under, see makeGenerationKey
+     */
+    Cache<String, Long> m_generationCache;
+
+    /** The generation of every cached result */
+    static final String GLOBAL_GENERATION = "global";
 
     /**
      * KNL-1230
@@ -261,17 +262,70 @@ public abstract class SakaiSecurity implements SecurityService, Observer
         }
     }
 
+    /**
+     * Get many permission checks from the cache with one read of each cache
+     * @param keys the cache keys (generated using makeCacheKey)
+     * @param isSuper true if these are super user cache entries
+     * @return the values found, by key (missing keys were not found in the cache)
+     */
+    Map<String, Boolean> getAllFromCache(Collection<String> keys, boolean isSuper) {
+        Map<String, Boolean> result = new HashMap<>();
+        if (m_callCache != null && !keys.isEmpty()) {
+            if (isSuper) {
+                result.putAll(m_superCache.getAll(new HashSet<>(keys)));
+            } else {
+                Set<String> contentKeys = new HashSet<>();
+                Set<String> callKeys = new HashSet<>();
+                for (String key : keys) {
+                    (key.contains("@/content") ? contentKeys : callKeys).add(key);
+                }
+                if (!contentKeys.isEmpty()) result.putAll(m_contentCache.getAll(contentKeys));
+                if (!callKeys.isEmpty()) result.putAll(m_callCache.getAll(callKeys));
+            }
+            result.values().removeIf(Objects::isNull);
+        }
+        if (cacheDebugDetailed) {
+            log.info("SScache:hits:"+result.size()+" of "+keys.size()+":"+keys);
+        }
+        return result;
+    }
+
+    /**
+     * Add many permission checks to the cache with one write to each cache
+     * @param payloads the values to cache, by cache key (generated using makeCacheKey)
+     * @param isSuper true if these are super user cache entries
+     */
+    void addAllToCache(Map<String, Boolean> payloads, boolean isSuper) {
+        if (m_callCache != null && !payloads.isEmpty()) {
+            if (isSuper) {
+                m_superCache.putAll(payloads);
+            } else {
+                Map<String, Boolean> contentPayloads = new HashMap<>();
+                Map<String, Boolean> callPayloads = new HashMap<>();
+                for (Map.Entry<String, Boolean> payload : payloads.entrySet()) {
+                    (payload.getKey().contains("@/content") ? contentPayloads : callPayloads).put(payload.getKey(), payload.getValue());
+                }
+                if (!contentPayloads.isEmpty()) m_contentCache.putAll(contentPayloads);
+                if (!callPayloads.isEmpty()) m_callCache.putAll(callPayloads);
+            }
+            if (cacheDebugDetailed) {
+                log.info("SScache:ADD"+(isSuper ? "->super:" : ":")+payloads);
+            }
+        }
+    }
+
     /* KNL-1230: expiration happens based on the following plan:
-    if (user.template, site.helper, etc. change) then clear entire security cache
-    else if the perms in a site changes we loop through all possible site users and the changed permissions and remove all those entries from the cache (including the entry for the anon user - e.g. unlock@@...)
-    else if the perms for a user change, same as site perms but all the user sites and the changed permissions
-    else if a user is added/removed from super user status then update the cache entry (easiest to simply make sure we update the cache when this happens rather than invalidating)
+    Every realm and every user has a generation, and so does the cache as a whole (global).
+    A cached result's key ends with the generations of the global cache, the user and each realm the result was worked out from.
+    if (user.template, site.helper, etc. change) then start a new global generation
+    else if the perms in a realm change (or the realm is removed) then start a new generation for that realm
+    else if users are added to, removed from or change role in a realm then start a new generation for each of those users
+    else if a user is added/removed from super user status then the !admin realm changes, which super keys include
     NOTES:
-    Cache keys are: unlock@{userId}@{perm}@{realm} AND super@{userId}
-    This strategy eliminates the need to store the invalidation keys and is much simpler to code
-    There is a very good chance many of those would not be in the cache but that should not cause a problem (however if it proves to be problematic we could do key checks to cut those down, but I don't think that is actually more efficient)
-    Getting all possible perms is cheap, that's in memory already
-    Get all siteids for a user or all userids for a site might be a little more costly, but the idea is that this is a rare case
+    Cache keys are: unlock@{userId}@{role}@{perm}@{realm}#{generations} AND super@{userId}#{generations}
+    Results under an old generation are never looked up again and simply expire, so nothing has to be enumerated or removed
+    and the caches are never cleared across the cluster.
+    Generations are random values rather than counts so a generation dropped from its cache and started again never repeats an earlier one.
     Super user change is event: SiteService.SECURE_UPDATE_SITE_MEMBERSHIP with context !/site/admin
      */
 
@@ -292,25 +346,15 @@ public abstract class SakaiSecurity implements SecurityService, Observer
                 //|| "/site/!site".equals(ref) // we might not need this one
             ) {
                 if (permissions != null && !permissions.isEmpty()) {
-                    // when the !site.helper or !user.template change then we need to just wipe the entire cache, this is a rare event
-                    m_callCache.clear();
-                    if (cacheDebug) log.info("SScache:changed template:CLEAR:"+ref);
+                    // the !site.helper or !user.template realms apply to every check, this is a rare event
+                    newGeneration(GLOBAL_GENERATION);
+                    if (cacheDebug) log.info("SScache:changed template:NEW GLOBAL GENERATION:"+ref);
                     return true;
                 }
 
-            } else if ("/site/!admin".equals(ref)) {
-                // when the super user realm (!admin, also the event context) changes (realm.upd) then we wipe this cache out
-                if (m_superCache != null) {
-                    m_superCache.clear();
-                    if (cacheDebug) log.info("SScache:changed !admin:CLEAR SUPER:"+ref);
-                }
-                return true;
-
-            } else if (ref.startsWith("/content")) {
-                // content realms require special handling
-                // WARNING: this is handled in a simple but not very efficient way, should be improved later
-                m_contentCache.clear();
-                if (cacheDebug) log.info("SScache:changed content:CLEAR CONTENT:"+ref);
+            } else if ("/site/!admin".equals(ref) || ref.startsWith("/content")) {
+                // the super user realm (!admin, also the event context) is in the super user keys, content realms are in the content keys
+                cacheRealmPermsChanged(ref, roles, permissions);
                 return true;
 
             } else {
@@ -334,29 +378,24 @@ public abstract class SakaiSecurity implements SecurityService, Observer
         if (m_callCache == null ) return false; // do nothing no cache in use
         if (azgReference != null) {
             String ref = convertRealmRefToRef(azgReference); // strip off /realm/ from start
-            if (ref.startsWith("/content")) {
-                // content realms require special handling
-                // WARNING: this is handled in a simple but not very efficient way, should be improved later
-                m_contentCache.clear();
-                if (cacheDebug) log.info("SScache:removed content:CLEAR CONTENT:"+ref);
-                return true;
-
-            } else {
-                // we only process the event change when there are changed permissions
-                cacheRealmPermsChanged(ref, null, null);
-                return true;
-            }
+            cacheRealmPermsChanged(ref, null, null);
+            return true;
         }
         return false;
     }
 
     /**
-     * Removes the specified users site visit permission from the call cache
+     * Called when users are added to, removed from or change role in a realm,
+     * starts a new generation for each of the users so none of their cached results are used again
      */
-    protected void notifyMembersRemovedFromRealm(Set<String> userIds, String azgRef) {
-
-        m_callCache.removeAll(userIds.stream().map(
-            uid -> makeCacheKey(uid, null, SiteService.SITE_VISIT, azgRef, false)).collect(Collectors.toSet()));
+    protected void notifyRealmMembersChanged(Set<String> userIds, String azgRef) {
+        if (m_callCache == null || userIds == null || userIds.isEmpty()) return; // do nothing if no cache in use
+        Map<String, Long> generations = new HashMap<>(userIds.size());
+        for (String userId : userIds) {
+            generations.put(userGenerationKey(userId), ThreadLocalRandom.current().nextLong());
+        }
+        m_generationCache.putAll(generations);
+        if (cacheDebug) log.info("SScache:changed members of "+azgRef+":NEW USER GENERATIONS:"+userIds);
     }
 
     /* Don't think we need this right now but leaving it for future ref just in case -AZ
@@ -386,6 +425,7 @@ public abstract class SakaiSecurity implements SecurityService, Observer
     /**
      * KNL-1230
      * Flush out  check caches based on changes to the permissions in an AuthzGroup
+     * by starting a new generation for it, whatever the roles and permissions changed
      * @param realmRef an AuthzGroup realm reference (e.g. /site/123123-as-sda21-213-1-33233)
      * @param roles a set of roles that changed (may be null or empty)
      * @param permissions a set of permissions that changed (may be null or empty)
@@ -393,95 +433,94 @@ public abstract class SakaiSecurity implements SecurityService, Observer
     void cacheRealmPermsChanged(String realmRef, Set<String> roles, Set<String> permissions) {
         if (m_callCache == null) return; // do nothing if no cache in use
         String azgRef = convertRealmRefToRef(realmRef);
-        if (permissions == null || permissions.isEmpty()) {
-            List<String> allPerms = functionManager().getRegisteredFunctions();
-            permissions = new HashSet<String>(allPerms);
-        }
-        HashSet<String> keysToInvalidate = new HashSet<String>();
-        // changed permissions for a role in an AZG
-        AuthzGroup azg;
-        try {
-            azg = authzGroupService().getAuthzGroup(azgRef);
-        } catch (GroupNotDefinedException e) {
-            // no group found so no invalidation needed
-            if (cacheDebug) log.warn("SScache:changed FAIL: AZG realm not found:" + azgRef + " from " + realmRef);
-            return; // SHORT CIRCUIT
-        }
-        if (roles == null || roles.isEmpty()) {
-            Set<Role> allGroupRoles = azg.getRoles();
-            roles = new HashSet<String>();
-            for (Role role : allGroupRoles) {
-                roles.add(role.getId());
-            }
-        }
-        // first handle the .anon and .auth (maybe only needed for special cases?)
-        if (roles.contains(AuthzGroupService.AUTH_ROLE)) {
-            /* .auth (AUTH_ROLE) is a special case,
-             * it could mean any possible user in the system so we cannot know which keys to invalidate.
-             * We have to just flush the entire cache
-             */
-            m_callCache.clear();
-            if (cacheDebug) log.info("SScache:changed .auth:CLEAR and DONE");
-            return; // SHORT CIRCUIT
-        }
-        boolean anon = false;
-        if (roles.contains(AuthzGroupService.ANON_ROLE)) {
-            anon = true;
+        newGeneration(realmGenerationKey(azgRef));
+        if (cacheDebug) log.info("SScache:changed "+azgRef+":NEW REALM GENERATION: roles="+roles+", perms="+permissions);
+    }
+
+    /**
+     * Start a new generation, so the cached results worked out under the current one are not used again
+     * @param generationKey the generation key (GLOBAL_GENERATION, or made with realmGenerationKey or userGenerationKey)
+     */
+    void newGeneration(String generationKey) {
+        m_generationCache.put(generationKey, ThreadLocalRandom.current().nextLong());
+    }
+
+    String realmGenerationKey(String azgRef) {
+        return "realm@" + azgRef;
+    }
+
+    String userGenerationKey(String userId) {
+        return "user@" + userId;
+    }
+
+    /**
+     * Add the current generations of the cache, the user and the realms to a cache key (made with makeCacheKey),
+     * starting a generation for any that do not have one yet
+     * @param cacheKey the cache key
+     * @param userId the internal sakai user ID (can be null)
+     * @param azgRefs the references of the realms the result is worked out from (can be null)
+     * @return the key with the generations added, or null if the cache key is null
+     */
+    String makeGenerationKey(String cacheKey, String userId, Collection<String> azgRefs) {
+        if (cacheKey == null) return null;
+        Set<String> generationKeys = generationKeys(userId, azgRefs);
+        return makeGenerationKey(cacheKey, generationKeys, getGenerations(generationKeys));
+    }
+
+    /**
+     * Add generations already read with getGenerations to a cache key, for making many keys with one cache read
+     * @param cacheKey the cache key (made with makeCacheKey)
+     * @param generationKeys the keys of the generations to add (made with generationKeys)
+     * @param generations the current generations, holding at least those of the generation keys
+     * @return the key with the generations added, or null if the cache key is null
+     */
+    String makeGenerationKey(String cacheKey, Set<String> generationKeys, Map<String, Long> generations) {
+        if (cacheKey == null) return null;
+        StringBuilder key = new StringBuilder(cacheKey).append('#');
+        for (String generationKey : generationKeys) {
+            key.append(Long.toHexString(generations.get(generationKey))).append('.');
         }
-        if (!anon) {
-            Set<Role> azgRoles = azg.getRoles();
-            for (Role role : azgRoles) {
-                if (AuthzGroupService.ANON_ROLE.equals(role.getId())) {
-                    anon = true;
-                    break;
-                }
-            }
+        return key.toString();
+    }
+
+    /**
+     * @param userId the internal sakai user ID (can be null)
+     * @param azgRefs the references of the realms a result is worked out from (can be null)
+     * @return the keys of the generations a result for this user and these realms depends on, in key order
+     */
+    Set<String> generationKeys(String userId, Collection<String> azgRefs) {
+        Set<String> generationKeys = new TreeSet<>();
+        generationKeys.add(GLOBAL_GENERATION);
+        if (userId != null) {
+            generationKeys.add(userGenerationKey(userId));
         }
-        if (anon) {
-            // anonymous user access (ANON_ROLE) needs to force reset on anonymous changes in the site
-            if (cacheDebug) log.info("SScache:changed .anon:found in "+azgRef);
-            for (String perm : permissions) {
-                if (perm != null) {
-                    keysToInvalidate.add(makeCacheKey(null, null, perm, azgRef, false));
-                }
+        if (azgRefs != null) {
+            for (String azgRef : azgRefs) {
+                generationKeys.add(realmGenerationKey(convertRealmRefToRef(azgRef)));
             }
         }
+        return generationKeys;
+    }
 
-        m_callCache.removeAll(keysToInvalidate);
-
-        // now handle all the real users
-	// clear both normal and swapped users
-	// start with a set of all roles to which one can swap
-	Set<String> svRolesFinal = (Set<String>)svRoles.clone();
-	svRolesFinal.retainAll(roles);  
-
-        Set<Member> members = azg.getMembers();
-        if (members != null && !members.isEmpty()) {
-            for (String perm : permissions) {
-                if (perm != null) {
-                    HashSet<String> permKeysToInvalidate = new HashSet<>();
-                    for (Member member : members) {
-                        if (member != null && member.isActive() && member.getUserId() != null) {
-		            boolean canSwap = member.getRole().isAllowed(SiteService.SITE_ROLE_SWAP);
-                            permKeysToInvalidate.add(makeCacheKey(member.getUserId(), null, perm, azgRef, false));
-			    // Only invalidate swapped roles if the user can swap
-			    // This is an approximation. If a user is swapped and their permission to swap is removed
-			    // or the role they are swapped to has been removed from the site
-			    // we will not invalidate their data. Their info may wait until the expiration time to sync up
-			    if (canSwap) {
-				for (String invRole: svRolesFinal) {
-				    permKeysToInvalidate.add(makeCacheKey(member.getUserId(), invRole, perm, azgRef, false));
-				}
-		            }
-                        }
-                    }
-                    // invalidate all keys (do this as a batch)
-                    if (cacheDebug) log.info("SScache:changed "+azgRef+":keys="+keysToInvalidate);
-                    m_callCache.removeAll(permKeysToInvalidate);
-                }
+    /**
+     * Read the current generations, starting a generation for any that do not have one yet
+     * @param generationKeys the generation keys
+     * @return the generation of every one of the keys
+     */
+    Map<String, Long> getGenerations(Set<String> generationKeys) {
+        Map<String, Long> generations = new HashMap<>(m_generationCache.getAll(generationKeys));
+        Map<String, Long> started = new HashMap<>();
+        for (String generationKey : generationKeys) {
+            if (generations.get(generationKey) == null) {
+                // two servers starting the same generation at once only costs a miss, whichever is kept
+                started.put(generationKey, ThreadLocalRandom.current().nextLong());
             }
         }
-        if (cacheDebug) logCacheState("cacheRealmPermsChanged("+realmRef+", roles="+roles+", perms="+permissions+")");
+        if (!started.isEmpty()) {
+            m_generationCache.putAll(started);
+            generations.putAll(started);
+        }
+        return generations;
     }
 
     /**
@@ -606,6 +645,7 @@ public abstract class SakaiSecurity implements SecurityService, Observer
         if (m_callCache != null) m_callCache.close();
         if (m_superCache != null) m_superCache.close();
         if (m_contentCache != null) m_contentCache.close();
+        if (m_generationCache != null) m_generationCache.close();
 	}
 
 	/**********************************************************************************************************************************************************************************************************************************************************
@@ -632,9 +672,10 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		if ((userId == null) || (userId.length() == 0)) return false;
 
 		// check the cache
-		String command = makeCacheKey(userId, null, null, null, true);
+		String command = null;
 		if (m_callCache != null)
 		{
+			command = makeGenerationKey(makeCacheKey(userId, null, null, null, true), userId, Collections.singleton("/site/!admin"));
 			final Boolean value = getFromCache(command, true);
 			if(value != null) return value.booleanValue();
 		}
@@ -664,8 +705,6 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		// cache
 		if (m_callCache != null)
 		{
-			Collection<String> azgIds = new HashSet<String>();
-			azgIds.add("/site/!admin");
 			addToCache(command, rv, true);
 		}
 
@@ -792,12 +831,15 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		}
 
 		// check the cache
-		String command = makeCacheKey(userId, roleswap, function, entityRef, false);
-		
+		String command = null;
 		if (m_callCache != null)
 		{
-			final Boolean value = getFromCache(command, false);
-			if(value != null) return value.booleanValue();
+			command = makeGenerationKey(makeCacheKey(userId, roleswap, function, entityRef, false), userId, azgs);
+			if (command != null)
+			{
+				final Boolean value = getFromCache(command, false);
+				if(value != null) return value.booleanValue();
+			}
 		}
 
 
@@ -846,6 +888,314 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		return users;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public Set<String> unlockMany(String userId, String function, Collection<String> entityRefs)
+	{
+		Set<String> rv = new HashSet<>();
+		if (userId == null || function == null || entityRefs == null)
+		{
+			log.warn("unlockMany(): null: " + userId + " " + function + " " + entityRefs);
+			return rv;
+		}
+
+		// as in unlock(), super users and role swapped visits are let in everywhere
+		boolean all = isSuperUser(userId) || (SiteService.SITE_VISIT_UNPUBLISHED.equals(function) && isUserRoleSwapped());
+
+		// the refs the advisors pass on, with the AuthzGroups to check for them
+		Map<String, Collection<String>> azgsByRef = new HashMap<>();
+		for (String entityRef : entityRefs)
+		{
+			if (entityRef == null) continue;
+			if (all)
+			{
+				rv.add(entityRef);
+				continue;
+			}
+			if (hasAdvisors())
+			{
+				SecurityAdvisor.SecurityAdvice advice = adviseIsAllowed(userId, function, entityRef);
+				if (advice != SecurityAdvisor.SecurityAdvice.PASS)
+				{
+					if (advice == SecurityAdvisor.SecurityAdvice.ALLOWED) rv.add(entityRef);
+					continue;
+				}
+			}
+			Collection<String> azgs = entityManager().newReference(entityRef).getAuthzGroups(userId);
+			azgsByRef.put(entityRef, azgs == null ? Collections.<String>emptySet() : azgs);
+		}
+
+		if (!azgsByRef.isEmpty())
+		{
+			rv.addAll(checkAuthzGroupsMany(userId, function, azgsByRef));
+		}
+		return rv;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Set<String> unlockUsersMany(String function, String entityRef, Collection<String> userIds)
+	{
+		Set<String> rv = new HashSet<>();
+		if (function == null || entityRef == null || userIds == null)
+		{
+			log.warn("unlockUsersMany(): null: " + function + " " + entityRef + " " + userIds);
+			return rv;
+		}
+
+		boolean roleSwapVisit = SiteService.SITE_VISIT_UNPUBLISHED.equals(function) && isUserRoleSwapped();
+		Set<String> superUsers = roleSwapVisit ? Collections.<String>emptySet() : getSuperUsers(userIds);
+		Reference ref = entityManager().newReference(entityRef);
+
+		// the users the advisors pass on, by the AuthzGroups to check for them (for most refs the same for every user)
+		Map<Set<String>, Set<String>> usersByAzgs = new HashMap<>();
+		for (String userId : userIds)
+		{
+			if (userId == null) continue;
+			if (roleSwapVisit || superUsers.contains(userId))
+			{
+				rv.add(userId);
+				continue;
+			}
+			if (hasAdvisors())
+			{
+				SecurityAdvisor.SecurityAdvice advice = adviseIsAllowed(userId, function, entityRef);
+				if (advice != SecurityAdvisor.SecurityAdvice.PASS)
+				{
+					if (advice == SecurityAdvisor.SecurityAdvice.ALLOWED) rv.add(userId);
+					continue;
+				}
+			}
+			Collection<String> azgs = ref.getAuthzGroups(userId);
+			Set<String> azgSet = azgs == null ? Collections.<String>emptySet() : new HashSet<>(azgs);
+			usersByAzgs.computeIfAbsent(azgSet, k -> new HashSet<>()).add(userId);
+		}
+
+		for (Map.Entry<Set<String>, Set<String>> entry : usersByAzgs.entrySet())
+		{
+			rv.addAll(checkAuthzGroupsUsers(entry.getValue(), function, entityRef, entry.getKey()));
+		}
+		return rv;
+	}
+
+	/**
+	 * Check the AuthzGroups of many entities for one user, as checkAuthzGroups does for one entity.
+	 * The answers not in the cache are all worked out with one AuthzGroupService check and then cached.
+	 * 
+	 * @param userId
+	 *        The user id.
+	 * @param function
+	 *        The security function.
+	 * @param azgsByRef
+	 *        The AuthzGroups to check, by entity reference.
+	 * @return The entity references that are allowed.
+	 */
+	protected Set<String> checkAuthzGroupsMany(String userId, String function, Map<String, Collection<String>> azgsByRef)
+	{
+		Set<String> rv = new HashSet<>();
+		String roleswap = getUserEffectiveRole();
+
+		// the cache keys, by entity reference
+		Map<String, String> commands = new HashMap<>();
+		Map<String, Boolean> cached = Collections.emptyMap();
+		if (m_callCache != null)
+		{
+			Map<String, Set<String>> generationKeysByRef = new HashMap<>();
+			Set<String> allGenerationKeys = new HashSet<>();
+			for (Map.Entry<String, Collection<String>> entry : azgsByRef.entrySet())
+			{
+				Set<String> generationKeys = generationKeys(userId, entry.getValue());
+				generationKeysByRef.put(entry.getKey(), generationKeys);
+				allGenerationKeys.addAll(generationKeys);
+			}
+			Map<String, Long> generations = getGenerations(allGenerationKeys);
+			for (String entityRef : azgsByRef.keySet())
+			{
+				String command = makeGenerationKey(makeCacheKey(userId, roleswap, function, entityRef, false), generationKeysByRef.get(entityRef), generations);
+				if (command != null) commands.put(entityRef, command);
+			}
+			cached = getAllFromCache(commands.values(), false);
+		}
+
+		Map<String, Collection<String>> misses = new HashMap<>();
+		for (Map.Entry<String, Collection<String>> entry : azgsByRef.entrySet())
+		{
+			Boolean value = cached.get(commands.get(entry.getKey()));
+			if (value == null)
+			{
+				misses.put(entry.getKey(), entry.getValue());
+			}
+			else if (value)
+			{
+				rv.add(entry.getKey());
+			}
+		}
+
+		if (!misses.isEmpty())
+		{
+			Set<String> allowed = authzGroupService().isAllowedMany(userId, function, misses);
+			Map<String, Boolean> payloads = new HashMap<>();
+			for (String entityRef : misses.keySet())
+			{
+				boolean value = allowed.contains(entityRef);
+				if (value) rv.add(entityRef);
+				String command = commands.get(entityRef);
+				if (command != null) payloads.put(command, value);
+			}
+			addAllToCache(payloads, false);
+		}
+		return rv;
+	}
+
+	/**
+	 * Check the AuthzGroups of an entity for many users, as checkAuthzGroups does for one user.
+	 * The answers not in the cache are all worked out with one AuthzGroupService check and then cached.
+	 * 
+	 * @param userIds
+	 *        The user ids.
+	 * @param function
+	 *        The security function.
+	 * @param entityRef
+	 *        The entity reference string.
+	 * @param azgs
+	 *        The AuthzGroups to check, the same for all these users.
+	 * @return The ids of the users who are allowed.
+	 */
+	protected Set<String> checkAuthzGroupsUsers(Set<String> userIds, String function, String entityRef, Collection<String> azgs)
+	{
+		Set<String> rv = new HashSet<>();
+		String roleswap = getUserEffectiveRole();
+
+		// the cache keys, by user id
+		Map<String, String> commands = new HashMap<>();
+		Map<String, Boolean> cached = Collections.emptyMap();
+		if (m_callCache != null)
+		{
+			Map<String, Set<String>> generationKeysByUser = new HashMap<>();
+			Set<String> allGenerationKeys = new HashSet<>();
+			for (String userId : userIds)
+			{
+				Set<String> generationKeys = generationKeys(userId, azgs);
+				generationKeysByUser.put(userId, generationKeys);
+				allGenerationKeys.addAll(generationKeys);
+			}
+			Map<String, Long> generations = getGenerations(allGenerationKeys);
+			for (String userId : userIds)
+			{
+				String command = makeGenerationKey(makeCacheKey(userId, roleswap, function, entityRef, false), generationKeysByUser.get(userId), generations);
+				if (command != null) commands.put(userId, command);
+			}
+			cached = getAllFromCache(commands.values(), false);
+		}
+
+		Set<String> misses = new HashSet<>();
+		for (String userId : userIds)
+		{
+			Boolean value = cached.get(commands.get(userId));
+			if (value == null)
+			{
+				misses.add(userId);
+			}
+			else if (value)
+			{
+				rv.add(userId);
+			}
+		}
+
+		if (!misses.isEmpty())
+		{
+			Set<String> allowed = azgs.isEmpty() ? Collections.<String>emptySet() : authzGroupService().isAllowedUsers(misses, function, azgs);
+			Map<String, Boolean> payloads = new HashMap<>();
+			for (String userId : misses)
+			{
+				boolean value = allowed.contains(userId);
+				if (value) rv.add(userId);
+				String command = commands.get(userId);
+				if (command != null) payloads.put(command, value);
+			}
+			addAllToCache(payloads, false);
+		}
+		return rv;
+	}
+
+	/**
+	 * Find which of these users are super users, as isSuperUser(userId) does for one user,
+	 * with one AuthzGroupService check for all the users not in the cache.
+	 * 
+	 * @param userIds
+	 *        The user ids.
+	 * @return The ids of the users who are super users.
+	 */
+	protected Set<String> getSuperUsers(Collection<String> userIds)
+	{
+		Set<String> rv = new HashSet<>();
+		Collection<String> adminAzgs = Collections.singleton("/site/!admin");
+
+		// the cache keys, by user id
+		Map<String, String> commands = new HashMap<>();
+		Map<String, Boolean> cached = Collections.emptyMap();
+		if (m_callCache != null)
+		{
+			Map<String, Set<String>> generationKeysByUser = new HashMap<>();
+			Set<String> allGenerationKeys = new HashSet<>();
+			for (String userId : userIds)
+			{
+				if (StringUtils.isEmpty(userId)) continue;
+				Set<String> generationKeys = generationKeys(userId, adminAzgs);
+				generationKeysByUser.put(userId, generationKeys);
+				allGenerationKeys.addAll(generationKeys);
+			}
+			Map<String, Long> generations = getGenerations(allGenerationKeys);
+			for (Map.Entry<String, Set<String>> entry : generationKeysByUser.entrySet())
+			{
+				commands.put(entry.getKey(), makeGenerationKey(makeCacheKey(entry.getKey(), null, null, null, true), entry.getValue(), generations));
+			}
+			cached = getAllFromCache(commands.values(), true);
+		}
+
+		Map<String, Boolean> payloads = new HashMap<>();
+		Set<String> misses = new HashSet<>();
+		for (String userId : userIds)
+		{
+			// if no user or the no-id user (i.e. the anon user)
+			if (StringUtils.isEmpty(userId)) continue;
+
+			Boolean value = cached.get(commands.get(userId));
+			if (value == null)
+			{
+				// these known ids are super
+				if (UserDirectoryService.ADMIN_ID.equalsIgnoreCase(userId) || "postmaster".equalsIgnoreCase(userId))
+				{
+					value = Boolean.TRUE;
+					if (commands.containsKey(userId)) payloads.put(commands.get(userId), value);
+				}
+				else
+				{
+					misses.add(userId);
+					continue;
+				}
+			}
+			if (value) rv.add(userId);
+		}
+
+		// if the user has site modification rights in the "!admin" site, welcome aboard!
+		if (!misses.isEmpty())
+		{
+			Set<String> allowed = authzGroupService().isAllowedUsers(misses, SiteService.SECURE_UPDATE_SITE, adminAzgs);
+			for (String userId : misses)
+			{
+				boolean value = allowed.contains(userId);
+				if (value) rv.add(userId);
+				if (commands.containsKey(userId)) payloads.put(commands.get(userId), value);
+			}
+		}
+		addAllToCache(payloads, true);
+
+		return rv;
+	}
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * SecurityAdvisor Support
 	 *********************************************************************************************************************************************************************************************************************************************************/
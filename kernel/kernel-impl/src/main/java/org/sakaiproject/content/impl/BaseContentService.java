@@ -26,6 +26,7 @@ import static org.sakaiproject.content.util.IdUtil.isolateName;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -35,7 +36,10 @@ import java.io.UnsupportedEncodingException;
 import java.net.SocketException;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -230,12 +234,23 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 
 	/** sakai.properties setting to enable secure inline html (true by default) */
 	protected static final String SECURE_INLINE_HTML = "content.html.forcedownload";
+
+	/** The Cache-Control policy for delivered resources, optionally per visibility and type, as content.cacheControl.public.image */
+	protected static final String CACHE_CONTROL = "content.cacheControl";
+	protected static final String CACHE_CONTROL_PUBLIC = CACHE_CONTROL + ".public";
+	protected static final String DEFAULT_CACHE_CONTROL = "must-revalidate, private";
 	
 	private static final String PROP_AVAIL_NOTI = "availableNotified";
 
 	/** MIME multipart separation string */
 	protected static final String MIME_SEPARATOR = "SAKAI_MIME_BOUNDARY";
 
+	/** The request attributes Tomcat uses to send a file with sendfile once the request returns. */
+	protected static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+	protected static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	protected static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	protected static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     protected static final String DEFAULT_RESOURCE_QUOTA = "content.quota.";
     protected static final String DEFAULT_DROPBOX_QUOTA = "content.dropbox.quota.";
 
@@ -682,6 +697,9 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		}
 		m_storage = null;
 
+		// the threads writing zip archives of content
+		ZipContentUtil.shutdown();
+
 		log.info("destroy()");
 
 	}
@@ -1034,7 +1052,8 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		{
 			BaseResourceEdit bre = new BaseResourceEdit();
 			resourceSerializer.parse(bre,blob);
-			ResourceProperties props = bre.getProperties();
+			// Type2 sets the old display name without decoding the properties
+			ResourceProperties props = bre.getOldDisplayName() == null ? bre.getProperties() : null;
 			if(props != null) {
 				String oldDisplayName = props.getProperty(ResourceProperties.PROP_DISPLAY_NAME);
 				bre.setOldDisplayName(oldDisplayName);
@@ -1048,7 +1067,8 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		{
 			BaseResourceEdit bre = new BaseResourceEdit();
 			resourceSerializer.parse(bre,blob);
-			ResourceProperties props = bre.getProperties();
+			// Type2 sets the old display name without decoding the properties
+			ResourceProperties props = bre.getOldDisplayName() == null ? bre.getProperties() : null;
 			if(props != null) {
 				String oldDisplayName = props.getProperty(ResourceProperties.PROP_DISPLAY_NAME);
 				bre.setOldDisplayName(oldDisplayName);
@@ -2169,6 +2189,28 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 
 	} // getAllResources
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<ContentEntity> getCollectionMembers(String id, String sortProperty, boolean ascending, ContentEntity after, int pageSize)
+			throws IdUnusedException, TypeException, PermissionException
+	{
+		boolean bySize = ResourceProperties.PROP_CONTENT_LENGTH.equals(sortProperty);
+		// the pages are read in the order of the storage indexes, by id or size, the display name is not in them
+		if (!bySize && sortProperty != null)
+		{
+			throw new IllegalArgumentException("Collection members cannot be sorted by " + sortProperty);
+		}
+
+		// checks the user may read the collection
+		ContentCollection collection = getCollection(id);
+
+		List<ContentEntity> members = m_storage.getMembers(collection, bySize, ascending, after, Math.max(1, Math.min(pageSize, MAXIMUM_PAGE_SIZE)));
+		cacheEntities(members);
+		return members;
+
+	} // getCollectionMembers
+
 	/**
 	 * Access a List of all the ContentResource objects in this collection (and below) which the current user has access.
 	 * 
@@ -5329,6 +5371,8 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 				    // do a reference copy so the actual content is not duplicated
 				    ((BaseResourceEdit)edit).setReferenceCopy(resource.getId());
                     log.debug("copyResource doing a reference copy of {}", resource.getId());
+				} else if (m_storage.shareBody(resource, edit)) {
+                    log.debug("copyResource sharing the body of {}", resource.getId());
 				} else {
 	                // use stream instead of byte array
 	                // edit.setContent(resource.getContent());
@@ -6384,6 +6428,95 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 	/** The chunk size used when streaming (100K). */
 	protected static final int STREAM_BUFFER_SIZE = 102400;
 
+	/**
+	 * The strong entity tag of a body with this hash.
+	 *
+	 * @param sha256
+	 *        the hex SHA-256 of the body, or null if not known
+	 * @return the quoted tag, or null when there is no hash
+	 */
+	static String strongETag(String sha256)
+	{
+		return StringUtils.isBlank(sha256) ? null : "\"" + sha256.trim() + "\"";
+	}
+
+	/**
+	 * Check the request's validators against the resource, the way Tomcat's DefaultServlet does. If-None-Match wins over
+	 * If-Modified-Since when both are sent.
+	 *
+	 * @param req
+	 *        the request
+	 * @param eTag
+	 *        the strong tag of the resource, or null
+	 * @param lastModTime
+	 *        the last modified time of the resource, or 0 if not known
+	 * @return true if the client's copy is current and a 304 can be sent
+	 */
+	static boolean isNotModified(HttpServletRequest req, String eTag, long lastModTime)
+	{
+		String ifNoneMatch = req.getHeader("If-None-Match");
+		if (ifNoneMatch != null)
+		{
+			if (eTag == null) return false;
+			for (String tag : ifNoneMatch.split(","))
+			{
+				tag = StringUtils.removeStart(tag.trim(), "W/");
+				if ("*".equals(tag) || eTag.equals(tag)) return true;
+			}
+			return false;
+		}
+
+		long since;
+		try
+		{
+			since = req.getDateHeader("If-Modified-Since");
+		}
+		catch (IllegalArgumentException e)
+		{
+			return false;
+		}
+		return since != -1 && lastModTime > 0 && lastModTime < since + 1000;
+	}
+
+	/**
+	 * Find the Cache-Control policy for delivering a resource. A resource anyone may read can have its own policy, as
+	 * content.cacheControl.public, and either may be set for a MIME type or its major type, as content.cacheControl.image/png
+	 * or content.cacheControl.public.image.
+	 *
+	 * @param resource
+	 *        the resource
+	 * @param contentType
+	 *        its MIME type
+	 * @return the policy
+	 */
+	protected String getCacheControl(ContentResource resource, String contentType)
+	{
+		String type = StringUtils.substringBefore(StringUtils.trimToEmpty(contentType), ";").trim().toLowerCase(LOCALE_US);
+		String major = StringUtils.substringBefore(type, "/");
+
+		String policy = findCacheControl(CACHE_CONTROL_PUBLIC, type, major);
+		if (policy != null && (((BaseResourceEdit) resource).requiresCopyrightAgreement() || !resource.isAvailable()
+				|| !isPubView(resource.getId())))
+		{
+			policy = null;
+		}
+		if (policy == null)
+		{
+			policy = findCacheControl(CACHE_CONTROL, type, major);
+		}
+		return (policy == null) ? DEFAULT_CACHE_CONTROL : policy;
+	}
+
+	private String findCacheControl(String name, String type, String major)
+	{
+		for (String key : new String[] { name + "." + type, name + "." + major, name })
+		{
+			String policy = serverConfigurationService.getString(key, null);
+			if (StringUtils.isNotBlank(policy)) return policy.trim();
+		}
+		return null;
+	}
+
 	/**
 	 * Process the access request for a resource.
 	 * 
@@ -6433,16 +6566,28 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		}
 		
 		// Wrap up the resource if we need to.
+		ContentResource unfiltered = resource;
 		resource = contentFilterService.wrap(resource);
 
-		// Set some headers to tell browsers to revalidate and check for updated files
-		res.addHeader("Cache-Control", "must-revalidate, private");
-		res.addHeader("Expires", "-1");
+		// the body hash names the bytes sent, unless a filter changes them
+		String eTag = (resource == unfiltered) ? strongETag(resource.getContentSha256()) : null;
 
 		try
 		{
 			long len = resource.getContentLength();
 			String contentType = resource.getContentType();
+
+			// Set some headers to tell browsers to revalidate and check for updated files
+			String cacheControl = getCacheControl(unfiltered, contentType);
+			res.addHeader("Cache-Control", cacheControl);
+			if (!cacheControl.contains("max-age"))
+			{
+				res.addHeader("Expires", "-1");
+			}
+			if (eTag != null)
+			{
+				res.setHeader("ETag", eTag);
+			}
 			ResourceProperties rp = resource.getProperties();
 			long lastModTime = 0;
 
@@ -6489,6 +6634,14 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 
 			else
 			{
+				// KNL-1316 let's see if the user already has a cached copy, before anything more is read
+				if (isNotModified(req, eTag, lastModTime))
+				{
+					// The entity has not changed since the client got it. This is not an error case.
+					res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return;
+				}
+
 				// use the last part, the file name part of the id, for the download file name
 				String fileName = org.springframework.util.StringUtils.getFilename(ref.getId());
 				String disposition = null;
@@ -6546,14 +6699,6 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 					contentType = contentType + "; charset=UTF-8";
 				}
 
-				// KNL-1316 let's see if the user already has a cached copy. Code copied and modified from Tomcat DefaultServlet.java
-				long headerValue = req.getDateHeader("If-Modified-Since");
-				if (headerValue != -1 && (lastModTime < headerValue + 1000)) {
-					// The entity has not been modified since the date specified by the client. This is not an error case.
-					res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-					return; 
-				}
-
 				// If there is a direct link to the asset, no sense streaming it.
 				// Send the asset directly to the load-balancer or to the client
 				URI directLinkUri = m_storage.getDirectLink(resource);
@@ -6592,6 +6737,13 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 						}
 					}
 
+					// a body in a local file goes to the container to send, or is copied straight from the file
+					File localFile = m_storage.getLocalFile(resource);
+					if (localFile != null && sendLocalFile(req, res, localFile, 0, len - 1))
+					{
+						return;
+					}
+
 					try (InputStream content = resource.streamContent();
 							OutputStream out = res.getOutputStream()) {
 						if (content == null)
@@ -6648,6 +6800,12 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		                    res.setContentType(contentType);
 		                }
 
+						File localFile = m_storage.getLocalFile(resource);
+						if (localFile != null && sendLocalFile(req, res, localFile, range.start, range.end))
+						{
+							return;
+						}
+
 						// stream the content using a small buffer to keep memory managed
 						InputStream content = null;
 						OutputStream out = null;
@@ -7750,7 +7908,9 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 								edit.setContentType(((ContentResource) oResource).getContentType());
 								edit.setContentSha256(((ContentResource) oResource).getContentSha256());
 								edit.setResourceType(((ContentResource) oResource).getResourceType());
-								edit.setContent(((ContentResource) oResource).streamContent());
+								if (!m_storage.shareBody((ContentResource) oResource, edit)) {
+									edit.setContent(((ContentResource) oResource).streamContent());
+								}
 								edit.setAvailability(((ContentResource) oResource).isHidden(), ((ContentResource) oResource).getReleaseDate(), ((ContentResource) oResource).getRetractDate());
 								//edit.setContent(((ContentResource) oResource).getContent());
 								// import properties
@@ -7761,7 +7921,8 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 								hideImportedContent(edit);
 								//Register the events
 								this.eventTrackingService.post(this.eventTrackingService.newEvent(EVENT_RESOURCE_ADD, edit.getReference(), true, NotificationService.NOTI_NONE));
-								boolean contentUpdated = ((BaseResourceEdit) edit).m_body != null || ((BaseResourceEdit) edit).m_contentStream != null;
+								boolean contentUpdated = ((BaseResourceEdit) edit).m_body != null || ((BaseResourceEdit) edit).m_contentStream != null
+										|| ((BaseResourceEdit) edit).referenceCopy != null;
 								if (contentUpdated){
 									this.eventTrackingService.post(this.eventTrackingService.newEvent(EVENT_RESOURCE_UPD_NEW_VERSION, edit.getReference(), true, NotificationService.NOTI_NONE));
 								}
@@ -12912,6 +13073,33 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		 */
 		public URI getDirectLink(ContentResource resource);
 
+		/**
+		 * Get the local file holding the body of the resource, so it can be sent without copying it through streams.
+		 * @param resource
+		 * @return the file or null if the body is not in a local file
+		 */
+		public File getLocalFile(ContentResource resource);
+
+		/**
+		 * Have a new resource refer to the stored body of another rather than write a copy of it, when bodies are
+		 * stored once per content hash. The copy is then only a new record.
+		 * @param source the resource being copied
+		 * @param edit the new resource
+		 * @return true if the edit now shares the body of the source, false if the body has to be copied
+		 */
+		public boolean shareBody(ContentResource source, ContentResourceEdit edit);
+
+		/**
+		 * Get a page of the members of a collection, its collections in id order first and then its resources.
+		 * @param collection the collection
+		 * @param bySize true to order the resources by size then id, false to order them by id
+		 * @param ascending true for ascending order, false for descending
+		 * @param after the last member of the previous page, or null for the first page
+		 * @param limit the most members to get
+		 * @return the members
+		 */
+		public List<ContentEntity> getMembers(ContentCollection collection, boolean bySize, boolean ascending, ContentEntity after, int limit);
+
 		/**
 		 * Get a count of all members of a collection, where 'member' means the collection
 		 * is the immediate parent of the item.  The count is not recursive and it will 
@@ -13482,7 +13670,83 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
         return exception;
     }
 
-  
+    /**
+     * Copy part of a file to the output stream, reading at positions in the file rather than skipping to the start.
+     *
+     * @param channel The file to read from
+     * @param ostream The output stream to write to
+     * @param start Start of the range which will be copied
+     * @param end End of the range which will be copied
+     * @return Exception which occurred during processing
+     */
+    protected IOException copyRange(FileChannel channel, OutputStream ostream, long start, long end) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(STREAM_BUFFER_SIZE, end - start + 1));
+        long position = start;
+        try {
+            while (position <= end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position + 1));
+                int len = channel.read(buffer, position);
+                if (len < 0) {
+                    break;
+                }
+                ostream.write(buffer.array(), 0, len);
+                position += len;
+            }
+        } catch (IOException e) {
+            return e;
+        }
+        return null;
+    }
+
+    /**
+     * Send part or all of a resource body held in a local file. When the container supports it (Tomcat's
+     * org.apache.tomcat.sendfile.* request attributes) the file is handed to it to send with sendfile once the
+     * request returns, so the body never passes through the JVM. Otherwise the file is copied with positional reads.
+     *
+     * @param req The request
+     * @param res The response, with its headers set
+     * @param file The file
+     * @param start Start of the range to send
+     * @param end End of the range to send, inclusive
+     * @return true if the body was sent or handed off, false if the file could not be opened and should be streamed
+     */
+    protected boolean sendLocalFile(HttpServletRequest req, HttpServletResponse res, File file, long start, long end) {
+        long length = end - start + 1;
+        if (serverConfigurationService.getBoolean("content.sendfile.enabled", true)
+                && length >= serverConfigurationService.getInt("content.sendfile.minsize", 49152)
+                && Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORTED))) {
+            try {
+                req.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+                req.setAttribute(SENDFILE_START, start);
+                // the end is exclusive
+                req.setAttribute(SENDFILE_END, end + 1);
+                return true;
+            } catch (IOException e) {
+                log.debug("Unable to sendfile {}: {}", file, e.toString());
+            }
+        }
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            log.debug("Unable to open {}, streaming instead: {}", file, e.toString());
+            return false;
+        }
+        res.setBufferSize((int) Math.min(length, STREAM_BUFFER_SIZE));
+        try (FileChannel c = channel; OutputStream out = res.getOutputStream()) {
+            IOException e = copyRange(c, out, start, end);
+            if (e != null) {
+                // usually the client going away
+                log.debug("Stopped sending {}: {}", file, e.toString());
+            }
+        } catch (IOException e) {
+            log.debug("Stopped sending {}: {}", file, e.toString());
+        }
+        return true;
+    }
+
     /**
      * Copy the contents of the specified input stream to the specified
      * output stream in a set of chunks as per the specified ranges.
@@ -13498,7 +13762,19 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
         throws IOException {
 
         IOException exception = null;
-                        
+
+        // a body in a local file is opened once and read at each range
+        FileChannel channel = null;
+        File localFile = m_storage.getLocalFile(content);
+        if (localFile != null) {
+            try {
+                channel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ);
+            } catch (IOException e) {
+                log.debug("Unable to open {}, streaming instead: {}", localFile, e.toString());
+            }
+        }
+
+        try {
         while ( (exception == null) && (ranges.hasNext()) ) {
 
             Range currentRange = (Range) ranges.next();
@@ -13512,6 +13788,11 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
                            + currentRange.length + "\r\n", out);
             IOUtils.write("\r\n", out);
 
+            if (channel != null) {
+                exception = copyRange(channel, out, currentRange.start, currentRange.end);
+                continue;
+            }
+
             // Printing content
 			InputStream in = null;
 			try {
@@ -13532,6 +13813,15 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
             	// ignore
             }
         }
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
 
         IOUtils.write("\r\n--" + MIME_SEPARATOR + "--\r\n", out);
         
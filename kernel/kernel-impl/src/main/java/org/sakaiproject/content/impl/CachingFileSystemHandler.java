@@ -0,0 +1,341 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.sakaiproject.content.api.FileSystemHandler;
+import org.sakaiproject.util.StorageUtils;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A FileSystemHandler keeping a copy of the assets read from another, typically an object store, in a directory on
+ * local disk, so an asset read again on this server is not fetched again.
+ * <p>
+ * The copies are held least recently used first up to {@link #setMaxSizeMb(long)}. Concurrent reads of an asset
+ * that is not held fetch it once, the others waiting for that copy. Held assets are offered as local files, so ranges
+ * and whole assets are sent from the copy as they are for the default file system handler. A copy handed out as a
+ * local file is kept for {@link #setPinSeconds(int)} after, so the container can open it before it is dropped. Assets
+ * larger than the cache are passed through without being held. Saving or deleting an asset drops its copy. The copies
+ * are kept across restarts.
+ */
+@Slf4j
+public class CachingFileSystemHandler implements FileSystemHandler {
+
+    private static final String PARTIAL = ".part";
+
+    /** The handler holding the assets. */
+    @Getter @Setter private FileSystemHandler delegate;
+
+    /** The directory holding the copies, by default content-cache in sakai.home or the temporary directory. */
+    @Setter private String cacheDirectory;
+
+    /** The most the copies may take on disk, in MB. */
+    @Setter private long maxSizeMb = 10240L;
+
+    /** How long a copy handed out as a local file is kept from eviction, in seconds. */
+    @Setter private int pinSeconds = 60;
+
+    private File directory;
+    private long maxBytes;
+
+    /** The size of each held copy by key, least recently used first. */
+    private final LinkedHashMap<String, Long> held = new LinkedHashMap<>(256, 0.75f, true);
+    private long heldBytes = 0L;
+
+    /** When each copy handed out as a local file may be evicted, by key, guarded by held. */
+    private final Map<String, Long> pinned = new HashMap<>();
+
+    /** The fetches under way by key. */
+    private final Map<String, CompletableFuture<File>> fetching = new ConcurrentHashMap<>();
+
+    public void init() {
+        if (delegate == null) {
+            throw new IllegalStateException("No delegate FileSystemHandler set for the caching FileSystemHandler");
+        }
+        if (cacheDirectory == null || cacheDirectory.trim().isEmpty()) {
+            String home = System.getProperty("sakai.home");
+            cacheDirectory = new File(home != null ? home : System.getProperty("java.io.tmpdir"), "content-cache").getPath();
+        }
+        directory = new File(cacheDirectory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create the content cache directory " + directory);
+        }
+        maxBytes = maxSizeMb * 1024L * 1024L;
+
+        // pick up what was held before a restart, oldest first so it is dropped first
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            List<File> found = files.map(Path::toFile).filter(File::isFile).collect(Collectors.toList());
+            found.sort(Comparator.comparingLong(File::lastModified));
+            synchronized (held) {
+                for (File file : found) {
+                    if (file.getName().endsWith(PARTIAL)) {
+                        file.delete();
+                    } else {
+                        held.put(file.getName(), file.length());
+                        heldBytes += file.length();
+                    }
+                }
+                evict();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read the content cache directory {}: {}", directory, e.toString());
+        }
+        log.info("Caching assets of {} in {}, {} held of {} MB", delegate.getClass().getName(), directory, held.size(), maxSizeMb);
+    }
+
+    @Override
+    public URI getAssetDirectLink(String id, String root, String filePath) throws IOException {
+        return delegate.getAssetDirectLink(id, root, filePath);
+    }
+
+    @Override
+    public InputStream getInputStream(String id, String root, String filePath) throws IOException {
+        String key = key(id, root, filePath);
+        File file = getHeld(key);
+        if (file == null) {
+            CompletableFuture<File> mine = new CompletableFuture<>();
+            CompletableFuture<File> running = fetching.putIfAbsent(key, mine);
+            if (running == null) {
+                return fetch(key, mine, id, root, filePath);
+            }
+            file = await(running, id);
+            if (file == null) {
+                // too large to hold
+                return delegate.getInputStream(id, root, filePath);
+            }
+        }
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            // dropped since, which an open stream would have survived
+            forget(key);
+            return delegate.getInputStream(id, root, filePath);
+        }
+    }
+
+    @Override
+    public File getLocalFile(String id, String root, String filePath) {
+        String key = key(id, root, filePath);
+        synchronized (held) {
+            File file = getHeld(key);
+            if (file != null) {
+                pinned.put(key, System.currentTimeMillis() + pinSeconds * 1000L);
+            }
+            return file;
+        }
+    }
+
+    @Override
+    public long saveInputStream(String id, String root, String filePath, InputStream stream) throws IOException {
+        drop(key(id, root, filePath));
+        return delegate.saveInputStream(id, root, filePath, stream);
+    }
+
+    @Override
+    public boolean delete(String id, String root, String filePath) {
+        drop(key(id, root, filePath));
+        return delegate.delete(id, root, filePath);
+    }
+
+    /**
+     * @return the bytes held on disk
+     */
+    public long getHeldBytes() {
+        synchronized (held) {
+            return heldBytes;
+        }
+    }
+
+    private File getHeld(String key) {
+        synchronized (held) {
+            if (held.get(key) == null) return null;
+        }
+        File file = file(key);
+        if (file.isFile()) return file;
+        forget(key);
+        return null;
+    }
+
+    /**
+     * Wait for the fetch already under way.
+     *
+     * @return the copy, or null if the asset was too large to hold
+     */
+    private File await(CompletableFuture<File> running, String id) throws IOException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for " + id, e);
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Fetch an asset into the cache and open the copy, or pass it through if it is larger than the cache.
+     */
+    private InputStream fetch(String key, CompletableFuture<File> mine, String id, String root, String filePath) throws IOException {
+        try {
+            File file = file(key);
+            file.getParentFile().mkdirs();
+            File partial = File.createTempFile(key, PARTIAL, file.getParentFile());
+            InputStream in = delegate.getInputStream(id, root, filePath);
+            boolean passed = false;
+            try {
+                long size = copy(in, partial, maxBytes);
+                if (size < 0) {
+                    // holding it would only evict everything else, so what was read is sent on ahead of the rest
+                    log.debug("Passing {} through, it is larger than the {} MB held", id, maxSizeMb);
+                    mine.complete(null);
+                    InputStream head = new FileInputStream(partial) {
+                        @Override
+                        public void close() throws IOException {
+                            super.close();
+                            Files.deleteIfExists(partial.toPath());
+                        }
+                    };
+                    passed = true;
+                    return new SequenceInputStream(head, in);
+                }
+                synchronized (held) {
+                    // unless the asset was saved or deleted meanwhile, when the readers go to the handler instead
+                    if (fetching.get(key) == mine) {
+                        Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        Long previous = held.put(key, size);
+                        heldBytes += size - (previous == null ? 0L : previous);
+                        // the file just fetched is the most recently used so goes last, if at all
+                        evict();
+                    }
+                }
+                log.debug("Fetched {} bytes of {} into {}", size, id, file);
+            } finally {
+                if (!passed) {
+                    in.close();
+                    partial.delete();
+                }
+            }
+            mine.complete(file);
+            try {
+                return new FileInputStream(file);
+            } catch (FileNotFoundException e) {
+                // dropped already
+                return delegate.getInputStream(id, root, filePath);
+            }
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            fetching.remove(key, mine);
+        }
+    }
+
+    /**
+     * Copy at most one byte more than the limit into a file.
+     *
+     * @return the bytes copied, or -1 if the stream holds more than the limit
+     */
+    private static long copy(InputStream in, File to, long limit) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0L;
+        try (OutputStream out = new FileOutputStream(to)) {
+            while (total <= limit) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, limit + 1 - total));
+                if (n < 0) return total;
+                out.write(buffer, 0, n);
+                total += n;
+            }
+        }
+        return -1L;
+    }
+
+    /** Drop copies that are not pinned until within the size, while holding the lock on held. */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        pinned.values().removeIf(until -> until <= now);
+        Iterator<Map.Entry<String, Long>> eldest = held.entrySet().iterator();
+        while (heldBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (pinned.containsKey(entry.getKey())) continue;
+            eldest.remove();
+            heldBytes -= entry.getValue();
+            file(entry.getKey()).delete();
+        }
+    }
+
+    private void forget(String key) {
+        synchronized (held) {
+            Long size = held.remove(key);
+            if (size != null) heldBytes -= size;
+            pinned.remove(key);
+        }
+    }
+
+    private void drop(String key) {
+        synchronized (held) {
+            fetching.remove(key);
+            forget(key);
+            file(key).delete();
+        }
+    }
+
+    private File file(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    static String key(String id, String root, String filePath) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(root).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(filePath).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+            return StorageUtils.bytesToHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
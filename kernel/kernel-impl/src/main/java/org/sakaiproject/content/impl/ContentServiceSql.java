@@ -190,4 +190,95 @@ public interface ContentServiceSql
 	 */
 	String getCountFilePath(String resourceTableName);
 
+	/**
+	 * returns the sql statement which retrieves the collection, total number of bytes and number of resources for each collection within a site.
+	 */
+	String getContextUsageSql(String resourceTableName);
+
+	/**
+	 * returns the sql statement which retrieves the context and size of a resource.
+	 */
+	String getResourceUsageSql(String resourceTableName);
+
+	/**
+	 * returns the sql statement which retrieves the area, bytes and file count of a context from the content_usage table.
+	 */
+	String getUsageSql();
+
+	/**
+	 * returns the sql statement which retrieves the contexts in the content_usage table.
+	 */
+	String getUsageContextsSql();
+
+	/**
+	 * returns the sql statement which inserts the usage of an area of a context into the content_usage table.
+	 */
+	String getInsertUsageSql();
+
+	/**
+	 * returns the sql statement which adds to the bytes and file count of an area of a context in the content_usage table.
+	 */
+	String getUpdateUsageSql();
+
+	/**
+	 * returns the sql statement which removes the usage of a context from the content_usage table.
+	 */
+	String getDeleteUsageSql();
+
+	/**
+	 * returns the sql statement which retrieves a page of the collections in a collection, with their ids, in order of their ids, after a given id if asked.
+	 */
+	String getCollectionMembersSql(String collectionTableName, boolean after, boolean ascending, int limit);
+
+	/**
+	 * returns the sql statement which retrieves a page of the resources in a collection, with their ids and sizes, in order of their ids or of their sizes then ids,
+	 * after a given resource if asked.
+	 */
+	String getResourceMembersSql(String resourceTableName, boolean bySize, boolean after, boolean ascending, int limit);
+
+	/**
+	 * returns the sql statement which retrieves the id, file path, size and sha256 of a page of resources in order of their ids, after a given id if asked.
+	 */
+	String getScrubResourcesSql(String resourceTableName, boolean after, int limit);
+
+	/**
+	 * returns the sql statement which retrieves the file path and sha256 of a resource.
+	 */
+	String getResourceBodySha256Sql(String resourceTableName);
+
+	/**
+	 * returns the sql statement which sets the sha256 of a resource that has none.
+	 */
+	String getUpdateMissingSha256Sql(String resourceTableName);
+
+	/**
+	 * returns the sql statement which retrieves the last id, passes and pass start of a scrub from the content_body_scrub table.
+	 */
+	String getScrubCursorSql();
+
+	/**
+	 * returns the sql statement which inserts the cursor of a scrub into the content_body_scrub table.
+	 */
+	String getInsertScrubCursorSql();
+
+	/**
+	 * returns the sql statement which updates the cursor of a scrub in the content_body_scrub table.
+	 */
+	String getUpdateScrubCursorSql();
+
+	/**
+	 * returns the sql statement which removes the problems recorded for the resources up to an id, and after another if asked.
+	 */
+	String getDeleteBodyProblemsSql(boolean after);
+
+	/**
+	 * returns the sql statement which records a problem with the body of a resource in the content_body_problem table.
+	 */
+	String getInsertBodyProblemSql();
+
+	/**
+	 * returns the sql statement which retrieves the problems recorded in the content_body_problem table in order of resource id.
+	 */
+	String getBodyProblemsSql(int limit);
+
 }
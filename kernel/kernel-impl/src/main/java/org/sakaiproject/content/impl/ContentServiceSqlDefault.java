@@ -21,11 +21,12 @@
 
 package org.sakaiproject.content.impl;
 
+import org.sakaiproject.util.LimitSql;
 
 /**
  * methods for accessing content data in a database.
  */
-public class ContentServiceSqlDefault implements ContentServiceSql {
+public class ContentServiceSqlDefault implements ContentServiceSql, LimitSql {
     /**
      * returns the sql statement which retrieves the body from the specified table (content_resource_body_binary).
      */
@@ -249,4 +250,96 @@ public class ContentServiceSqlDefault implements ContentServiceSql {
         return "select count(file_path) from " + resourceTableName + " where file_path = ?";
     }
 
+    public String getContextUsageSql(String resourceTableName) {
+        return "select IN_COLLECTION, SUM(FILE_SIZE), COUNT(*) from " + resourceTableName + " where CONTEXT = ? GROUP BY IN_COLLECTION";
+    }
+
+    public String getResourceUsageSql(String resourceTableName) {
+        return "select CONTEXT, FILE_SIZE from " + resourceTableName + " where RESOURCE_ID = ?";
+    }
+
+    public String getUsageSql() {
+        return "select AREA, FILE_SIZE, FILE_COUNT from CONTENT_USAGE where CONTEXT = ?";
+    }
+
+    public String getUsageContextsSql() {
+        return "select distinct CONTEXT from CONTENT_USAGE";
+    }
+
+    public String getInsertUsageSql() {
+        return "insert into CONTENT_USAGE (CONTEXT, AREA, FILE_SIZE, FILE_COUNT) values (?, ?, ?, ?)";
+    }
+
+    public String getUpdateUsageSql() {
+        return "update CONTENT_USAGE set FILE_SIZE = FILE_SIZE + ?, FILE_COUNT = FILE_COUNT + ? where CONTEXT = ? and AREA = ?";
+    }
+
+    public String getDeleteUsageSql() {
+        return "delete from CONTENT_USAGE where CONTEXT = ?";
+    }
+
+    public String getCollectionMembersSql(String collectionTableName, boolean after, boolean ascending, int limit) {
+        String order = ascending ? " asc" : " desc";
+        StringBuilder sql = new StringBuilder("select BINARY_ENTITY, COLLECTION_ID from ").append(collectionTableName).append(" where IN_COLLECTION = ?");
+        if (after) {
+            sql.append(" and COLLECTION_ID ").append(ascending ? ">" : "<").append(" ?");
+        }
+        sql.append(" order by COLLECTION_ID").append(order);
+        return limit(sql.toString(), limit);
+    }
+
+    public String getResourceMembersSql(String resourceTableName, boolean bySize, boolean after, boolean ascending, int limit) {
+        String order = ascending ? " asc" : " desc";
+        String op = ascending ? " > ?" : " < ?";
+        StringBuilder sql = new StringBuilder("select BINARY_ENTITY, RESOURCE_ID, FILE_SIZE from ").append(resourceTableName).append(" where IN_COLLECTION = ?");
+        if (after && bySize) {
+            sql.append(" and (FILE_SIZE").append(op).append(" or (FILE_SIZE = ? and RESOURCE_ID").append(op).append("))");
+        } else if (after) {
+            sql.append(" and RESOURCE_ID").append(op);
+        }
+        sql.append(" order by ");
+        if (bySize) {
+            sql.append("FILE_SIZE").append(order).append(", ");
+        }
+        sql.append("RESOURCE_ID").append(order);
+        return limit(sql.toString(), limit);
+    }
+
+    public String getScrubResourcesSql(String resourceTableName, boolean after, int limit) {
+        return limit("select RESOURCE_ID, FILE_PATH, FILE_SIZE, RESOURCE_SHA256 from " + resourceTableName
+                + (after ? " where RESOURCE_ID > ?" : "") + " order by RESOURCE_ID", limit);
+    }
+
+    public String getResourceBodySha256Sql(String resourceTableName) {
+        return "select FILE_PATH, RESOURCE_SHA256 from " + resourceTableName + " where RESOURCE_ID = ?";
+    }
+
+    public String getUpdateMissingSha256Sql(String resourceTableName) {
+        return "update " + resourceTableName + " set RESOURCE_SHA256 = ? where RESOURCE_ID = ? and (RESOURCE_SHA256 is null or RESOURCE_SHA256 = '')";
+    }
+
+    public String getScrubCursorSql() {
+        return "select LAST_ID, PASSES, PASS_STARTED from CONTENT_BODY_SCRUB where NAME = ?";
+    }
+
+    public String getInsertScrubCursorSql() {
+        return "insert into CONTENT_BODY_SCRUB (LAST_ID, PASSES, PASS_STARTED, NAME) values (?, ?, ?, ?)";
+    }
+
+    public String getUpdateScrubCursorSql() {
+        return "update CONTENT_BODY_SCRUB set LAST_ID = ?, PASSES = ?, PASS_STARTED = ? where NAME = ?";
+    }
+
+    public String getDeleteBodyProblemsSql(boolean after) {
+        return "delete from CONTENT_BODY_PROBLEM where " + (after ? "RESOURCE_ID > ? and " : "") + "RESOURCE_ID <= ?";
+    }
+
+    public String getInsertBodyProblemSql() {
+        return "insert into CONTENT_BODY_PROBLEM (RESOURCE_ID, FILE_PATH, PROBLEM, EXPECTED_SHA256, FOUND_SHA256, FOUND_TIME) values (?, ?, ?, ?, ?, ?)";
+    }
+
+    public String getBodyProblemsSql(int limit) {
+        return limit("select RESOURCE_ID, FILE_PATH, PROBLEM, EXPECTED_SHA256, FOUND_SHA256, FOUND_TIME from CONTENT_BODY_PROBLEM order by RESOURCE_ID", limit);
+    }
+
 }
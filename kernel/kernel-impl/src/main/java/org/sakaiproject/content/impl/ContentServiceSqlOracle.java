@@ -21,10 +21,12 @@
 
 package org.sakaiproject.content.impl;
 
+import org.sakaiproject.util.LimitSql;
+
 /**
  * methods for accessing content data in an oracle database.
  */
-public class ContentServiceSqlOracle extends ContentServiceSqlDefault
+public class ContentServiceSqlOracle extends ContentServiceSqlDefault implements LimitSql.FetchFirst
 {
 	/**
 	 * returns the sql statement which inserts the individual-dropbox-id, site-level dropbox-id and last-update fields into the content_dropbox_changes table.
@@ -57,5 +59,4 @@ public class ContentServiceSqlOracle extends ContentServiceSqlDefault
 	public String getOnlyOneFilePath(String resourceTableName){
 		return "select file_path from " + resourceTableName + " where resource_sha256 = ? order by file_path desc fetch first 1 rows only";
 	}
-
 }
@@ -0,0 +1,477 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.sakaiproject.content.api.FileSystemHandler;
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.exception.ServerOverloadException;
+import org.sakaiproject.util.StorageUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Walks the bodies of every resource in order of id, a batch at a time, checking each against the size and sha256
+ * stored for it and filling in the sha256 of older resources that have none.
+ * <p>
+ * The bodies of a batch are read in parallel, all of them together no faster than the bytes per second allowed, so a
+ * pass over a large store takes as long as it needs to rather than competing with users. The id reached is kept in
+ * CONTENT_BODY_SCRUB after each batch so a restart carries on from there. Bodies that are missing, unreadable or differ
+ * from what is stored are recorded in CONTENT_BODY_PROBLEM, where the rows of a batch are replaced as it is checked
+ * again on the next pass. Once a pass is done the next starts after a pause. A batch that fails is tried again after a
+ * wait that doubles with each failure in a row, up to an hour.
+ */
+@Slf4j
+public class DbContentScrubber {
+
+    /** The body is not in the store. */
+    public static final String MISSING = "MISSING";
+
+    /** The body could not be read, which may pass. */
+    public static final String UNREADABLE = "UNREADABLE";
+
+    /** The body differs in size or sha256 from what is stored for the resource. */
+    public static final String MISMATCH = "MISMATCH";
+
+    /** The name of the cursor in CONTENT_BODY_SCRUB. */
+    static final String NAME = "bodies";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long MAX_RETRY_MILLIS = 60L * 60L * 1000L;
+
+    private final SqlService sqlService;
+    private final ContentServiceSql contentServiceSql;
+    private final String resourceTableName;
+    private final String resourceBodyTableName;
+    private final FileSystemHandler fileSystemHandler;
+    private final String bodyPath;
+    private final Throttle throttle;
+    private final int threads;
+    private final int batchSize;
+
+    private final ExecutorService readers;
+    private Thread thread;
+    private long retryMillis = 60L * 1000L;
+
+    private volatile String cursor;
+    private volatile int passes;
+    private volatile long passStarted;
+    private volatile boolean cursorStored;
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder filled = new LongAdder();
+    private final LongAdder problems = new LongAdder();
+
+    /** A resource to check, as listed. */
+    static final class Body {
+        final String id;
+        final String filePath;
+        final long size;
+        final String sha256;
+
+        Body(String id, String filePath, long size, String sha256) {
+            this.id = id;
+            this.filePath = filePath;
+            this.size = size;
+            this.sha256 = StringUtils.trimToNull(sha256);
+        }
+    }
+
+    /** A problem found with a body. */
+    static final class Problem {
+        final Body body;
+        final String problem;
+        final String found;
+
+        Problem(Body body, String problem, String found) {
+            this.body = body;
+            this.problem = problem;
+            this.found = found;
+        }
+    }
+
+    /**
+     * @param bodyPath the root of the bodies in the file system handler, or null if they are held in resourceBodyTableName
+     * @param bytesPerSecond the most bytes read a second, 0 or less for no limit
+     * @param threads how many bodies are read at once
+     * @param batchSize how many resources are checked between saving the cursor
+     */
+    public DbContentScrubber(SqlService sqlService, ContentServiceSql contentServiceSql, String resourceTableName, String resourceBodyTableName,
+            FileSystemHandler fileSystemHandler, String bodyPath, long bytesPerSecond, int threads, int batchSize) {
+        this.sqlService = sqlService;
+        this.contentServiceSql = contentServiceSql;
+        this.resourceTableName = resourceTableName;
+        this.resourceBodyTableName = resourceBodyTableName;
+        this.fileSystemHandler = fileSystemHandler;
+        this.bodyPath = bodyPath;
+        this.throttle = new Throttle(bytesPerSecond);
+        this.threads = Math.max(1, threads);
+        this.batchSize = Math.max(1, batchSize);
+        this.readers = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread t = new Thread(r, "content-scrub-reader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start scrubbing on a daemon thread.
+     *
+     * @param pauseMillis the pause between passes, 0 or less to stop after the pass under way
+     */
+    public synchronized void start(long pauseMillis) {
+        if (thread != null) return;
+        thread = new Thread(() -> {
+            try {
+                long retry = retryMillis;
+                while (!Thread.currentThread().isInterrupted()) {
+                    boolean more;
+                    try {
+                        more = scrubBatch();
+                        retry = retryMillis;
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        // the batch after the cursor is tried again, a database or store that is down may come back
+                        log.error("Content body scrub failed at {}, trying again in {} ms: {}", cursor, retry, e.toString());
+                        Thread.sleep(retry);
+                        retry = Math.min(retry * 2, MAX_RETRY_MILLIS);
+                        continue;
+                    }
+                    if (!more) {
+                        if (pauseMillis <= 0) break;
+                        Thread.sleep(pauseMillis);
+                    }
+                }
+                log.info("Content body scrub finished");
+            } catch (InterruptedException e) {
+                log.info("Content body scrub stopped at {}, it will continue on the next start", cursor);
+            }
+        }, "content-scrub");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Started scrubbing content bodies with {} readers, limited to {} bytes a second", threads, throttle.bytesPerSecond);
+    }
+
+    /**
+     * @param retryMillis the wait before a failed batch is tried again, doubled with each failure in a row
+     */
+    void setRetryMillis(long retryMillis) {
+        this.retryMillis = Math.max(1L, retryMillis);
+    }
+
+    /**
+     * Stop scrubbing, for good.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+        readers.shutdownNow();
+    }
+
+    /**
+     * Check the next batch of resources after the cursor, saving the cursor after it.
+     *
+     * @return true if there was a batch, false if the pass has finished, when the cursor goes back to the start
+     */
+    boolean scrubBatch() throws InterruptedException {
+        if (!cursorStored) {
+            readCursor();
+        }
+        String after = cursor;
+        List<Body> batch = list(after);
+        if (batch.isEmpty()) {
+            log.info("Content body scrub pass {} finished, {} resources checked, {} problems found", passes + 1, checked.sum(), problems.sum());
+            cursor = null;
+            passes++;
+            passStarted = System.currentTimeMillis();
+            writeCursor();
+            return false;
+        }
+
+        // resources sharing a body, as the single instance store has them, read it once
+        Map<String, Future<Object>> reads = new HashMap<>();
+        List<Future<Object>> results = new ArrayList<>(batch.size());
+        for (Body body : batch) {
+            String key = body.filePath != null && bodyPath != null ? body.filePath : body.id;
+            results.add(reads.computeIfAbsent(key, k -> readers.submit(() -> read(body))));
+        }
+
+        List<Problem> found = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Problem problem = check(batch.get(i), get(results.get(i)));
+            if (problem != null) {
+                found.add(problem);
+            }
+        }
+
+        String last = batch.get(batch.size() - 1).id;
+        if (after == null) {
+            sqlService.dbWrite(contentServiceSql.getDeleteBodyProblemsSql(false), new Object[] {last});
+        } else {
+            sqlService.dbWrite(contentServiceSql.getDeleteBodyProblemsSql(true), new Object[] {after, last});
+        }
+        long now = System.currentTimeMillis();
+        for (Problem problem : found) {
+            log.warn("Content body of {} at {} is {}", problem.body.id, problem.body.filePath, problem.problem);
+            sqlService.dbWrite(contentServiceSql.getInsertBodyProblemSql(), new Object[] {problem.body.id, problem.body.filePath,
+                    problem.problem, problem.body.sha256, problem.found, now});
+        }
+        problems.add(found.size());
+        checked.add(batch.size());
+        cursor = last;
+        writeCursor();
+        return true;
+    }
+
+    private Object get(Future<Object> result) throws InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    /**
+     * Compare what was read of a body with what is stored, filling in a missing sha256.
+     *
+     * @param read the size and sha256 read, or the problem reading
+     * @return the problem, or null if the body is as stored
+     */
+    private Problem check(Body body, Object read) {
+        if (read instanceof String) {
+            return new Problem(body, (String) read, null);
+        }
+        if (read instanceof Throwable) {
+            log.debug("Unable to read the body of {}: {}", body.id, read.toString());
+            return new Problem(body, UNREADABLE, null);
+        }
+        Object[] sizeAndSha256 = (Object[]) read;
+        long size = (Long) sizeAndSha256[0];
+        String sha256 = (String) sizeAndSha256[1];
+
+        if (size == body.size && (body.sha256 == null || body.sha256.equalsIgnoreCase(sha256))) {
+            if (body.sha256 == null && size > 0) {
+                sqlService.dbWrite(contentServiceSql.getUpdateMissingSha256Sql(resourceTableName), new Object[] {sha256, body.id});
+                filled.increment();
+            }
+            return null;
+        }
+
+        // the resource may have been saved since it was listed
+        List<String[]> now = sqlService.dbRead(contentServiceSql.getResourceBodySha256Sql(resourceTableName), new Object[] {body.id}, result -> {
+            try {
+                return new String[] {result.getString(1), result.getString(2)};
+            } catch (SQLException e) {
+                log.warn("reading the body of {}, {}", body.id, e.toString());
+                return null;
+            }
+        });
+        if (now.isEmpty() || now.get(0) == null || !StringUtils.equals(now.get(0)[0], body.filePath)
+                || !StringUtils.equals(StringUtils.trimToNull(now.get(0)[1]), body.sha256)) {
+            return null;
+        }
+        return new Problem(body, MISMATCH, sha256);
+    }
+
+    /**
+     * Read a body through the throttle.
+     *
+     * @return the size and sha256 of the body, or MISSING if it is not there
+     */
+    private Object read(Body body) throws IOException, NoSuchAlgorithmException, InterruptedException {
+        // zero length bodies are not stored
+        if (body.size == 0) {
+            return new Object[] {0L, body.sha256};
+        }
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        long size = 0L;
+        try (InputStream in = open(body)) {
+            if (in == null) return MISSING;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                throttle.acquire(read);
+                digest.update(buffer, 0, read);
+                size += read;
+                bytesRead.add(read);
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return MISSING;
+        }
+        return new Object[] {size, StorageUtils.bytesToHex(digest.digest())};
+    }
+
+    private InputStream open(Body body) throws IOException {
+        if (bodyPath != null && body.filePath != null) {
+            return fileSystemHandler.getInputStream(body.id, bodyPath, body.filePath);
+        }
+        // not yet moved to the file system, or always in the database
+        try {
+            return sqlService.dbReadBinary(contentServiceSql.getBodySql(resourceBodyTableName), new Object[] {body.id}, true);
+        } catch (ServerOverloadException e) {
+            throw new IOException("Unable to read the body of " + body.id, e);
+        }
+    }
+
+    private List<Body> list(String after) {
+        String sql = contentServiceSql.getScrubResourcesSql(resourceTableName, after != null, batchSize);
+        SqlReader<Body> reader = result -> {
+            try {
+                return new Body(result.getString(1), result.getString(2), result.getLong(3), result.getString(4));
+            } catch (SQLException e) {
+                log.warn("listing the resources to scrub, {}", e.toString());
+                return null;
+            }
+        };
+        List<Body> bodies = sqlService.dbRead(sql, after == null ? null : new Object[] {after}, reader);
+        bodies.removeIf(b -> b == null);
+        return bodies;
+    }
+
+    private void readCursor() {
+        List<Object[]> rows = sqlService.dbRead(contentServiceSql.getScrubCursorSql(), new Object[] {NAME}, result -> {
+            try {
+                return new Object[] {result.getString(1), result.getInt(2), result.getLong(3)};
+            } catch (SQLException e) {
+                log.warn("reading the scrub cursor, {}", e.toString());
+                return null;
+            }
+        });
+        if (rows.isEmpty() || rows.get(0) == null) {
+            cursor = null;
+            passes = 0;
+            passStarted = System.currentTimeMillis();
+            sqlService.dbWrite(contentServiceSql.getInsertScrubCursorSql(), new Object[] {null, 0, passStarted, NAME});
+        } else {
+            cursor = (String) rows.get(0)[0];
+            passes = (Integer) rows.get(0)[1];
+            passStarted = (Long) rows.get(0)[2];
+        }
+        cursorStored = true;
+    }
+
+    private void writeCursor() {
+        sqlService.dbWrite(contentServiceSql.getUpdateScrubCursorSql(), new Object[] {cursor, passes, passStarted, NAME});
+    }
+
+    /**
+     * @return the problems recorded, each as id, file path, problem, expected and found sha256
+     */
+    public List<String> getProblems(int limit) {
+        return sqlService.dbRead(contentServiceSql.getBodyProblemsSql(limit), null, result -> {
+            try {
+                return String.join(" ", result.getString(1), String.valueOf(result.getString(2)), result.getString(3),
+                        String.valueOf(result.getString(4)), String.valueOf(result.getString(5)));
+            } catch (SQLException e) {
+                log.warn("reading the body problems, {}", e.toString());
+                return null;
+            }
+        });
+    }
+
+    /** @return the id of the last resource checked in this pass, null at the start of a pass */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /** @return the passes finished */
+    public int getPasses() {
+        return passes;
+    }
+
+    /** @return when the pass under way started, in ms since the epoch */
+    public long getPassStarted() {
+        return passStarted;
+    }
+
+    /** @return the resources checked since the start */
+    public long getCheckedCount() {
+        return checked.sum();
+    }
+
+    /** @return the bytes read since the start */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /** @return the sha256 filled in for resources that had none since the start */
+    public long getFilledCount() {
+        return filled.sum();
+    }
+
+    /** @return the problems found since the start */
+    public long getProblemCount() {
+        return problems.sum();
+    }
+
+    /** @return true if scrubbing is under way */
+    public synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Spaces reads out to a rate shared by all the readers: each read reserves the time its bytes take at that rate
+     * after those reserved before it, and waits for it.
+     */
+    static final class Throttle {
+        final long bytesPerSecond;
+        private long next = System.nanoTime();
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(int bytes) throws InterruptedException {
+            if (bytesPerSecond <= 0) return;
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                // idle time is not saved up for a burst later
+                next = Math.max(next, now);
+                wait = next - now;
+                next += bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ package org.sakaiproject.content.impl;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -31,19 +32,26 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.regex.Matcher;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import javax.sql.DataSource;
+
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -58,12 +66,14 @@ import org.w3c.dom.Element;
 import org.sakaiproject.component.cover.ComponentManager;
 import org.sakaiproject.content.api.ContentCollection;
 import org.sakaiproject.content.api.ContentCollectionEdit;
+import org.sakaiproject.content.api.ContentEntity;
 import org.sakaiproject.content.api.ContentResource;
 import org.sakaiproject.content.api.ContentResourceEdit;
 import org.sakaiproject.content.api.FileSystemHandler;
 import org.sakaiproject.content.api.Lock;
 import org.sakaiproject.content.api.LockManager;
 import org.sakaiproject.content.impl.serialize.impl.conversion.Type1BlobCollectionConversionHandler;
+import org.sakaiproject.content.impl.serialize.impl.conversion.Type2BlobResourcesConversionHandler;
 import org.sakaiproject.db.api.SqlReader;
 import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.entity.api.ResourceProperties;
@@ -84,6 +94,8 @@ import org.sakaiproject.util.DbSingleStorage;
 import org.sakaiproject.util.EntityReaderAdapter;
 import org.sakaiproject.util.SingleStorageUser;
 import org.sakaiproject.util.Xml;
+import org.sakaiproject.util.conversion.SchemaConversionController;
+import org.sakaiproject.util.conversion.SchemaConversionDriver;
 
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -215,6 +227,181 @@ public class DbContentService extends BaseContentService
         m_convertToFile = Boolean.valueOf(value).booleanValue();
     }
 
+    /** Set if we are to convert Type1 resource serializations to Type2 in the background. */
+    protected boolean m_convertToType2 = false;
+
+    /** The pause in ms between batches of the Type2 conversion. */
+    protected long m_convertToType2Pause = 1000L;
+
+    /** The thread running the Type2 conversion, if any. */
+    private Thread m_type2Conversion = null;
+
+    /** Set if the usage of each context is kept in CONTENT_USAGE rather than summed from the resources each time. */
+    protected boolean m_usageCounters = true;
+
+    /** Set if CONTENT_USAGE is reconciled with the resources from this server. */
+    protected boolean m_usageReconcile = false;
+
+    /** The hours between reconciling CONTENT_USAGE with the resources, 0 to never. */
+    protected int m_usageReconcileHours = 24;
+
+    /** The maintained usage, null if it is not kept. */
+    protected DbContentUsage contentUsage = null;
+
+    /** Runs the reconciliation of CONTENT_USAGE, if any. */
+    private Timer m_usageReconcileTimer = null;
+
+    /** Set if the resource bodies are to be checked, and their missing sha256 filled in, in the background. */
+    protected boolean m_scrubBodies = false;
+
+    /** The most bytes a second read while checking the bodies. */
+    protected long m_scrubBytesPerSecond = 5L * 1024L * 1024L;
+
+    /** How many bodies are read at once while checking them. */
+    protected int m_scrubThreads = 4;
+
+    /** The hours between passes over the bodies, 0 to stop after one. */
+    protected int m_scrubPassPauseHours = 168;
+
+    /** Checks the bodies, if asked. */
+    protected DbContentScrubber contentScrubber = null;
+
+    /**
+     * Configuration: keep the usage of each context in CONTENT_USAGE, maintained as resources change, for quota checks.
+     * 
+     * @param value
+     *        The usage counters value.
+     */
+    public void setUsageCounters(String value)
+    {
+        m_usageCounters = Boolean.valueOf(value).booleanValue();
+    }
+
+    /**
+     * Configuration: reconcile CONTENT_USAGE with the resources in the background, on one server of a cluster.
+     * 
+     * @param value
+     *        The usage reconcile value.
+     */
+    public void setUsageReconcile(String value)
+    {
+        m_usageReconcile = Boolean.valueOf(value).booleanValue();
+    }
+
+    /**
+     * Configuration: the hours between reconciling CONTENT_USAGE with the resources, 0 to never.
+     * 
+     * @param value
+     *        The hours.
+     */
+    public void setUsageReconcileHours(String value)
+    {
+        try
+        {
+            m_usageReconcileHours = Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            log.warn("Invalid usageReconcileHours: {}", value);
+        }
+    }
+
+    /**
+     * Configuration: check the bodies of the resources against their size and sha256 in the background, filling in the sha256
+     * of resources that have none and recording problems in CONTENT_BODY_PROBLEM, on one server of a cluster.
+     * 
+     * @param value
+     *        The scrub bodies value.
+     */
+    public void setScrubBodies(String value)
+    {
+        m_scrubBodies = Boolean.valueOf(value).booleanValue();
+    }
+
+    /**
+     * Configuration: the most bytes a second read while checking the bodies, 0 for no limit.
+     * 
+     * @param value
+     *        The bytes a second.
+     */
+    public void setScrubBytesPerSecond(String value)
+    {
+        try
+        {
+            m_scrubBytesPerSecond = Long.parseLong(value);
+        }
+        catch (NumberFormatException e)
+        {
+            log.warn("Invalid scrubBytesPerSecond: {}", value);
+        }
+    }
+
+    /**
+     * Configuration: how many bodies are read at once while checking them.
+     * 
+     * @param value
+     *        The threads.
+     */
+    public void setScrubThreads(String value)
+    {
+        try
+        {
+            m_scrubThreads = Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            log.warn("Invalid scrubThreads: {}", value);
+        }
+    }
+
+    /**
+     * Configuration: the hours between passes over the bodies, 0 to stop after one.
+     * 
+     * @param value
+     *        The hours.
+     */
+    public void setScrubPassPauseHours(String value)
+    {
+        try
+        {
+            m_scrubPassPauseHours = Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            log.warn("Invalid scrubPassPauseHours: {}", value);
+        }
+    }
+
+    /**
+     * @return the checker of the resource bodies, or null if they are not being checked
+     */
+    public DbContentScrubber getContentScrubber()
+    {
+        return contentScrubber;
+    }
+
+    /**
+     * Configuration: convert the resources stored as Type1 to Type2 in the background, on one server of a cluster.
+     * 
+     * @param value
+     *        The conversion desired value.
+     */
+    public void setConvertToType2(String value)
+    {
+        m_convertToType2 = Boolean.valueOf(value).booleanValue();
+    }
+
+    /**
+     * Configuration: the pause in ms between batches of 100 resources while converting to Type2.
+     * 
+     * @param value
+     *        The pause.
+     */
+    public void setConvertToType2Pause(String value)
+    {
+        m_convertToType2Pause = Long.parseLong(value);
+    }
+
     /** Configuration: to run the ddl on init or not. */
     protected boolean m_autoDdl = false;
 
@@ -298,12 +485,52 @@ public class DbContentService extends BaseContentService
                 convertToFile();
             }
 
+            if (m_convertToType2)
+            {
+                startType2Conversion();
+            }
+
+            if (m_usageCounters)
+            {
+                contentUsage = new DbContentUsage(sqlService, contentServiceSql, resourceTableName);
+                if (m_usageReconcile && m_usageReconcileHours > 0)
+                {
+                    long period = m_usageReconcileHours * 3600000L;
+                    m_usageReconcileTimer = new Timer("content-usage-reconcile", true);
+                    m_usageReconcileTimer.schedule(new TimerTask()
+                    {
+                        public void run()
+                        {
+                            try
+                            {
+                                int repaired = contentUsage.reconcile();
+                                log.info("Reconciled content usage, repaired {} contexts", repaired);
+                            }
+                            catch (Exception e)
+                            {
+                                log.warn("Failed to reconcile content usage", e);
+                            }
+                        }
+                    }, period, period);
+                }
+            }
+
             //Check that there is a valid file system handler
             if (bodyPath != null && fileSystemHandler == null)
             {
                 throw new IllegalStateException("There is no FileSystemHandler set for the ContentService!");
             }
 
+            if (m_scrubBodies)
+            {
+                // read past a local cache, rather than filling it with every body
+                FileSystemHandler store = (fileSystemHandler instanceof CachingFileSystemHandler)
+                        ? ((CachingFileSystemHandler) fileSystemHandler).getDelegate() : fileSystemHandler;
+                contentScrubber = new DbContentScrubber(sqlService, contentServiceSql, resourceTableName, resourceBodyTableName,
+                        store, bodyPath, m_scrubBytesPerSecond, m_scrubThreads, 100);
+                contentScrubber.start(m_scrubPassPauseHours * 3600000L);
+            }
+
             log.info("init(): tables: {} {} {} {} locks-in-db: {} bodyPath: {} storage: {}",
                 collectionTableName, resourceTableName, resourceBodyTableName, groupTableName, m_locksInDb, bodyPath, m_storage);
 
@@ -706,6 +933,32 @@ public class DbContentService extends BaseContentService
         return storage;
     } // newStorage
 
+    /**
+     * A page of members listed whole, collections first in id order then resources in the order asked.
+     */
+    protected static List<ContentEntity> pageOfMembers(List<ContentEntity> members, boolean bySize, boolean ascending, ContentEntity after, int limit)
+    {
+        Comparator<ContentEntity> order = Comparator.comparing(m -> m instanceof ContentResource);
+        if (bySize)
+        {
+            Comparator<ContentEntity> size = Comparator.comparingLong(m -> m instanceof ContentResource ? ((ContentResource) m).getContentLength() : 0L);
+            order = order.thenComparing(ascending ? size : size.reversed());
+        }
+        Comparator<ContentEntity> id = Comparator.comparing(ContentEntity::getId);
+        order = order.thenComparing(ascending ? id : id.reversed());
+
+        List<ContentEntity> sorted = new ArrayList<>(members);
+        sorted.sort(order);
+        List<ContentEntity> page = new ArrayList<>();
+        for (ContentEntity member : sorted)
+        {
+            if (after != null && order.compare(member, after) <= 0) continue;
+            page.add(member);
+            if (page.size() >= limit) break;
+        }
+        return page;
+    }
+
     /*************************************************************************************************************************************************
      * Storage implementation
      ************************************************************************************************************************************************/
@@ -1269,6 +1522,119 @@ public class DbContentService extends BaseContentService
 
         } // getResources
 
+        public List<ContentEntity> getMembers(ContentCollection collection, boolean bySize, boolean ascending, ContentEntity after, int limit)
+        {
+            boolean goin = in();
+            try
+            {
+                if (resolver != null && goin)
+                {
+                    // a handled collection is listed whole and paged here
+                    List<ContentEntity> members = new ArrayList<>(resolver.getCollections(collection));
+                    members.addAll(resolver.getResources(collection));
+                    return pageOfMembers(members, bySize, ascending, after, limit);
+                }
+
+                String target = collection.getId();
+                List<ContentEntity> members = new ArrayList<>();
+                if (after == null || after instanceof ContentCollection)
+                {
+                    Object[] from = (after == null) ? null : new Object[] {after.getId(), null};
+                    members.addAll(readMembers(true, target, bySize, ascending, from, limit));
+                }
+                if (members.size() < limit)
+                {
+                    ContentResource last = (after instanceof ContentResource) ? (ContentResource) after : null;
+                    Object[] from = (last == null) ? null : new Object[] {last.getId(), last.getContentLength()};
+                    members.addAll(readMembers(false, target, bySize, ascending, from, limit - members.size()));
+                }
+                return members;
+            }
+            finally
+            {
+                out();
+            }
+        }
+
+        /**
+         * Read the collections or the resources in a collection in order, reading on past the rows that fail to parse,
+         * so fewer than the limit come back only once there are no more.
+         *
+         * @param from the id and size of the member to read after, or null to read from the first
+         */
+        private List<ContentEntity> readMembers(boolean collections, String target, boolean bySize, boolean ascending, Object[] from, int limit)
+        {
+            List<ContentEntity> members = new ArrayList<>();
+            while (members.size() < limit)
+            {
+                int wanted = limit - members.size();
+                String sql = collections
+                        ? contentServiceSql.getCollectionMembersSql(collectionTableName, from != null, ascending, wanted)
+                        : contentServiceSql.getResourceMembersSql(resourceTableName, bySize, from != null, ascending, wanted);
+                Object[] fields;
+                if (from == null)
+                {
+                    fields = new Object[] {target};
+                }
+                else if (bySize && !collections)
+                {
+                    fields = new Object[] {target, from[1], from[1], from[0]};
+                }
+                else
+                {
+                    fields = new Object[] {target, from[0]};
+                }
+                List<Object[]> rows = sqlService.dbRead(sql, fields, memberReader(collections));
+                for (Object[] row : rows)
+                {
+                    if (row[0] != null) members.add((ContentEntity) row[0]);
+                }
+                if (rows.size() < wanted) break;
+                Object[] last = rows.get(rows.size() - 1);
+                from = new Object[] {last[1], last[2]};
+            }
+            return members;
+        }
+
+        /** Reads a member as its entity, null if it fails to parse, then its id and size. */
+        private SqlReader<Object[]> memberReader(boolean collections)
+        {
+            return result -> {
+                Object[] row;
+                try
+                {
+                    row = new Object[] {null, result.getString(2), collections ? null : result.getLong(3)};
+                }
+                catch (SQLException e)
+                {
+                    log.warn("Unable to read a collection member: {}", e.toString());
+                    return null;
+                }
+                try
+                {
+                    byte[] blob = result.getBytes(1);
+                    if (blob == null) return row;
+                    if (collections)
+                    {
+                        BaseCollectionEdit edit = new BaseCollectionEdit();
+                        collectionSerializer.parse(edit, blob);
+                        row[0] = edit;
+                    }
+                    else
+                    {
+                        BaseResourceEdit edit = new BaseResourceEdit();
+                        resourceSerializer.parse(edit, blob);
+                        row[0] = edit;
+                    }
+                }
+                catch (SQLException | EntityParseException e)
+                {
+                    log.warn("Unable to read collection member {}: {}", row[1], e.toString());
+                }
+                return row;
+            };
+        }
+
         public List getFlatResources(String collectionId)
         {
             List rv = null;
@@ -1518,7 +1884,12 @@ public class DbContentService extends BaseContentService
                     {
                         insertIndividualDropboxRecord(getIndividualDropboxId(edit.getId()));
                     }
+                    Map.Entry<String, Long> stored = (contentUsage != null) ? contentUsage.getStored(edit.getId()) : null;
                     m_resourceStore.commitResource(edit);
+                    if (contentUsage != null)
+                    {
+                        contentUsage.committed(edit.getId(), stored, ((BasicGroupAwareEdit) edit).getContext(), edit.getContentLength());
+                    }
                 }
 
             }
@@ -1875,7 +2246,12 @@ public class DbContentService extends BaseContentService
 				   {
 					   insertIndividualDropboxRecord(getIndividualDropboxId(edit.getId()));
 				   }
+				   Map.Entry<String, Long> stored = (contentUsage != null) ? contentUsage.getStored(edit.getId()) : null;
 				   m_resourceStore.removeResource(edit);
+				   if (stored != null)
+				   {
+					   contentUsage.removed(edit.getId(), stored.getKey(), stored.getValue());
+				   }
 
 			   }
 		   }
@@ -2066,6 +2442,55 @@ public class DbContentService extends BaseContentService
         	return null;
         }
 
+        public File getLocalFile(ContentResource resource)
+        {
+            // as getDirectLink, only plain resources with a body in the file system
+            if (bodyPath == null || resolver != null || resource instanceof WrappedContentResource || !(resource instanceof BaseResourceEdit))
+            {
+                return null;
+            }
+            BaseResourceEdit edit = (BaseResourceEdit) resource;
+            if (edit.m_contentLength <= 0 || edit.m_filePath == null)
+            {
+                return null;
+            }
+            return fileSystemHandler.getLocalFile(edit.m_id, bodyPath, edit.m_filePath);
+        }
+
+        public boolean shareBody(ContentResource source, ContentResourceEdit edit)
+        {
+            // bodies are only shared in the file system, where deleting a resource counts the references to its file
+            if (bodyPath == null || resolver != null || !serverConfigurationService.getBoolean(PROP_SINGLE_INSTANCE, PROP_SINGLE_INSTANCE_DEFAULT))
+            {
+                return false;
+            }
+            if (source instanceof WrappedContentResource || !(source instanceof BaseResourceEdit) || !(edit instanceof BaseResourceEdit))
+            {
+                return false;
+            }
+            BaseResourceEdit other = (BaseResourceEdit) source;
+            if (other.m_contentLength <= 0 || other.m_filePath == null || other.getContentSha256() == null)
+            {
+                return false;
+            }
+            // only a body some stored resource already refers to
+            if (getCountFilePath(other.m_filePath) < 1)
+            {
+                return false;
+            }
+
+            BaseResourceEdit redit = (BaseResourceEdit) edit;
+            redit.setReferenceCopy(other.getId());
+            redit.m_filePath = other.m_filePath;
+            redit.setContentLength(other.m_contentLength);
+            redit.setContentSha256(other.getContentSha256());
+            ResourcePropertiesEdit props = redit.getPropertiesEdit();
+            props.addProperty(ResourceProperties.PROP_CONTENT_LENGTH, Long.toString(other.m_contentLength));
+            props.addProperty(ResourceProperties.PROP_CONTENT_SHA256, other.getContentSha256());
+            log.debug("Resource ({}) shares the body of ({}) at {}", edit.getId(), source.getId(), other.m_filePath);
+            return true;
+        }
+
         /**
          * Return an input stream.
          * 
@@ -2639,6 +3064,88 @@ public class DbContentService extends BaseContentService
     }
 
 
+    /**
+     * Stop the Type2 conversion and body scrub before the storage goes.
+     */
+    @Override
+    public void destroy()
+    {
+        if (m_type2Conversion != null)
+        {
+            m_type2Conversion.interrupt();
+            m_type2Conversion = null;
+        }
+        if (m_usageReconcileTimer != null)
+        {
+            m_usageReconcileTimer.cancel();
+            m_usageReconcileTimer = null;
+        }
+        if (contentScrubber != null)
+        {
+            contentScrubber.stop();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Start a daemon thread converting the Type1 BINARY_ENTITY of resources to Type2 through the SchemaConversionController,
+     * a batch at a time, using the convert.3 entry of upgradeschema.config. Type2 is read as well as Type1 so the service
+     * runs as normal while it works through the table. A record saved while it is being converted is left as saved rather
+     * than overwritten. The register table is dropped once every resource is done.
+     */
+    protected void startType2Conversion()
+    {
+        final String base = "convert.3";
+        Properties config = new Properties();
+        try (InputStream in = Type2BlobResourcesConversionHandler.class.getResourceAsStream("upgradeschema.config"))
+        {
+            config.load(in);
+        }
+        catch (Exception e)
+        {
+            log.error("Unable to load the Type2 conversion config, not converting: {}", e.toString());
+            return;
+        }
+        // vendor specific statements replace the default ones
+        String suffix = "." + sqlService.getVendor();
+        for (String key : config.stringPropertyNames())
+        {
+            if (key.startsWith(base + ".") && key.endsWith(suffix))
+            {
+                config.setProperty(key.substring(0, key.length() - suffix.length()), config.getProperty(key));
+            }
+        }
+        final SchemaConversionDriver driver = new SchemaConversionDriver();
+        driver.load(config, base);
+        final DataSource dataSource = (DataSource) ComponentManager.get("javax.sql.DataSource");
+        final Type2BlobResourcesConversionHandler handler = new Type2BlobResourcesConversionHandler();
+        handler.setCompareOnUpdate(Boolean.parseBoolean(config.getProperty(base + ".update.record.compare", "true")));
+
+        m_type2Conversion = new Thread(() -> {
+            SchemaConversionController controller = new SchemaConversionController();
+            try
+            {
+                controller.init(dataSource, handler, driver);
+                while (!Thread.currentThread().isInterrupted() && !controller.migrate(dataSource, handler, driver))
+                {
+                    Thread.sleep(m_convertToType2Pause);
+                }
+                log.info("Type2 conversion of resources finished");
+            }
+            catch (InterruptedException e)
+            {
+                log.info("Type2 conversion of resources stopped, it will continue on the next start");
+            }
+            catch (Exception e)
+            {
+                log.error("Type2 conversion of resources failed: {}", e.toString());
+            }
+        }, "content-type2-conversion");
+        m_type2Conversion.setDaemon(true);
+        m_type2Conversion.start();
+        log.info("Started the Type2 conversion of resources, pausing {} ms between batches", m_convertToType2Pause);
+    }
+
     /**
      * Create a file system body binary for any content_resource record that has a null file_path.
      */
@@ -2660,9 +3167,10 @@ public class DbContentService extends BaseContentService
 
             final Counter count = new Counter();
 
-            // read content_resource records that have null file path
+            // read content_resource records that have null file path, streaming as this can be every resource,
+            // the reader converts each one and returns null so nothing is handed on
             String sql = contentServiceSql.getResourceIdXmlSql();
-            sqlService.dbRead(sql, null, new SqlReader()
+            sqlService.dbReadEach(sql, null, new SqlReader()
             {
                 public Object readSqlResultRecord(ResultSet result)
                 {
@@ -2851,7 +3359,7 @@ public class DbContentService extends BaseContentService
                         return null;
                     }
                 }
-            });
+            }, converted -> {});
 
             connection.commit();
 
@@ -2998,20 +3506,23 @@ public class DbContentService extends BaseContentService
     }
 
     public Map<String, Long> getSizeForContext(String context) {
+        if (contentUsage != null) {
+            // by area rather than collection, which is all getBodySizeK() needs
+            return contentUsage.getSizes(context);
+        }
         Map<String, Long> sizes = new HashMap<>();
         Object[] fields = new Object[] {context};
         String sql = contentServiceSql.getContextSizesSql();
-        SqlReader<Void> sqlReader = result -> {
-            // no return value is needed as the result is added to sizes (closure)
+        SqlReader<Map.Entry<String, Long>> sqlReader = result -> {
             try {
-                sizes.put(result.getString(1), result.getLong(2));
+                return new AbstractMap.SimpleImmutableEntry<>(result.getString(1), result.getLong(2));
             } catch (SQLException e) {
                 log.warn("calculating collection sizes, {}", e.toString());
             }
             return null;
         };
 
-        sqlService.dbRead(sql, fields, sqlReader);
+        sqlService.dbReadEach(sql, fields, sqlReader, size -> sizes.put(size.getKey(), size.getValue()));
         return sizes;
     }
 
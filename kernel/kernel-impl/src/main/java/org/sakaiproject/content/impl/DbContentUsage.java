@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The bytes and number of files used by each context, kept in CONTENT_USAGE by area (the root collection of the
+ * resources, such as /group/ or /group-user/) so quota checks read a row or two rather than summing every resource
+ * of the site.
+ * <p>
+ * A context has no rows until its usage is first read, when they are summed from the resource table. Changes to
+ * resources are then applied to the rows as they are committed or removed. A change to an area of a context that has
+ * no row for it removes the rows of the context, so they are summed again when next read. {@link #reconcile()}
+ * repairs the rows that have drifted from the resource table, for instance through concurrent first reads.
+ */
+@Slf4j
+public class DbContentUsage {
+
+    private final SqlService sqlService;
+    private final ContentServiceSql contentServiceSql;
+    private final String resourceTableName;
+
+    public DbContentUsage(SqlService sqlService, ContentServiceSql contentServiceSql, String resourceTableName) {
+        this.sqlService = sqlService;
+        this.contentServiceSql = contentServiceSql;
+        this.resourceTableName = resourceTableName;
+    }
+
+    /**
+     * The area of a resource, its root collection.
+     *
+     * @param id the resource id
+     * @return the area, or null if the id has no root collection
+     */
+    public static String area(String id) {
+        if (id == null || !id.startsWith("/")) return null;
+        int end = id.indexOf('/', 1);
+        return end < 0 ? null : id.substring(0, end + 1);
+    }
+
+    /**
+     * The bytes used by a context in each of its areas.
+     *
+     * @param context the context
+     * @return the bytes by area
+     */
+    public Map<String, Long> getSizes(String context) {
+        Map<String, long[]> usage = read(context);
+        if (usage.isEmpty()) {
+            usage = sum(context);
+            for (Map.Entry<String, long[]> entry : usage.entrySet()) {
+                // a concurrent first read may have inserted the row already
+                sqlService.dbWriteCount(contentServiceSql.getInsertUsageSql(),
+                        new Object[] {context, entry.getKey(), entry.getValue()[0], entry.getValue()[1]}, null, null, true);
+            }
+        }
+        Map<String, Long> sizes = new HashMap<>();
+        usage.forEach((area, u) -> sizes.put(area, u[0]));
+        return sizes;
+    }
+
+    /**
+     * The context and size stored for a resource, read before a change to it is committed.
+     *
+     * @param id the resource id
+     * @return the context and size, or null if the resource is not stored
+     */
+    public Map.Entry<String, Long> getStored(String id) {
+        SqlReader<Map.Entry<String, Long>> reader = result -> {
+            try {
+                return new AbstractMap.SimpleImmutableEntry<>(result.getString(1), result.getLong(2));
+            } catch (SQLException e) {
+                log.warn("reading the usage of {}, {}", id, e.toString());
+                return null;
+            }
+        };
+        List<Map.Entry<String, Long>> stored = sqlService.dbRead(contentServiceSql.getResourceUsageSql(resourceTableName), new Object[] {id}, reader);
+        return stored.isEmpty() ? null : stored.get(0);
+    }
+
+    /**
+     * Apply a committed resource to the usage.
+     *
+     * @param id the resource id
+     * @param stored the context and size stored for the resource before the commit, null if it is new
+     * @param context the context of the resource now
+     * @param size the size of the resource now
+     */
+    public void committed(String id, Map.Entry<String, Long> stored, String context, long size) {
+        String area = area(id);
+        if (stored != null && Objects.equals(stored.getKey(), context)) {
+            long change = size - (stored.getValue() == null ? 0L : stored.getValue());
+            if (change != 0) {
+                adjust(context, area, change, 0);
+            }
+            return;
+        }
+        if (stored != null) {
+            removed(id, stored.getKey(), stored.getValue() == null ? 0L : stored.getValue());
+        }
+        adjust(context, area, size, 1);
+    }
+
+    /**
+     * Apply a removed resource to the usage.
+     *
+     * @param id the resource id
+     * @param context the context of the resource
+     * @param size the size of the resource
+     */
+    public void removed(String id, String context, long size) {
+        adjust(context, area(id), -size, -1);
+    }
+
+    private void adjust(String context, String area, long bytes, int files) {
+        if (context == null || area == null) return;
+        int rows = sqlService.dbWriteCount(contentServiceSql.getUpdateUsageSql(), new Object[] {bytes, files, context, area}, null, null, true);
+        if (rows != 1) {
+            // not summed yet, or the area is new to the context: sum it all again when next read
+            sqlService.dbWrite(contentServiceSql.getDeleteUsageSql(), new Object[] {context});
+        }
+    }
+
+    /**
+     * Compare the usage of every context that has rows with the resource table, replacing the rows of those that differ.
+     *
+     * @return the number of contexts repaired
+     */
+    public int reconcile() {
+        List<String> contexts = new ArrayList<>();
+        sqlService.dbReadEach(contentServiceSql.getUsageContextsSql(), null, result -> {
+            try {
+                return result.getString(1);
+            } catch (SQLException e) {
+                log.warn("reading usage contexts, {}", e.toString());
+                return null;
+            }
+        }, context -> {
+            if (context != null) contexts.add(context);
+        });
+
+        int repaired = 0;
+        for (String context : contexts) {
+            Map<String, long[]> stored = read(context);
+            Map<String, long[]> actual = sum(context);
+            if (!same(stored, actual)) {
+                log.debug("Repairing the usage of {}", context);
+                sqlService.dbWrite(contentServiceSql.getDeleteUsageSql(), new Object[] {context});
+                repaired++;
+            }
+        }
+        return repaired;
+    }
+
+    private static boolean same(Map<String, long[]> a, Map<String, long[]> b) {
+        for (String area : a.keySet()) {
+            long[] x = a.get(area);
+            long[] y = b.get(area);
+            if (y == null) {
+                if (x[0] != 0 || x[1] != 0) return false;
+            } else if (x[0] != y[0] || x[1] != y[1]) {
+                return false;
+            }
+        }
+        return a.keySet().containsAll(b.keySet());
+    }
+
+    private Map<String, long[]> read(String context) {
+        Map<String, long[]> usage = new HashMap<>();
+        sqlService.dbReadEach(contentServiceSql.getUsageSql(), new Object[] {context}, result -> {
+            try {
+                return new Object[] {result.getString(1), new long[] {result.getLong(2), result.getLong(3)}};
+            } catch (SQLException e) {
+                log.warn("reading the usage of {}, {}", context, e.toString());
+                return null;
+            }
+        }, row -> {
+            if (row != null) usage.put((String) row[0], (long[]) row[1]);
+        });
+        return usage;
+    }
+
+    private Map<String, long[]> sum(String context) {
+        Map<String, long[]> usage = new HashMap<>();
+        sqlService.dbReadEach(contentServiceSql.getContextUsageSql(resourceTableName), new Object[] {context}, result -> {
+            try {
+                return new Object[] {result.getString(1), result.getLong(2), result.getLong(3)};
+            } catch (SQLException e) {
+                log.warn("summing the usage of {}, {}", context, e.toString());
+                return null;
+            }
+        }, row -> {
+            String area = (row == null) ? null : area((String) row[0]);
+            if (area == null) return;
+            long[] u = usage.computeIfAbsent(area, a -> new long[2]);
+            u[0] += (Long) row[1];
+            u[1] += (Long) row[2];
+        });
+        return usage;
+    }
+}
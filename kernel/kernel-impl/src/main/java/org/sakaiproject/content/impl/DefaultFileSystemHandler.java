@@ -107,6 +107,12 @@ public class DefaultFileSystemHandler implements FileSystemHandler {
         return false;
     }
 
+	@Override
+	public File getLocalFile(String id, String root, String filePath) {
+		File file = getFile(id, root, filePath);
+		return file.isFile() && file.canRead() ? file : null;
+	}
+
 	@Override
 	public URI getAssetDirectLink(String id, String root, String filePath) throws IOException {
 		return null;
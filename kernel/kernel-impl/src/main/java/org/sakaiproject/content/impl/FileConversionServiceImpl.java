@@ -21,12 +21,19 @@
 
 package org.sakaiproject.content.impl;
 
+import java.io.InputStream;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.commons.io.FilenameUtils;
 import org.sakaiproject.authz.api.SecurityAdvisor;
@@ -37,18 +44,29 @@ import org.sakaiproject.content.api.ContentResource;
 import org.sakaiproject.content.api.FileConversionService;
 import org.sakaiproject.content.api.persistence.FileConversionQueueItem;
 import org.sakaiproject.content.api.persistence.FileConversionServiceRepository;
+import org.sakaiproject.content.impl.converters.FileConverter;
 import org.sakaiproject.content.impl.converters.LoolFileConverter;
 import org.sakaiproject.entity.api.ResourceProperties;
 import org.sakaiproject.entity.api.ResourcePropertiesEdit;
 import org.sakaiproject.exception.IdUnusedException;
-import org.sakaiproject.exception.PermissionException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Converts documents to PDF previews from a queue held in FILE_CONVERSION_QUEUE.
+ * <p>
+ * Any number of servers can convert. Each claims the items it converts with a lease, so an item is converted by one
+ * server at a time, and claimed again by another if its server goes before finishing it. Items are taken by priority,
+ * interactive before back-fill, and within a priority each site with items waiting takes its turn, so a back-fill of
+ * one large site does not hold up the others. A server claims items as its workers become free, looking again as soon
+ * as a conversion finishes or an item is submitted on it, and every poll interval otherwise.
+ */
 @Slf4j
 @Setter
 public class FileConversionServiceImpl implements FileConversionService {
@@ -59,15 +77,39 @@ public class FileConversionServiceImpl implements FileConversionService {
     @Autowired private ServerConfigurationService serverConfigurationService;
     @Setter private TransactionTemplate transactionTemplate;
 
-    private String converterBaseUrl;
+    /** Converts the documents, by default with the LibreOffice Online server at fileconversion.converterurl */
+    @Setter private FileConverter converter;
+
     private boolean conversionEnabled;
     private boolean submitEnabled;
     private List<String> fromTypes;
     private ScheduledExecutorService master;
-    private int pause;
-    private int queueIntervalMinutes;
+    private int pollSeconds;
+    private int leaseMinutes;
     private int maxAttemptsAllowed;
+    private String owner;
     private ExecutorService workers;
+    private Semaphore freeWorkers;
+
+    private final LongAdder converted = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+    private final LongAdder conversionMillis = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder waitMillis = new LongAdder();
+    private final LongAccumulator maxWaitMillis = new LongAccumulator(Math::max, 0L);
+
+    private final SecurityAdvisor securityAdvisor = (String userId, String function, String reference) -> {
+
+        if (ContentHostingService.AUTH_RESOURCE_READ.equals(function)
+                || ContentHostingService.AUTH_RESOURCE_ADD.equals(function)
+                || ContentHostingService.AUTH_RESOURCE_HIDDEN.equals(function)
+                || ContentHostingService.AUTH_RESOURCE_WRITE_ANY.equals(function)) {
+            return SecurityAdvisor.SecurityAdvice.ALLOWED;
+        } else {
+            return SecurityAdvisor.SecurityAdvice.NOT_ALLOWED;
+        }
+    };
 
     public void init() {
 
@@ -80,12 +122,17 @@ public class FileConversionServiceImpl implements FileConversionService {
         conversionEnabled = serverConfigurationService.getBoolean("fileconversion.conversion.enabled", false);
 
         if (conversionEnabled) {
-            converterBaseUrl = serverConfigurationService.getString("fileconversion.converterurl", "http://localhost:9980");
-            workers = Executors.newFixedThreadPool(serverConfigurationService.getInt("fileconversion.workerthreads", 5));
-            master = Executors.newScheduledThreadPool(1);
-            queueIntervalMinutes = serverConfigurationService.getInt("fileconversion.queueintervalminutes", 1);
-            pause = serverConfigurationService.getInt("fileconversion.pausemillis", 1000);
+            if (converter == null) {
+                converter = new LoolFileConverter(serverConfigurationService.getString("fileconversion.converterurl", "http://localhost:9980"));
+            }
+            int workerThreads = serverConfigurationService.getInt("fileconversion.workerthreads", 5);
+            workers = Executors.newFixedThreadPool(workerThreads);
+            freeWorkers = new Semaphore(workerThreads);
+            master = Executors.newSingleThreadScheduledExecutor();
+            pollSeconds = serverConfigurationService.getInt("fileconversion.pollseconds", 60);
+            leaseMinutes = serverConfigurationService.getInt("fileconversion.leaseminutes", 10);
             maxAttemptsAllowed = serverConfigurationService.getInt("fileconversion.maxattempts", 5);
+            owner = serverConfigurationService.getServerIdInstance();
         }
 
         startIfEnabled();
@@ -100,116 +147,151 @@ public class FileConversionServiceImpl implements FileConversionService {
             return;
         }
 
-        SecurityAdvisor securityAdvisor = (String userId, String function, String reference) -> {
+        master.scheduleWithFixedDelay(this::poll, 0, pollSeconds, TimeUnit.SECONDS);
+    }
 
-            if (ContentHostingService.AUTH_RESOURCE_READ.equals(function)
-                    || ContentHostingService.AUTH_RESOURCE_ADD.equals(function)
-                    || ContentHostingService.AUTH_RESOURCE_HIDDEN.equals(function)
-                    || ContentHostingService.AUTH_RESOURCE_WRITE_ANY.equals(function)) {
-                return SecurityAdvisor.SecurityAdvice.ALLOWED;
-            } else {
-                return SecurityAdvisor.SecurityAdvice.NOT_ALLOWED;
-            }
-        };
+    public void destroy() {
 
-        master.scheduleWithFixedDelay(() -> {
+        if (workers != null) {
+            workers.shutdownNow();
+            master.shutdownNow();
+        }
+    }
 
-            List<FileConversionQueueItem> items
-                = repository.findByStatus(FileConversionQueueItem.Status.NOT_STARTED);
+    /**
+     * Claim waiting items while there are free workers, only ever run on the master thread.
+     */
+    void poll() {
+
+        try {
+            while (freeWorkers.availablePermits() > 0) {
+                Instant now = Instant.now();
+                List<FileConversionQueueItem> items = repository.findNextPerSite(now, freeWorkers.availablePermits());
+
+                log.debug("Number of conversion items to claim: {}", items.size());
+
+                int started = 0;
+                for (FileConversionQueueItem item : items) {
+                    if (!freeWorkers.tryAcquire()) return;
+                    if (!repository.claim(item.getId(), owner, now, now.plus(leaseMinutes, ChronoUnit.MINUTES))) {
+                        // converting on another server
+                        freeWorkers.release();
+                        continue;
+                    }
+                    started++;
+                    if (item.getSubmitted() != null) {
+                        long waited = Math.max(0L, Duration.between(item.getSubmitted(), now).toMillis());
+                        claimed.increment();
+                        waitMillis.add(waited);
+                        maxWaitMillis.accumulate(waited);
+                    }
+                    try {
+                        workers.execute(() -> {
+                            try {
+                                convert(item);
+                            } finally {
+                                freeWorkers.release();
+                                wake();
+                            }
+                        });
+                    } catch (RejectedExecutionException ree) {
+                        // shutting down, the lease lets another server take it
+                        freeWorkers.release();
+                        return;
+                    }
+                }
+                // nothing waiting, or all of it claimed elsewhere since
+                if (started == 0) return;
+            }
+        } catch (Exception e) {
+            log.error("Failed to claim items from the file conversion queue", e);
+        }
+    }
 
-            log.debug("Number of unstarted conversion items: {}", items.size());
+    /**
+     * Look for more work now rather than at the next poll.
+     */
+    private void wake() {
 
-            securityService.pushAdvisor(securityAdvisor);
+        try {
+            master.execute(this::poll);
+        } catch (RejectedExecutionException ree) {
+            log.debug("File conversion stopped, not polling");
+        }
+    }
 
-            try {
-                items.forEach(item -> {
+    /**
+     * Convert a claimed item, adding the preview and removing the item, or releasing it to be tried again.
+     */
+    void convert(FileConversionQueueItem item) {
 
-                    final String ref = item.getReference();
+        final String ref = item.getReference();
 
-                    log.debug("Converting ref {} ...", ref);
+        log.debug("Converting ref {} ...", ref);
 
-                    try {
-                        final ContentResource source = contentHostingService.getResource(ref);
+        long start = System.currentTimeMillis();
+        securityService.pushAdvisor(securityAdvisor);
+        try {
+            ContentResource source = contentHostingService.getResource(ref);
 
-                        workers.submit(() -> {
+            String convertedFileName = FilenameUtils.getBaseName(ref) + ".pdf";
+            String siteId = siteId(ref);
+            log.debug("Converted file id: {}, site id: {} ", convertedFileName, siteId);
 
-                            // This should update the item to IN_PROGRESS and flush the change so
-                            // that other workers can see it. This is the mutex, in effect.
-                            transactionTemplate.executeWithoutResult(status -> {
-                                log.debug("Setting item with ref {} to IN_PROGRESS ...", ref);
+            byte[] convertedFileBytes;
+            try (InputStream in = source.streamContent()) {
+                convertedFileBytes = converter.convert(in);
+            }
 
-                                repository.findById(item.getId()).ifPresent(inProgressItem -> {
-                                    inProgressItem.setStatus(FileConversionQueueItem.Status.IN_PROGRESS);
-                                    inProgressItem.setAttempts(inProgressItem.getAttempts() + 1);
-                                    inProgressItem.setLastAttemptStarted(Instant.now());
-                                    repository.save(inProgressItem);
-                                });
-                            });
+            if (convertedFileBytes == null) {
+                throw new RuntimeException("File conversion failed - no bytes returned from converter");
+            }
 
-                            try {
-                                String convertedFileName = FilenameUtils.getBaseName(ref) + ".pdf";
-                                String fullPath = FilenameUtils.getPath(ref);
-                                String[] splitPath = fullPath.split("/");
-                                String siteId = splitPath[1];
-                                log.debug("Converted file id: {}, site id: {} ", convertedFileName, siteId);
-
-                                byte[] convertedFileBytes = LoolFileConverter.convert(converterBaseUrl, source.streamContent());
-                                
-                                if (convertedFileBytes == null) {
-                                    throw new RuntimeException("File conversion failed - no bytes returned from converter");
-                                }
-
-                                ResourcePropertiesEdit properties = contentHostingService.newResourceProperties();
-                                properties.addProperty(ResourceProperties.PROP_DISPLAY_NAME, convertedFileName);
-
-                                securityService.pushAdvisor(securityAdvisor);
-                                ContentResource previewResource
-                                        = contentHostingService.addAttachmentResource(convertedFileName, siteId, ContentHostingService.PREVIEW, ContentHostingService.PDF_MIMETYPE, convertedFileBytes, properties);
-
-                                contentHostingService.addProperty(ref, ContentHostingService.PREVIEW, previewResource.getId());
-
-                                log.debug("Deleting item with ref {}. It's been successfully converted.", ref);
-
-                                transactionTemplate.executeWithoutResult(status -> repository.deleteById(item.getId()));
-                            } catch (Exception e) {
-                                transactionTemplate.executeWithoutResult(status -> {
-                                    repository.findById(item.getId()).ifPresent(failedItem -> {
-                                        if (failedItem.getAttempts() > maxAttemptsAllowed) {
-                                            // Too many attempts. Do not try again.
-                                            failedItem.setStatus(FileConversionQueueItem.Status.FAILED);
-                                        } else {
-                                            failedItem.setStatus(FileConversionQueueItem.Status.NOT_STARTED);
-                                        }
-                                        repository.save(failedItem);
-                                    });
-                                });
-                                log.error("Call to conversion service failed", e);
-                            } finally {
-                                securityService.popAdvisor(securityAdvisor);
-                            }
-                        });
-                    } catch (IdUnusedException iue) {
-                        log.error("No resource found for ref {}", ref);
-                    } catch (PermissionException pe) {
-                        log.error("No permissions to get the resource or its properties. Resource: {}", ref, pe);
-                    } catch (Exception e) {
-                        log.error("Failed to convert resource for ref {}", ref, e);
-                    }
-                    try {
-                        Thread.sleep(pause);
-                    } catch (Exception se) {
+            ResourcePropertiesEdit properties = contentHostingService.newResourceProperties();
+            properties.addProperty(ResourceProperties.PROP_DISPLAY_NAME, convertedFileName);
+
+            ContentResource previewResource
+                    = contentHostingService.addAttachmentResource(convertedFileName, siteId, ContentHostingService.PREVIEW, ContentHostingService.PDF_MIMETYPE, convertedFileBytes, properties);
+
+            contentHostingService.addProperty(ref, ContentHostingService.PREVIEW, previewResource.getId());
+
+            log.debug("Deleting item with ref {}. It's been successfully converted.", ref);
+
+            deleteClaimed(item);
+            converted.increment();
+            conversionMillis.add(System.currentTimeMillis() - start);
+        } catch (IdUnusedException iue) {
+            log.warn("No resource found for ref {}, removing it from the conversion queue", ref);
+            deleteClaimed(item);
+        } catch (Exception e) {
+            transactionTemplate.executeWithoutResult(status -> {
+                repository.findById(item.getId()).ifPresent(failedItem -> {
+                    // Too many attempts. Do not try again.
+                    boolean abandon = failedItem.getAttempts() > maxAttemptsAllowed;
+                    FileConversionQueueItem.Status next = abandon ? FileConversionQueueItem.Status.FAILED : FileConversionQueueItem.Status.NOT_STARTED;
+                    if (!repository.release(item.getId(), owner, next)) {
+                        log.info("Lease on ref {} was taken by another server, leaving it to that server", ref);
+                    } else if (abandon) {
+                        abandoned.increment();
                     }
                 });
-            } finally {
-                securityService.popAdvisor(securityAdvisor);
-            }
-        }, 0, queueIntervalMinutes, TimeUnit.MINUTES);
+            });
+            failedAttempts.increment();
+            log.error("Call to conversion service failed for ref {}", ref, e);
+        } finally {
+            securityService.popAdvisor(securityAdvisor);
+        }
     }
 
-    public void destroy() {
+    /**
+     * Remove a claimed item, unless its lease ran out and another server has claimed it since.
+     */
+    private void deleteClaimed(FileConversionQueueItem item) {
 
-        workers.shutdownNow();
-        master.shutdownNow();
+        Boolean deleted = transactionTemplate.execute(status -> repository.deleteClaimed(item.getId(), owner));
+        if (!Boolean.TRUE.equals(deleted)) {
+            log.info("Lease on ref {} was taken by another server, leaving it to that server", item.getReference());
+        }
     }
 
     public boolean canConvert(String fromType) {
@@ -218,16 +300,31 @@ public class FileConversionServiceImpl implements FileConversionService {
 
     @Transactional
     public void submit(String ref) {
+        submit(ref, PRIORITY_INTERACTIVE);
+    }
+
+    @Transactional
+    public void submit(String ref, int priority) {
 
         if (!submitEnabled) {
             log.debug("Submit not enabled in Sakai properties. Not submitting {}.", ref);
             return;
         }
 
-        log.debug("submit({})", ref);
-
-        if (repository.findByReference(ref).size() > 0) {
-            log.debug("{} has already been queued for conversion.", ref);
+        log.debug("submit({}, {})", ref, priority);
+
+        List<FileConversionQueueItem> queued = repository.findByReference(ref);
+        if (queued.size() > 0) {
+            FileConversionQueueItem item = queued.get(0);
+            if (item.getStatus() == FileConversionQueueItem.Status.NOT_STARTED
+                    && (item.getPriority() == null || item.getPriority() > priority)) {
+                log.debug("{} has already been queued for conversion, moving it to priority {}.", ref, priority);
+                item.setPriority(priority);
+                repository.save(item);
+                wakeAfterCommit();
+            } else {
+                log.debug("{} has already been queued for conversion.", ref);
+            }
             return;
         }
 
@@ -235,6 +332,97 @@ public class FileConversionServiceImpl implements FileConversionService {
         newItem.setReference(ref);
         newItem.setStatus(FileConversionQueueItem.Status.NOT_STARTED);
         newItem.setAttempts(0);
+        newItem.setPriority(priority);
+        newItem.setSiteId(siteId(ref));
+        newItem.setSubmitted(Instant.now());
         repository.save(newItem);
+        wakeAfterCommit();
+    }
+
+    /**
+     * Start converting an item submitted on this server once it can be seen.
+     */
+    private void wakeAfterCommit() {
+
+        if (!conversionEnabled) return;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wake();
+                }
+            });
+        } else {
+            wake();
+        }
+    }
+
+    /**
+     * @return the site of a content ref, like site in /attachment/site/..., or null if there is none
+     */
+    static String siteId(String ref) {
+
+        String[] splitPath = FilenameUtils.getPath(ref).split("/");
+        return splitPath.length > 1 ? splitPath[1] : null;
+    }
+
+    /**
+     * @return the items waiting to be converted
+     */
+    public long getWaitingCount() {
+        return repository.countWaiting(Instant.now());
+    }
+
+    /**
+     * @return how long in seconds the oldest item waiting has been queued, 0 if none are
+     */
+    public long getOldestWaitingSeconds() {
+        Instant oldest = repository.findOldestWaiting(Instant.now());
+        return oldest == null ? 0L : Math.max(0L, Duration.between(oldest, Instant.now()).getSeconds());
+    }
+
+    /**
+     * @return the items converted on this server
+     */
+    public long getConvertedCount() {
+        return converted.sum();
+    }
+
+    /**
+     * @return the conversions that failed on this server, including those to be tried again
+     */
+    public long getFailedAttemptCount() {
+        return failedAttempts.sum();
+    }
+
+    /**
+     * @return the items given up on after too many attempts on this server
+     */
+    public long getAbandonedCount() {
+        return abandoned.sum();
+    }
+
+    /**
+     * @return the average time in ms an item took to convert on this server
+     */
+    public long getAverageConversionMillis() {
+        long count = converted.sum();
+        return count == 0 ? 0L : conversionMillis.sum() / count;
+    }
+
+    /**
+     * @return the average time in ms an item waited in the queue before this server claimed it
+     */
+    public long getAverageWaitMillis() {
+        long count = claimed.sum();
+        return count == 0 ? 0L : waitMillis.sum() / count;
+    }
+
+    /**
+     * @return the longest time in ms an item waited in the queue before this server claimed it
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis.get();
     }
 }
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import java.util.List;
+
+import org.sakaiproject.content.api.ContentHostingService;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Exports the progress of the content body scrub over JMX,
+ * all values are 0 or empty if the bodies are not being scrubbed on this server.
+ */
+@ManagedResource(objectName="org.sakaiproject:name=ContentScrub", description="Sakai content body scrub progress")
+public class JMXContentScrubComponent {
+
+    private DbContentService contentService;
+
+    private DbContentScrubber scrubber() {
+        return contentService == null ? null : contentService.getContentScrubber();
+    }
+
+    @ManagedAttribute(description="Set if the bodies are being scrubbed", currencyTimeLimit=0)
+    public boolean isRunning() {
+        DbContentScrubber scrubber = scrubber();
+        return scrubber != null && scrubber.isRunning();
+    }
+
+    @ManagedAttribute(description="The id of the last resource checked in this pass", currencyTimeLimit=0)
+    public String getCursor() {
+        DbContentScrubber scrubber = scrubber();
+        return scrubber == null ? "" : String.valueOf(scrubber.getCursor());
+    }
+
+    @ManagedAttribute(description="Passes over all the bodies finished", currencyTimeLimit=0)
+    public int getPasses() {
+        DbContentScrubber scrubber = scrubber();
+        return scrubber == null ? 0 : scrubber.getPasses();
+    }
+
+    @ManagedAttribute(description="When the pass under way started, in ms since the epoch", currencyTimeLimit=0)
+    public long getPassStarted() {
+        DbContentScrubber scrubber = scrubber();
+        return scrubber == null ? 0 : scrubber.getPassStarted();
+    }
+
+    @ManagedAttribute(description="Resources checked since the server started", currencyTimeLimit=0)
+    public long getCheckedCount() {
+        DbContentScrubber scrubber = scrubber();
+        return scrubber == null ? 0 : scrubber.getCheckedCount();
+    }
+
+    @ManagedAttribute(description="Bytes of bodies read since the server started", currencyTimeLimit=0)
+    public long getBytesRead() {
+        DbContentScrubber scrubber = scrubber();
+        return scrubber == null ? 0 : scrubber.getBytesRead();
+    }
+
+    @ManagedAttribute(description="Missing sha256 filled in since the server started", currencyTimeLimit=0)
+    public long getFilledCount() {
+        DbContentScrubber scrubber = scrubber();
+        return scrubber == null ? 0 : scrubber.getFilledCount();
+    }
+
+    @ManagedAttribute(description="Problems found since the server started", currencyTimeLimit=0)
+    public long getProblemCount() {
+        DbContentScrubber scrubber = scrubber();
+        return scrubber == null ? 0 : scrubber.getProblemCount();
+    }
+
+    @ManagedOperation(description="The problems recorded in CONTENT_BODY_PROBLEM, in order of resource id")
+    public String[] getProblems(int limit) {
+        DbContentScrubber scrubber = scrubber();
+        if (scrubber == null) return new String[0];
+        List<String> problems = scrubber.getProblems(limit);
+        return problems.toArray(new String[0]);
+    }
+
+    public void setContentHostingService(ContentHostingService contentHostingService) {
+        if (contentHostingService instanceof DbContentService) {
+            this.contentService = (DbContentService) contentHostingService;
+        }
+    }
+
+}
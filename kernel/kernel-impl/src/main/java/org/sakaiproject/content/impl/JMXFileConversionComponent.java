@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import org.sakaiproject.content.api.FileConversionService;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Exports the file conversion queue and the conversions on this server over JMX,
+ * all values are 0 if the service is not a FileConversionServiceImpl.
+ */
+@ManagedResource(objectName="org.sakaiproject:name=FileConversion", description="Sakai file conversion queue and throughput")
+public class JMXFileConversionComponent {
+
+    private FileConversionServiceImpl service;
+
+    @ManagedAttribute(description="Items waiting to be converted", currencyTimeLimit=0)
+    public long getWaitingCount() {
+        return service == null ? 0 : service.getWaitingCount();
+    }
+
+    @ManagedAttribute(description="Seconds the oldest item waiting has been queued", currencyTimeLimit=0)
+    public long getOldestWaitingSeconds() {
+        return service == null ? 0 : service.getOldestWaitingSeconds();
+    }
+
+    @ManagedAttribute(description="Items converted on this server", currencyTimeLimit=0)
+    public long getConvertedCount() {
+        return service == null ? 0 : service.getConvertedCount();
+    }
+
+    @ManagedAttribute(description="Conversions that failed on this server, including those tried again", currencyTimeLimit=0)
+    public long getFailedAttemptCount() {
+        return service == null ? 0 : service.getFailedAttemptCount();
+    }
+
+    @ManagedAttribute(description="Items given up on after too many attempts on this server", currencyTimeLimit=0)
+    public long getAbandonedCount() {
+        return service == null ? 0 : service.getAbandonedCount();
+    }
+
+    @ManagedAttribute(description="Average time in ms to convert an item on this server", currencyTimeLimit=0)
+    public long getAverageConversionMillis() {
+        return service == null ? 0 : service.getAverageConversionMillis();
+    }
+
+    @ManagedAttribute(description="Average time in ms items waited before this server claimed them", currencyTimeLimit=0)
+    public long getAverageWaitMillis() {
+        return service == null ? 0 : service.getAverageWaitMillis();
+    }
+
+    @ManagedAttribute(description="Longest time in ms an item waited before this server claimed it", currencyTimeLimit=0)
+    public long getMaxWaitMillis() {
+        return service == null ? 0 : service.getMaxWaitMillis();
+    }
+
+    public void setFileConversionService(FileConversionService fileConversionService) {
+        if (fileConversionService instanceof FileConversionServiceImpl) {
+            this.service = (FileConversionServiceImpl) fileConversionService;
+        }
+    }
+
+}
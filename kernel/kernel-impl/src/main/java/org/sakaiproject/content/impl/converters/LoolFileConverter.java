@@ -37,7 +37,21 @@ import org.apache.http.util.EntityUtils;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
-public class LoolFileConverter {
+public class LoolFileConverter implements FileConverter {
+
+    private final String baseUrl;
+
+    /**
+     * @param baseUrl the url of the LibreOffice Online server
+     */
+    public LoolFileConverter(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public byte[] convert(InputStream sourceInputStream) {
+        return convert(baseUrl, sourceInputStream);
+    }
 
     public static byte[] convert(String baseUrl, InputStream sourceInputStream) {
         final HttpPost httpPost = new HttpPost(baseUrl + "/lool/convert-to/pdf");
@@ -17,17 +17,30 @@ package org.sakaiproject.content.impl.persistence;
 
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.query.Query;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.springframework.transaction.annotation.Transactional;
 
+import org.sakaiproject.content.api.FileConversionService;
 import org.sakaiproject.content.api.persistence.FileConversionQueueItem;
 import org.sakaiproject.content.api.persistence.FileConversionServiceRepository;
 import org.sakaiproject.springframework.data.SpringCrudRepositoryImpl;
 
 public class FileConversionServiceRepositoryImpl extends SpringCrudRepositoryImpl<FileConversionQueueItem, Long>  implements FileConversionServiceRepository {
 
+    /** Items not started, or started on a server that has not finished them within its lease */
+    private static final String WAITING = "(i.status = :notStarted or (i.status = :inProgress and (i.leaseExpires is null or i.leaseExpires < :now)))";
+
+    /** Items still held by the server that claimed them, even if their lease has run out as no one else took them */
+    private static final String CLAIMED = "i.status = :inProgress and i.leaseOwner = :owner";
+
+    /** Items queued before there were priorities are converted as back-fill */
+    private static final String PRIORITY = "coalesce(i.priority, " + FileConversionService.PRIORITY_BULK + ")";
+
     @Transactional
     public List<FileConversionQueueItem> findByStatus(FileConversionQueueItem.Status status) {
 
@@ -43,4 +56,90 @@ public class FileConversionServiceRepositoryImpl extends SpringCrudRepositoryImp
         return session.createCriteria(FileConversionQueueItem.class)
                 .add(Restrictions.eq("reference", reference)).list();
     }
+
+    @Transactional
+    public List<FileConversionQueueItem> findNextPerSite(Instant now, int limit) {
+
+        Session session = sessionFactory.getCurrentSession();
+        Query<Object[]> sites = session.createQuery("select i.siteId, min(" + PRIORITY + "), min(i.id) from FileConversionQueueItem i"
+                + " where " + WAITING + " group by i.siteId order by min(" + PRIORITY + "), min(i.id)", Object[].class);
+        List<Object[]> waiting = waiting(sites, now).setMaxResults(limit).list();
+
+        List<FileConversionQueueItem> next = new ArrayList<>(waiting.size());
+        for (Object[] site : waiting) {
+            String siteId = (String) site[0];
+            Query<FileConversionQueueItem> items = session.createQuery("from FileConversionQueueItem i where " + WAITING
+                    + (siteId == null ? " and i.siteId is null" : " and i.siteId = :siteId")
+                    + " order by " + PRIORITY + ", i.id", FileConversionQueueItem.class);
+            if (siteId != null) {
+                items.setParameter("siteId", siteId);
+            }
+            waiting(items, now).setMaxResults(1).uniqueResultOptional().ifPresent(next::add);
+        }
+        return next;
+    }
+
+    @Transactional
+    public boolean claim(Long id, String owner, Instant now, Instant leaseExpires) {
+
+        Session session = sessionFactory.getCurrentSession();
+        Query<?> claim = session.createQuery("update FileConversionQueueItem i set i.status = :claimed, i.leaseOwner = :owner,"
+                + " i.leaseExpires = :leaseExpires, i.attempts = i.attempts + 1, i.lastAttemptStarted = :now"
+                + " where i.id = :id and " + WAITING);
+        claim.setParameter("claimed", FileConversionQueueItem.Status.IN_PROGRESS);
+        claim.setParameter("owner", owner);
+        claim.setParameter("leaseExpires", leaseExpires);
+        claim.setParameter("id", id);
+        return waiting(claim, now).executeUpdate() == 1;
+    }
+
+    @Transactional
+    public boolean release(Long id, String owner, FileConversionQueueItem.Status status) {
+
+        Session session = sessionFactory.getCurrentSession();
+        Query<?> release = session.createQuery("update FileConversionQueueItem i set i.status = :status, i.leaseOwner = null,"
+                + " i.leaseExpires = null where i.id = :id and " + CLAIMED);
+        release.setParameter("status", status);
+        return claimed(release, id, owner).executeUpdate() == 1;
+    }
+
+    @Transactional
+    public boolean deleteClaimed(Long id, String owner) {
+
+        Session session = sessionFactory.getCurrentSession();
+        Query<?> delete = session.createQuery("delete from FileConversionQueueItem i where i.id = :id and " + CLAIMED);
+        return claimed(delete, id, owner).executeUpdate() == 1;
+    }
+
+    @Transactional
+    public long countWaiting(Instant now) {
+
+        Session session = sessionFactory.getCurrentSession();
+        Query<Long> count = session.createQuery("select count(i) from FileConversionQueueItem i where " + WAITING, Long.class);
+        return waiting(count, now).uniqueResult();
+    }
+
+    @Transactional
+    public Instant findOldestWaiting(Instant now) {
+
+        Session session = sessionFactory.getCurrentSession();
+        Query<Instant> oldest = session.createQuery("select min(i.submitted) from FileConversionQueueItem i where " + WAITING, Instant.class);
+        return waiting(oldest, now).uniqueResult();
+    }
+
+    private static <Q extends Query<?>> Q claimed(Q query, Long id, String owner) {
+
+        query.setParameter("id", id);
+        query.setParameter("owner", owner);
+        query.setParameter("inProgress", FileConversionQueueItem.Status.IN_PROGRESS);
+        return query;
+    }
+
+    private static <Q extends Query<?>> Q waiting(Q query, Instant now) {
+
+        query.setParameter("notStarted", FileConversionQueueItem.Status.NOT_STARTED);
+        query.setParameter("inProgress", FileConversionQueueItem.Status.IN_PROGRESS);
+        query.setParameter("now", now);
+        return query;
+    }
 }
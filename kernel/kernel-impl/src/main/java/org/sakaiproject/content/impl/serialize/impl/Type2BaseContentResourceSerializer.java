@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl.serialize.impl;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Vector;
+
+import org.sakaiproject.content.api.GroupAwareEntity.AccessMode;
+import org.sakaiproject.content.api.ResourceType;
+import org.sakaiproject.content.api.ResourceTypeRegistry;
+import org.sakaiproject.content.impl.BaseContentService.BaseResourceEdit;
+import org.sakaiproject.content.impl.serialize.api.SerializableResourceAccess;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.entity.api.serialize.EntityParseException;
+import org.sakaiproject.entity.api.serialize.EntitySerializer;
+import org.sakaiproject.entity.api.serialize.SerializableEntity;
+import org.sakaiproject.entity.api.serialize.SerializablePropertiesAccess;
+import org.sakaiproject.time.api.Time;
+import org.sakaiproject.time.api.TimeService;
+import org.sakaiproject.util.serialize.Type2BaseResourcePropertiesSerializer;
+import org.sakaiproject.util.serialize.Type2Codec;
+
+/**
+ * <pre>
+ * Serializes ContentResources in the Type2 format, reading Type1 serializations through
+ * Type1BaseContentResourceSerializer so both can be in the database while they are converted.
+ * The same rules as Type1 apply: if the structure has to change, create a Type3 class.
+ *
+ * Type2 drops the blocks of Type1 for a fixed order of fields, written with Type2Codec so
+ * strings are length prefixed UTF-8 with no 64K limit:
+ * char 1-6 : BLOB_ID, as Type1
+ * int : Type Number 2
+ * string : id, resource type, access
+ * byte : flags for hidden, release date, retract date, groups and body
+ * long : release date, retract date, if flagged
+ * varint, strings : groups, if flagged
+ * string : content type, long : content length, string : file path
+ * string : content sha256, display name, copies of properties that every read needs
+ * varint, bytes : properties, a section written by Type2BaseResourcePropertiesSerializer
+ * varint, bytes : body, if flagged
+ *
+ * The properties are only decoded when they are first used, as listings and permission checks mostly
+ * read the other fields.
+ * </pre>
+ */
+public class Type2BaseContentResourceSerializer implements EntitySerializer {
+
+    private static final byte[] BYTE_BLOB_ID = new byte[] { 'C', 'H', 'S', 'B', 'R', 'E' };
+
+    private static final int TYPE1 = 1;
+
+    private static final int TYPE2 = 2;
+
+    private static final int HIDDEN = 1;
+
+    private static final int RELEASE_DATE = 2;
+
+    private static final int RETRACT_DATE = 4;
+
+    private static final int GROUPS = 8;
+
+    private static final int BODY = 16;
+
+    private final Type1BaseContentResourceSerializer type1Serializer = new Type1BaseContentResourceSerializer();
+
+    private final Type2BaseResourcePropertiesSerializer propertiesSerializer = new Type2BaseResourcePropertiesSerializer();
+
+    private TimeService timeService;
+
+    private boolean lazyProperties = true;
+
+    private boolean writeType2 = false;
+
+    public TimeService getTimeService() {
+        return timeService;
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+        type1Serializer.setTimeService(timeService);
+    }
+
+    /**
+     * @param lazyProperties false to decode the properties as each resource is parsed
+     */
+    public void setLazyProperties(boolean lazyProperties) {
+        this.lazyProperties = lazyProperties;
+    }
+
+    /**
+     * @param writeType2 true to write Type2, once every server sharing the database reads it, false to write Type1
+     */
+    public void setWriteType2(boolean writeType2) {
+        this.writeType2 = writeType2;
+    }
+
+    /**
+     * @param buffer a serialization
+     * @return true if it is a Type2 serialization of a resource
+     */
+    public static boolean isType2(byte[] buffer) {
+        return buffer != null && buffer.length >= BYTE_BLOB_ID.length + 4 && hasBlobId(buffer)
+                && buffer[6] == 0 && buffer[7] == 0 && buffer[8] == 0 && buffer[9] == TYPE2;
+    }
+
+    private static boolean hasBlobId(byte[] buffer) {
+        for (int i = 0; i < BYTE_BLOB_ID.length; i++) {
+            if (buffer[i] != BYTE_BLOB_ID[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean accept(byte[] buffer) {
+        return buffer != null && buffer.length >= BYTE_BLOB_ID.length && hasBlobId(buffer);
+    }
+
+    @Override
+    public void parse(SerializableEntity se, byte[] buffer) throws EntityParseException {
+        if (!(se instanceof SerializableResourceAccess)) {
+            throw new EntityParseException("Cant serialize " + se + " as it is not a SerializableResourceAccess ");
+        }
+        if (!accept(buffer)) {
+            throw new EntityParseException("Data Block does not belong to this serializer expected [" + new String(BYTE_BLOB_ID) + "]");
+        }
+        SerializableResourceAccess sc = (SerializableResourceAccess) se;
+        String id = null;
+        try {
+            Type2Codec.Reader in = new Type2Codec.Reader(buffer, BYTE_BLOB_ID.length, buffer.length - BYTE_BLOB_ID.length);
+            int type = in.readInt();
+            if (type == TYPE1) {
+                type1Serializer.parse(se, buffer);
+                return;
+            }
+            if (type != TYPE2) {
+                throw new EntityParseException("Unrecognised Record Type " + type);
+            }
+
+            id = in.readString();
+            String resourceType = in.readString();
+            AccessMode access = AccessMode.fromString(in.readString());
+            if (access == null || AccessMode.SITE == access) {
+                access = AccessMode.INHERITED;
+            }
+            int flags = in.readByte();
+            boolean hidden = (flags & HIDDEN) != 0;
+            Time releaseDate = null;
+            Time retractDate = null;
+            if ((flags & RELEASE_DATE) != 0) {
+                releaseDate = timeService.newTime(in.readLong());
+            }
+            if ((flags & RETRACT_DATE) != 0) {
+                retractDate = timeService.newTime(in.readLong());
+            }
+            Collection<String> groups = new Vector<>();
+            if ((flags & GROUPS) != 0) {
+                int n = in.readVarInt();
+                for (int i = 0; i < n; i++) {
+                    groups.add(in.readString());
+                }
+                if (n > 0) {
+                    access = AccessMode.GROUPED;
+                }
+            }
+            String contentType = in.readString();
+            long contentLength = in.readLong();
+            String filePath = in.readString();
+            String contentSha256 = in.readString();
+            String displayName = in.readString();
+
+            int propertiesLength = in.readVarInt();
+            SerializableEntity properties = sc.getSerializableProperties();
+            if (!(properties instanceof SerializablePropertiesAccess)) {
+                throw new EntityParseException("Cant serialize " + properties + " as it is not a SerializableProperties ");
+            }
+            SerializablePropertiesAccess sp = (SerializablePropertiesAccess) properties;
+            if (lazyProperties) {
+                propertiesSerializer.parseLazily(sp, buffer, in.position(), propertiesLength);
+            } else {
+                sp.setSerializableProperties(propertiesSerializer.parse(buffer, in.position(), propertiesLength));
+            }
+            in.skip(propertiesLength);
+
+            byte[] body = null;
+            if ((flags & BODY) != 0) {
+                body = in.readBytes(in.readVarInt());
+            }
+
+            if (contentType == null) {
+                contentType = "";
+            }
+            if (resourceType == null) {
+                ResourceTypeRegistry registry = sc.getResourceTypeRegistry();
+                if (registry != null) {
+                    resourceType = registry.mimetype2resourcetype(contentType);
+                }
+                if (resourceType == null) {
+                    resourceType = ResourceType.TYPE_UPLOAD;
+                }
+            }
+
+            sc.setSerializableId(id);
+            sc.setSerializableAccess(access);
+            sc.setSerializableHidden(hidden);
+            sc.setSerializableResourceType(resourceType);
+            sc.setSerializableReleaseDate(releaseDate);
+            sc.setSerializableRetractDate(retractDate);
+            sc.setSerializableGroups(groups);
+            sc.setSerializableContentType(contentType);
+            sc.setSerializableContentLength(contentLength);
+            sc.setSerializableFilePath(filePath);
+            sc.setSerializableBody(body);
+
+            if (sc instanceof BaseResourceEdit) {
+                BaseResourceEdit bre = (BaseResourceEdit) sc;
+                if (contentSha256 != null && !contentSha256.isEmpty()) {
+                    bre.setContentSha256(contentSha256);
+                }
+                bre.setOldDisplayName(displayName);
+            }
+        } catch (EntityParseException epe) {
+            throw epe;
+        } catch (Exception ex) {
+            throw new EntityParseException("Failed to parse entity [" + id + "]", ex);
+        }
+    }
+
+    @Override
+    public byte[] serialize(SerializableEntity se) throws EntityParseException {
+        if (!(se instanceof SerializableResourceAccess)) {
+            throw new EntityParseException("Cant serialize " + se + " as it is not a SerializableResourceAccess ");
+        }
+        if (!writeType2) {
+            return type1Serializer.serialize(se);
+        }
+        SerializableResourceAccess sc = (SerializableResourceAccess) se;
+        try {
+            SerializableEntity properties = sc.getSerializableProperties();
+            if (!(properties instanceof SerializablePropertiesAccess)) {
+                throw new EntityParseException("Cant serialize " + properties + " as it is not a SerializableProperties ");
+            }
+            Map<String, Object> props = ((SerializablePropertiesAccess) properties).getSerializableProperties();
+
+            boolean hidden = sc.getSerializableHidden();
+            AccessMode access = sc.getSerializableAccess();
+            Time releaseDate = hidden ? null : sc.getSerializableReleaseDate();
+            Time retractDate = hidden ? null : sc.getSerializableRetractDate();
+            Collection<String> groups = sc.getSerializableGroup();
+            byte[] body = sc.getSerializableBody();
+            String contentType = sc.getSerializableContentType();
+            String filePath = sc.getSerializableFilePath();
+            String resourceType = sc.getSerializableResourceType();
+            long contentLength = sc.getSerializableContentLength();
+
+            if (contentType == null) contentType = "";
+            if (filePath == null) filePath = "";
+            if (resourceType == null) resourceType = ResourceType.TYPE_UPLOAD;
+            if (body != null) contentLength = body.length;
+            if (access == null || AccessMode.SITE == access) {
+                access = AccessMode.INHERITED;
+            }
+            String contentSha256 = (sc instanceof BaseResourceEdit) ? ((BaseResourceEdit) sc).getContentSha256() : null;
+            if (contentSha256 == null || contentSha256.isEmpty()) {
+                Object sha = props.get(ResourceProperties.PROP_CONTENT_SHA256);
+                contentSha256 = (sha instanceof String) ? (String) sha : null;
+            }
+            Object displayName = props.get(ResourceProperties.PROP_DISPLAY_NAME);
+
+            int flags = (hidden ? HIDDEN : 0)
+                    | (releaseDate != null ? RELEASE_DATE : 0)
+                    | (retractDate != null ? RETRACT_DATE : 0)
+                    | (groups != null && !groups.isEmpty() ? GROUPS : 0)
+                    | (body != null ? BODY : 0);
+
+            Type2Codec.Writer out = new Type2Codec.Writer(256 + props.size() * 48 + (body == null ? 0 : body.length));
+            out.write(BYTE_BLOB_ID, 0, BYTE_BLOB_ID.length);
+            out.writeInt(TYPE2);
+            out.writeString(sc.getSerializableId());
+            out.writeString(resourceType);
+            out.writeString(access.toString());
+            out.writeByte(flags);
+            if (releaseDate != null) out.writeLong(releaseDate.getTime());
+            if (retractDate != null) out.writeLong(retractDate.getTime());
+            if ((flags & GROUPS) != 0) {
+                out.writeVarInt(groups.size());
+                for (String group : groups) {
+                    out.writeString(group);
+                }
+            }
+            out.writeString(contentType);
+            out.writeLong(contentLength);
+            out.writeString(filePath);
+            out.writeString(contentSha256);
+            out.writeString((displayName instanceof String) ? (String) displayName : null);
+            propertiesSerializer.serialize(props, out);
+            if (body != null) {
+                out.writeVarInt(body.length);
+                out.write(body, 0, body.length);
+            }
+            return out.toByteArray();
+        } catch (EntityParseException epe) {
+            throw epe;
+        } catch (Exception ex) {
+            throw new EntityParseException("Failed to serialize entity ", ex);
+        }
+    }
+}
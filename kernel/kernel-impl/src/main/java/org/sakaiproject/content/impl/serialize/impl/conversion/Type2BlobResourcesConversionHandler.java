@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl.serialize.impl.conversion;
+
+import java.sql.Blob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.sakaiproject.content.impl.serialize.impl.Type2BaseContentResourceSerializer;
+import org.sakaiproject.util.conversion.SchemaConversionHandler;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Rewrites the Type1 BINARY_ENTITY of CONTENT_RESOURCE records as Type2, checking that the Type2 copy
+ * parses to the same resource. Records that are already Type2 are written back unchanged, so the
+ * conversion can be run again or alongside servers writing Type2. When comparing on update, the record
+ * is only written if it still holds the serialization that was read.
+ */
+@Slf4j
+public class Type2BlobResourcesConversionHandler implements SchemaConversionHandler {
+
+    private final Type2BaseContentResourceSerializer serializer;
+
+    private boolean compareOnUpdate = true;
+
+    public Type2BlobResourcesConversionHandler() {
+        serializer = new Type2BaseContentResourceSerializer();
+        serializer.setTimeService(new ConversionTimeService());
+        serializer.setLazyProperties(false);
+        serializer.setWriteType2(true);
+    }
+
+    /**
+     * @param compareOnUpdate true if the update statement takes the serialization that was read as a third parameter.
+     */
+    public void setCompareOnUpdate(boolean compareOnUpdate) {
+        this.compareOnUpdate = compareOnUpdate;
+    }
+
+    @Override
+    public Object getSource(String id, ResultSet rs) throws SQLException {
+        return getBytes(rs);
+    }
+
+    @Override
+    public boolean convertSource(String id, Object source, PreparedStatement updateRecord) throws SQLException {
+        byte[] buffer = (byte[]) source;
+        if (!serializer.accept(buffer)) {
+            log.warn("Not a resource serialization {}", id);
+            return false;
+        }
+        try {
+            byte[] result = buffer;
+            if (!Type2BaseContentResourceSerializer.isType2(buffer)) {
+                SAXSerializableResourceAccess resource = new SAXSerializableResourceAccess();
+                serializer.parse(resource, buffer);
+                result = serializer.serialize(resource);
+            }
+            updateRecord.setBytes(1, result);
+            updateRecord.setString(2, id);
+            if (compareOnUpdate) {
+                updateRecord.setBytes(3, buffer);
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to process record {}", id, e);
+        }
+        return false;
+    }
+
+    @Override
+    public void validate(String id, Object source, Object result) throws Exception {
+        SAXSerializableResourceAccess sourceResource = new SAXSerializableResourceAccess();
+        SAXSerializableResourceAccess resultResource = new SAXSerializableResourceAccess();
+        serializer.parse(sourceResource, (byte[]) source);
+        serializer.parse(resultResource, (byte[]) result);
+        sourceResource.check(resultResource);
+    }
+
+    @Override
+    public Object getValidateSource(String id, ResultSet rs) throws SQLException {
+        return getBytes(rs);
+    }
+
+    private byte[] getBytes(ResultSet rs) throws SQLException {
+        if (rs.getMetaData().getColumnType(1) == Types.BLOB) {
+            Blob blob = rs.getBlob(1);
+            return (blob == null) ? null : blob.getBytes(1L, (int) blob.length());
+        }
+        return rs.getBytes(1);
+    }
+}
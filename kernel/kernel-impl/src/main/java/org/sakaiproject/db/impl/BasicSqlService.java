@@ -45,6 +45,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.function.Consumer;
 
 import javax.sql.DataSource;
 
@@ -157,6 +158,96 @@ public abstract class BasicSqlService implements SqlService
 		m_showSql = Boolean.valueOf(value).booleanValue();
 	}
 
+	/** Configuration: the rows to fetch at a time for dbReadEach. */
+	protected int m_streamFetchSize = 1000;
+
+	/**
+	 * Configuration: the number of rows dbReadEach fetches from the db at a time when not given one.
+	 * 
+	 * @param value
+	 *        the fetch size.
+	 */
+	public void setStreamFetchSize(String value)
+	{
+		try
+		{
+			m_streamFetchSize = Integer.parseInt(value);
+		}
+		catch (NumberFormatException e)
+		{
+			log.warn("setStreamFetchSize(): invalid value: " + value);
+		}
+	}
+
+	/** The statement and connection borrow timings. */
+	protected SqlMetrics m_metrics = new SqlMetrics();
+
+	/**
+	 * @return the statement and connection borrow timings.
+	 */
+	public SqlMetrics getMetrics()
+	{
+		return m_metrics;
+	}
+
+	/**
+	 * Configuration: to time each statement and connection borrow or not.
+	 * 
+	 * @param value
+	 *        the metricsEnabled setting.
+	 */
+	public void setMetricsEnabled(String value)
+	{
+		m_metrics.setEnabled(Boolean.valueOf(value).booleanValue());
+	}
+
+	/**
+	 * Configuration: statements taking at least this many ms are logged, 0 to log none.
+	 * 
+	 * @param value
+	 *        the slow query time in ms.
+	 */
+	public void setSlowQueryMillis(String value)
+	{
+		try
+		{
+			m_metrics.setSlowQueryMillis(Long.parseLong(value));
+		}
+		catch (NumberFormatException e)
+		{
+			log.warn("setSlowQueryMillis(): invalid value: " + value);
+		}
+	}
+
+	/**
+	 * Configuration: log only the types of the binds of slow statements (true) or their values (false).
+	 * 
+	 * @param value
+	 *        the slowQueryRedact setting.
+	 */
+	public void setSlowQueryRedact(String value)
+	{
+		m_metrics.setRedact(Boolean.valueOf(value).booleanValue());
+	}
+
+	/**
+	 * Configuration: the most statement templates to time separately, the rest are timed together.
+	 * 
+	 * @param value
+	 *        the number of templates.
+	 */
+	public void setMetricsMaxStatements(String value)
+	{
+		try
+		{
+			m_metrics.setMaxTemplates(Integer.parseInt(value));
+		}
+		catch (NumberFormatException e)
+		{
+			log.warn("setMetricsMaxStatements(): invalid value: " + value);
+		}
+	}
+
 	/** Configuration: number of on-deadlock retries for save. */
 	protected int m_deadlockRetries = 5;
 
@@ -229,7 +320,8 @@ public abstract class BasicSqlService implements SqlService
 			ddl(getClass().getClassLoader(), "sakai_locks");
 		}
 
-		log.info("init(): vendor: " + m_vendor + " autoDDL: " + m_autoDdl + " deadlockRetries: " + m_deadlockRetries);
+		log.info("init(): vendor: " + m_vendor + " autoDDL: " + m_autoDdl + " deadlockRetries: " + m_deadlockRetries + " metrics: " + m_metrics.isEnabled()
+				+ " slowQueryMillis: " + m_metrics.getSlowQueryMillis());
 	}
 
 	/**
@@ -253,7 +345,14 @@ public abstract class BasicSqlService implements SqlService
 
 		if (defaultDataSource != null)
 		{
-			return defaultDataSource.getConnection();
+			if (!m_metrics.isEnabled())
+			{
+				return defaultDataSource.getConnection();
+			}
+			long start = System.nanoTime();
+			Connection conn = defaultDataSource.getConnection();
+			m_metrics.recordBorrow(System.nanoTime() - start);
+			return conn;
 		}
 		else
 		{
@@ -489,6 +588,7 @@ public abstract class BasicSqlService implements SqlService
 		long stmtTime = 0;
 		long resultsTime = 0;
 		int count = 0;
+		long stmtStart = 0;
 
 		if (log.isDebugEnabled())
 		{
@@ -530,6 +630,9 @@ public abstract class BasicSqlService implements SqlService
             if (m_showSql) {
                 start = System.currentTimeMillis();
             }
+            if (m_metrics.isEnabled()) {
+                stmtStart = System.nanoTime();
+            }
             pstmt = conn.prepareStatement(sql);
 
             // put in all the fields
@@ -545,21 +648,11 @@ public abstract class BasicSqlService implements SqlService
             }
 
             while (result.next()) {
-                if (m_showSql) {
-                    count++;
-                }
+                count++;
 
                 // without a reader, we read the first String from each record
                 if (reader == null) {
-                    String s;
-                    ResultSetMetaData metadataResult = result.getMetaData();
-                	
-                    if (metadataResult != null && Types.CLOB == metadataResult.getColumnType(1)) {
-                        Clob clobResult = result.getClob(1);
-                        s = clobResult.getSubString(1, (int) clobResult.length());
-                    } else {
-                        s = result.getString(1);
-                    }
+                    String s = readFirstString(result);
                     if (s != null) {
                         rv.add(s);
                     }
@@ -583,6 +676,9 @@ public abstract class BasicSqlService implements SqlService
             if (m_showSql) {
                 resultsTime = System.currentTimeMillis() - start;
             }
+            if (stmtStart != 0) {
+                m_metrics.record(sql, fields, System.nanoTime() - stmtStart, count);
+            }
             if (null != result) {
                 try {
                     result.close();
@@ -621,6 +717,143 @@ public abstract class BasicSqlService implements SqlService
 		return rv;
 	}
 
+	/**
+	 * Read the first column of the current record as a String, CLOBs included.
+	 */
+	protected String readFirstString(ResultSet result) throws SQLException
+	{
+		ResultSetMetaData metadataResult = result.getMetaData();
+		if (metadataResult != null && Types.CLOB == metadataResult.getColumnType(1))
+		{
+			Clob clobResult = result.getClob(1);
+			return clobResult.getSubString(1, (int) clobResult.length());
+		}
+		return result.getString(1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> void dbReadEach(Connection callerConn, String sql, Object[] fields, int fetchSize, SqlReader<T> reader, Consumer<? super T> consumer)
+	{
+		// check for a transaction connection
+		if (callerConn == null)
+		{
+			callerConn = (Connection) threadLocalManager().get(TRANSACTION_CONNECTION);
+		}
+
+		if (log.isDebugEnabled())
+		{
+			log.debug("dbReadEach(Connection " + callerConn + ", String " + sql + ", Object[] " + Arrays.toString(fields) + ", int " + fetchSize + ", SqlReader " + reader + ")");
+		}
+
+		long start = (m_showSql) ? System.currentTimeMillis() : 0;
+		long stmtStart = 0;
+		int count = 0;
+
+		Connection conn = null;
+		PreparedStatement pstmt = null;
+		ResultSet result = null;
+
+		try
+		{
+			// borrow a new connection if we are not provided with one to use, but do not share it as the transaction connection
+			// so the consumer can run its own queries while this read is open
+			conn = (callerConn != null) ? callerConn : borrowConnection();
+
+			if (m_metrics.isEnabled()) stmtStart = System.nanoTime();
+			pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			int rows = (fetchSize > 0) ? fetchSize : m_streamFetchSize;
+			if (rows > 0)
+			{
+				// the driver may only stream on a connection nothing else uses until the read is done, so not on the caller's
+				pstmt.setFetchSize((callerConn == null) ? sqlServiceSql.getStreamFetchSize(conn, rows) : rows);
+			}
+
+			// put in all the fields
+			prepareStatement(pstmt, fields);
+
+			result = pstmt.executeQuery();
+
+			while (result.next())
+			{
+				count++;
+
+				// without a reader, we read the first String from each record
+				Object obj;
+				if (reader == null)
+				{
+					obj = readFirstString(result);
+				}
+				else
+				{
+					try
+					{
+						obj = reader.readSqlResultRecord(result);
+					}
+					catch (SqlReaderFinishedException e)
+					{
+						break;
+					}
+				}
+
+				if (obj != null)
+				{
+					consumer.accept((T) obj);
+				}
+			}
+		}
+		catch (SQLException | UnsupportedEncodingException e)
+		{
+			log.warn("Sql.dbReadEach: sql: " + sql + debugFields(fields), e);
+		}
+		finally
+		{
+			if (stmtStart != 0) m_metrics.record(sql, fields, System.nanoTime() - stmtStart, count);
+			if (null != result)
+			{
+				try
+				{
+					result.close();
+				}
+				catch (SQLException e)
+				{
+					log.warn("Sql.dbReadEach: sql: " + sql + debugFields(fields), e);
+				}
+			}
+			if (null != pstmt)
+			{
+				try
+				{
+					pstmt.close();
+				}
+				catch (SQLException e)
+				{
+					log.warn("Sql.dbReadEach: sql: " + sql + debugFields(fields), e);
+				}
+			}
+
+			// return the connection only if we have borrowed a new one for this call
+			if ((callerConn == null) && (null != conn))
+			{
+				if (m_commitAfterRead)
+				{
+					try
+					{
+						conn.commit();
+					}
+					catch (SQLException e)
+					{
+						log.warn("Sql.dbReadEach: sql: " + sql + debugFields(fields), e);
+					}
+				}
+				returnConnection(conn);
+			}
+		}
+
+		if (m_showSql) debug("Sql.dbReadEach: time: " + (System.currentTimeMillis() - start) + " #: " + count, sql, fields);
+	}
+
 	/**
 	 * Read a single field from the db, from multiple record - concatenating the binary values into value.
 	 * 
@@ -1153,6 +1386,7 @@ public abstract class BasicSqlService implements SqlService
 	{
 		boolean success = false;
 		PreparedStatement pstmt = null;
+		long stmtStart = m_metrics.isEnabled() ? System.nanoTime() : 0;
 
 		try
 		{
@@ -1186,15 +1420,69 @@ public abstract class BasicSqlService implements SqlService
 			}
 		}
 
+		if (stmtStart != 0) m_metrics.record(sql, null, System.nanoTime() - stmtStart, success ? fieldsList.size() : 0);
+
 		return success;
 	}
 
+	/**
+	 * @see org.sakaiproject.db.api.SqlService#dbInsertBatch(Connection, String, List<Object[]>, String)
+	 */
+	public List<Long> dbInsertBatch(Connection callerConnection, String sql, List<Object[]> fieldsList, String autoColumn)
+	{
+		List<Long> rv = null;
+		PreparedStatement pstmt = null;
+
+		// for DEBUG
+		long start = 0;
+		long stmtStart = m_metrics.isEnabled() ? System.nanoTime() : 0;
+
+		try
+		{
+			if (m_showSql) start = System.currentTimeMillis();
+			pstmt = sqlServiceSql.prepareAutoColumn(callerConnection, sql, autoColumn);
+			for (Object[] fields : fieldsList)
+			{
+				prepareStatement(pstmt, fields);
+				pstmt.addBatch();
+			}
+			pstmt.executeBatch();
+			rv = sqlServiceSql.getGeneratedKeys(pstmt, sql);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			log.warn("Sql.dbInsertBatch()", e);
+		}
+		catch (SQLException e)
+		{
+			log.warn("Sql.dbInsertBatch(): error code: " + e.getErrorCode() + " sql: " + sql + " " + e);
+		}
+		finally
+		{
+			try
+			{
+				if (null != pstmt) pstmt.close();
+			}
+			catch (Exception e)
+			{
+				log.warn("Sql.dbInsertBatch(): " + e);
+				throw new RuntimeException("SqlService.dbInsertBatch failure", e);
+			}
+		}
+
+		if (stmtStart != 0) m_metrics.record(sql, null, System.nanoTime() - stmtStart, rv == null ? 0 : rv.size());
+		if (m_showSql) debug("Sql.dbInsertBatch(): count: " + fieldsList.size() + "  time: " + (System.currentTimeMillis() - start), sql, null);
+
+		return rv;
+	}
+
 	/**
 	 * @see org.sakaiproject.db.api.SqlService#dbWriteCount(String, Object[], String, Connection, int)
 	 */
 	public int dbWriteCount(String sql, Object[] fields, String lastField, Connection callerConnection, int failQuiet)
 	{
 		int retval = -1;
+		long stmtStart = 0;
 		// check for a transaction connection
 		if (callerConnection == null)
 		{
@@ -1265,6 +1553,7 @@ public abstract class BasicSqlService implements SqlService
 			}
 
 			if (m_showSql) start = System.currentTimeMillis();
+			if (m_metrics.isEnabled()) stmtStart = System.nanoTime();
 			pstmt = conn.prepareStatement(sql);
 
 			// put in all the fields
@@ -1336,6 +1625,7 @@ public abstract class BasicSqlService implements SqlService
 		}
 		finally
 		{
+			if (stmtStart != 0) m_metrics.record(sql, fields, System.nanoTime() - stmtStart, Math.max(retval, 0));
 			try
 			{
 				if (null != pstmt) pstmt.close();
@@ -1442,6 +1732,8 @@ public abstract class BasicSqlService implements SqlService
 
 		boolean success = false;
 		Long rv = null;
+		int result = 0;
+		long stmtStart = 0;
 
 		try
 		{
@@ -1465,6 +1757,7 @@ public abstract class BasicSqlService implements SqlService
 			}
 
 			if (m_showSql) start = System.currentTimeMillis();
+			if (m_metrics.isEnabled()) stmtStart = System.nanoTime();
 
 			pstmt = sqlServiceSql.prepareAutoColumn(conn, sql, autoColumn);
 
@@ -1477,7 +1770,7 @@ public abstract class BasicSqlService implements SqlService
 				pstmt.setBinaryStream(pos, last, lastLength);
 			}
 
-			int result = pstmt.executeUpdate();
+			result = pstmt.executeUpdate();
 
 			rv = sqlServiceSql.getGeneratedKey(pstmt, sql);
 
@@ -1533,6 +1826,7 @@ public abstract class BasicSqlService implements SqlService
 		}
 		finally
 		{
+			if (stmtStart != 0) m_metrics.record(sql, fields, System.nanoTime() - stmtStart, result);
 			try
 			{
 				if (null != pstmt) pstmt.close();
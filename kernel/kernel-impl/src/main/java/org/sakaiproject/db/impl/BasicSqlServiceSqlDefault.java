@@ -27,6 +27,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * methods for accessing sql service methods in a database.
@@ -157,4 +159,32 @@ public class BasicSqlServiceSqlDefault implements SqlServiceSql
 		return null;
 	}
 
+	/**
+	 * Extract the generated keys of a batch for JDBC drivers that support getGeneratedKeys()
+	 *
+	 * {@inheritDoc}
+	 */
+	public List<Long> getGeneratedKeys(PreparedStatement pstmt, String sql) throws SQLException
+	{
+		List<Long> rv = new ArrayList<>();
+		try (ResultSet keys = pstmt.getGeneratedKeys())
+		{
+			while (keys.next())
+			{
+				rv.add(Long.valueOf(keys.getLong(1)));
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Drivers that honour the fetch size read that many rows at a time.
+	 *
+	 * {@inheritDoc}
+	 */
+	public int getStreamFetchSize(Connection conn, int rows) throws SQLException
+	{
+		return rows;
+	}
+
 }
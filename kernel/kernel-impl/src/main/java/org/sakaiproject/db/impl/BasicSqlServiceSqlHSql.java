@@ -27,7 +27,9 @@ import java.sql.Statement;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.List;
 
 /**
  * methods for accessing sql service methods in a hypersonic sql database.
@@ -111,4 +113,15 @@ public class BasicSqlServiceSqlHSql extends BasicSqlServiceSqlDefault
 		return null;
 	}
 
+	/**
+	 * HSQL only reports the last IDENTITY() value, so the keys of a batch cannot be recovered
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<Long> getGeneratedKeys(PreparedStatement pstmt, String sql) throws SQLException
+	{
+		return Collections.emptyList();
+	}
+
 }
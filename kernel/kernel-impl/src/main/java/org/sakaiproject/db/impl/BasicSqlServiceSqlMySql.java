@@ -22,6 +22,8 @@
 package org.sakaiproject.db.impl;
 
 import java.io.UnsupportedEncodingException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
@@ -39,6 +41,24 @@ public class BasicSqlServiceSqlMySql extends BasicSqlServiceSqlDefault
 		return value ? "true" : "false";
 	}
 
+	/**
+	 * MySQL Connector/J reads every row of a result up front whatever the fetch size, unless the url sets useCursorFetch=true.
+	 * Without it only Integer.MIN_VALUE on a forward only, read only statement makes it stream the rows one at a time.
+	 * The MariaDB driver honours the fetch size as it is.
+	 */
+	@Override
+	public int getStreamFetchSize(Connection conn, int rows) throws SQLException
+	{
+		DatabaseMetaData metaData = conn.getMetaData();
+		String driver = (metaData == null) ? null : metaData.getDriverName();
+		String url = (metaData == null) ? null : metaData.getURL();
+		if (driver != null && driver.startsWith("MySQL") && (url == null || !url.contains("useCursorFetch=true")))
+		{
+			return Integer.MIN_VALUE;
+		}
+		return rows;
+	}
+
 	/**
 	 * returns whether the sql exception indicates that a record already exists in a table.
 	 */
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.sakaiproject.db.api.SqlService;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Exports the statement and connection borrow timings of the BasicSqlService over JMX,
+ * all values are 0 if the service is not a BasicSqlService.
+ */
+@ManagedResource(objectName="org.sakaiproject:name=SqlService", description="Sakai sql statement and connection timings")
+public class JMXSqlServiceComponent {
+
+    private SqlMetrics metrics;
+
+    @ManagedAttribute(description="Connections borrowed from the pool", currencyTimeLimit=0)
+    public long getBorrowCount() {
+        return metrics == null ? 0 : metrics.getBorrowStats().getCount();
+    }
+
+    @ManagedAttribute(description="Average time in ms waited for a connection from the pool", currencyTimeLimit=0)
+    public long getAverageBorrowMillis() {
+        return metrics == null ? 0 : metrics.getBorrowStats().getAverageMillis();
+    }
+
+    @ManagedAttribute(description="Longest time in ms waited for a connection from the pool", currencyTimeLimit=0)
+    public long getMaxBorrowMillis() {
+        return metrics == null ? 0 : TimeUnit.NANOSECONDS.toMillis(metrics.getBorrowStats().getMaxNanos());
+    }
+
+    @ManagedAttribute(description="Time in ms under which 99% of connections were borrowed", currencyTimeLimit=0)
+    public long getBorrowP99Millis() {
+        return metrics == null ? 0 : metrics.getBorrowStats().getPercentileMillis(0.99);
+    }
+
+    @ManagedAttribute(description="Statements run", currencyTimeLimit=0)
+    public long getStatementCount() {
+        return metrics == null ? 0 : metrics.getStatementCount();
+    }
+
+    @ManagedAttribute(description="Statement templates being timed", currencyTimeLimit=0)
+    public int getTemplateCount() {
+        return metrics == null ? 0 : metrics.getTemplateCount();
+    }
+
+    @ManagedAttribute(description="Statements slower than the slow query time", currencyTimeLimit=0)
+    public long getSlowStatementCount() {
+        return metrics == null ? 0 : metrics.getSlowCount();
+    }
+
+    @ManagedOperation(description="The statement templates that took the most total time")
+    public String[] getTopStatements(int limit) {
+        if (metrics == null) return new String[0];
+        List<SqlMetrics.Stats> top = metrics.getTopStatements(limit);
+        String[] rv = new String[top.size()];
+        for (int i = 0; i < rv.length; i++) {
+            rv[i] = top.get(i).toString();
+        }
+        return rv;
+    }
+
+    @ManagedOperation(description="Clear all the timings")
+    public void reset() {
+        if (metrics != null) metrics.reset();
+    }
+
+    public void setSqlService(SqlService sqlService) {
+        if (sqlService instanceof BasicSqlService) {
+            this.metrics = ((BasicSqlService) sqlService).getMetrics();
+        }
+    }
+
+}
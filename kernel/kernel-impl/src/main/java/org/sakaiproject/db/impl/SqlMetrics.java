@@ -0,0 +1,366 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Timings of the SQL run through the BasicSqlService, kept per statement template so they can be read over JMX.
+ * <p>
+ * A template is the SQL with its literals replaced by ? and IN lists of any length folded into one, so that statements
+ * built with a varying number of binds share their timings. Each template keeps a count, total and max time, rows read
+ * or written and a histogram of times in power of 2 ms buckets, plus the component that first ran it. Connection borrows
+ * from the pool are timed on their own. Statements slower than the slow query time are logged as their template with
+ * their binds redacted to their types unless redaction is turned off.
+ */
+@Slf4j
+public class SqlMetrics {
+
+    /** Histogram buckets: bucket i counts times under 2^i ms, the last one everything slower. */
+    public static final int BUCKETS = 16;
+
+    /** The template used for statements once the most templates are being tracked. */
+    public static final String OTHER_TEMPLATE = "(other)";
+
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+
+    /** The templates made from each SQL string, kept to a bound as the SQL strings mostly come from constants. */
+    private final Map<String, String> templates = new ConcurrentHashMap<>();
+
+    private final Map<String, Stats> statements = new ConcurrentHashMap<>();
+
+    private final Stats borrows = new Stats(null, null);
+
+    private final LongAdder slowCount = new LongAdder();
+
+    private boolean enabled = true;
+
+    private long slowNanos = TimeUnit.SECONDS.toNanos(2);
+
+    private boolean redact = true;
+
+    private int maxTemplates = 500;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param millis statements taking at least this long are logged, 0 or less to log none
+     */
+    public void setSlowQueryMillis(long millis) {
+        this.slowNanos = millis > 0 ? TimeUnit.MILLISECONDS.toNanos(millis) : Long.MAX_VALUE;
+    }
+
+    public long getSlowQueryMillis() {
+        return slowNanos == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(slowNanos);
+    }
+
+    /**
+     * @param redact true to log only the types of the binds of slow statements, false to log their values
+     */
+    public void setRedact(boolean redact) {
+        this.redact = redact;
+    }
+
+    public void setMaxTemplates(int maxTemplates) {
+        this.maxTemplates = maxTemplates;
+    }
+
+    /**
+     * Record the time taken to borrow a connection from the pool.
+     *
+     * @param nanos the wait in ns
+     */
+    public void recordBorrow(long nanos) {
+        borrows.record(nanos, 0);
+    }
+
+    /**
+     * Record a statement run, logging it if it was slow.
+     *
+     * @param sql the sql as run
+     * @param fields the binds, may be null
+     * @param nanos the time taken to run it and read the results, in ns
+     * @param rows the rows read or changed
+     */
+    public void record(String sql, Object[] fields, long nanos, long rows) {
+        if (sql == null) return;
+        String template = templates.get(sql);
+        if (template == null) {
+            template = normalize(sql);
+            if (templates.size() < maxTemplates * 4) templates.put(sql, template);
+        }
+        String normalized = template;
+
+        Stats stats = statements.get(template);
+        if (stats == null) {
+            if (statements.size() >= maxTemplates) {
+                template = OTHER_TEMPLATE;
+            }
+            stats = statements.computeIfAbsent(template, t -> new Stats(t, OTHER_TEMPLATE.equals(t) ? null : callerComponent()));
+        }
+        stats.record(nanos, rows);
+
+        if (nanos >= slowNanos) {
+            slowCount.increment();
+            log.warn("Slow sql: {} ms rows: {} caller: {} sql: {} binds: {}", TimeUnit.NANOSECONDS.toMillis(nanos), rows,
+                    callerComponent(), loggedSql(sql, normalized), redact ? redactFields(fields) : Arrays.toString(fields));
+        }
+    }
+
+    /**
+     * @return the sql logged for a slow statement, its template unless redaction is off, as ids and keys built
+     *         into the sql by concatenation are as sensitive as the binds
+     */
+    String loggedSql(String sql, String template) {
+        return redact ? template : sql;
+    }
+
+    public Stats getBorrowStats() {
+        return borrows;
+    }
+
+    public long getSlowCount() {
+        return slowCount.sum();
+    }
+
+    public int getTemplateCount() {
+        return statements.size();
+    }
+
+    public long getStatementCount() {
+        long count = 0;
+        for (Stats stats : statements.values()) {
+            count += stats.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * @param limit the most to return
+     * @return the statement stats with the most total time first
+     */
+    public List<Stats> getTopStatements(int limit) {
+        List<Stats> rv = new ArrayList<>(statements.values());
+        rv.sort(Comparator.comparingLong(Stats::getTotalNanos).reversed());
+        return rv.size() > limit ? new ArrayList<>(rv.subList(0, limit)) : rv;
+    }
+
+    public void reset() {
+        statements.clear();
+        borrows.reset();
+        slowCount.reset();
+    }
+
+    /**
+     * Make the template of a statement: whitespace collapsed, string and number literals replaced by ? and
+     * lists of ? in parentheses folded to (?...).
+     *
+     * @param sql the sql
+     * @return the template
+     */
+    static String normalize(String sql) {
+        StringBuilder buf = new StringBuilder(sql.length());
+        int len = sql.length();
+        for (int i = 0; i < len; i++) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i + 1 < len && Character.isWhitespace(sql.charAt(i + 1))) i++;
+                if (buf.length() > 0) buf.append(' ');
+            } else if (c == '\'') {
+                // skip to the closing quote, '' is an escaped quote
+                i++;
+                while (i < len) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < len && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                buf.append('?');
+            } else if (Character.isDigit(c) && (buf.length() == 0 || !isIdentifierPart(buf.charAt(buf.length() - 1)))) {
+                while (i + 1 < len && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) i++;
+                buf.append('?');
+            } else {
+                buf.append(c);
+            }
+        }
+        int end = buf.length();
+        while (end > 0 && buf.charAt(end - 1) == ' ') end--;
+        buf.setLength(end);
+        return IN_LIST.matcher(buf).replaceAll("(?...)");
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '?';
+    }
+
+    /**
+     * @return the class and method of the first caller outside of the db service and the shared BaseDb*Storage classes
+     */
+    static String callerComponent() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(f -> !f.getClassName().startsWith("org.sakaiproject.db.") && !f.getClassName().startsWith("org.sakaiproject.util.BaseDb")
+                        && !f.getClassName().startsWith("java.") && !f.getClassName().startsWith("jdk.") && !f.getClassName().contains("$$"))
+                .findFirst()
+                .map(f -> f.getClassName() + "." + f.getMethodName())
+                .orElse("unknown"));
+    }
+
+    static String redactFields(Object[] fields) {
+        if (fields == null) return "[]";
+        StringBuilder buf = new StringBuilder("[");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) buf.append(", ");
+            Object field = fields[i];
+            if (field == null) {
+                buf.append("null");
+            } else if (field instanceof CharSequence) {
+                buf.append("String(").append(((CharSequence) field).length()).append(')');
+            } else if (field instanceof byte[]) {
+                buf.append("byte[").append(((byte[]) field).length).append(']');
+            } else {
+                buf.append(field.getClass().getSimpleName());
+            }
+        }
+        return buf.append(']').toString();
+    }
+
+    /**
+     * The counts and times of one statement template, or of the connection borrows.
+     */
+    public static class Stats {
+
+        private final String template;
+        private final String caller;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Stats(String template, String caller) {
+            this.template = template;
+            this.caller = caller;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos, long rowCount) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            if (rowCount > 0) rows.add(rowCount);
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 64 - Long.numberOfLeadingZeros(millis);
+            buckets[Math.min(bucket, BUCKETS - 1)].increment();
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            rows.reset();
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+
+        public String getTemplate() {
+            return template;
+        }
+
+        public String getCaller() {
+            return caller;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getAverageMillis() {
+            long n = getCount();
+            return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(getTotalNanos() / n);
+        }
+
+        /**
+         * @return the counts of times under 1, 2, 4 ... ms, the last count is for everything slower
+         */
+        public long[] getHistogram() {
+            long[] rv = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                rv[i] = buckets[i].sum();
+            }
+            return rv;
+        }
+
+        /**
+         * @param fraction the percentile as a fraction, e.g. 0.99
+         * @return the upper bound in ms of the histogram bucket holding that percentile
+         */
+        public long getPercentileMillis(double fraction) {
+            long[] histogram = getHistogram();
+            long total = 0;
+            for (long n : histogram) total += n;
+            if (total == 0) return 0;
+            long wanted = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram[i];
+                if (seen >= wanted) return 1L << i;
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        @Override
+        public String toString() {
+            return getCount() + " x avg " + getAverageMillis() + " ms, max " + TimeUnit.NANOSECONDS.toMillis(getMaxNanos())
+                    + " ms, p99 < " + getPercentileMillis(0.99) + " ms, rows " + getRows() + ", " + caller + ": " + template;
+        }
+    }
+}
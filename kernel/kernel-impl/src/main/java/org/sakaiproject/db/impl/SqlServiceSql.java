@@ -26,6 +26,7 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.GregorianCalendar;
+import java.util.List;
 
 /**
  * database methods.
@@ -131,4 +132,29 @@ public interface SqlServiceSql
 	 */
 	public Long getGeneratedKey(PreparedStatement pstmt, String sql) throws SQLException;
 
+	/**
+	 * Extract all the generated keys from a just-executed insert batch
+	 *
+	 * @param pstmt
+	 *      The prepared statement just executed as a batch
+	 * @param sql
+	 *      The SQL statement used to prepare pstmt
+	 * @return
+	 *      The inserted keys in batch order, or an empty list if the driver does not report them
+	 */
+	public List<Long> getGeneratedKeys(PreparedStatement pstmt, String sql) throws SQLException;
+
+	/**
+	 * The fetch size to set on a statement whose rows are handed on as they are read, on a connection used for nothing else
+	 * until the read is done.
+	 *
+	 * @param conn
+	 *      The connection the statement is prepared on
+	 * @param rows
+	 *      The rows wanted at a time
+	 * @return
+	 *      The fetch size that makes the driver read that window rather than all the rows up front
+	 */
+	public int getStreamFetchSize(Connection conn, int rows) throws SQLException;
+
 }
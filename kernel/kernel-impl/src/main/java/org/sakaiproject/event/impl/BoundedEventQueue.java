@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.sakaiproject.event.api.Event;
+
+/**
+ * <p>
+ * BoundedEventQueue holds the events posted by request threads until the event writer drains them to the db.<br />
+ * Posting does not take a lock; the capacity is enforced with a counter so a stalled db cannot grow the queue without limit.
+ * </p>
+ */
+public class BoundedEventQueue
+{
+	/** What to do with an event posted when the queue is full. */
+	public enum OverflowPolicy
+	{
+		/** wait for the writer to make room, dropping the event if none is made within the block timeout */
+		BLOCK,
+		/** drop the event right away */
+		DROP
+	}
+
+	/** How long a blocked poster parks between checks for room in the queue. */
+	private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong blocked = new AtomicLong();
+
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final long blockTimeoutNanos;
+
+	/**
+	 * Construct.
+	 *
+	 * @param capacity
+	 *        The maximum number of events held.
+	 * @param policy
+	 *        What to do with events posted when the queue is full.
+	 * @param blockTimeoutMillis
+	 *        With the BLOCK policy, the longest a poster waits for room before the event is dropped.
+	 */
+	public BoundedEventQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("The event queue capacity must be at least 1: " + capacity);
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+	}
+
+	/**
+	 * Add an event to the queue, applying the overflow policy if it is full.
+	 *
+	 * @param event
+	 *        The event to add.
+	 * @return true if the event was queued, false if it was dropped.
+	 */
+	public boolean offer(Event event)
+	{
+		long deadline = 0;
+		while (true)
+		{
+			int current = size.get();
+			if (current < capacity)
+			{
+				if (size.compareAndSet(current, current + 1))
+				{
+					queue.offer(event);
+					return true;
+				}
+				continue;
+			}
+
+			if (policy == OverflowPolicy.DROP)
+			{
+				dropped.incrementAndGet();
+				return false;
+			}
+
+			if (deadline == 0)
+			{
+				blocked.incrementAndGet();
+				deadline = System.nanoTime() + blockTimeoutNanos;
+			}
+			else if (System.nanoTime() - deadline > 0)
+			{
+				dropped.incrementAndGet();
+				return false;
+			}
+			LockSupport.parkNanos(BLOCK_PARK_NANOS);
+		}
+	}
+
+	/**
+	 * Remove up to max events from the head of the queue.
+	 *
+	 * @param max
+	 *        The most events to remove.
+	 * @return The events removed, in the order they were posted, empty if there are none.
+	 */
+	public List<Event> drain(int max)
+	{
+		List<Event> rv = new ArrayList<>(Math.min(max, Math.max(size.get(), 0)));
+		Event event;
+		while (rv.size() < max && (event = queue.poll()) != null)
+		{
+			size.decrementAndGet();
+			rv.add(event);
+		}
+		return rv;
+	}
+
+	/**
+	 * @return The number of events waiting to be written.
+	 */
+	public int size()
+	{
+		return size.get();
+	}
+
+	/**
+	 * @return The maximum number of events held.
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * @return The overflow policy.
+	 */
+	public OverflowPolicy getPolicy()
+	{
+		return policy;
+	}
+
+	/**
+	 * @return The number of events dropped because the queue was full.
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * @return The number of posts that had to wait for room in the queue.
+	 */
+	public long getBlockedCount()
+	{
+		return blocked.get();
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.sakaiproject.event.api.SimpleEvent;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A batch of events written to the db by one server, pushed to the other cluster servers.
+ * The sequence number counts the messages sent by the server so receivers can tell when they have missed one.
+ * Each event carries its SAKAI_EVENT id as its seq.
+ */
+@AllArgsConstructor
+@Getter
+public class ClusterEventMessage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long sequence;
+    private final List<SimpleEvent> events;
+}
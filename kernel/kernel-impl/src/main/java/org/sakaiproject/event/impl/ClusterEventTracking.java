@@ -28,11 +28,15 @@ import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import lombok.extern.slf4j.Slf4j;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteMessaging;
+import org.apache.ignite.lang.IgniteBiPredicate;
 
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.component.cover.ComponentManager;
@@ -47,7 +51,9 @@ import org.sakaiproject.memory.api.MemoryService;
 /**
  * <p>
  * ClusterEventTracking is the implmentation for the EventTracking service for use in a clustered multi-app server configuration.<br />
- * Events are backed in the cluster database, and this database is polled to read and process locally events posted by the other cluster members.
+ * Events are backed in the cluster database, and this database is polled to read and process locally events posted by the other cluster members.<br />
+ * With push propagation, each server also sends the events it writes to the other cluster members over an Ignite topic; the database is then
+ * only read when a receiver detects a missed message, and on a long reconcile period as a safety net.
  * </p>
  */
 @Slf4j
@@ -71,17 +77,68 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	protected long m_totalEventsCount = 0;
 
 	/** Queue of events to write if we are batching. */
-	protected Collection<Event> m_eventQueue = null;
+	protected BoundedEventQueue m_eventQueue = null;
+	/** The most events the queue holds before the overflow policy applies. */
+	protected int m_queueCapacity = 50000;
+	/** What to do with events posted when the queue is full: block or drop. */
+	protected BoundedEventQueue.OverflowPolicy m_overflowPolicy = BoundedEventQueue.OverflowPolicy.BLOCK;
+	/** With the block overflow policy, how long in ms a poster waits for room before the event is dropped. */
+	protected long m_queueBlockTimeout = 2000;
+	/** How often in ms a full queue reports the events it dropped, the first drop is reported at once. */
+	protected static final long DROP_REPORT_INTERVAL = 60000L;
+	/** When the dropped events were last reported. */
+	protected final AtomicLong m_dropReportTime = new AtomicLong();
+	/** The dropped count when they were last reported. */
+	protected final AtomicLong m_dropReportCount = new AtomicLong();
+	/** The number of threads writing batched events to the db. */
+	protected int m_writerThreads = 1;
+	/** How long to wait in ms between writes of batched events to the db. */
+	protected long m_writePeriod = 1000;
+	/** The most events written to the db in one batch. */
+	protected int m_writeBatchSize = 1000;
 	/** Unless false, check the db for events from the other cluster servers. */
 	protected boolean m_checkDb = true;
 	/** If true, batch events for bulk write. */
 	protected boolean m_batchWrite = true;
+	/** If true, batches written while caching is enabled are inserted in bulk with their ids read back, otherwise one insert per event. */
+	protected boolean m_batchInsert = true;
 	/** Configuration: to run the ddl on init or not. */
 	protected boolean m_autoDdl = false;
+	/** If true, events are pushed to the other cluster servers over an Ignite topic rather than found by polling the db. */
+	protected boolean m_pushEvents = false;
+	/** With push propagation, how long to wait in seconds between reconciling checks of the db for new events. */
+	protected int m_reconcilePeriod = 300;
+
+	/** The most event ids read from the events cache in one request. */
+	private static final int EVENT_CACHE_READ_SIZE = 500;
+
+	/** The Ignite topic events are pushed on. */
+	public static final String EVENT_TOPIC = "org.sakaiproject.event.impl.ClusterEventTracking.events";
+	/** Pushes to and receives from the other cluster servers, null unless pushing. */
+	private IgniteMessaging eventMessaging;
+	private IgniteBiPredicate<UUID, Object> eventListener;
+	/** The sequence number of the last message this server pushed. */
+	private long pushSequence = 0;
+	/** The last message sequence number received from each sending node, only used by the scheduler thread. */
+	private final Map<UUID, Long> receivedSequences = new HashMap<>();
+	/** Ids of the remote events above the delivered floor already given to observers, only used by the scheduler thread. */
+	private final NavigableSet<Long> deliveredEventIds = new TreeSet<>();
+	/** Remote events at or below this id are never delivered from a push, the db reads have covered them. */
+	private long deliveredFloor = 0;
+	private final AtomicLong receivedMessages = new AtomicLong();
+	private final AtomicLong messageGaps = new AtomicLong();
 
 	private String serverInstance;
 	private String serverId;
 	private ScheduledExecutorService scheduler;
+	private ScheduledExecutorService writer;
+
+	/** Batched event write statistics */
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong flushedEvents = new AtomicLong();
+	private final AtomicLong flushTotalMillis = new AtomicLong();
+	private volatile long flushLastMillis = 0;
+	private volatile long flushMaxMillis = 0;
 
 	/*************************************************************************************************************************************************
 	 * Dependencies
@@ -117,6 +174,11 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	 */
 	protected abstract MemoryService memoryService();
 
+	/**
+	 * @return the Ignite collaborator.
+	 */
+	protected abstract Ignite ignite();
+
 	/**
 	 * Configuration: set the check-db.
 	 *
@@ -151,6 +213,105 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		}
 	}
 
+	/**
+	 * Configuration: set the most events the batch queue holds before the overflow policy applies.
+	 *
+	 * @param value
+	 *        The queue capacity.
+	 */
+	public void setQueueCapacity(String value)
+	{
+		m_queueCapacity = Integer.parseInt(value);
+	}
+
+	/**
+	 * Configuration: set what to do with events posted when the batch queue is full.
+	 *
+	 * @param value
+	 *        "block" to wait for room (up to the queue block timeout) or "drop" to drop the event.
+	 */
+	public void setOverflowPolicy(String value)
+	{
+		m_overflowPolicy = BoundedEventQueue.OverflowPolicy.valueOf(value.trim().toUpperCase());
+	}
+
+	/**
+	 * Configuration: set how long in ms a poster waits for room in a full batch queue before the event is dropped.
+	 *
+	 * @param value
+	 *        The block timeout in ms.
+	 */
+	public void setQueueBlockTimeout(String value)
+	{
+		m_queueBlockTimeout = Long.parseLong(value);
+	}
+
+	/**
+	 * Configuration: set the number of threads writing batched events to the db.
+	 *
+	 * @param value
+	 *        The number of writer threads.
+	 */
+	public void setWriterThreads(String value)
+	{
+		m_writerThreads = Math.max(1, Integer.parseInt(value));
+	}
+
+	/**
+	 * Configuration: set how long in ms to wait between writes of batched events to the db.
+	 *
+	 * @param value
+	 *        The write period in ms.
+	 */
+	public void setWritePeriod(String value)
+	{
+		m_writePeriod = Long.parseLong(value);
+	}
+
+	/**
+	 * Configuration: set the most events written to the db in one batch.
+	 *
+	 * @param value
+	 *        The batch size.
+	 */
+	public void setWriteBatchSize(String value)
+	{
+		m_writeBatchSize = Math.max(1, Integer.parseInt(value));
+	}
+
+	/**
+	 * Configuration: set the batch insert flag, used when cluster event caching is enabled.
+	 *
+	 * @param value
+	 *        The batch insert value.
+	 */
+	public void setBatchInsert(String value)
+	{
+		m_batchInsert = Boolean.valueOf(value).booleanValue();
+	}
+
+	/**
+	 * Configuration: set how events posted on the other cluster servers are found.
+	 *
+	 * @param value
+	 *        "poll" to check the db every period, or "push" to receive them over an Ignite topic.
+	 */
+	public void setPropagation(String value)
+	{
+		m_pushEvents = "push".equalsIgnoreCase(StringUtils.trimToEmpty(value));
+	}
+
+	/**
+	 * Configuration: with push propagation, set the # seconds to wait between reconciling checks of the db for new events.
+	 *
+	 * @param time
+	 *        The # seconds to wait between reconciling db checks.
+	 */
+	public void setReconcilePeriod(String time)
+	{
+		m_reconcilePeriod = Integer.parseInt(time);
+	}
+
 	/**
 	 * Configuration: to run the ddl on init or not.
 	 *
@@ -217,20 +378,49 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 
 			if (m_batchWrite)
 			{
-				m_eventQueue = new Vector<Event>();
+				m_eventQueue = new BoundedEventQueue(m_queueCapacity, m_overflowPolicy, m_queueBlockTimeout);
+
+				// the batched events are written by their own threads, so a slow db write does not hold up the cluster event checks
+				writer = Executors.newScheduledThreadPool(m_writerThreads, runnable -> {
+					Thread thread = new Thread(runnable, this.getClass().getName() + ".writer");
+					thread.setDaemon(true);
+					return thread;
+				});
+				for (int i = 0; i < m_writerThreads; i++)
+				{
+					writer.scheduleWithFixedDelay(this::flushEvents, m_writePeriod, m_writePeriod, TimeUnit.MILLISECONDS);
+				}
+			}
+
+			if (m_pushEvents)
+			{
+				eventMessaging = ignite().message(ignite().cluster().forRemotes());
 			}
 
 			// startup the event checking
 			if (m_checkDb)
 			{
 				initLastEvent();
+				deliveredFloor = m_lastEventSeq;
 
 				scheduler = Executors.newSingleThreadScheduledExecutor();
-				// schedule task for every pollDelaySeconds
+				if (m_pushEvents)
+				{
+					// pushed events are handed to the scheduler thread, so they are processed in order with the db checks
+					eventListener = (nodeId, message) -> {
+						if (message instanceof ClusterEventMessage)
+						{
+							scheduler.execute(() -> receiveEvents(nodeId, (ClusterEventMessage) message));
+						}
+						return true;
+					};
+					eventMessaging.localListen(EVENT_TOPIC, eventListener);
+				}
+				// schedule task for every pollDelaySeconds, or the reconcile period when events are pushed
 				scheduler.scheduleWithFixedDelay(
 						this,
 						60, // minimally wait 60 seconds for sakai to start
-						m_period, // run every
+						m_pushEvents ? m_reconcilePeriod : m_period, // run every
 						TimeUnit.SECONDS
 				);
 			}
@@ -252,7 +442,9 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
     			}
 			}
 
-			log.info("period: {}, batch: {}, checkDb: {}", m_period, m_batchWrite, m_checkDb);
+			log.info("period: {}, batch: {}, batchInsert: {}, checkDb: {}, queueCapacity: {}, overflowPolicy: {}, writerThreads: {}, writePeriod: {}, propagation: {}, reconcilePeriod: {}",
+					m_period, m_batchWrite, m_batchInsert, m_checkDb, m_queueCapacity, m_overflowPolicy, m_writerThreads, m_writePeriod,
+					m_pushEvents ? "push" : "poll", m_reconcilePeriod);
 
             String sakaiVersion = serverConfigurationService().getString("version.sakai", "unknown") + "/" + serverConfigurationService().getString("version.service", "unknown");
             log.info("Server Start: serverId={}, serverInstance={}, serverIdInstance={}, version={}",
@@ -304,7 +496,28 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	 */
 	public void destroy()
 	{
-		scheduler.shutdown();
+		if (eventListener != null)
+		{
+			eventMessaging.stopLocalListen(EVENT_TOPIC, eventListener);
+		}
+		if (scheduler != null)
+		{
+			scheduler.shutdown();
+		}
+		if (writer != null)
+		{
+			writer.shutdown();
+			try
+			{
+				writer.awaitTermination(m_writePeriod * 2, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			// write out whatever is still waiting
+			flushEvents();
+		}
 		super.destroy();
 	}
 
@@ -338,9 +551,9 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			// batch the event if we are batching
 			if (m_batchWrite)
 			{
-				synchronized (m_eventQueue)
+				if (!m_eventQueue.offer(event))
 				{
-					m_eventQueue.add(event);
+					reportDroppedEvents();
 				}
 			}
 
@@ -354,6 +567,22 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		log.debug("{}{}", m_logId, event);
 	}
 
+	/**
+	 * Report events dropped by a full queue, the first drop at once and then one summary an interval at most,
+	 * so an overloaded server does not also flood its log.
+	 */
+	protected void reportDroppedEvents()
+	{
+		long now = System.currentTimeMillis();
+		long last = m_dropReportTime.get();
+		if (last != 0 && now - last < DROP_REPORT_INTERVAL) return;
+		if (!m_dropReportTime.compareAndSet(last, now)) return;
+
+		long dropped = m_eventQueue.getDroppedCount();
+		long since = dropped - m_dropReportCount.getAndSet(dropped);
+		log.warn("event queue full ({} events), dropped {} events since the last report, total dropped: {}", m_eventQueue.getCapacity(), since, dropped);
+	}
+
 	/**
 	 * Write a single event to the db
 	 * 
@@ -370,12 +599,13 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		bindValues(event, fields);
 
         // process the insert
-        if (cachingEnabled) {
-            // if caching is enabled, get the last inserted id
+        if (cachingEnabled || m_pushEvents) {
+            // if caching or pushing, get the last inserted id
             Long eventId = sqlService().dbInsert(conn, statement, fields, "EVENT_ID");
             if (eventId != null) {
                 // write event to cache
                 writeEventToCluster(event, eventId);
+                publishEvents(Collections.singletonList(event), Collections.singletonList(eventId));
             }
         } else {
             boolean ok = sqlService().dbWrite(conn, statement, fields);
@@ -385,6 +615,109 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
         }
     }
 
+	/**
+	 * Write the events waiting in the batch queue to the db, in batches of at most the write batch size.
+	 */
+	protected void flushEvents()
+	{
+		try
+		{
+			List<Event> batchEvents;
+			while (!(batchEvents = m_eventQueue.drain(m_writeBatchSize)).isEmpty())
+			{
+				long start = System.currentTimeMillis();
+				writeBatchEvents(batchEvents);
+				long elapsed = System.currentTimeMillis() - start;
+
+				flushCount.incrementAndGet();
+				flushedEvents.addAndGet(batchEvents.size());
+				flushTotalMillis.addAndGet(elapsed);
+				flushLastMillis = elapsed;
+				if (elapsed > flushMaxMillis)
+				{
+					flushMaxMillis = elapsed;
+				}
+			}
+		}
+		catch (Throwable t)
+		{
+			log.error("{}error writing batched events {}", m_logId, t.getMessage(), t);
+		}
+	}
+
+	/**
+	 * @return The number of events waiting in the batch queue, 0 if not batching.
+	 */
+	public int getEventQueueSize()
+	{
+		return m_eventQueue == null ? 0 : m_eventQueue.size();
+	}
+
+	/**
+	 * @return The most events the batch queue holds, 0 if not batching.
+	 */
+	public int getEventQueueCapacity()
+	{
+		return m_eventQueue == null ? 0 : m_eventQueue.getCapacity();
+	}
+
+	/**
+	 * @return The number of events dropped because the batch queue was full.
+	 */
+	public long getDroppedEventCount()
+	{
+		return m_eventQueue == null ? 0 : m_eventQueue.getDroppedCount();
+	}
+
+	/**
+	 * @return The number of event posts that had to wait for room in the batch queue.
+	 */
+	public long getBlockedEventCount()
+	{
+		return m_eventQueue == null ? 0 : m_eventQueue.getBlockedCount();
+	}
+
+	/**
+	 * @return The number of batches written to the db.
+	 */
+	public long getFlushCount()
+	{
+		return flushCount.get();
+	}
+
+	/**
+	 * @return The number of batched events written to the db.
+	 */
+	public long getFlushedEventCount()
+	{
+		return flushedEvents.get();
+	}
+
+	/**
+	 * @return How long in ms the last batch took to write.
+	 */
+	public long getLastFlushMillis()
+	{
+		return flushLastMillis;
+	}
+
+	/**
+	 * @return The longest time in ms a batch took to write.
+	 */
+	public long getMaxFlushMillis()
+	{
+		return flushMaxMillis;
+	}
+
+	/**
+	 * @return The average time in ms a batch took to write.
+	 */
+	public long getAverageFlushMillis()
+	{
+		long count = flushCount.get();
+		return count == 0 ? 0 : flushTotalMillis.get() / count;
+	}
+
 	/**
 	 * Write a batch of events to the db
 	 * 
@@ -397,6 +730,10 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		if (events == null || events.isEmpty()) { return; }
 		log.debug("writing {} batched events", events.size());
 
+		// the event ids are needed to cache or push the events
+		boolean readIds = cachingEnabled || m_pushEvents;
+		List<Long> eventIds = null;
+
 		// get a connection
 		Connection conn = null;
 		boolean wasCommit = true;
@@ -407,8 +744,11 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			// common preparation for each insert
 			String statement = insertStatement();
 
-			// Setup a batch of events if not using a cluster
+			// Setup a batch of events
 			List<Object[]> eventList = new ArrayList<>();
+			if (readIds && !m_batchInsert) {
+				eventIds = new ArrayList<>();
+			}
 
 			// write all events
 			for (Event event : events)
@@ -417,10 +757,10 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 				bindValues(event, fields);
 				eventList.add(fields);
 
-				// For clustered setups with caching enabled, use legacy, individual inserts
-				// TODO: it might be possible to write the entire batch to database and still get return values. But this will need testing on MySQL and Oracle.
-				if (cachingEnabled) {
+				// For clustered setups with caching or pushing enabled and batch insert disabled, use legacy, individual inserts
+				if (readIds && !m_batchInsert) {
 					Long eventId = sqlService().dbInsert(conn, statement, fields, "EVENT_ID");
+					eventIds.add(eventId);
 					if (eventId != null) {
 						// write event to cache
 						writeEventToCluster(event, eventId);
@@ -428,8 +768,16 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 				}
 			}
 
-			// Write all of these events in a batch if not using clustering
-			if (!cachingEnabled) {
+			if (readIds) {
+				// Write the whole batch and read back the event ids so the events can be cached - KNL-1184
+				if (m_batchInsert) {
+					eventIds = insertBatchEvents(conn, eventList);
+					if (eventIds != null) {
+						writeEventsToCluster(new ArrayList<>(events), eventIds);
+					}
+				}
+			} else {
+				// Write all of these events in a batch if not using clustering
 				boolean ok = sqlService().dbWriteBatch(conn, statement, eventList);
 				if (!ok) {
 					log.warn("dbWriteBatch failed: event count: {}", eventList.size());
@@ -440,6 +788,11 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			if (!conn.isClosed()) {
 			    conn.commit();
 			}
+
+			// push only once committed, so a receiver catching up from the db will find the events
+			if (eventIds != null) {
+				publishEvents(new ArrayList<>(events), eventIds);
+			}
 		}
 		catch (Exception e)
 		{
@@ -476,6 +829,71 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		}
 	}
 
+	/**
+	 * Write a batch of bound events to the db in bulk, returning the event id of each one.
+	 * Databases using a sequence have a block of ids allocated up front in one query and inserted with the events,
+	 * others insert the batch and read back the generated keys.
+	 *
+	 * @param conn
+	 *        The connection to use.
+	 * @param eventList
+	 *        The bound values of the events to write, as prepared by bindValues().
+	 * @return The event ids in the order of eventList, or null if they could not be determined.
+	 */
+	protected List<Long> insertBatchEvents(Connection conn, List<Object[]> eventList)
+	{
+		String idsStatement = clusterEventTrackingServiceSql.getNextEventIdsSql(eventList.size());
+		if (idsStatement != null)
+		{
+			List<Long> eventIds = sqlService().dbRead(conn, idsStatement, null, new SqlReader<Long>() {
+				public Long readSqlResultRecord(ResultSet result) {
+					try {
+						return result.getLong(1);
+					} catch (SQLException e) {
+						log.warn("Could not read event id: {}", e.toString());
+						return null;
+					}
+				}
+			});
+			if (eventIds.size() != eventList.size() || eventIds.contains(null))
+			{
+				log.warn("could not allocate event ids: requested: {} allocated: {}", eventList.size(), eventIds.size());
+				return null;
+			}
+
+			List<Object[]> idEventList = new ArrayList<>(eventList.size());
+			for (int i = 0; i < eventList.size(); i++)
+			{
+				Object[] fields = new Object[7];
+				fields[0] = eventIds.get(i);
+				System.arraycopy(eventList.get(i), 0, fields, 1, 6);
+				idEventList.add(fields);
+			}
+
+			boolean ok = sqlService().dbWriteBatch(conn, clusterEventTrackingServiceSql.getInsertEventWithIdSql(), idEventList);
+			if (!ok)
+			{
+				log.warn("dbWriteBatch failed: event count: {}", idEventList.size());
+				return null;
+			}
+			return eventIds;
+		}
+
+		List<Long> eventIds = sqlService().dbInsertBatch(conn, insertStatement(), eventList, "EVENT_ID");
+		if (eventIds == null)
+		{
+			log.warn("dbInsertBatch failed: event count: {}", eventList.size());
+			return null;
+		}
+		if (eventIds.size() != eventList.size())
+		{
+			// the events are stored, but without their ids they cannot be shared through the cache
+			log.warn("dbInsertBatch returned {} event ids for {} events, not caching this batch", eventIds.size(), eventList.size());
+			return null;
+		}
+		return eventIds;
+	}
+
 	/**
 	 * Form the proper event insert statement for the database technology.
 	 * 
@@ -535,18 +953,6 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			// wait for sakai's ComponentManager to finish starting before processing events
 			ComponentManager.waitTillConfigured();
 
-			// write any events we have
-			if (m_batchWrite)
-			{
-				Collection<Event> batchEvents;
-				synchronized (m_eventQueue)
-				{
-					batchEvents = new ArrayList<>(m_eventQueue);
-					m_eventQueue.clear();
-				}
-				writeBatchEvents(batchEvents);
-			}
-
 			log.debug("checking for events > {}", m_lastEventSeq);
 			// check the db for new events
 			// We do a left join which gets us records from non-sessions also (SESSION_SERVER may be null when non-session events are returned)
@@ -556,16 +962,23 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			Object[] fields = new Object[1];
 			fields[0] = Long.valueOf(m_lastEventSeq);
 
+			long lastEventSeq = m_lastEventSeq;
 			List<Event> events = new ArrayList<>();
-			if (cachingEnabled) { // KNL-1184
+			if (cachingEnabled && !m_pushEvents) { // KNL-1184
 				// set to last event id processed + 1 since we've already processed the last event id
 				long beginEventId = m_lastEventSeq + 1;
 				// set m_lastEventSeq to latest key value in event cache
 				initLastEventIdInEventCache();
-				// only process events if there are new ones
-				if (m_lastEventSeq >= beginEventId) {
-					for (long i = beginEventId; i <= m_lastEventSeq; i++) {
-						SimpleEvent event = (SimpleEvent) eventCache.get( String.valueOf(i) );
+				// only process events if there are new ones, read from the cache a block of ids at a time
+				for (long blockStart = beginEventId; blockStart <= m_lastEventSeq; blockStart += EVENT_CACHE_READ_SIZE) {
+					long blockEnd = Math.min(blockStart + EVENT_CACHE_READ_SIZE - 1, m_lastEventSeq);
+					Set<String> keys = new HashSet<>();
+					for (long i = blockStart; i <= blockEnd; i++) {
+						keys.add(String.valueOf(i));
+					}
+					Map<String, Object> cached = eventCache.getAll(keys);
+					for (long i = blockStart; i <= blockEnd; i++) {
+						SimpleEvent event = (SimpleEvent) cached.get(String.valueOf(i));
 						if (event != null) {
 							boolean nonSessionEvent = (event.getServerId() == null || StringUtils.startsWith(event.getSessionId(), "~"));
 							String userId = null;
@@ -649,6 +1062,12 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 					}
 				});
 			}
+			if (m_pushEvents) {
+				// skip the events already pushed to us, and forget the ids that no push can now repeat
+				events.removeIf(event -> !markDelivered(((BaseEvent) event).seq));
+				deliveredFloor = Math.max(deliveredFloor, lastEventSeq);
+				deliveredEventIds.headSet(deliveredFloor, true).clear();
+			}
 			// for each new event found, notify observers
 			for (Event event : events) {
 				notifyObservers(event, false);
@@ -660,6 +1079,116 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		}
 	}
 
+	/**
+	 * Send events just written to the db to the other cluster servers, if pushing.
+	 *
+	 * @param events
+	 *        The events written.
+	 * @param eventIds
+	 *        The ids of the events, in the same order, null where an id could not be read.
+	 */
+	protected synchronized void publishEvents(List<Event> events, List<Long> eventIds)
+	{
+		if (eventMessaging == null) return;
+
+		String serverIdInstance = serverConfigurationService().getServerIdInstance();
+		List<SimpleEvent> simpleEvents = new ArrayList<>(events.size());
+		for (int i = 0; i < events.size(); i++)
+		{
+			Long eventId = eventIds.get(i);
+			if (eventId != null)
+			{
+				SimpleEvent simpleEvent = new SimpleEvent((Event) ensureBaseEvent(events.get(i)), serverIdInstance);
+				simpleEvent.setSeq(eventId);
+				simpleEvents.add(simpleEvent);
+			}
+		}
+		if (simpleEvents.isEmpty()) return;
+
+		// the sequence moves on even if the send fails, so the receivers see the gap and catch up from the db
+		long sequence = ++pushSequence;
+		try
+		{
+			eventMessaging.sendOrdered(EVENT_TOPIC, new ClusterEventMessage(sequence, simpleEvents), 0);
+		}
+		catch (Exception e)
+		{
+			log.warn("Could not push {} events, message: {}, {}", simpleEvents.size(), sequence, e.toString());
+		}
+	}
+
+	/**
+	 * Process events pushed by another cluster server, catching up from the db first if a message from that server was missed.
+	 * Runs on the scheduler thread.
+	 *
+	 * @param nodeId
+	 *        The Ignite node that sent the message.
+	 * @param message
+	 *        The message.
+	 */
+	protected void receiveEvents(UUID nodeId, ClusterEventMessage message)
+	{
+		try
+		{
+			// wait for sakai's ComponentManager to finish starting before processing events
+			ComponentManager.waitTillConfigured();
+
+			receivedMessages.incrementAndGet();
+			Long last = receivedSequences.get(nodeId);
+			if (last == null || message.getSequence() > last)
+			{
+				receivedSequences.put(nodeId, message.getSequence());
+			}
+			// the first message from a node has nothing to compare with, anything before it was covered by reading the db on startup
+			if (last != null && message.getSequence() > last + 1)
+			{
+				messageGaps.incrementAndGet();
+				log.info("missed {} event messages from node {}, checking the db for events > {}", message.getSequence() - last - 1, nodeId, m_lastEventSeq);
+				run();
+			}
+
+			for (SimpleEvent event : message.getEvents())
+			{
+				if (markDelivered(event.getSeq()))
+				{
+					notifyObservers(event, false);
+				}
+			}
+		}
+		catch (Throwable t)
+		{
+			log.error("{}error processing pushed events {}", m_logId, t.getMessage(), t);
+		}
+	}
+
+	/**
+	 * Record that a remote event is being delivered to the observers.
+	 *
+	 * @param eventId
+	 *        The event id.
+	 * @return true if the event has not been delivered before, false if it has (or may have) been.
+	 */
+	private boolean markDelivered(long eventId)
+	{
+		return eventId > deliveredFloor && deliveredEventIds.add(eventId);
+	}
+
+	/**
+	 * @return The number of event messages pushed to this server.
+	 */
+	public long getReceivedMessageCount()
+	{
+		return receivedMessages.get();
+	}
+
+	/**
+	 * @return The number of times a missed event message caused a catch up from the db.
+	 */
+	public long getMessageGapCount()
+	{
+		return messageGaps.get();
+	}
+
 	/**
 	 * Check the db for the largest event seq number, and set this as the one after which we will next get event.
 	 */
@@ -730,6 +1259,39 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
         }
     }
 
+    /**
+     * Writes a batch of events to cache in one operation, if enabled
+     *
+     * @param events the event objects
+     * @param eventIds the ids of the event objects, in the same order
+     */
+    private void writeEventsToCluster(List<Event> events, List<Long> eventIds) {
+        if (cachingEnabled) {
+            if (eventCache != null) {
+                String serverIdInstance = serverConfigurationService().getServerIdInstance();
+                Map<String, SimpleEvent> simpleEvents = new HashMap<>();
+                Long lastEventId = null;
+                for (int i = 0; i < events.size(); i++) {
+                    Long eventId = eventIds.get(i);
+                    BaseEvent baseEvent = ensureBaseEvent(events.get(i));
+                    simpleEvents.put(String.valueOf(eventId), new SimpleEvent((Event) baseEvent, serverIdInstance));
+                    if (lastEventId == null || eventId > lastEventId) {
+                        lastEventId = eventId;
+                    }
+                }
+                // add all items to cache store at once
+                eventCache.putAll(simpleEvents);
+                if (lastEventId != null) {
+                    eventLastCache.put("lastEventId", lastEventId);
+                }
+            } else {
+                log.debug("Cannot store events to cache, event store not initialized.");
+            }
+        } else {
+            log.debug("Cluster caching not enabled.");
+        }
+    }
+
     /**
      * Writes an event to cache, if enabled
      * 
@@ -31,6 +31,21 @@ public interface ClusterEventTrackingServiceSql
 	 */
 	String getInsertEventSql();
 
+	/**
+	 * returns the sql statement which inserts an event into the sakai_event table with an already allocated event id bound as the first parameter,
+	 * or null if the event id is generated by the database on insert.
+	 */
+	String getInsertEventWithIdSql();
+
+	/**
+	 * returns the sql statement which allocates a block of event ids from the event sequence, one per record,
+	 * or null if the database does not use a sequence for event ids.
+	 *
+	 * @param count
+	 *        the number of event ids to allocate.
+	 */
+	String getNextEventIdsSql(int count);
+
 	/**
 	 * returns the sql statement which retrieves an event from the sakai_event and sakai_session tables.
 	 */
@@ -40,6 +40,29 @@ public class ClusterEventTrackingServiceSqlDefault implements ClusterEventTracki
                           "? )";                                // code
    }
 
+   /**
+    * returns the sql statement which inserts an event into the sakai_event table with an already allocated event id.
+    */
+   public String getInsertEventWithIdSql()
+   {
+      return "insert into SAKAI_EVENT (EVENT_ID,EVENT_DATE,EVENT,REF,SESSION_ID,EVENT_CODE,CONTEXT) " +
+             "values      (?, " + // the pre-allocated id
+                          "?, " + // date
+                          "?, " + // event
+                          "?, " + // reference
+                          "?, " + // session id
+                          "?, " + // code
+                          "? )";  // context
+   }
+
+   /**
+    * there is no portable way to allocate a block of ids from a sequence, the generated keys of the batch are used instead.
+    */
+   public String getNextEventIdsSql(int count)
+   {
+      return null;
+   }
+
    /**
 	 * returns the sql statement which retrieves an event from the sakai_event and sakai_session tables.
 	 */
@@ -26,4 +26,13 @@ package org.sakaiproject.event.impl;
  */
 public class ClusterEventTrackingServiceSqlHSql extends ClusterEventTrackingServiceSqlDefault
 {
+   /**
+    * returns the sql statement which allocates a block of event ids from the event sequence.
+    */
+   @Override
+   public String getNextEventIdsSql(int count)
+   {
+      // a new sequence value is generated for each row of the select
+      return "select NEXT VALUE FOR SAKAI_EVENT_SEQ from UNNEST(SEQUENCE_ARRAY(1, " + count + ", 1))";
+   }
 }
@@ -41,6 +41,23 @@ public class ClusterEventTrackingServiceSqlMySql extends ClusterEventTrackingSer
                           "?)";   // context
    }
 
+   /**
+    * the EVENT_ID is an AUTO_INCREMENT column, so ids are not allocated ahead of the insert.
+    */
+   @Override
+   public String getInsertEventWithIdSql()
+   {
+      return null;
+   }
+
+   /**
+    * the EVENT_ID is an AUTO_INCREMENT column, the generated keys of the batch are used instead.
+    */
+   @Override
+   public String getNextEventIdsSql(int count)
+   {
+      return null;
+   }
 
     @Override
     public String getEventsCountSql() {
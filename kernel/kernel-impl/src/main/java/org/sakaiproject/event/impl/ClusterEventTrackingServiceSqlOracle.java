@@ -40,6 +40,13 @@ public class ClusterEventTrackingServiceSqlOracle extends ClusterEventTrackingSe
                           "?) ";                       // context
    }
 
+   /**
+    * returns the sql statement which allocates a block of event ids from the event sequence.
+    */
+   public String getNextEventIdsSql(int count) {
+      return "select SAKAI_EVENT_SEQ.NEXTVAL from DUAL connect by level <= " + count;
+   }
+
    /**
     * returns the sql statement which retrieves an event from the sakai_event and sakai_session tables.
     */
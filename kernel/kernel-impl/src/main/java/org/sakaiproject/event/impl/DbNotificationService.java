@@ -21,7 +21,6 @@
 
 package org.sakaiproject.event.impl;
 
-import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
 
@@ -181,15 +180,15 @@ public abstract class DbNotificationService extends BaseNotificationService
 			List rv = new Vector();
 			if (function == null) return rv;
 
-			List all = super.getAllResources();
-			for (Iterator it = all.iterator(); it.hasNext();)
+			// only the notifications for the function are kept as all of them are read
+			super.forEachResource(entity ->
 			{
-				Notification notification = (Notification) it.next();
+				Notification notification = (Notification) entity;
 				if (notification.containsFunction(function))
 				{
 					rv.add(notification);
 				}
-			}
+			});
 
 			return rv;
 		}
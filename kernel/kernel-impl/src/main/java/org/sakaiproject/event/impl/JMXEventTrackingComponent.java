@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import org.sakaiproject.event.api.EventTrackingService;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Exports the batched event write statistics of the ClusterEventTracking service over JMX,
+ * all values are 0 if the service is not a ClusterEventTracking or is not batching.
+ */
+@ManagedResource(objectName="org.sakaiproject:name=EventTracking", description="Sakai event tracking queue and writer data")
+public class JMXEventTrackingComponent {
+
+    private ClusterEventTracking clusterEventTracking;
+
+    @ManagedAttribute(description="Events waiting to be written to the db", currencyTimeLimit=0)
+    public int getQueueSize() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getEventQueueSize();
+    }
+
+    @ManagedAttribute(description="Most events the queue holds before posts block or drop", currencyTimeLimit=600)
+    public int getQueueCapacity() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getEventQueueCapacity();
+    }
+
+    @ManagedAttribute(description="Events dropped because the queue was full", currencyTimeLimit=0)
+    public long getDroppedEvents() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getDroppedEventCount();
+    }
+
+    @ManagedAttribute(description="Event posts that waited for room in the queue", currencyTimeLimit=0)
+    public long getBlockedPosts() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getBlockedEventCount();
+    }
+
+    @ManagedAttribute(description="Batches written to the db", currencyTimeLimit=0)
+    public long getFlushCount() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getFlushCount();
+    }
+
+    @ManagedAttribute(description="Batched events written to the db", currencyTimeLimit=0)
+    public long getFlushedEvents() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getFlushedEventCount();
+    }
+
+    @ManagedAttribute(description="Time in ms taken to write the last batch", currencyTimeLimit=0)
+    public long getLastFlushMillis() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getLastFlushMillis();
+    }
+
+    @ManagedAttribute(description="Longest time in ms taken to write a batch", currencyTimeLimit=0)
+    public long getMaxFlushMillis() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getMaxFlushMillis();
+    }
+
+    @ManagedAttribute(description="Average time in ms taken to write a batch", currencyTimeLimit=0)
+    public long getAverageFlushMillis() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getAverageFlushMillis();
+    }
+
+    @ManagedAttribute(description="Event messages pushed to this server by the other cluster servers", currencyTimeLimit=0)
+    public long getReceivedMessages() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getReceivedMessageCount();
+    }
+
+    @ManagedAttribute(description="Missed event messages that caused a catch up from the db", currencyTimeLimit=0)
+    public long getMessageGaps() {
+        return clusterEventTracking == null ? 0 : clusterEventTracking.getMessageGapCount();
+    }
+
+    public void setEventTrackingService(EventTrackingService eventTrackingService) {
+        if (eventTrackingService instanceof ClusterEventTracking) {
+            this.clusterEventTracking = (ClusterEventTracking) eventTrackingService;
+        }
+    }
+
+}
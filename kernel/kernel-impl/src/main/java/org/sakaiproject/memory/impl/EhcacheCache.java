@@ -255,7 +255,10 @@ public class EhcacheCache<K, V> extends BasicCache<K, V> implements CacheEventLi
         if (!keys.isEmpty()) {
             Map<Object, Element> mapElements = cache.getAll(keys);
             for (Map.Entry<Object, Element> entry : mapElements.entrySet()) {
-                map.put((K)entry.getKey(), (V)entry.getValue().getObjectValue());
+                // keys not in the cache come back with a null element
+                if (entry.getValue() != null) {
+                    map.put((K)entry.getKey(), (V)entry.getValue().getObjectValue());
+                }
             }
         }
         return map;
@@ -42,6 +42,10 @@ import java.util.Set;
 import java.util.Stack;
 import java.util.Vector;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
@@ -95,6 +99,7 @@ import org.sakaiproject.site.api.AllowedJoinableAccount;
 import org.sakaiproject.site.api.Group;
 import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.api.SiteAdvisor;
+import org.sakaiproject.site.api.SiteMembership;
 import org.sakaiproject.site.api.SitePage;
 import org.sakaiproject.site.api.SiteRemovalAdvisor;
 import org.sakaiproject.site.api.SiteService;
@@ -172,6 +177,27 @@ public abstract class BaseSiteService implements SiteService, Observer
 	/** Cache for sites accessible to a given user. */
 	protected Cache m_userSiteCache = null;
 
+	/** The name of the cache holding the index of each user's sites, and whether the index is kept. */
+	protected static final String USER_SITE_INDEX = "org.sakaiproject.site.api.SiteService.userSiteIndex";
+	protected static final String PROP_USER_SITE_INDEX = "site.membership.index.enabled";
+
+	/** The index of each user's sites. */
+	protected UserSiteIndex m_userSiteIndex = null;
+
+	/** Whether the pages, tools and properties of a user's sites are read for all of them at once. */
+	protected static final String PROP_PRELOAD_USER_SITES = "user.site.preload.enabled";
+
+	/** Whether this server walks the sites checking their internal security against their realms, and how many sites each interval. */
+	protected static final String PROP_VERIFY_SITE_SECURITY = "site.security.verify.enabled";
+	protected static final String PROP_VERIFY_SITE_SECURITY_INTERVAL = "site.security.verify.interval";
+	protected static final String PROP_VERIFY_SITE_SECURITY_BATCH = "site.security.verify.batch";
+
+	/** Executor the site security verifier runs on, null if it does not run on this server */
+	private ScheduledExecutorService siteSecurityVerifier;
+
+	/** Sites checked by each run of the site security verifier */
+	private int siteSecurityVerifyBatch = 100;
+
 	/** A set of observers watching site removals **/
 	protected Set<SiteRemovalAdvisor> siteRemovalAdvisors;
 
@@ -348,10 +374,8 @@ public abstract class BaseSiteService implements SiteService, Observer
 	 */
 	protected void regenerateAllSiteIds()
 	{
-		List<Site> sites = storage().getAll();
-		for (Iterator<Site> iSites = sites.iterator(); iSites.hasNext();)
+		storage().forEach(site ->
 		{
-			Site site = (Site) iSites.next();
 			if (site != null)
 			{
 				Site edit = storage().get(site.getId());
@@ -364,7 +388,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 			{
 				log.warn("regenerateAllSiteIds: null site in list");
 			}
-		}
+		});
 	}
 
 	/**********************************************************************************************************************************************************************************************************************************************************
@@ -483,6 +507,15 @@ public abstract class BaseSiteService implements SiteService, Observer
 				eventTrackingService().addObserver(this);
 			}
 
+			// The index of each user's sites is kept current from site saves and the same events as the user-site cache.
+			if (serverConfigurationService().getBoolean(PROP_USER_SITE_INDEX, true))
+			{
+				Cache<String, List<SiteMembership>> indexCache = memoryService().getCache(USER_SITE_INDEX);
+				m_userSiteIndex = new UserSiteIndex(indexCache, userId -> storage().getUserSiteMemberships(userId),
+						siteId -> !isUserSite(siteId) && !isSpecialSite(siteId));
+				if (m_userSiteCache == null) eventTrackingService().addObserver(this);
+			}
+
 			// register as an entity producer
 			entityManager().registerEntityProducer(this, REFERENCE_ROOT);
 
@@ -510,6 +543,16 @@ public abstract class BaseSiteService implements SiteService, Observer
 			
 			// SAK-29138
 			m_siteTitleAdvisor = (SiteTitleAdvisor) ComponentManager.get( SiteTitleAdvisor.class );
+
+			// catch drift in the internal security left by incremental updates, on each server where it is enabled
+			if (serverConfigurationService().getBoolean(PROP_VERIFY_SITE_SECURITY, false))
+			{
+				siteSecurityVerifyBatch = Math.max(1, serverConfigurationService().getInt(PROP_VERIFY_SITE_SECURITY_BATCH, siteSecurityVerifyBatch));
+				int interval = serverConfigurationService().getInt(PROP_VERIFY_SITE_SECURITY_INTERVAL, 60);
+				siteSecurityVerifier = Executors.newSingleThreadScheduledExecutor();
+				siteSecurityVerifier.scheduleWithFixedDelay(new SiteSecurityVerifier(), 300, interval, TimeUnit.SECONDS);
+				log.info("Verifying site security, {} sites every {} seconds", siteSecurityVerifyBatch, interval);
+			}
 		}
 		catch (Exception t)
 		{
@@ -522,6 +565,16 @@ public abstract class BaseSiteService implements SiteService, Observer
 	 */
 	public void destroy()
 	{
+		if (siteSecurityVerifier != null)
+		{
+			siteSecurityVerifier.shutdownNow();
+		}
+
+		if (m_userSiteIndex != null)
+		{
+			m_userSiteIndex.close();
+		}
+
 		storage().close();
 		m_storage = null;
 
@@ -1499,6 +1552,10 @@ public abstract class BaseSiteService implements SiteService, Observer
 		if (cached != null ) {
 			clearUserCacheForSite(site);
 		}
+		if (m_userSiteIndex != null)
+		{
+			m_userSiteIndex.removeSite(site.getId(), site.getUsers());
+		}
 		
 		// complete the edit
 		storage().remove(site);
@@ -2075,14 +2132,30 @@ public abstract class BaseSiteService implements SiteService, Observer
 		SortType sortType = SortType.TITLE_ASC;
 		SelectionType selectionType = includeUnpublishedSites ? SelectionType.MEMBER : SelectionType.ACCESS;
 
+		List<Site> sites;
 		if( StringUtils.isBlank( userID ) )
 		{
-			return (List<Site>) getSites( selectionType, null, null, null, excludedSites, sortType, null, requireDescription );
+			sites = (List<Site>) getSites( selectionType, null, null, null, excludedSites, sortType, null, requireDescription );
 		}
 		else
 		{
-			return (List<Site>) getSites( selectionType, null, null, null, excludedSites, sortType, null, requireDescription, userID );
+			sites = (List<Site>) getSites( selectionType, null, null, null, excludedSites, sortType, null, requireDescription, userID );
+		}
+
+		// navigation goes on to the pages, tools and properties of every site, so read them for all the sites at once
+		// rather than site by site, and cache the sites again so their pages and tools can be found by id
+		if (serverConfigurationService().getBoolean(PROP_PRELOAD_USER_SITES, true))
+		{
+			List<Site> lazySites = sites.stream()
+					.filter(site -> site instanceof BaseSite && ((BaseSite) site).m_pagesLazy)
+					.collect(Collectors.toList());
+			if (!lazySites.isEmpty())
+			{
+				storage().readSitesPagesAndProperties(lazySites);
+				lazySites.forEach(this::cacheSite);
+			}
 		}
+		return sites;
 	}
 
 	/**
@@ -2201,6 +2274,10 @@ public abstract class BaseSiteService implements SiteService, Observer
 		{
 			m_userSiteCache.remove(userId);
 		}
+		if (m_userSiteIndex != null && userId != null)
+		{
+			m_userSiteIndex.evict(userId);
+		}
 	}
 
 	/**
@@ -2210,6 +2287,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 	 *
 	 * If the site and user-site cache were more tightly integrated, we could update, but membership
 	 * updates are relatively rare and the retrieval is relatively cheap when done occasionally.
+	 * The index of each user's sites is updated in place from the site instead.
 	 *
 	 * @param site The site for which all members' site cache should be cleared.
 	 *
@@ -2220,9 +2298,15 @@ public abstract class BaseSiteService implements SiteService, Observer
 		{
 			for (Member member : site.getMembers())
 			{
-				clearUserCacheForUser(member.getUserId());
+				m_userSiteCache.remove(member.getUserId());
 			}
 		}
+
+		// the index is updated in place rather than dropped
+		if (m_userSiteIndex != null && site != null)
+		{
+			m_userSiteIndex.updateSite(site);
+		}
 	}
 
 	/**
@@ -2242,6 +2326,33 @@ public abstract class BaseSiteService implements SiteService, Observer
 		return userSites;
 	}
 
+	/**
+	 * @inheritDoc
+	 */
+	public List<SiteMembership> getUserSiteMemberships(String userId)
+	{
+		if (StringUtils.isBlank(userId)) return Collections.emptyList();
+
+		if (m_userSiteIndex != null)
+		{
+			return m_userSiteIndex.get(userId);
+		}
+		List<SiteMembership> memberships = new ArrayList<>(storage().getUserSiteMemberships(userId));
+		memberships.sort(UserSiteIndex.TITLE_ORDER);
+		return memberships;
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public void setUserSiteVisited(String userId, String siteId)
+	{
+		if (m_userSiteIndex != null && userId != null && siteId != null)
+		{
+			m_userSiteIndex.visited(userId, siteId, System.currentTimeMillis());
+		}
+	}
+
 	/**
 	 * @inheritDoc
 	 */
@@ -2317,10 +2428,120 @@ public abstract class BaseSiteService implements SiteService, Observer
 		// the site's azg may have just been updated, so enforce site group subset membership
 		enforceGroupSubMembership(siteId);
 
+		// on every server the index drops the site from the lists of users who are no longer members on this event
 		Event invalidate = eventTrackingService().newEvent(EVENT_SITE_USER_INVALIDATE, siteReference(siteId), true);
 		eventTrackingService().post(invalidate);
 	}
 
+	/**
+	 * @inheritDoc
+	 */
+	public void setSiteSecurityForUsers(String siteId, Set<String> userIds, Set<String> updateUsers, Set<String> visitUnpUsers, Set<String> visitUsers)
+	{
+		if (userIds == null || userIds.isEmpty()) return;
+
+		int changed = storage().setSiteSecurityForUsers(siteId, userIds, updateUsers, visitUnpUsers, visitUsers);
+		if (changed == 0) return;
+
+		// only users leaving the site can leave its groups with members the site no longer has
+		Set<String> leaving = new HashSet<>(userIds);
+		leaving.removeAll(updateUsers);
+		leaving.removeAll(visitUnpUsers);
+		leaving.removeAll(visitUsers);
+		if (!leaving.isEmpty())
+		{
+			enforceGroupSubMembership(siteId);
+
+			// the index is updated for the members from the invalidate event, those leaving are members no longer
+			if (m_userSiteIndex != null)
+			{
+				m_userSiteIndex.removeSite(siteId, leaving);
+			}
+		}
+
+		Event invalidate = eventTrackingService().newEvent(EVENT_SITE_USER_INVALIDATE, siteReference(siteId), true);
+		eventTrackingService().post(invalidate);
+	}
+
+	/**
+	 * Walks the sites a batch at a time, checking the internal security of each against its realm and putting right
+	 * any drift the incremental updates of setSiteSecurityForUsers() left behind.
+	 */
+	protected class SiteSecurityVerifier implements Runnable
+	{
+		/** The last site checked, null to start from the first again */
+		private String cursor = null;
+
+		private long sitesChecked = 0;
+		private long sitesFixed = 0;
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				List<String> siteIds = storage().getSiteIdsAfter(cursor, siteSecurityVerifyBatch);
+				for (String siteId : siteIds)
+				{
+					verifySiteSecurity(siteId);
+					cursor = siteId;
+				}
+				if (siteIds.size() < siteSecurityVerifyBatch)
+				{
+					log.info("SiteSecurityVerifier checked {} sites and fixed {} since the server started", sitesChecked, sitesFixed);
+					cursor = null;
+				}
+			}
+			catch (Exception e)
+			{
+				log.warn("SiteSecurityVerifier failed after site {}", cursor, e);
+			}
+		}
+
+		private void verifySiteSecurity(String siteId)
+		{
+			Collection<String> realm = Collections.singleton(siteReference(siteId));
+			Set<String> updUsers = realUsers(authzGroupService().getUsersIsAllowed(SECURE_UPDATE_SITE, realm));
+			Set<String> unpUsers = realUsers(authzGroupService().getUsersIsAllowed(SITE_VISIT_UNPUBLISHED, realm));
+			Set<String> visitUsers = realUsers(authzGroupService().getUsersIsAllowed(SITE_VISIT, realm));
+			sitesChecked++;
+
+			// nobody at all may be a realm we could not read, the site has been emptied only if its realm reads with nobody let in
+			if (updUsers.isEmpty() && unpUsers.isEmpty() && visitUsers.isEmpty() && !isEmptied(siteId)) return;
+
+			int changed = storage().setSiteSecurity(siteId, updUsers, unpUsers, visitUsers);
+			if (changed > 0)
+			{
+				sitesFixed++;
+				log.warn("SiteSecurityVerifier fixed the access of {} users in site {}", changed, siteId);
+				eventTrackingService().post(eventTrackingService().newEvent(EVENT_SITE_USER_INVALIDATE, siteReference(siteId), true));
+			}
+		}
+
+		/** True if the site's realm is there and lets nobody in, so any access the site still lists is stale */
+		private boolean isEmptied(String siteId)
+		{
+			try
+			{
+				AuthzGroup realm = authzGroupService().getAuthzGroup(siteReference(siteId));
+				return realm.getUsersIsAllowed(SECURE_UPDATE_SITE).isEmpty()
+						&& realm.getUsersIsAllowed(SITE_VISIT_UNPUBLISHED).isEmpty()
+						&& realm.getUsersIsAllowed(SITE_VISIT).isEmpty();
+			}
+			catch (GroupNotDefinedException e)
+			{
+				return false;
+			}
+		}
+
+		/** Leave out the dummy users of role view, as the realm's getUsersIsAllowed does */
+		private Set<String> realUsers(Set<String> userIds)
+		{
+			userIds.removeIf(userId -> authzGroupService().decodeRoleFromDummyUser(userId) != null);
+			return userIds;
+		}
+	}
+
 	/**
 	 * @inheritDoc
 	 */
@@ -3132,6 +3353,14 @@ public abstract class BaseSiteService implements SiteService, Observer
 		 */
 		public List getAll();
 
+		/**
+		 * Hand each site to the consumer as it is read, so that all the sites are never held at once.
+		 * 
+		 * @param consumer
+		 *        Given each site.
+		 */
+		public void forEach(Consumer<Site> consumer);
+
 		/**
 		 * Add a new site with this id.
 		 * 
@@ -3525,6 +3754,16 @@ public abstract class BaseSiteService implements SiteService, Observer
 		 */
 		public void readSiteTools(Site site);
 
+		/**
+		 * Read the properties, pages, page properties, tools and tool configuration of many sites at once, with a few
+		 * queries for all of them rather than several for each site as it is first used. Sites whose pages have been
+		 * read already are left as they are.
+		 *
+		 * @param sites
+		 *        The sites to fill in.
+		 */
+		public void readSitesPagesAndProperties(Collection<Site> sites);
+
 		/**
 		 * Return the skin for this site
 		 * 
@@ -3545,8 +3784,46 @@ public abstract class BaseSiteService implements SiteService, Observer
 		 *        The set of String User Ids who have visit unpublished access.
 		 * @param visitUsers
 		 *        The set of String User Ids who have visit access.
+		 * @return the number of users whose access was changed.
+		 */
+		public int setSiteSecurity(String siteId, Set updateUsers, Set visitUnpUsers, Set visitUsers);
+
+		/**
+		 * Establish the internal security for some of the users of this site, reading and writing only their rows.
+		 * 
+		 * @param siteId
+		 *        The id of the site.
+		 * @param userIds
+		 *        The set of String User Ids whose access is being set, any not in one of the other sets lose their access.
+		 * @param updateUsers
+		 *        The set of String User Ids who have update access.
+		 * @param visitUnpUsers
+		 *        The set of String User Ids who have visit unpublished access.
+		 * @param visitUsers
+		 *        The set of String User Ids who have visit access.
+		 * @return the number of users whose access was changed.
+		 */
+		public int setSiteSecurityForUsers(String siteId, Set<String> userIds, Set<String> updateUsers, Set<String> visitUnpUsers, Set<String> visitUsers);
+
+		/**
+		 * Access the ids of the sites after this one, in id order.
+		 * 
+		 * @param after
+		 *        The site id to start after, or null to start at the first.
+		 * @param limit
+		 *        The most site ids to return.
+		 * @return the site ids, fewer than limit once the last site is reached.
+		 */
+		public List<String> getSiteIdsAfter(String after, int limit);
+
+		/**
+		 * Read the sites a user belongs to, for the index of each user's sites.
+		 * 
+		 * @param userId
+		 *        The user id.
+		 * @return the user's site memberships, in no particular order.
 		 */
-		public void setSiteSecurity(String siteId, Set updateUsers, Set visitUnpUsers, Set visitUsers);
+		public List<SiteMembership> getUserSiteMemberships(String userId);
 
 		/**
 		 * Establish the internal security for user for all sites. Previous security settings are replaced for this user. Assigning a user with update implies the two reads; assigning a user with unp read implies the other read.
@@ -27,14 +27,17 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -45,6 +48,7 @@ import org.sakaiproject.entity.api.ResourcePropertiesEdit;
 import org.sakaiproject.javax.PagingPosition;
 import org.sakaiproject.site.api.Group;
 import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteMembership;
 import org.sakaiproject.site.api.SitePage;
 import org.sakaiproject.site.api.ToolConfiguration;
 import org.sakaiproject.util.BaseDbFlatStorage;
@@ -254,6 +258,11 @@ public abstract class DbSiteService extends BaseSiteService
 			return super.getAllResources();
 		}
 
+		public void forEach(Consumer<Site> consumer)
+		{
+			super.forEachResource(consumer);
+		}
+
 		public Site put(String id)
 		{
 			// check for already exists
@@ -1770,7 +1779,7 @@ public abstract class DbSiteService extends BaseSiteService
 		 * @param visitUsers
 		 *        The set of String User Ids who have visit access.
 		 */
-		public void setSiteSecurity(final String siteId, Set updateUsers, Set visitUnpUsers, Set visitUsers)
+		public int setSiteSecurity(final String siteId, Set updateUsers, Set visitUnpUsers, Set visitUsers)
 		{
 			// normalize the input parameters - remove any user in more than one set
 
@@ -1942,6 +1951,142 @@ public abstract class DbSiteService extends BaseSiteService
 					m_sql.dbWrite(statement, fields);
 				}
 			}
+
+			return updDeletes.size() + updInserts.size() + unpDeletes.size() + unpInserts.size() + visitDeletes.size() + visitInserts.size();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public int setSiteSecurityForUsers(final String siteId, Set<String> userIds, Set<String> updateUsers, Set<String> visitUnpUsers, Set<String> visitUsers)
+		{
+			// the permission each user is to have, update implying the two visits and unp implying visit
+			Map<String, Integer> target = new HashMap<>();
+			for (String userId : userIds)
+			{
+				if (updateUsers.contains(userId))
+				{
+					target.put(userId, -1);
+				}
+				else if (visitUnpUsers.contains(userId))
+				{
+					target.put(userId, 0);
+				}
+				else if (visitUsers.contains(userId))
+				{
+					target.put(userId, 1);
+				}
+			}
+
+			// read just these users' current permissions, a fixed size bucket of user ids to each query
+			final Map<String, Integer> existing = new HashMap<>();
+			List<String> users = new ArrayList<>(userIds);
+			int remaining = users.size();
+			while (remaining > 0)
+			{
+				int start = users.size() - remaining;
+				Object[] values = getFilledBucket(users.subList(start, users.size()));
+				Object[] fields = new Object[values.length + 1];
+				fields[0] = caseId(siteId);
+				System.arraycopy(values, 0, fields, 1, values.length);
+				m_sql.dbRead(siteServiceSql.getSiteUsersPermissionSql(values.length), fields, new SqlReader()
+				{
+					public Object readSqlResultRecord(ResultSet result)
+					{
+						try
+						{
+							existing.put(result.getString(1), result.getInt(2));
+						}
+						catch (SQLException e)
+						{
+							log.warn("setSiteSecurityForUsers: " + e);
+						}
+						return null;
+					}
+				});
+				remaining -= values.length;
+			}
+
+			// write only the changed rows, each in its own transaction as setSiteSecurity does
+			int changed = 0;
+			for (String userId : userIds)
+			{
+				Integer from = existing.get(userId);
+				Integer to = target.get(userId);
+				if (Objects.equals(from, to)) continue;
+
+				if (to == null)
+				{
+					m_sql.dbWrite(siteServiceSql.getDeleteUserSql(), new Object[] {caseId(siteId), userId});
+				}
+				else if (from == null)
+				{
+					m_sql.dbWrite(siteServiceSql.getInsertUserSql(), new Object[] {caseId(siteId), userId, to});
+				}
+				else
+				{
+					m_sql.dbWrite(siteServiceSql.getUpdateUserPermissionSql(), new Object[] {to, caseId(siteId), userId});
+				}
+				changed++;
+			}
+			return changed;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public List<String> getSiteIdsAfter(String after, int limit)
+		{
+			// the first page has no lower bound, an empty one would be null on Oracle and match nothing
+			if (after == null)
+			{
+				return m_sql.dbRead(siteServiceSql.getSiteIdsAfterSql(false, limit), null, null);
+			}
+			return m_sql.dbRead(siteServiceSql.getSiteIdsAfterSql(true, limit), new Object[] {after}, null);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public List<SiteMembership> getUserSiteMemberships(String userId)
+		{
+			// the sites, with the user's permission in each, then the user's roles in all of them at once
+			List<Object[]> rows = m_sql.dbRead(siteServiceSql.getUserSiteMembershipsSql(), new Object[] {Site.PROP_SITE_TERM, userId}, new SqlReader()
+			{
+				public Object readSqlResultRecord(ResultSet result)
+				{
+					try
+					{
+						return new Object[] {result.getString(1), result.getString(2), result.getString(3), result.getInt(4) == 1,
+								result.getInt(5) == -1, result.getString(6)};
+					}
+					catch (SQLException e)
+					{
+						log.warn("getUserSiteMemberships: " + e);
+						return null;
+					}
+				}
+			});
+
+			Map<String, Object[]> sites = new LinkedHashMap<>();
+			for (Object[] row : rows)
+			{
+				// a site with more than one term property is listed once
+				if (row != null) sites.putIfAbsent((String) row[0], row);
+			}
+			if (sites.isEmpty()) return new ArrayList<>();
+
+			List<String> realmIds = sites.keySet().stream().map(id -> siteReference(id)).collect(Collectors.toList());
+			Map<String, String> roles = authzGroupService().getUserRoles(userId, realmIds);
+
+			List<SiteMembership> rv = new ArrayList<>(sites.size());
+			for (Object[] row : sites.values())
+			{
+				String siteId = (String) row[0];
+				rv.add(new SiteMembership(siteId, (String) row[1], (String) row[2], (String) row[5], roles.get(siteReference(siteId)),
+						(Boolean) row[3], (Boolean) row[4], 0L));
+			}
+			return rv;
 		}
 
 		/**
@@ -2495,6 +2640,172 @@ public abstract class DbSiteService extends BaseSiteService
 			}
 		}
 
+		/**
+		 * {@inheritDoc}
+		 */
+		public void readSitesPagesAndProperties(Collection<Site> sites)
+		{
+			Map<String, BaseSite> lazySites = new LinkedHashMap<>();
+			for (Site site : sites)
+			{
+				if (site instanceof BaseSite && ((BaseSite) site).m_pagesLazy)
+				{
+					lazySites.put(site.getId(), (BaseSite) site);
+				}
+			}
+
+			// a fixed size bucket of site ids to each query, as getSites does
+			List<String> siteIds = new ArrayList<>(lazySites.keySet());
+			int remaining = siteIds.size();
+			while (remaining > 0)
+			{
+				int start = siteIds.size() - remaining;
+				Object[] values = getFilledBucket(siteIds.subList(start, siteIds.size()));
+				readSitesPagesAndProperties(lazySites, values);
+				remaining -= values.length;
+			}
+		}
+
+		/**
+		 * Read the properties, pages and tools of one bucket of sites, in the order loadAll() reads them for one site:
+		 * page properties before tools, since a new tool looks at its page's properties.
+		 */
+		private void readSitesPagesAndProperties(final Map<String, BaseSite> sites, Object[] siteIds)
+		{
+			List<BaseSite> bucket = new ArrayList<>();
+			final Map<String, BaseSite> lazyProperties = new HashMap<>();
+			for (Object id : siteIds)
+			{
+				BaseSite site = (id == null) ? null : sites.get(id);
+				if (site == null) continue;
+				bucket.add(site);
+				if (((BaseResourcePropertiesEdit) site.m_properties).isLazy())
+				{
+					lazyProperties.put(site.getId(), site);
+				}
+			}
+
+			if (!lazyProperties.isEmpty())
+			{
+				m_sql.dbRead(siteServiceSql.getSitesPropertiesSql(siteIds.length), siteIds, result -> {
+					try
+					{
+						BaseSite site = lazyProperties.get(result.getString(1));
+						String name = result.getString(2);
+						String value = result.getString(3);
+						if (site != null && name != null && value != null)
+						{
+							site.m_properties.addProperty(name, value);
+						}
+					}
+					catch (SQLException e)
+					{
+						log.warn("readSitesPagesAndProperties: " + e);
+					}
+					return null;
+				});
+				for (BaseSite site : lazyProperties.values())
+				{
+					((BaseResourcePropertiesEdit) site.m_properties).setLazy(false);
+				}
+			}
+
+			final Map<String, BaseSitePage> pages = new HashMap<>();
+			m_sql.dbRead(siteServiceSql.getSitesPagesSql(siteIds.length), siteIds, result -> {
+				try
+				{
+					BaseSite site = sites.get(result.getString(1));
+					if (site != null)
+					{
+						BaseSitePage page = new BaseSitePage(DbSiteService.this, site, result.getString(2), result.getString(3),
+								result.getString(4), "1".equals(result.getString(5)));
+						site.m_pages.add(page);
+						pages.put(page.getId(), page);
+					}
+				}
+				catch (SQLException e)
+				{
+					log.warn("readSitesPagesAndProperties: " + e);
+				}
+				return null;
+			});
+			for (BaseSite site : bucket)
+			{
+				site.m_pagesLazy = false;
+			}
+			if (pages.isEmpty()) return;
+
+			m_sql.dbRead(siteServiceSql.getSitesPagePropertiesSql(siteIds.length), siteIds, result -> {
+				try
+				{
+					BaseSitePage page = pages.get(result.getString(1));
+					String name = result.getString(2);
+					String value = result.getString(3);
+					if (page != null && name != null && value != null)
+					{
+						page.m_properties.addProperty(name, value);
+					}
+				}
+				catch (SQLException e)
+				{
+					log.warn("readSitesPagesAndProperties: " + e);
+				}
+				return null;
+			});
+			for (BaseSitePage page : pages.values())
+			{
+				((BaseResourcePropertiesEdit) page.m_properties).setLazy(false);
+			}
+
+			final Map<String, BaseToolConfiguration> tools = new HashMap<>();
+			m_sql.dbRead(siteServiceSql.getSitesToolsSql(siteIds.length), siteIds, result -> {
+				try
+				{
+					String id = result.getString(1);
+					BaseSitePage page = pages.get(result.getString(2));
+					if (page != null)
+					{
+						BaseToolConfiguration tool = new BaseToolConfiguration(DbSiteService.this, page, id, result.getString(3),
+								result.getString(4), result.getString(5), result.getInt(6));
+						page.m_tools.add(tool);
+						tools.put(id, tool);
+					}
+				}
+				catch (SQLException e)
+				{
+					log.warn("readSitesPagesAndProperties: " + e);
+				}
+				return null;
+			});
+			for (BaseSitePage page : pages.values())
+			{
+				page.m_toolsLazy = false;
+			}
+			if (tools.isEmpty()) return;
+
+			m_sql.dbRead(siteServiceSql.getSitesToolPropertiesSql(siteIds.length), siteIds, result -> {
+				try
+				{
+					BaseToolConfiguration tool = tools.get(result.getString(1));
+					String name = result.getString(2);
+					String value = result.getString(3);
+					if (tool != null && name != null && value != null)
+					{
+						tool.getMyConfig().setProperty(name, value);
+					}
+				}
+				catch (SQLException e)
+				{
+					log.warn("readSitesPagesAndProperties: " + e);
+				}
+				return null;
+			});
+			for (BaseToolConfiguration tool : tools.values())
+			{
+				tool.m_configLazy = false;
+			}
+		}
+
 		/**
 		 * @inheritDoc
 		 */
@@ -261,9 +261,10 @@ public class SiteCacheSafe extends BasicCache<String, Object> implements SiteCac
                 sitePages  = site.getPages();
                 siteGroups = site.getGroups();
             }
-            // add the pages and tools to the cache
+            // add the pages and tools to the cache, without reading the tools of a page that has not read them
             for (SitePage page : sitePages) {
                 m_cachePages.put(page.getId(), siteReference);
+                if (page instanceof BaseSitePage && ((BaseSitePage) page).m_toolsLazy) continue;
                 for (ToolConfiguration tool : page.getTools()) {
                     m_cacheTools.put(tool.getId(), siteReference);
                 }
@@ -306,8 +307,8 @@ public class SiteCacheSafe extends BasicCache<String, Object> implements SiteCac
     @Override
     public void onUpdated(Iterable<CacheEntryEvent<? extends String, ?>> cacheEntryEvents) {
         for (CacheEntryEvent<? extends String, ?> cee : cacheEntryEvents) {
-            // this ugly code is necessary because the cache holds Boolean and Site which JSR-107 does not like
-            Object value = cee.isOldValueAvailable() ? cee.getOldValue() : cee.getValue();
+            // index the site now cached, which may have read pages and tools the one it replaced had not
+            Object value = cee.getValue();
             if (value instanceof Site) {
                 notifyCachePut(cee.getKey(), (Site) value);
             }
@@ -389,4 +389,49 @@ public interface SiteServiceSql
 	 * returns the sql statement which unpublishes multiple sites in the sakai_site table
 	 */
 	String getUpdateSitesUnpublishSql(String table, int toUpdateCount);
+
+	/**
+	 * returns the sql statement which retrieves the properties of many sites from the sakai_site_property table.
+	 */
+	String getSitesPropertiesSql(int size);
+
+	/**
+	 * returns the sql statement which retrieves the pages of many sites from the sakai_site_page table, in site order.
+	 */
+	String getSitesPagesSql(int size);
+
+	/**
+	 * returns the sql statement which retrieves the page properties of many sites from the sakai_site_page_property table.
+	 */
+	String getSitesPagePropertiesSql(int size);
+
+	/**
+	 * returns the sql statement which retrieves the tools of many sites from the sakai_site_tool table, in page order.
+	 */
+	String getSitesToolsSql(int size);
+
+	/**
+	 * returns the sql statement which retrieves the tool properties of many sites from the sakai_site_tool_property table.
+	 */
+	String getSitesToolPropertiesSql(int size);
+
+	/**
+	 * returns the sql statement which retrieves the permission of some of the users of a given site from the sakai_site_user table.
+	 */
+	String getSiteUsersPermissionSql(int size);
+
+	/**
+	 * returns the sql statement which changes the permission of a user in a given site.
+	 */
+	String getUpdateUserPermissionSql();
+
+	/**
+	 * returns the sql statement which retrieves the next site ids, in id order, after a given one or from the first.
+	 */
+	String getSiteIdsAfterSql(boolean after, int limit);
+
+	/**
+	 * returns the sql statement which retrieves the sites a user belongs to, with the user's permission and the site's term, for the user's site index.
+	 */
+	String getUserSiteMembershipsSql();
 }
@@ -22,11 +22,12 @@
 package org.sakaiproject.site.impl;
 
 import org.sakaiproject.site.api.SiteService.SelectionType.PublishedFilter;
+import org.sakaiproject.util.LimitSql;
 
 /**
  * methods for accessing site data in a database.
  */
-public class SiteServiceSqlDefault implements SiteServiceSql
+public class SiteServiceSqlDefault implements SiteServiceSql, LimitSql
 {
 	public static final int TITLE_MAX_LENGTH = 99;
 
@@ -634,4 +635,99 @@ public class SiteServiceSqlDefault implements SiteServiceSql
 		sb.append(")");
 		return sb.toString();
 	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getSitesPropertiesSql(int size)
+	{
+		return "select SITE_ID, NAME, VALUE from SAKAI_SITE_PROPERTY where SITE_ID in (" + params(size) + ")";
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getSitesPagesSql(int size)
+	{
+		return "select SITE_ID, PAGE_ID, TITLE, LAYOUT, POPUP from SAKAI_SITE_PAGE where SITE_ID in (" + params(size) + ") order by SITE_ID, SITE_ORDER ASC";
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getSitesPagePropertiesSql(int size)
+	{
+		return "select PAGE_ID, NAME, VALUE from SAKAI_SITE_PAGE_PROPERTY where SITE_ID in (" + params(size) + ")";
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getSitesToolsSql(int size)
+	{
+		return "select TOOL_ID, PAGE_ID, REGISTRATION, TITLE, LAYOUT_HINTS, PAGE_ORDER from SAKAI_SITE_TOOL where SITE_ID in (" + params(size) + ") order by PAGE_ID, PAGE_ORDER ASC";
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getSitesToolPropertiesSql(int size)
+	{
+		return "select TOOL_ID, NAME, VALUE from SAKAI_SITE_TOOL_PROPERTY where SITE_ID in (" + params(size) + ")";
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getSiteUsersPermissionSql(int size)
+	{
+		return "select USER_ID, PERMISSION from SAKAI_SITE_USER where SITE_ID = ? and USER_ID in (" + params(size) + ")";
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getUpdateUserPermissionSql()
+	{
+		return "update SAKAI_SITE_USER set PERMISSION = ? where SITE_ID = ? and USER_ID = ?";
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getSiteIdsAfterSql(boolean after, int limit)
+	{
+		return limit("select SITE_ID from SAKAI_SITE" + (after ? " where SITE_ID > ?" : "") + " order by SITE_ID", limit);
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public String getUserSiteMembershipsSql()
+	{
+		return "select SS.SITE_ID, SS.TITLE, SS.TYPE, SS.PUBLISHED, SSU.PERMISSION, SSP.VALUE from SAKAI_SITE_USER SSU"
+				+ " inner join SAKAI_SITE SS on SS.SITE_ID = SSU.SITE_ID"
+				+ " left outer join SAKAI_SITE_PROPERTY SSP on SSP.SITE_ID = SS.SITE_ID and SSP.NAME = ?"
+				+ " where SSU.USER_ID = ? and SS.IS_USER = '0' and SS.IS_SPECIAL = '0' and SS.IS_SOFTLY_DELETED = '0'";
+	}
+
+	private static String params(int size)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++)
+		{
+			if (i > 0) sb.append(",");
+			sb.append("?");
+		}
+		return sb.toString();
+	}
 }
@@ -21,9 +21,11 @@
 
 package org.sakaiproject.site.impl;
 
+import org.sakaiproject.util.LimitSql;
+
 /**
  * methods for accessing site data in an oracle database.
  */
-public class SiteServiceSqlOracle extends SiteServiceSqlDefault
+public class SiteServiceSqlOracle extends SiteServiceSqlDefault implements LimitSql.FetchFirst
 {
 }
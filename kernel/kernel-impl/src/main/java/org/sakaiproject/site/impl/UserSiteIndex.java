@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.site.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.CacheEventListener;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteMembership;
+import org.sakaiproject.site.api.SiteService;
+
+/**
+ * The sites each user belongs to, as a compact list of memberships per user, so the portal can list a user's sites
+ * without a query across the site tables.
+ * <p>
+ * A user's list is read with one query when first asked for and then kept up to date in place: a site saved or
+ * invalidated rewrites its entry in the lists of its members that are held, and a user leaving a site has the entry
+ * removed. The users holding each site are tracked, so a site seen only as an invalidate event from another server
+ * also drops its entry from the lists of users who are no longer its members. A user is no longer tracked once their
+ * list leaves the cache, so the tracking is bounded by the cache. User and special sites are never indexed, as the
+ * query leaves them out. Lists are held in title order and never changed once held, a change puts a new list in their
+ * place.
+ * <p>
+ * Changes to one user's list are made under a lock shared by a stripe of users, a site save only takes the locks of its
+ * members one at a time.
+ */
+public class UserSiteIndex implements CacheEventListener<String, List<SiteMembership>> {
+
+    /** Title order, then id for sites with the same title */
+    public static final Comparator<SiteMembership> TITLE_ORDER = Comparator
+            .comparing((SiteMembership m) -> m.getTitle() == null ? "" : m.getTitle(), String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(SiteMembership::getSiteId);
+
+    /** A visit this close to the one held is not recorded, so page views in a site don't rewrite the list each time */
+    public static final long VISIT_RESOLUTION = 60_000L;
+
+    private static final int STRIPES = 64;
+
+    private final Cache<String, List<SiteMembership>> cache;
+    private final Function<String, List<SiteMembership>> loader;
+    private final Predicate<String> indexed;
+
+    /** The users whose held list has each site, by site id */
+    private final Map<String, Set<String>> holders = new ConcurrentHashMap<>();
+
+    /** The users whose list is being read from storage, marked when a change to their sites is made meanwhile */
+    private final Map<String, Load> loading = new ConcurrentHashMap<>();
+
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * @param cache holds the list of each user, by user id
+     * @param loader reads the memberships of a user from storage
+     * @param indexed true for the ids of sites that are listed, as the loader would
+     */
+    public UserSiteIndex(Cache<String, List<SiteMembership>> cache, Function<String, List<SiteMembership>> loader, Predicate<String> indexed) {
+        this.cache = cache;
+        this.loader = loader;
+        this.indexed = indexed;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        cache.registerCacheEventListener(this);
+    }
+
+    /**
+     * @return the user's memberships in title order, read from storage if not held
+     */
+    public List<SiteMembership> get(String userId) {
+        List<SiteMembership> memberships = cache.get(userId);
+        if (memberships != null) return memberships;
+
+        loading.compute(userId, (k, load) -> {
+            if (load == null) load = new Load();
+            load.readers++;
+            return load;
+        });
+        List<SiteMembership> loaded;
+        try {
+            loaded = sorted(loader.apply(userId));
+        } catch (RuntimeException e) {
+            synchronized (lock(userId)) {
+                loaded(userId);
+            }
+            throw e;
+        }
+        synchronized (lock(userId)) {
+            // a list held in the meantime wins over what was read, a list read while the user's sites changed may
+            // have missed the change and is not held
+            boolean changed = loaded(userId);
+            memberships = cache.get(userId);
+            if (memberships != null) return memberships;
+            if (!changed) {
+                cache.put(userId, loaded);
+                for (SiteMembership membership : loaded) {
+                    hold(membership.getSiteId(), userId);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Rewrite the site's entry for each of its members whose list is held, from the site and its members' roles.
+     * Members who may no longer reach the site, all members of a softly deleted site, and users holding the site who
+     * are no longer its members lose their entry.
+     */
+    public void updateSite(Site site) {
+        if (!indexed.test(site.getId())) return;
+
+        Set<String> members = new HashSet<>();
+        String term = site.getProperties().getProperty(Site.PROP_SITE_TERM);
+        for (Member member : site.getMembers()) {
+            String userId = member.getUserId();
+            members.add(userId);
+            Role role = member.getRole();
+            synchronized (lock(userId)) {
+                List<SiteMembership> memberships = cache.get(userId);
+                if (memberships == null) {
+                    changing(userId);
+                    release(site.getId(), userId);
+                    continue;
+                }
+
+                SiteMembership current = find(memberships, site.getId());
+                SiteMembership next = null;
+                if (member.isActive() && role != null && !site.isSoftlyDeleted()) {
+                    boolean maintainer = role.isAllowed(SiteService.SECURE_UPDATE_SITE);
+                    if (maintainer || role.isAllowed(SiteService.SITE_VISIT_UNPUBLISHED) || role.isAllowed(SiteService.SITE_VISIT)) {
+                        next = new SiteMembership(site.getId(), site.getTitle(), site.getType(), term, role.getId(), site.isPublished(),
+                                maintainer, current == null ? 0L : current.getLastVisited());
+                    }
+                }
+                if (next == null ? current != null : !next.equals(current)) {
+                    put(userId, memberships, site.getId(), next);
+                }
+            }
+        }
+
+        Set<String> users = holders.get(site.getId());
+        if (users != null) {
+            Set<String> leaving = new HashSet<>(users);
+            leaving.removeAll(members);
+            remove(site.getId(), leaving);
+        }
+    }
+
+    /**
+     * Remove the site from the lists of these users that are held.
+     */
+    public void removeSite(String siteId, Collection<String> userIds) {
+        remove(siteId, userIds);
+    }
+
+    /**
+     * Record a visit to a site in the user's list, if it is held and has the site and the visit held is not recent.
+     */
+    public void visited(String userId, String siteId, long time) {
+        synchronized (lock(userId)) {
+            List<SiteMembership> memberships = cache.get(userId);
+            if (memberships == null) return;
+            SiteMembership current = find(memberships, siteId);
+            if (current != null && Math.abs(time - current.getLastVisited()) >= VISIT_RESOLUTION) {
+                cache.put(userId, replace(memberships, siteId, current.withLastVisited(time)));
+            }
+        }
+    }
+
+    /**
+     * Drop the user's list, it is read again when next asked for.
+     */
+    public void evict(String userId) {
+        synchronized (lock(userId)) {
+            changing(userId);
+            List<SiteMembership> memberships = cache.get(userId);
+            cache.remove(userId);
+            release(userId, memberships);
+        }
+    }
+
+    public void close() {
+        cache.close();
+    }
+
+    @Override
+    public boolean evaluate(CacheEntryEvent<? extends String, ? extends List<SiteMembership>> event) {
+        return true;
+    }
+
+    @Override
+    public void onCreated(Iterable<CacheEntryEvent<? extends String, ? extends List<SiteMembership>>> events) {
+    }
+
+    @Override
+    public void onUpdated(Iterable<CacheEntryEvent<? extends String, ? extends List<SiteMembership>>> events) {
+    }
+
+    @Override
+    public void onExpired(Iterable<CacheEntryEvent<? extends String, ? extends List<SiteMembership>>> events) {
+        onRemoved(events);
+    }
+
+    /**
+     * A list gone from the cache, by expiry, eviction or removal, no longer holds its sites.
+     */
+    @Override
+    public void onRemoved(Iterable<CacheEntryEvent<? extends String, ? extends List<SiteMembership>>> events) {
+        for (CacheEntryEvent<? extends String, ? extends List<SiteMembership>> event : events) {
+            release(event.getKey(), event.isOldValueAvailable() ? event.getOldValue() : event.getValue());
+        }
+    }
+
+    /** The users tracked as holding the site */
+    Set<String> holders(String siteId) {
+        return holders.getOrDefault(siteId, Collections.emptySet());
+    }
+
+    private Object lock(String userId) {
+        return locks[Math.floorMod(userId.hashCode(), STRIPES)];
+    }
+
+    /** Called under the user's lock before a change to a user's sites that is not made in a held list */
+    private void changing(String userId) {
+        loading.computeIfPresent(userId, (k, load) -> {
+            load.changed = true;
+            return load;
+        });
+    }
+
+    /** Called under the user's lock once a read of their list is done, true if their sites changed meanwhile */
+    private boolean loaded(String userId) {
+        boolean[] changed = {false};
+        loading.computeIfPresent(userId, (k, load) -> {
+            changed[0] = load.changed;
+            return --load.readers == 0 ? null : load;
+        });
+        return changed[0];
+    }
+
+    private void remove(String siteId, Collection<String> userIds) {
+        for (String userId : userIds) {
+            synchronized (lock(userId)) {
+                List<SiteMembership> memberships = cache.get(userId);
+                if (memberships == null) {
+                    changing(userId);
+                    release(siteId, userId);
+                } else if (find(memberships, siteId) != null) {
+                    put(userId, memberships, siteId, null);
+                }
+            }
+        }
+    }
+
+    private void put(String userId, List<SiteMembership> memberships, String siteId, SiteMembership next) {
+        cache.put(userId, replace(memberships, siteId, next));
+        if (next == null) {
+            release(siteId, userId);
+        } else {
+            hold(siteId, userId);
+        }
+    }
+
+    private void hold(String siteId, String userId) {
+        holders.compute(siteId, (k, users) -> {
+            if (users == null) users = ConcurrentHashMap.newKeySet();
+            users.add(userId);
+            return users;
+        });
+    }
+
+    private void release(String siteId, String userId) {
+        holders.computeIfPresent(siteId, (k, users) -> users.remove(userId) && users.isEmpty() ? null : users);
+    }
+
+    private void release(String userId, List<SiteMembership> memberships) {
+        if (userId == null || memberships == null) return;
+        for (SiteMembership membership : memberships) {
+            release(membership.getSiteId(), userId);
+        }
+    }
+
+    private static SiteMembership find(List<SiteMembership> memberships, String siteId) {
+        for (SiteMembership membership : memberships) {
+            if (membership.getSiteId().equals(siteId)) return membership;
+        }
+        return null;
+    }
+
+    private static List<SiteMembership> replace(List<SiteMembership> memberships, String siteId, SiteMembership next) {
+        List<SiteMembership> rv = new ArrayList<>(memberships.size() + 1);
+        for (SiteMembership membership : memberships) {
+            if (!membership.getSiteId().equals(siteId)) rv.add(membership);
+        }
+        if (next != null) rv.add(next);
+        return sorted(rv);
+    }
+
+    private static List<SiteMembership> sorted(List<SiteMembership> memberships) {
+        List<SiteMembership> rv = new ArrayList<>(memberships);
+        rv.sort(TITLE_ORDER);
+        return Collections.unmodifiableList(rv);
+    }
+
+    /** A read of a user's list from storage, by one or more callers at once */
+    private static class Load {
+        int readers;
+        boolean changed;
+    }
+}
@@ -25,6 +25,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -142,6 +143,9 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 	/** Component ID used to find the password policy provider */
 	protected String m_passwordPolicyProviderName = PasswordPolicyProvider.class.getName();
 
+	/** Loads the users not in the cache, sharing each load between concurrent requests for the same users */
+	protected UserLoader m_userLoader = null;
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Abstractions, etc.
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -617,6 +621,14 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
                 eventTrackingService().addObserver(m_userCacheObserver);
             }
 
+			// share the loads of uncached users between concurrent lookups
+			if (serverConfigurationService().getBoolean("user.lookup.shared", true))
+			{
+				int batchSize = serverConfigurationService().getInt("user.lookup.batch.size", 500);
+				long waitMillis = serverConfigurationService().getInt("user.lookup.wait", 30) * 1000L;
+				m_userLoader = new UserLoader(id -> getCachedUser(userReference(id)), this::loadUsers, batchSize, waitMillis);
+			}
+
 			// register as an entity producer
 			entityManager().registerEntityProducer(this, REFERENCE_ROOT);
 
@@ -935,6 +947,10 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 		
 		if (m_separateIdEid)
 		{
+			if (m_userLoader != null)
+			{
+				return new ArrayList<User>(m_userLoader.getUsers(searchIds));
+			}
 			return m_storage.getUsersByIds(searchIds);
 		}
 		
@@ -1003,6 +1019,29 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 		return rv;
 	}
 	
+	/**
+	 * Load users by id from storage and the provider, for the user loader.
+	 * 
+	 * @return The users found, by id.
+	 */
+	protected Map<String, UserEdit> loadUsers(Collection<String> ids)
+	{
+		Map<String, UserEdit> rv = new HashMap<String, UserEdit>();
+		for (User user : m_storage.getUsersByIds(ids))
+		{
+			rv.put(user.getId(), (UserEdit) user);
+		}
+		return rv;
+	}
+
+	/**
+	 * @return The loader of uncached users, null if loads are not shared.
+	 */
+	public UserLoader getUserLoader()
+	{
+		return m_userLoader;
+	}
+
 	/**
 	 * @see org.sakaiproject.user.api.UserDirectoryService#getUsersByEids(java.util.Collection)
 	 */
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.user.impl;
+
+import org.sakaiproject.user.api.UserDirectoryService;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Exports the cache hits, misses and load times of the bulk user lookups over JMX,
+ * all values are 0 if the loads are not shared.
+ */
+@ManagedResource(objectName="org.sakaiproject:name=UserLookup", description="Sakai bulk user lookup cache and load timings")
+public class JMXUserLookupComponent {
+
+    private BaseUserDirectoryService userDirectoryService;
+
+    private UserLoader loader() {
+        return userDirectoryService == null ? null : userDirectoryService.getUserLoader();
+    }
+
+    @ManagedAttribute(description="Users found in the cache", currencyTimeLimit=0)
+    public long getHitCount() {
+        UserLoader loader = loader();
+        return loader == null ? 0 : loader.getHitCount();
+    }
+
+    @ManagedAttribute(description="Users not found in the cache", currencyTimeLimit=0)
+    public long getMissCount() {
+        UserLoader loader = loader();
+        return loader == null ? 0 : loader.getMissCount();
+    }
+
+    @ManagedAttribute(description="Percentage of users found in the cache", currencyTimeLimit=0)
+    public long getHitPercent() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : hits * 100 / total;
+    }
+
+    @ManagedAttribute(description="Misses that waited on another lookup's load of the user", currencyTimeLimit=0)
+    public long getSharedCount() {
+        UserLoader loader = loader();
+        return loader == null ? 0 : loader.getSharedCount();
+    }
+
+    @ManagedAttribute(description="Loads from storage and the provider", currencyTimeLimit=0)
+    public long getLoadCount() {
+        UserLoader loader = loader();
+        return loader == null ? 0 : loader.getLoadCount();
+    }
+
+    @ManagedAttribute(description="Users loaded from storage and the provider", currencyTimeLimit=0)
+    public long getLoadedCount() {
+        UserLoader loader = loader();
+        return loader == null ? 0 : loader.getLoadedCount();
+    }
+
+    @ManagedAttribute(description="Average time in ms a load took", currencyTimeLimit=0)
+    public long getAverageLoadMillis() {
+        UserLoader loader = loader();
+        return loader == null ? 0 : loader.getAverageLoadMillis();
+    }
+
+    @ManagedAttribute(description="Longest time in ms a load took", currencyTimeLimit=0)
+    public long getMaxLoadMillis() {
+        UserLoader loader = loader();
+        return loader == null ? 0 : loader.getMaxLoadMillis();
+    }
+
+    @ManagedOperation(description="Start the counts and timings again")
+    public void reset() {
+        UserLoader loader = loader();
+        if (loader != null) loader.reset();
+    }
+
+    public void setUserDirectoryService(UserDirectoryService userDirectoryService) {
+        if (userDirectoryService instanceof BaseUserDirectoryService) {
+            this.userDirectoryService = (BaseUserDirectoryService) userDirectoryService;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.user.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.sakaiproject.user.api.UserEdit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Looks up users by id in bulk, so that concurrent requests for the same uncached users share one load.
+ * <p>
+ * The ids not in the cache are claimed by the first request to miss them, which loads the ones it claimed in batches.
+ * A request that misses an id already claimed waits for that load rather than starting its own, so five requests for
+ * the same roster read it from the provider once. A request loads what it claimed before waiting on anyone else,
+ * so two requests claiming parts of each other's ids never wait on each other, and one that waits too long or sees
+ * the other load fail loads the ids itself.
+ */
+@Slf4j
+public class UserLoader {
+
+    private final Function<String, UserEdit> cache;
+    private final Function<Collection<String>, Map<String, UserEdit>> loader;
+    private final int batchSize;
+    private final long waitMillis;
+
+    /** The loads under way, by user id. */
+    private final Map<String, CompletableFuture<UserEdit>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAccumulator maxLoadNanos = new LongAccumulator(Long::max, 0L);
+
+    /**
+     * @param cache reads a user from the cache by id, null if not cached
+     * @param loader loads users by id, from storage and the provider, keyed by id and leaving out those not found
+     * @param batchSize the most ids passed to the loader at once
+     * @param waitMillis how long to wait for another request's load before loading the user again
+     */
+    public UserLoader(Function<String, UserEdit> cache, Function<Collection<String>, Map<String, UserEdit>> loader, int batchSize, long waitMillis) {
+        this.cache = cache;
+        this.loader = loader;
+        this.batchSize = Math.max(1, batchSize);
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * Get the users with these ids, from the cache or by loading them.
+     *
+     * @return the users found, in no particular order
+     */
+    public List<UserEdit> getUsers(Collection<String> ids) {
+        List<UserEdit> rv = new ArrayList<>(ids.size());
+        Map<String, CompletableFuture<UserEdit>> claimed = new LinkedHashMap<>();
+        Map<String, CompletableFuture<UserEdit>> others = new LinkedHashMap<>();
+
+        for (String id : ids) {
+            UserEdit user = cache.apply(id);
+            if (user != null) {
+                hits.increment();
+                rv.add(user);
+                continue;
+            }
+            misses.increment();
+            CompletableFuture<UserEdit> future = new CompletableFuture<>();
+            CompletableFuture<UserEdit> existing = loading.putIfAbsent(id, future);
+            if (existing == null) {
+                claimed.put(id, future);
+            } else {
+                shared.increment();
+                others.put(id, existing);
+            }
+        }
+
+        // load our own first, another request may be waiting on them
+        try {
+            List<String> batch = new ArrayList<>(Math.min(batchSize, claimed.size()));
+            for (String id : claimed.keySet()) {
+                batch.add(id);
+                if (batch.size() == batchSize) {
+                    rv.addAll(load(batch, claimed));
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                rv.addAll(load(batch, claimed));
+            }
+        } finally {
+            // a batch that failed leaves the later batches unloaded, release them so others load them themselves
+            for (Map.Entry<String, CompletableFuture<UserEdit>> entry : claimed.entrySet()) {
+                entry.getValue().completeExceptionally(new IllegalStateException("An earlier batch of users failed to load"));
+                loading.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        List<String> retry = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<UserEdit>> entry : others.entrySet()) {
+            try {
+                UserEdit user = entry.getValue().get(waitMillis, TimeUnit.MILLISECONDS);
+                if (user != null) rv.add(user);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                retry.add(entry.getKey());
+            } catch (ExecutionException | TimeoutException e) {
+                log.debug("Loading user {} again, the shared load did not finish: {}", entry.getKey(), e.toString());
+                retry.add(entry.getKey());
+            }
+        }
+        if (!retry.isEmpty()) {
+            rv.addAll(timedLoad(retry).values());
+        }
+
+        return rv;
+    }
+
+    /**
+     * Load a batch of the ids this request claimed, passing the users to anyone waiting on them.
+     */
+    private Collection<UserEdit> load(List<String> batch, Map<String, CompletableFuture<UserEdit>> claimed) {
+        try {
+            Map<String, UserEdit> users = timedLoad(batch);
+            for (String id : batch) {
+                claimed.get(id).complete(users.get(id));
+            }
+            return users.values();
+        } catch (RuntimeException e) {
+            for (String id : batch) {
+                claimed.get(id).completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            for (String id : batch) {
+                loading.remove(id, claimed.get(id));
+            }
+        }
+    }
+
+    private Map<String, UserEdit> timedLoad(List<String> ids) {
+        long start = System.nanoTime();
+        try {
+            return loader.apply(ids);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            loads.increment();
+            loaded.add(ids.size());
+            loadNanos.add(nanos);
+            maxLoadNanos.accumulate(nanos);
+        }
+    }
+
+    /**
+     * @return the ids found in the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the ids not found in the cache
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the misses that waited on a load already under way rather than loading the user again
+     */
+    public long getSharedCount() {
+        return shared.sum();
+    }
+
+    /**
+     * @return the calls made to the loader
+     */
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * @return the ids passed to the loader
+     */
+    public long getLoadedCount() {
+        return loaded.sum();
+    }
+
+    public long getAverageLoadMillis() {
+        long count = loads.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(loadNanos.sum() / count);
+    }
+
+    public long getMaxLoadMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLoadNanos.get());
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        shared.reset();
+        loads.reset();
+        loaded.reset();
+        loadNanos.reset();
+        maxLoadNanos.reset();
+    }
+}
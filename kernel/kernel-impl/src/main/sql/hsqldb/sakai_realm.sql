@@ -204,6 +204,24 @@ CREATE TABLE SAKAI_REALM_LOCKS (
        PRIMARY KEY (REALM_KEY, REFERENCE)
 );
 
+-----------------------------------------------------------------------------
+-- SAKAI_REALM_REFRESH
+-- Realms waiting for a refresh from the provider, shared by the servers in the cluster
+-----------------------------------------------------------------------------
+
+CREATE TABLE SAKAI_REALM_REFRESH (
+       REALM_ID             VARCHAR (255) NOT NULL,
+       QUEUED               BIGINT NOT NULL,
+       LEASE_OWNER          VARCHAR (255),
+       LEASE_EXPIRES        BIGINT,
+       PRIMARY KEY (REALM_ID)
+);
+
+CREATE INDEX IE_SAKAI_REALM_REFRESH_QUEUED ON SAKAI_REALM_REFRESH
+(
+	QUEUED
+);
+
 -----------------------------------------------------------------------------
 -- FOREIGN KEYS
 -----------------------------------------------------------------------------
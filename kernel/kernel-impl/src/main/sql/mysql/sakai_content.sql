@@ -22,7 +22,8 @@ CREATE UNIQUE INDEX CONTENT_COLLECTION_INDEX ON CONTENT_COLLECTION
 
 CREATE INDEX CONTENT_IN_COLLECTION_INDEX ON CONTENT_COLLECTION
 (
-	IN_COLLECTION
+	IN_COLLECTION,
+	COLLECTION_ID
 );
 
 INSERT INTO CONTENT_COLLECTION VALUES ('/','',
@@ -163,7 +164,16 @@ CREATE INDEX CONTENT_RESOURCE_FILE_PATH ON CONTENT_RESOURCE
 
 CREATE INDEX CONTENT_IN_RESOURCE_INDEX ON CONTENT_RESOURCE
 (
-	IN_COLLECTION
+	IN_COLLECTION,
+	RESOURCE_ID
+);
+
+-- Pages of the resources of a collection by size
+CREATE INDEX CONTENT_IN_RESOURCE_SIZE ON CONTENT_RESOURCE
+(
+	IN_COLLECTION,
+	FILE_SIZE,
+	RESOURCE_ID
 );
 
 CREATE INDEX CONTENT_RESOURCE_CI ON CONTENT_RESOURCE
@@ -223,3 +233,57 @@ CREATE INDEX CONTENT_DROPBOX_II ON CONTENT_DROPBOX_CHANGES
 (
 	IN_COLLECTION
 );
+
+-----------------------------------------------------------------------------
+-- CONTENT_USAGE
+-----------------------------------------------------------------------------
+
+CREATE TABLE CONTENT_USAGE
+(
+    CONTEXT VARCHAR (99) NOT NULL,
+    AREA VARCHAR (99) NOT NULL,
+    FILE_SIZE BIGINT NOT NULL,
+    FILE_COUNT INT NOT NULL
+);
+
+CREATE UNIQUE INDEX CONTENT_USAGE_INDEX ON CONTENT_USAGE
+(
+	CONTEXT,
+	AREA
+);
+
+-----------------------------------------------------------------------------
+-- CONTENT_BODY_SCRUB
+-----------------------------------------------------------------------------
+
+CREATE TABLE CONTENT_BODY_SCRUB
+(
+    NAME VARCHAR (99) NOT NULL,
+    LAST_ID VARCHAR (255),
+    PASSES INT NOT NULL,
+    PASS_STARTED BIGINT NOT NULL
+);
+
+CREATE UNIQUE INDEX CONTENT_BODY_SCRUB_INDEX ON CONTENT_BODY_SCRUB
+(
+	NAME
+);
+
+-----------------------------------------------------------------------------
+-- CONTENT_BODY_PROBLEM
+-----------------------------------------------------------------------------
+
+CREATE TABLE CONTENT_BODY_PROBLEM
+(
+    RESOURCE_ID VARCHAR (255) NOT NULL,
+    FILE_PATH VARCHAR (128),
+    PROBLEM VARCHAR (16) NOT NULL,
+    EXPECTED_SHA256 VARCHAR (64),
+    FOUND_SHA256 VARCHAR (64),
+    FOUND_TIME BIGINT NOT NULL
+);
+
+CREATE UNIQUE INDEX CONTENT_BODY_PROBLEM_INDEX ON CONTENT_BODY_PROBLEM
+(
+	RESOURCE_ID
+);
@@ -0,0 +1,12 @@
+-- Pages of the members of a collection, in id order or by size
+drop index CONTENT_IN_COLLECTION_INDEX;
+create index CONTENT_IN_COLLECTION_INDEX on CONTENT_COLLECTION (IN_COLLECTION, COLLECTION_ID);
+
+drop index CONTENT_IN_RESOURCE_INDEX;
+create index CONTENT_IN_RESOURCE_INDEX on CONTENT_RESOURCE (IN_COLLECTION, RESOURCE_ID);
+
+create index CONTENT_IN_RESOURCE_SIZE on CONTENT_RESOURCE (IN_COLLECTION, FILE_SIZE, RESOURCE_ID);
+
+-- The bytes and resources used by each site and user, filled in by the usage reconciliation
+create table CONTENT_USAGE (CONTEXT varchar2(99) not null, AREA varchar2(99) not null, FILE_SIZE number(18) not null, FILE_COUNT number(10) not null);
+create unique index CONTENT_USAGE_INDEX on CONTENT_USAGE (CONTEXT, AREA);
@@ -240,6 +240,24 @@ CREATE TABLE SAKAI_REALM_LOCKS (
 ALTER TABLE SAKAI_REALM_LOCKS
        ADD  ( PRIMARY KEY (REALM_KEY, REFERENCE) ) ;
 
+-----------------------------------------------------------------------------
+-- SAKAI_REALM_REFRESH
+-- Realms waiting for a refresh from the provider, shared by the servers in the cluster
+-----------------------------------------------------------------------------
+
+CREATE TABLE SAKAI_REALM_REFRESH (
+       REALM_ID             VARCHAR2 (255) NOT NULL,
+       QUEUED               NUMBER(19) NOT NULL,
+       LEASE_OWNER          VARCHAR2 (255),
+       LEASE_EXPIRES        NUMBER(19),
+       PRIMARY KEY (REALM_ID)
+);
+
+CREATE INDEX IE_SAKAI_REALM_REFRESH_QUEUED ON SAKAI_REALM_REFRESH
+(
+	QUEUED
+);
+
 -----------------------------------------------------------------------------
 -- FOREIGN KEYS
 -----------------------------------------------------------------------------
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlService;
+
+public class DbRealmRefreshQueueTest {
+
+    private final DbAuthzGroupSql sql = new DbAuthzGroupSqlHSql();
+    private Connection connection;
+    private SqlService sqlService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:realmrefresh", "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table SAKAI_REALM_REFRESH (REALM_ID varchar(255) not null, QUEUED bigint not null,"
+                    + " LEASE_OWNER varchar(255), LEASE_EXPIRES bigint, primary key (REALM_ID))");
+        }
+
+        // the sql service runs its statements against the database
+        sqlService = mock(SqlService.class);
+        when(sqlService.dbRead(anyString(), any(), any(SqlReader.class))).thenAnswer(i -> {
+            List<Object> rows = new ArrayList<>();
+            try (PreparedStatement select = prepare(i.getArgument(0), i.getArgument(1)); ResultSet result = select.executeQuery()) {
+                SqlReader<Object> reader = i.getArgument(2);
+                while (result.next()) {
+                    rows.add(reader.readSqlResultRecord(result));
+                }
+            }
+            return rows;
+        });
+        when(sqlService.dbWrite(anyString(), any(Object[].class))).thenAnswer(i -> {
+            try (PreparedStatement update = prepare(i.getArgument(0), i.getArgument(1))) {
+                update.executeUpdate();
+            }
+            return true;
+        });
+        when(sqlService.dbWriteCount(anyString(), any(Object[].class), isNull(), isNull(), anyBoolean())).thenAnswer(i -> {
+            try (PreparedStatement update = prepare(i.getArgument(0), i.getArgument(1))) {
+                return update.executeUpdate();
+            } catch (SQLException e) {
+                return -1;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("shutdown");
+        }
+        connection.close();
+    }
+
+    private PreparedStatement prepare(String statement, Object[] fields) throws SQLException {
+        PreparedStatement prepared = connection.prepareStatement(statement);
+        for (int i = 0; fields != null && i < fields.length; i++) {
+            prepared.setObject(i + 1, fields[i]);
+        }
+        return prepared;
+    }
+
+    private DbRealmRefreshQueue queue(String owner, long leaseMillis) {
+        return new DbRealmRefreshQueue(sqlService, sql, owner, leaseMillis);
+    }
+
+    @Test
+    public void testServersShareTheBacklog() throws InterruptedException {
+        DbRealmRefreshQueue one = queue("one", 60000L);
+        DbRealmRefreshQueue two = queue("two", 60000L);
+        one.add(List.of("/site/a"));
+        Thread.sleep(2);
+        two.add(List.of("/site/b", "/site/c"));
+        // queued again by the other server, no second row
+        one.add(List.of("/site/b"));
+        Assert.assertEquals(3, one.size());
+
+        Map<String, Long> first = one.claim(2);
+        Assert.assertEquals(List.of("/site/a", "/site/c"), new ArrayList<>(first.keySet()));
+        Map<String, Long> second = two.claim(2);
+        Assert.assertEquals(List.of("/site/b"), new ArrayList<>(second.keySet()));
+        Assert.assertTrue(one.claim(2).isEmpty());
+
+        first.forEach(one::done);
+        second.forEach(two::done);
+        Assert.assertEquals(0, two.size());
+    }
+
+    @Test
+    public void testQueuedAgainDuringRefreshStays() throws InterruptedException {
+        DbRealmRefreshQueue one = queue("one", 60000L);
+        DbRealmRefreshQueue two = queue("two", 60000L);
+        one.add(List.of("/site/a"));
+        Map<String, Long> claimed = one.claim(10);
+        Thread.sleep(2);
+        two.add(List.of("/site/a"));
+
+        // done only releases the lease, so it is refreshed again
+        one.done("/site/a", claimed.get("/site/a"));
+        Assert.assertEquals(1, one.size());
+        claimed = two.claim(10);
+        Assert.assertEquals(1, claimed.size());
+        two.done("/site/a", claimed.get("/site/a"));
+        Assert.assertEquals(0, one.size());
+    }
+
+    @Test
+    public void testExpiredLeaseIsClaimedAgain() throws InterruptedException {
+        DbRealmRefreshQueue gone = queue("gone", 1L);
+        DbRealmRefreshQueue two = queue("two", 60000L);
+        gone.add(List.of("/site/a"));
+        Assert.assertEquals(1, gone.claim(10).size());
+        Thread.sleep(5);
+
+        Map<String, Long> claimed = two.claim(10);
+        Assert.assertEquals(1, claimed.size());
+        // the server that lost its lease does not remove the realm
+        gone.done("/site/a", claimed.get("/site/a"));
+        Assert.assertEquals(1, two.size());
+        two.done("/site/a", claimed.get("/site/a"));
+        Assert.assertEquals(0, two.size());
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.RealmSnapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RealmSnapshotTest {
+
+    private RealmSnapshot snapshot;
+
+    @Before
+    public void setUp() {
+        BaseRole maintain = new BaseRole("maintain");
+        maintain.allowFunctions(Arrays.asList("site.upd", "site.visit"));
+        maintain.setDescription("Can update");
+        BaseRole access = new BaseRole("access");
+        access.allowFunction("site.visit");
+        access.setProviderOnly(true);
+        BaseRole auth = new BaseRole(".auth");
+        auth.allowFunction("site.visit.unp");
+
+        // the role of the orphan member is not one of the roles, so it is left out
+        snapshot = RealmSnapshot.of(Arrays.asList(maintain, access, auth), Arrays.<Member>asList(
+                new BaseMember(maintain, true, false, "instructor", null),
+                new BaseMember(access, true, true, "student", null),
+                new BaseMember(access, false, false, "dropped", null),
+                new BaseMember(new BaseRole("guest"), true, false, "orphan", null)));
+    }
+
+    @Test
+    public void testMemberAllowed() {
+        assertTrue(snapshot.isMemberAllowed("instructor", "site.upd"));
+        assertTrue(snapshot.isMemberAllowed("student", "site.visit"));
+        assertFalse(snapshot.isMemberAllowed("student", "site.upd"));
+        assertFalse(snapshot.isMemberAllowed("dropped", "site.visit"));
+        assertFalse(snapshot.isMemberAllowed("orphan", "site.visit"));
+        assertFalse(snapshot.isMemberAllowed("nobody", "site.visit"));
+        assertFalse(snapshot.isMemberAllowed(null, "site.visit"));
+        assertFalse(snapshot.isMemberAllowed("instructor", "no.such.function"));
+    }
+
+    @Test
+    public void testRolesAndMembers() {
+        assertTrue(snapshot.isRoleAllowed(".auth", "site.visit.unp"));
+        assertFalse(snapshot.isRoleAllowed(".anon", "site.visit.unp"));
+        assertTrue(snapshot.hasRole("student", "access"));
+        assertFalse(snapshot.hasRole("dropped", "access"));
+        assertFalse(snapshot.hasRole("orphan", "guest"));
+
+        assertEquals(3, snapshot.getRoleCount());
+        assertEquals(3, snapshot.getMemberCount());
+        for (int i = 0; i < snapshot.getRoleCount(); i++) {
+            if ("maintain".equals(snapshot.getRoleId(i))) {
+                assertEquals(new HashSet<>(Arrays.asList("site.upd", "site.visit")), snapshot.getRoleFunctions(i));
+                assertEquals("Can update", snapshot.getRoleDescription(i));
+            } else if ("guest".equals(snapshot.getRoleId(i))) {
+                fail("a role the realm does not define is not added");
+            } else if ("access".equals(snapshot.getRoleId(i))) {
+                assertTrue(snapshot.isRoleProviderOnly(i));
+            }
+        }
+        for (int i = 0; i < snapshot.getMemberCount(); i++) {
+            if ("student".equals(snapshot.getMemberUserId(i))) {
+                assertEquals("access", snapshot.getRoleId(snapshot.getMemberRole(i)));
+                assertTrue(snapshot.isMemberActive(i));
+                assertTrue(snapshot.isMemberProvided(i));
+            }
+        }
+    }
+
+    @Test
+    public void testSerializedCopyIsInterned() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(snapshot);
+        }
+        RealmSnapshot copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (RealmSnapshot) in.readObject();
+        }
+
+        assertTrue(copy.isMemberAllowed("instructor", "site.upd"));
+        assertFalse(copy.isMemberAllowed("dropped", "site.visit"));
+        assertSame(snapshot.getRoleId(0), copy.getRoleId(0));
+    }
+}
@@ -23,15 +23,19 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import org.mockito.junit.MockitoJUnitRunner;
-import org.sakaiproject.authz.api.AuthzGroup;
 import org.sakaiproject.authz.api.AuthzGroupService;
 import org.sakaiproject.authz.api.FunctionManager;
-import org.sakaiproject.authz.api.GroupNotDefinedException;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.entity.api.Reference;
 import org.sakaiproject.event.api.EventTrackingService;
 import org.sakaiproject.memory.api.Cache;
 import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.memory.impl.BasicMapCache;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
 
 import java.util.Arrays;
 import java.util.HashSet;
@@ -39,9 +43,14 @@ import java.util.Set;
 
 import static java.util.Collections.singleton;
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.eq;
@@ -57,6 +66,9 @@ public class SakaiSecurityTest {
     @Mock private MemoryService memoryService;
     @Mock private ServerConfigurationService serverConfigurationService;
     @Mock private EventTrackingService eventTrackingService;
+    @Mock private SessionManager sessionManager;
+    @Mock private Session session;
+    @Mock private ThreadLocalManager threadLocalManager;
 
 
     private SakaiSecurity sakaiSecurity;
@@ -70,6 +82,9 @@ public class SakaiSecurityTest {
         sakaiSecurity.setMemoryService(memoryService);
         sakaiSecurity.setServerConfigurationService(serverConfigurationService);
         sakaiSecurity.setEventTrackingService(eventTrackingService);
+        sakaiSecurity.setSessionManager(sessionManager);
+        sakaiSecurity.setThreadLocalManager(threadLocalManager);
+        when(sessionManager.getCurrentSession()).thenReturn(session);
 
         // Always return default
         when(serverConfigurationService.getString(anyString(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
@@ -81,73 +96,127 @@ public class SakaiSecurityTest {
 
     }
 
-    @Test
-    public void testCacheRealmPermsChangedSimple() throws GroupNotDefinedException {
+    private Cache cache;
 
-        Cache cache = mock(Cache.class);
+    private void initCaches() {
+        cache = mock(Cache.class);
         when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.generationCache")).thenReturn(new BasicMapCache<>("generations"));
         sakaiSecurity.init();
+    }
 
-        AuthzGroup group = new AuthzGroupBuilder(authzGroupService, "/site/1")
-                .addMember("1", "role", true)
-                .build();
+    private void initMapCaches() {
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(new BasicMapCache<>("cache"));
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.superCache")).thenReturn(new BasicMapCache<>("superCache"));
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.contentCache")).thenReturn(new BasicMapCache<>("contentCache"));
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.generationCache")).thenReturn(new BasicMapCache<>("generations"));
+        sakaiSecurity.init();
+        // each entity is in the realm of the same reference
+        when(entityManager.newReference(anyString())).thenAnswer(invocation -> {
+            Reference reference = mock(Reference.class);
+            when(reference.getAuthzGroups(anyString())).thenReturn(singleton(invocation.getArgument(0)));
+            return reference;
+        });
+    }
 
-        // This collects all the flushes
-        Set<String> flushed = new HashSet<>();
-        doAnswer(s -> flushed.addAll(s.getArgument(0))).when(cache).removeAll(any());
+    private String key(String userId, String realm) {
+        return sakaiSecurity.makeGenerationKey(sakaiSecurity.makeCacheKey(userId, null, "function", realm, false), userId, singleton(realm));
+    }
 
-        sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", singleton("role"), singleton("function"));
+    @Test
+    public void testGenerationKeyStable() {
+        initCaches();
 
-        assertThat(flushed, containsInAnyOrder("unlock@1@@function@/site/1"));
+        String key = key("1", "/site/1");
+
+        assertThat(key, startsWith("unlock@1@@function@/site/1#"));
+        assertEquals(key, key("1", "/site/1"));
+        assertNotEquals(key, key("1", "/site/2"));
     }
 
+    @Test
+    public void testCacheRealmPermsChangedSimple() {
+        initCaches();
+        String site1 = key("1", "/site/1");
+        String site2 = key("1", "/site/2");
+
+        sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", singleton("role"), singleton("function"));
+
+        assertNotEquals(site1, key("1", "/site/1"));
+        assertEquals(site2, key("1", "/site/2"));
+        verify(cache, never()).removeAll(any());
+        verify(cache, never()).clear();
+    }
 
     @Test
-    public void testCacheRealmPermsChangedMultiple() throws GroupNotDefinedException {
+    public void testCacheRealmPermsChangedAuthRole() {
+        initCaches();
+        String user1 = key("user1", "/site/1");
+        String user2 = key("user2", "/site/1");
 
-        Cache cache = mock(Cache.class);
-        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
-        sakaiSecurity.init();
+        // .auth could grant anyone, but only in this realm
+        sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", singleton(AuthzGroupService.AUTH_ROLE), singleton("function"));
 
-        AuthzGroup group = new AuthzGroupBuilder(authzGroupService, "/site/1")
-                .addMember("user1", "role1", true)
-                .addMember("user2", "role2", true)
-                .build();
+        assertNotEquals(user1, key("user1", "/site/1"));
+        assertNotEquals(user2, key("user2", "/site/1"));
+        verify(cache, never()).clear();
+    }
 
-        // This collects all the flushes
-        Set<String> flushed = new HashSet<>();
-        doAnswer(s -> flushed.addAll(s.getArgument(0))).when(cache).removeAll(any());
+    @Test
+    public void testTemplateChangedStartsNewGlobalGeneration() {
+        initCaches();
+        String site1 = key("1", "/site/1");
+        String site2 = key("1", "/site/2");
 
-        sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", singleton("role"), new HashSet<>(Arrays.asList("function1", "function2")));
+        assertTrue(sakaiSecurity.notifyRealmChanged("!site.helper", null, singleton("function")));
 
-        assertThat(flushed, containsInAnyOrder(
-                "unlock@user1@@function1@/site/1",
-                "unlock@user2@@function1@/site/1",
-                "unlock@user1@@function2@/site/1",
-                "unlock@user2@@function2@/site/1"
-                ));
+        assertNotEquals(site1, key("1", "/site/1"));
+        assertNotEquals(site2, key("1", "/site/2"));
+        verify(cache, never()).clear();
     }
 
     @Test
-    public void testCacheRealmPermsChangedSimpleSV() throws GroupNotDefinedException {
+    public void testRealmMembersChanged() {
+        initCaches();
+        String user1 = key("user1", "/site/1");
+        String user2 = key("user2", "/site/1");
 
-        Cache cache = mock(Cache.class);
-        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
-        when(serverConfigurationService.getString(eq("studentview.roles"), anyString())).thenReturn("student");
-        sakaiSecurity.init();
+        sakaiSecurity.notifyRealmMembersChanged(singleton("user1"), "/realm//site/1");
 
-        AuthzGroup group = new AuthzGroupBuilder(authzGroupService, "/site/1")
-                .addMember("1", "role", true)
-                .addMember("2", "student", true)
-                .build();
+        assertNotEquals(user1, key("user1", "/site/1"));
+        assertEquals(user2, key("user2", "/site/1"));
+        verify(cache, never()).removeAll(any());
+    }
 
-        // This collects all the flushes
-        Set<String> flushed = new HashSet<>();
-        doAnswer(s -> flushed.addAll(s.getArgument(0))).when(cache).removeAll(any());
+    @Test
+    public void testUnlockManyChecksMissesTogether() {
+        initMapCaches();
+        when(authzGroupService.isAllowedMany(eq("user1"), eq("function"), any())).thenReturn(singleton("/site/1"));
 
-        sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", singleton("role"), singleton("function"));
+        assertEquals(singleton("/site/1"), sakaiSecurity.unlockMany("user1", "function", Arrays.asList("/site/1", "/site/2")));
+        // now cached, for single checks too
+        assertEquals(singleton("/site/1"), sakaiSecurity.unlockMany("user1", "function", Arrays.asList("/site/1", "/site/2")));
+        assertFalse(sakaiSecurity.unlock("user1", "function", "/site/2"));
 
-        assertThat(flushed, containsInAnyOrder("unlock@1@@function@/site/1", "unlock@2@@function@/site/1"));
+        verify(authzGroupService, times(1)).isAllowedMany(eq("user1"), eq("function"), any());
+        verify(authzGroupService, never()).isAllowed(anyString(), eq("function"), anyCollection());
+    }
+
+    @Test
+    public void testUnlockUsersManyChecksMissesTogether() {
+        initMapCaches();
+        when(authzGroupService.isAllowedUsers(any(), eq(SiteService.SECURE_UPDATE_SITE), any())).thenReturn(singleton("user3"));
+        when(authzGroupService.isAllowedUsers(any(), eq("function"), any())).thenReturn(singleton("user1"));
+
+        Set<String> users = new HashSet<>(Arrays.asList("user1", "user2", "user3"));
+        assertEquals(new HashSet<>(Arrays.asList("user1", "user3")), sakaiSecurity.unlockUsersMany("function", "/site/1", users));
+        assertEquals(new HashSet<>(Arrays.asList("user1", "user3")), sakaiSecurity.unlockUsersMany("function", "/site/1", users));
+        assertTrue(sakaiSecurity.isSuperUser("user3"));
+
+        // user3 is a super user so only the others are checked
+        verify(authzGroupService, times(1)).isAllowedUsers(eq(new HashSet<>(Arrays.asList("user1", "user2"))), eq("function"), eq(singleton("/site/1")));
+        verify(authzGroupService, times(1)).isAllowedUsers(any(), eq(SiteService.SECURE_UPDATE_SITE), any());
+        verify(authzGroupService, never()).isAllowed(anyString(), anyString(), anyString());
     }
 
 }
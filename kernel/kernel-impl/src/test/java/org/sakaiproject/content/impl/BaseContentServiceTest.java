@@ -15,11 +15,22 @@
  */
 package org.sakaiproject.content.impl;
 
+import javax.servlet.http.HttpServletRequest;
+
 import org.junit.Before;
 import org.junit.Test;
+import org.sakaiproject.component.api.ServerConfigurationService;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
 
 /**
  * Simple checks for BaseContentService
@@ -63,4 +74,61 @@ public class BaseContentServiceTest {
         assertTrue(baseContentService.isSiteLevelCollection("/group/siteId"));
         assertTrue(baseContentService.isSiteLevelCollection("/group/siteId/"));
     }
+
+    private static HttpServletRequest request(String ifNoneMatch, long ifModifiedSince) {
+        HttpServletRequest req = mock(HttpServletRequest.class);
+        when(req.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+        when(req.getDateHeader("If-Modified-Since")).thenReturn(ifModifiedSince);
+        return req;
+    }
+
+    @Test
+    public void testIsNotModified() {
+        String eTag = BaseContentService.strongETag("abc123");
+        assertEquals("\"abc123\"", eTag);
+        assertNull(BaseContentService.strongETag(" "));
+
+        assertTrue(BaseContentService.isNotModified(request("\"abc123\"", -1), eTag, 0));
+        assertTrue(BaseContentService.isNotModified(request("\"old\", W/\"abc123\"", -1), eTag, 0));
+        assertTrue(BaseContentService.isNotModified(request("*", -1), eTag, 0));
+        assertFalse(BaseContentService.isNotModified(request("\"old\"", -1), eTag, 0));
+        assertFalse(BaseContentService.isNotModified(request("\"abc123\"", -1), null, 0));
+        // a tag that does not match is not rescued by the date
+        assertFalse(BaseContentService.isNotModified(request("\"old\"", 5000), eTag, 1000));
+
+        assertTrue(BaseContentService.isNotModified(request(null, 5000), eTag, 5500));
+        assertFalse(BaseContentService.isNotModified(request(null, 5000), eTag, 7000));
+        assertFalse(BaseContentService.isNotModified(request(null, 5000), eTag, 0));
+        assertFalse(BaseContentService.isNotModified(request(null, -1), eTag, 5000));
+    }
+
+    @Test
+    public void testGetCacheControl() {
+        BaseContentService service = spy(new DbContentService());
+        service.serverConfigurationService = mock(ServerConfigurationService.class);
+        when(service.serverConfigurationService.getString(anyString(), isNull())).thenReturn(null);
+
+        BaseContentService.BaseResourceEdit image = mock(BaseContentService.BaseResourceEdit.class);
+        when(image.getId()).thenReturn("/group/site/logo.png");
+        when(image.isAvailable()).thenReturn(true);
+        doReturn(true).when(service).isPubView("/group/site/logo.png");
+
+        assertEquals(BaseContentService.DEFAULT_CACHE_CONTROL, service.getCacheControl(image, "image/png"));
+
+        when(service.serverConfigurationService.getString("content.cacheControl.image", null)).thenReturn("private, max-age=600");
+        assertEquals("private, max-age=600", service.getCacheControl(image, "image/png"));
+        assertEquals(BaseContentService.DEFAULT_CACHE_CONTROL, service.getCacheControl(image, "text/plain; charset=UTF-8"));
+
+        when(service.serverConfigurationService.getString("content.cacheControl.public", null)).thenReturn("public, no-cache");
+        when(service.serverConfigurationService.getString("content.cacheControl.public.image/png", null)).thenReturn("public, max-age=86400");
+        assertEquals("public, max-age=86400", service.getCacheControl(image, "image/png"));
+        assertEquals("public, no-cache", service.getCacheControl(image, "text/plain; charset=UTF-8"));
+
+        // only what anyone may read is cached publicly
+        doReturn(false).when(service).isPubView("/group/site/logo.png");
+        assertEquals("private, max-age=600", service.getCacheControl(image, "image/png"));
+        doReturn(true).when(service).isPubView("/group/site/logo.png");
+        when(image.isAvailable()).thenReturn(false);
+        assertEquals("private, max-age=600", service.getCacheControl(image, "image/png"));
+    }
 }
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachingFileSystemHandlerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String store;
+    private CountingFileSystemHandler delegate;
+    private CachingFileSystemHandler handler;
+
+    /** A directory standing in for the object store, counting the reads it serves. */
+    private static class CountingFileSystemHandler extends DefaultFileSystemHandler {
+        final AtomicInteger reads = new AtomicInteger();
+        volatile CountDownLatch gate;
+
+        @Override
+        public InputStream getInputStream(String id, String root, String filePath) throws IOException {
+            reads.incrementAndGet();
+            CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return super.getInputStream(id, root, filePath);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        store = folder.newFolder("store").getPath();
+        delegate = new CountingFileSystemHandler();
+        handler = new CachingFileSystemHandler();
+        handler.setDelegate(delegate);
+        handler.setCacheDirectory(folder.newFolder("cache").getPath());
+        handler.setMaxSizeMb(1);
+        handler.init();
+    }
+
+    private void put(String path, byte[] body) throws IOException {
+        delegate.saveInputStream("/group/site/" + path, store, path, new ByteArrayInputStream(body));
+    }
+
+    private byte[] read(String path) throws IOException {
+        try (InputStream in = handler.getInputStream("/group/site/" + path, store, path)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    @Test
+    public void testReadsThrough() throws IOException {
+        byte[] body = "the body".getBytes();
+        put("a", body);
+        Assert.assertNull(handler.getLocalFile("/group/site/a", store, "a"));
+
+        Assert.assertArrayEquals(body, read("a"));
+        Assert.assertArrayEquals(body, read("a"));
+        Assert.assertEquals(1, delegate.reads.get());
+
+        File local = handler.getLocalFile("/group/site/a", store, "a");
+        Assert.assertNotNull(local);
+        Assert.assertEquals(body.length, local.length());
+    }
+
+    @Test
+    public void testConcurrentMissesFetchOnce() throws Exception {
+        byte[] body = new byte[100000];
+        put("video", body);
+        delegate.gate = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> reads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                reads.add(pool.submit(() -> read("video")));
+            }
+            Thread.sleep(200);
+            delegate.gate.countDown();
+            for (Future<byte[]> f : reads) {
+                Assert.assertEquals(body.length, f.get(10, TimeUnit.SECONDS).length);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals(1, delegate.reads.get());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        byte[] body = new byte[400 * 1024];
+        put("a", body);
+        put("b", body);
+        put("c", body);
+        read("a");
+        read("b");
+        read("a");
+        read("c");
+
+        // a MB holds two, and b was used least recently
+        Assert.assertTrue(handler.getHeldBytes() <= 1024 * 1024);
+        Assert.assertNotNull(handler.getLocalFile("/group/site/a", store, "a"));
+        Assert.assertNull(handler.getLocalFile("/group/site/b", store, "b"));
+        Assert.assertNotNull(handler.getLocalFile("/group/site/c", store, "c"));
+    }
+
+    @Test
+    public void testKeepsPinnedCopies() throws IOException {
+        byte[] body = new byte[400 * 1024];
+        put("a", body);
+        put("b", body);
+        put("c", body);
+        read("a");
+        File local = handler.getLocalFile("/group/site/a", store, "a");
+        read("b");
+        read("c");
+
+        // a was used least recently, but is kept while its local file may still be opened
+        Assert.assertTrue(local.isFile());
+        Assert.assertNull(handler.getLocalFile("/group/site/b", store, "b"));
+        Assert.assertNotNull(handler.getLocalFile("/group/site/c", store, "c"));
+    }
+
+    @Test
+    public void testPassesThroughAssetsLargerThanTheCache() throws IOException {
+        byte[] body = new byte[1536 * 1024];
+        body[body.length - 1] = 7;
+        put("big", body);
+        put("a", "one".getBytes());
+        read("a");
+
+        Assert.assertArrayEquals(body, read("big"));
+        Assert.assertNull(handler.getLocalFile("/group/site/big", store, "big"));
+        Assert.assertNotNull("Nothing else is evicted for it", handler.getLocalFile("/group/site/a", store, "a"));
+        Assert.assertEquals(3L, handler.getHeldBytes());
+        File cache = handler.getLocalFile("/group/site/a", store, "a").getParentFile().getParentFile();
+        Assert.assertTrue("The part read is removed", FileUtils.listFiles(cache, new String[] {"part"}, true).isEmpty());
+    }
+
+    @Test
+    public void testSaveAndDeleteDrop() throws IOException {
+        put("a", "one".getBytes());
+        Assert.assertArrayEquals("one".getBytes(), read("a"));
+
+        handler.saveInputStream("/group/site/a", store, "a", new ByteArrayInputStream("two".getBytes()));
+        Assert.assertNull(handler.getLocalFile("/group/site/a", store, "a"));
+        Assert.assertArrayEquals("two".getBytes(), read("a"));
+
+        Assert.assertTrue(handler.delete("/group/site/a", store, "a"));
+        Assert.assertNull(handler.getLocalFile("/group/site/a", store, "a"));
+        try {
+            read("a");
+            Assert.fail("Should not read a deleted asset");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testKeepsCopiesOverRestart() throws IOException {
+        put("a", "one".getBytes());
+        read("a");
+
+        CachingFileSystemHandler restarted = new CachingFileSystemHandler();
+        restarted.setDelegate(delegate);
+        restarted.setCacheDirectory(handler.getLocalFile("/group/site/a", store, "a").getParentFile().getParent());
+        restarted.setMaxSizeMb(1);
+        restarted.init();
+
+        Assert.assertNotNull(restarted.getLocalFile("/group/site/a", store, "a"));
+        Assert.assertEquals(3L, restarted.getHeldBytes());
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.content.api.ContentCollection;
+import org.sakaiproject.content.api.ContentEntity;
+import org.sakaiproject.content.api.ContentResource;
+
+public class CollectionMembersPageTest {
+
+    private static final String FOLDER = "/group/site/";
+
+    private final ContentServiceSql sql = new ContentServiceSqlHSql();
+    private Connection connection;
+    private final Map<String, ContentEntity> entities = new HashMap<>();
+    private final List<ContentEntity> members = new ArrayList<>();
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:members", "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table CONTENT_COLLECTION (COLLECTION_ID varchar(255), IN_COLLECTION varchar(255), BINARY_ENTITY varbinary(255))");
+            statement.execute("create table CONTENT_RESOURCE (RESOURCE_ID varchar(255), IN_COLLECTION varchar(255), FILE_SIZE bigint, BINARY_ENTITY varbinary(255))");
+        }
+        for (String name : new String[] {"b/", "a/", "c/"}) {
+            insert("insert into CONTENT_COLLECTION values (?, ?, ?)", FOLDER + name, FOLDER, null);
+            ContentCollection collection = mock(ContentCollection.class);
+            when(collection.getId()).thenReturn(FOLDER + name);
+            add(collection);
+        }
+        // sizes repeat so the id breaks the ties
+        long[] sizes = {30, 10, 20, 10, 30, 10, 5};
+        for (int i = 0; i < sizes.length; i++) {
+            String id = FOLDER + "file" + i + ".txt";
+            insert("insert into CONTENT_RESOURCE values (?, ?, ?, ?)", id, FOLDER, sizes[i]);
+            ContentResource resource = mock(ContentResource.class);
+            when(resource.getId()).thenReturn(id);
+            when(resource.getContentLength()).thenReturn(sizes[i]);
+            add(resource);
+        }
+        // not a member
+        insert("insert into CONTENT_RESOURCE values (?, ?, ?, ?)", FOLDER + "a/inner.txt", FOLDER + "a/", 1L);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("shutdown");
+        }
+        connection.close();
+    }
+
+    private void add(ContentEntity entity) {
+        entities.put(entity.getId(), entity);
+        members.add(entity);
+    }
+
+    private void insert(String statement, String id, String in, Long size) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(statement)) {
+            insert.setString(1, id);
+            insert.setString(2, in);
+            if (size == null) {
+                insert.setBytes(3, id.getBytes(StandardCharsets.UTF_8));
+            } else {
+                insert.setLong(3, size);
+                insert.setBytes(4, id.getBytes(StandardCharsets.UTF_8));
+            }
+            insert.executeUpdate();
+        }
+    }
+
+    /** Reads rows as DbStorage does, an entity that is not known standing for one that fails to parse. */
+    private List<Object[]> read(boolean collections, String statement, Object... fields) throws SQLException {
+        List<Object[]> rv = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(statement)) {
+            for (int i = 0; i < fields.length; i++) {
+                select.setObject(i + 1, fields[i]);
+            }
+            try (ResultSet result = select.executeQuery()) {
+                while (result.next()) {
+                    rv.add(new Object[] {entities.get(new String(result.getBytes(1), StandardCharsets.UTF_8)),
+                            result.getString(2), collections ? null : result.getLong(3)});
+                }
+            }
+        }
+        return rv;
+    }
+
+    /** As DbStorage.readMembers reads on past the rows that fail to parse. */
+    private List<ContentEntity> members(boolean collections, boolean bySize, boolean ascending, Object[] from, int limit) throws SQLException {
+        List<ContentEntity> members = new ArrayList<>();
+        while (members.size() < limit) {
+            int wanted = limit - members.size();
+            List<Object[]> rows;
+            if (collections) {
+                String statement = sql.getCollectionMembersSql("CONTENT_COLLECTION", from != null, ascending, wanted);
+                rows = (from == null) ? read(true, statement, FOLDER) : read(true, statement, FOLDER, from[0]);
+            } else {
+                String statement = sql.getResourceMembersSql("CONTENT_RESOURCE", bySize, from != null, ascending, wanted);
+                if (from == null) {
+                    rows = read(false, statement, FOLDER);
+                } else if (bySize) {
+                    rows = read(false, statement, FOLDER, from[1], from[1], from[0]);
+                } else {
+                    rows = read(false, statement, FOLDER, from[0]);
+                }
+            }
+            for (Object[] row : rows) {
+                if (row[0] != null) members.add((ContentEntity) row[0]);
+            }
+            if (rows.size() < wanted) break;
+            Object[] last = rows.get(rows.size() - 1);
+            from = new Object[] {last[1], last[2]};
+        }
+        return members;
+    }
+
+    /** As DbStorage.getMembers reads a page. */
+    private List<ContentEntity> page(boolean bySize, boolean ascending, ContentEntity after, int limit) throws SQLException {
+        List<ContentEntity> page = new ArrayList<>();
+        if (after == null || after instanceof ContentCollection) {
+            page.addAll(members(true, bySize, ascending, after == null ? null : new Object[] {after.getId(), null}, limit));
+        }
+        if (page.size() < limit) {
+            ContentResource last = (after instanceof ContentResource) ? (ContentResource) after : null;
+            Object[] from = (last == null) ? null : new Object[] {last.getId(), last.getContentLength()};
+            page.addAll(members(false, bySize, ascending, from, limit - page.size()));
+        }
+        return page;
+    }
+
+    private List<String> pages(boolean bySize, boolean ascending, int limit, boolean inMemory) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        ContentEntity after = null;
+        while (true) {
+            List<ContentEntity> page = inMemory
+                    ? DbContentService.pageOfMembers(members, bySize, ascending, after, limit)
+                    : page(bySize, ascending, after, limit);
+            page.forEach(m -> ids.add(m.getId().substring(FOLDER.length())));
+            if (page.size() < limit) return ids;
+            after = page.get(page.size() - 1);
+        }
+    }
+
+    @Test
+    public void testByName() throws SQLException {
+        List<String> expected = List.of("a/", "b/", "c/", "file0.txt", "file1.txt", "file2.txt", "file3.txt", "file4.txt", "file5.txt", "file6.txt");
+        Assert.assertEquals(expected, pages(false, true, 2, false));
+        Assert.assertEquals(expected, pages(false, true, 3, false));
+        Assert.assertEquals(expected, pages(false, true, 100, false));
+        Assert.assertEquals(expected, pages(false, true, 2, true));
+    }
+
+    @Test
+    public void testBySize() throws SQLException {
+        List<String> expected = List.of("a/", "b/", "c/", "file6.txt", "file1.txt", "file3.txt", "file5.txt", "file2.txt", "file0.txt", "file4.txt");
+        Assert.assertEquals(expected, pages(true, true, 2, false));
+        Assert.assertEquals(expected, pages(true, true, 4, false));
+        Assert.assertEquals(expected, pages(true, true, 2, true));
+    }
+
+    @Test
+    public void testSkipsRowsThatFailToParse() throws SQLException {
+        // rows no entity is known for stand for those that fail to parse, and must not end a page early
+        insert("insert into CONTENT_COLLECTION values (?, ?, ?)", FOLDER + "a1/", FOLDER, null);
+        insert("insert into CONTENT_COLLECTION values (?, ?, ?)", FOLDER + "a2/", FOLDER, null);
+        insert("insert into CONTENT_RESOURCE values (?, ?, ?, ?)", FOLDER + "file00.txt", FOLDER, 10L);
+        insert("insert into CONTENT_RESOURCE values (?, ?, ?, ?)", FOLDER + "file01.txt", FOLDER, 10L);
+
+        List<String> byName = List.of("a/", "b/", "c/", "file0.txt", "file1.txt", "file2.txt", "file3.txt", "file4.txt", "file5.txt", "file6.txt");
+        Assert.assertEquals(byName, pages(false, true, 2, false));
+        Assert.assertEquals(byName, pages(false, true, 3, false));
+        List<String> bySize = List.of("a/", "b/", "c/", "file6.txt", "file1.txt", "file3.txt", "file5.txt", "file2.txt", "file0.txt", "file4.txt");
+        Assert.assertEquals(bySize, pages(true, true, 2, false));
+    }
+
+    @Test
+    public void testDescending() throws SQLException {
+        List<String> expected = List.of("c/", "b/", "a/", "file4.txt", "file0.txt", "file2.txt", "file5.txt", "file3.txt", "file1.txt", "file6.txt");
+        Assert.assertEquals(expected, pages(true, false, 3, false));
+        Assert.assertEquals(expected, pages(true, false, 3, true));
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.util.StorageUtils;
+
+public class DbContentScrubberTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ContentServiceSql sql = new ContentServiceSqlHSql();
+    private Connection connection;
+    private SqlService sqlService;
+    private String root;
+    private final List<DbContentScrubber> scrubbers = new ArrayList<>();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:scrub", "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table CONTENT_RESOURCE (RESOURCE_ID varchar(255), FILE_PATH varchar(128), FILE_SIZE bigint, RESOURCE_SHA256 varchar(64))");
+            statement.execute("create table CONTENT_RESOURCE_BODY_BINARY (RESOURCE_ID varchar(255), RESOURCE_SHA256 varchar(64), BODY varbinary(1000))");
+            statement.execute("create table CONTENT_BODY_SCRUB (NAME varchar(99), LAST_ID varchar(255), PASSES int, PASS_STARTED bigint)");
+            statement.execute("create table CONTENT_BODY_PROBLEM (RESOURCE_ID varchar(255), FILE_PATH varchar(128), PROBLEM varchar(16),"
+                    + " EXPECTED_SHA256 varchar(64), FOUND_SHA256 varchar(64), FOUND_TIME bigint)");
+        }
+
+        // the sql service runs its statements against the database
+        sqlService = mock(SqlService.class);
+        when(sqlService.dbRead(anyString(), any(), any(SqlReader.class))).thenAnswer(i -> {
+            List<Object> rows = new ArrayList<>();
+            try (PreparedStatement select = prepare(i.getArgument(0), i.getArgument(1)); ResultSet result = select.executeQuery()) {
+                SqlReader<Object> reader = i.getArgument(2);
+                while (result.next()) {
+                    rows.add(reader.readSqlResultRecord(result));
+                }
+            }
+            return rows;
+        });
+        when(sqlService.dbWrite(anyString(), any(Object[].class))).thenAnswer(i -> {
+            try (PreparedStatement update = prepare(i.getArgument(0), i.getArgument(1))) {
+                update.executeUpdate();
+            }
+            return true;
+        });
+        when(sqlService.dbReadBinary(anyString(), any(), anyBoolean())).thenAnswer(i -> {
+            try (PreparedStatement select = prepare(i.getArgument(0), i.getArgument(1)); ResultSet result = select.executeQuery()) {
+                return result.next() ? new ByteArrayInputStream(result.getBytes(1)) : null;
+            }
+        });
+
+        root = folder.getRoot().getPath() + File.separator;
+        resource("/group/site/a.txt", "2026/a", "alpha", true);
+        resource("/group/site/b.txt", "2026/b", "bravo", false);
+        resource("/group/site/c.txt", "2026/c", "charlie", true);
+        resource("/group/site/d.txt", "2026/d", "delta", true);
+        resource("/group/site/e.txt", null, "", false);
+        // shares the body of a, as the single instance store does
+        insert("/group/site/f.txt", "2026/a", 5L, sha256("alpha"));
+        // held in the database
+        insert("/group/site/g.txt", null, 4L, sha256("golf"));
+        try (PreparedStatement insert = connection.prepareStatement("insert into CONTENT_RESOURCE_BODY_BINARY values (?, ?, ?)")) {
+            insert.setString(1, "/group/site/g.txt");
+            insert.setString(2, sha256("golf"));
+            insert.setBytes(3, "golf".getBytes(StandardCharsets.UTF_8));
+            insert.executeUpdate();
+        }
+
+        new File(root, "2026/c").delete();
+        Files.write(new File(root, "2026/d").toPath(), "delts".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        scrubbers.forEach(DbContentScrubber::stop);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("shutdown");
+        }
+        connection.close();
+    }
+
+    private PreparedStatement prepare(String statement, Object[] fields) throws SQLException {
+        PreparedStatement prepared = connection.prepareStatement(statement);
+        for (int i = 0; fields != null && i < fields.length; i++) {
+            prepared.setObject(i + 1, fields[i]);
+        }
+        return prepared;
+    }
+
+    private static String sha256(String body) throws Exception {
+        return StorageUtils.bytesToHex(MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void resource(String id, String filePath, String body, boolean withSha256) throws Exception {
+        if (filePath != null) {
+            File file = new File(root, filePath);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), body.getBytes(StandardCharsets.UTF_8));
+        }
+        insert(id, filePath, body.length(), withSha256 ? sha256(body) : null);
+    }
+
+    private void insert(String id, String filePath, long size, String sha256) throws SQLException {
+        try (PreparedStatement insert = prepare("insert into CONTENT_RESOURCE values (?, ?, ?, ?)", new Object[] {id, filePath, size, sha256})) {
+            insert.executeUpdate();
+        }
+    }
+
+    private DbContentScrubber scrubber(long bytesPerSecond) {
+        DefaultFileSystemHandler handler = new DefaultFileSystemHandler();
+        DbContentScrubber scrubber = new DbContentScrubber(sqlService, sql, "CONTENT_RESOURCE", "CONTENT_RESOURCE_BODY_BINARY",
+                handler, root, bytesPerSecond, 3, 2);
+        scrubbers.add(scrubber);
+        return scrubber;
+    }
+
+    private Map<String, String> problems() throws SQLException {
+        Map<String, String> problems = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery("select RESOURCE_ID, PROBLEM from CONTENT_BODY_PROBLEM")) {
+            while (result.next()) {
+                problems.put(result.getString(1), result.getString(2));
+            }
+        }
+        return problems;
+    }
+
+    private String storedSha256(String id) throws SQLException {
+        try (PreparedStatement select = prepare("select RESOURCE_SHA256 from CONTENT_RESOURCE where RESOURCE_ID = ?", new Object[] {id});
+                ResultSet result = select.executeQuery()) {
+            result.next();
+            return result.getString(1);
+        }
+    }
+
+    private static void pass(DbContentScrubber scrubber) throws InterruptedException {
+        while (scrubber.scrubBatch()) {
+            // next batch
+        }
+    }
+
+    @Test
+    public void testPassFindsProblemsAndFillsSha256() throws Exception {
+        DbContentScrubber scrubber = scrubber(0);
+        pass(scrubber);
+
+        Map<String, String> problems = problems();
+        Assert.assertEquals(2, problems.size());
+        Assert.assertEquals(DbContentScrubber.MISSING, problems.get("/group/site/c.txt"));
+        Assert.assertEquals(DbContentScrubber.MISMATCH, problems.get("/group/site/d.txt"));
+
+        Assert.assertEquals(sha256("bravo"), storedSha256("/group/site/b.txt"));
+        Assert.assertNull(storedSha256("/group/site/e.txt"));
+        Assert.assertEquals(7L, scrubber.getCheckedCount());
+        Assert.assertEquals(1L, scrubber.getFilledCount());
+        Assert.assertEquals(1, scrubber.getPasses());
+        Assert.assertNull(scrubber.getCursor());
+        Assert.assertEquals(2, scrubber.getProblems(10).size());
+    }
+
+    @Test
+    public void testCarriesOnFromCursorAndClearsRepairedProblems() throws Exception {
+        DbContentScrubber first = scrubber(0);
+        Assert.assertTrue(first.scrubBatch());
+        Assert.assertTrue(first.scrubBatch());
+        Assert.assertEquals("/group/site/d.txt", first.getCursor());
+
+        // a restart carries on after d
+        DbContentScrubber second = scrubber(0);
+        pass(second);
+        Assert.assertEquals(3L, second.getCheckedCount());
+        Assert.assertEquals(2, problems().size());
+
+        // repaired bodies are cleared on the next pass
+        Files.write(new File(root, "2026/d").toPath(), "delta".getBytes(StandardCharsets.UTF_8));
+        pass(second);
+        Assert.assertEquals(1, problems().size());
+        Assert.assertEquals(DbContentScrubber.MISSING, problems().get("/group/site/c.txt"));
+        Assert.assertEquals(2, second.getPasses());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFailedBatchIsTriedAgain() throws Exception {
+        // the database is away for the first two reads
+        AtomicInteger failures = new AtomicInteger(2);
+        SqlService working = sqlService;
+        sqlService = mock(SqlService.class);
+        when(sqlService.dbRead(anyString(), any(), any(SqlReader.class))).thenAnswer(i -> {
+            if (failures.getAndDecrement() > 0) throw new IllegalStateException("database away");
+            return working.dbRead((String) i.getArgument(0), (Object[]) i.getArgument(1), (SqlReader<Object>) i.getArgument(2));
+        });
+        when(sqlService.dbWrite(anyString(), any(Object[].class))).thenAnswer(i -> working.dbWrite(i.getArgument(0), (Object[]) i.getArgument(1)));
+        when(sqlService.dbReadBinary(anyString(), any(), anyBoolean()))
+                .thenAnswer(i -> working.dbReadBinary(i.getArgument(0), (Object[]) i.getArgument(1), (boolean) i.getArgument(2)));
+
+        DbContentScrubber scrubber = scrubber(0);
+        scrubber.setRetryMillis(10L);
+        scrubber.start(0L);
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (scrubber.getPasses() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(1, scrubber.getPasses());
+        Assert.assertEquals(7L, scrubber.getCheckedCount());
+        Assert.assertEquals(2, problems().size());
+    }
+
+    @Test
+    public void testThrottleSpacesReads() throws InterruptedException {
+        DbContentScrubber.Throttle throttle = new DbContentScrubber.Throttle(1000000L);
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            throttle.acquire(100000);
+        }
+        // the first read goes at once, the other three wait 100 ms each
+        Assert.assertTrue((System.nanoTime() - start) / 1000000L >= 290L);
+
+        DbContentScrubber.Throttle unlimited = new DbContentScrubber.Throttle(0L);
+        start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            unlimited.acquire(1000000);
+        }
+        Assert.assertTrue((System.nanoTime() - start) / 1000000L < 100L);
+    }
+}
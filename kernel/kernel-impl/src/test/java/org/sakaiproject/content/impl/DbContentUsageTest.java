@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlService;
+
+public class DbContentUsageTest {
+
+    private ContentServiceSql sql;
+    private SqlService sqlService;
+    private DbContentUsage usage;
+    private Map<String, List<?>> rows;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        sql = new ContentServiceSqlDefault();
+        sqlService = mock(SqlService.class);
+        rows = new HashMap<>();
+        // the rows for a statement are handed to the consumer as they would come out of the reader
+        doAnswer(invocation -> {
+            Consumer<Object> consumer = invocation.getArgument(3);
+            rows.getOrDefault(invocation.getArgument(0), Arrays.asList()).forEach(consumer);
+            return null;
+        }).when(sqlService).dbReadEach(any(String.class), any(), any(SqlReader.class), any(Consumer.class));
+        usage = new DbContentUsage(sqlService, sql, "CONTENT_RESOURCE");
+    }
+
+    @Test
+    public void testArea() {
+        Assert.assertEquals("/group/", DbContentUsage.area("/group/site/folder/file.txt"));
+        Assert.assertEquals("/group-user/", DbContentUsage.area("/group-user/site/user/"));
+        Assert.assertNull(DbContentUsage.area("/"));
+        Assert.assertNull(DbContentUsage.area(null));
+    }
+
+    @Test
+    public void testSumsOnFirstRead() {
+        rows.put(sql.getContextUsageSql("CONTENT_RESOURCE"), Arrays.asList(
+                new Object[] {"/group/site/", 10L, 2L},
+                new Object[] {"/group/site/folder/", 5L, 1L},
+                new Object[] {"/group-user/site/user/", 7L, 1L}));
+
+        Map<String, Long> sizes = usage.getSizes("site");
+
+        Assert.assertEquals(2, sizes.size());
+        Assert.assertEquals(Long.valueOf(15L), sizes.get("/group/"));
+        Assert.assertEquals(Long.valueOf(7L), sizes.get("/group-user/"));
+        verify(sqlService).dbWriteCount(eq(sql.getInsertUsageSql()), aryEq(new Object[] {"site", "/group/", 15L, 3L}), isNull(), isNull(), eq(true));
+        verify(sqlService).dbWriteCount(eq(sql.getInsertUsageSql()), aryEq(new Object[] {"site", "/group-user/", 7L, 1L}), isNull(), isNull(), eq(true));
+    }
+
+    @Test
+    public void testReadsKeptUsage() {
+        rows.put(sql.getUsageSql(), Collections.singletonList(new Object[] {"/group/", new long[] {20L, 4L}}));
+
+        Assert.assertEquals(Long.valueOf(20L), usage.getSizes("site").get("/group/"));
+        verify(sqlService, never()).dbWriteCount(eq(sql.getInsertUsageSql()), any(), any(), any(), eq(true));
+    }
+
+    @Test
+    public void testCommitted() {
+        String update = sql.getUpdateUsageSql();
+        when(sqlService.dbWriteCount(eq(update), any(), isNull(), isNull(), eq(true))).thenReturn(1);
+
+        // new
+        usage.committed("/group/site/a.txt", null, "site", 100L);
+        verify(sqlService).dbWriteCount(eq(update), aryEq(new Object[] {100L, 1, "site", "/group/"}), isNull(), isNull(), eq(true));
+
+        // changed body
+        usage.committed("/group/site/a.txt", new AbstractMap.SimpleImmutableEntry<>("site", 100L), "site", 40L);
+        verify(sqlService).dbWriteCount(eq(update), aryEq(new Object[] {-60L, 0, "site", "/group/"}), isNull(), isNull(), eq(true));
+
+        // removed
+        usage.removed("/group/site/a.txt", "site", 40L);
+        verify(sqlService).dbWriteCount(eq(update), aryEq(new Object[] {-40L, -1, "site", "/group/"}), isNull(), isNull(), eq(true));
+        verify(sqlService, never()).dbWrite(eq(sql.getDeleteUsageSql()), any(Object[].class));
+    }
+
+    @Test
+    public void testForgetsContextWithoutRow() {
+        when(sqlService.dbWriteCount(eq(sql.getUpdateUsageSql()), any(), isNull(), isNull(), eq(true))).thenReturn(0);
+
+        usage.committed("/group-user/site/user/a.txt", null, "site", 100L);
+
+        verify(sqlService).dbWrite(eq(sql.getDeleteUsageSql()), aryEq(new Object[] {"site"}));
+    }
+
+    @Test
+    public void testReconcile() {
+        rows.put(sql.getUsageContextsSql(), Arrays.asList("site", "other"));
+        rows.put(sql.getUsageSql(), Collections.singletonList(new Object[] {"/group/", new long[] {15L, 3L}}));
+        rows.put(sql.getContextUsageSql("CONTENT_RESOURCE"), Arrays.asList(
+                new Object[] {"/group/site/", 10L, 2L},
+                new Object[] {"/group/site/folder/", 5L, 1L}));
+        Assert.assertEquals(0, usage.reconcile());
+
+        rows.put(sql.getContextUsageSql("CONTENT_RESOURCE"), Collections.singletonList(new Object[] {"/group/site/", 10L, 2L}));
+        Assert.assertEquals(2, usage.reconcile());
+        verify(sqlService).dbWrite(eq(sql.getDeleteUsageSql()), aryEq(new Object[] {"site"}));
+        verify(sqlService).dbWrite(eq(sql.getDeleteUsageSql()), aryEq(new Object[] {"other"}));
+    }
+}
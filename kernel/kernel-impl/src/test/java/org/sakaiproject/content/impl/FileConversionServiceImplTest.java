@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.content.api.ContentHostingService;
+import org.sakaiproject.content.api.ContentResource;
+import org.sakaiproject.content.api.persistence.FileConversionQueueItem;
+import org.sakaiproject.content.api.persistence.FileConversionServiceRepository;
+import org.sakaiproject.content.impl.converters.StubFileConverter;
+import org.sakaiproject.entity.api.ResourcePropertiesEdit;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class FileConversionServiceImplTest {
+
+    private static final String REF = "/attachment/site1/Assignments/a.docx";
+
+    private FileConversionServiceImpl service;
+    private FileConversionServiceRepository repository;
+    private ContentHostingService contentHostingService;
+    private StubFileConverter converter;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = mock(FileConversionServiceRepository.class);
+        contentHostingService = mock(ContentHostingService.class);
+        converter = new StubFileConverter();
+
+        ContentResource source = mock(ContentResource.class);
+        when(source.streamContent()).thenAnswer(i -> new ByteArrayInputStream(new byte[100]));
+        when(contentHostingService.getResource(anyString())).thenReturn(source);
+        when(contentHostingService.newResourceProperties()).thenReturn(mock(ResourcePropertiesEdit.class));
+        ContentResource preview = mock(ContentResource.class);
+        when(preview.getId()).thenReturn("/attachment/site1/Preview/a.pdf");
+        when(contentHostingService.addAttachmentResource(eq("a.pdf"), eq("site1"), eq(ContentHostingService.PREVIEW),
+                eq(ContentHostingService.PDF_MIMETYPE), any(byte[].class), any())).thenReturn(preview);
+
+        service = new FileConversionServiceImpl();
+        service.setRepository(repository);
+        service.setContentHostingService(contentHostingService);
+        service.setSecurityService(mock(SecurityService.class));
+        service.setTransactionTemplate(new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        service.setConverter(converter);
+        service.setMaxAttemptsAllowed(1);
+        service.setLeaseMinutes(10);
+        service.setOwner("node1");
+        when(repository.deleteClaimed(anyLong(), eq("node1"))).thenReturn(true);
+        when(repository.release(anyLong(), eq("node1"), any(FileConversionQueueItem.Status.class))).thenReturn(true);
+    }
+
+    private static FileConversionQueueItem item(long id, String ref) {
+        FileConversionQueueItem item = new FileConversionQueueItem();
+        item.setId(id);
+        item.setReference(ref);
+        item.setStatus(FileConversionQueueItem.Status.IN_PROGRESS);
+        item.setAttempts(1);
+        item.setSubmitted(Instant.now().minusSeconds(5));
+        item.setLeaseOwner("node1");
+        item.setLeaseExpires(Instant.now().plusSeconds(600));
+        return item;
+    }
+
+    @Test
+    public void testConvertAddsPreview() throws Exception {
+        service.convert(item(1L, REF));
+
+        verify(contentHostingService).addProperty(REF, ContentHostingService.PREVIEW, "/attachment/site1/Preview/a.pdf");
+        verify(repository).deleteClaimed(1L, "node1");
+        Assert.assertEquals(1, converter.conversions.get());
+        Assert.assertEquals(1L, service.getConvertedCount());
+    }
+
+    @Test
+    public void testFailedConversionReleasedThenAbandoned() throws Exception {
+        converter.fail = true;
+        FileConversionQueueItem item = item(1L, REF);
+        when(repository.findById(1L)).thenReturn(Optional.of(item));
+
+        service.convert(item);
+        verify(repository).release(1L, "node1", FileConversionQueueItem.Status.NOT_STARTED);
+
+        item.setAttempts(2);
+        service.convert(item);
+        verify(repository).release(1L, "node1", FileConversionQueueItem.Status.FAILED);
+
+        verify(repository, never()).deleteClaimed(anyLong(), anyString());
+        Assert.assertEquals(2L, service.getFailedAttemptCount());
+        Assert.assertEquals(1L, service.getAbandonedCount());
+    }
+
+    @Test
+    public void testLostLeaseLeavesItemAlone() throws Exception {
+        converter.fail = true;
+        FileConversionQueueItem item = item(1L, REF);
+        item.setAttempts(2);
+        when(repository.findById(1L)).thenReturn(Optional.of(item));
+        when(repository.release(anyLong(), anyString(), any(FileConversionQueueItem.Status.class))).thenReturn(false);
+
+        service.convert(item);
+
+        Assert.assertEquals(1L, service.getFailedAttemptCount());
+        Assert.assertEquals("Another server holds the item, so it is not abandoned here", 0L, service.getAbandonedCount());
+    }
+
+    @Test
+    public void testPollSkipsItemsClaimedElsewhere() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        service.setWorkers(workers);
+        service.setFreeWorkers(new Semaphore(2));
+        service.setMaster(mock(ScheduledExecutorService.class));
+
+        FileConversionQueueItem taken = item(1L, "/attachment/site2/b.docx");
+        FileConversionQueueItem mine = item(2L, REF);
+        when(repository.findNextPerSite(any(Instant.class), anyInt()))
+                .thenReturn(Arrays.asList(taken, mine), Collections.emptyList());
+        when(repository.claim(eq(1L), eq("node1"), any(Instant.class), any(Instant.class))).thenReturn(false);
+        when(repository.claim(eq(2L), eq("node1"), any(Instant.class), any(Instant.class))).thenReturn(true);
+
+        service.poll();
+        workers.shutdown();
+        Assert.assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+
+        verify(repository).deleteClaimed(2L, "node1");
+        verify(repository, never()).deleteClaimed(eq(1L), anyString());
+        Assert.assertEquals(1, converter.conversions.get());
+        Assert.assertTrue(service.getMaxWaitMillis() >= 5000L);
+    }
+}
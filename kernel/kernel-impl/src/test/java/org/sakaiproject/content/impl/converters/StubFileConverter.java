@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl.converters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Stands in for the LibreOffice Online server, returning a small PDF naming the size of each document, or
+ * nothing once set to fail.
+ */
+public class StubFileConverter implements FileConverter {
+
+    public final AtomicInteger conversions = new AtomicInteger();
+    public volatile boolean fail;
+
+    @Override
+    public byte[] convert(InputStream source) {
+        conversions.incrementAndGet();
+        try {
+            long size = IOUtils.consume(source);
+            return fail ? null : ("%PDF-1.4\n% converted " + size + " bytes\n%%EOF\n").getBytes(StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
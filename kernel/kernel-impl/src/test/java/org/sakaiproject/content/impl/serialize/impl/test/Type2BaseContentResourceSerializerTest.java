@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl.serialize.impl.test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.sakaiproject.content.impl.serialize.impl.Type1BaseContentCollectionSerializer;
+import org.sakaiproject.content.impl.serialize.impl.Type1BaseContentResourceSerializer;
+import org.sakaiproject.content.impl.serialize.impl.Type2BaseContentResourceSerializer;
+import org.sakaiproject.content.impl.serialize.impl.conversion.Type2BlobResourcesConversionHandler;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.entity.api.serialize.EntityParseException;
+import org.sakaiproject.util.BaseResourceProperties;
+import org.sakaiproject.util.serialize.Type2BaseResourcePropertiesSerializer;
+
+public class Type2BaseContentResourceSerializerTest {
+
+    private Type2BaseContentResourceSerializer t2;
+
+    @Before
+    public void setUp() {
+        t2 = new Type2BaseContentResourceSerializer();
+        t2.setTimeService(MockTimeService.mockTimeMillisSince());
+        t2.setWriteType2(true);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        MockSerializableResourceAcccess sc = new MockSerializableResourceAcccess();
+        sc.contentType = "text/plain";
+        byte[] serialized = t2.serialize(sc);
+        Assert.assertTrue(Type2BaseContentResourceSerializer.isType2(serialized));
+        t2.parse(sc, serialized);
+        sc.check();
+
+        sc.body = new byte[] {1, 2, 3};
+        t2.parse(sc, t2.serialize(sc));
+        Assert.assertArrayEquals(sc.body, sc.set_body);
+        Assert.assertEquals(3, sc.set_contentLength);
+    }
+
+    @Test
+    public void testParsesType1() throws Exception {
+        Type1BaseContentResourceSerializer t1 = new Type1BaseContentResourceSerializer();
+        t1.setTimeService(MockTimeService.mockTimeMillisSince());
+        MockSerializableResourceAcccess sc = new MockSerializableResourceAcccess();
+        byte[] serialized = t1.serialize(sc);
+        Assert.assertFalse(Type2BaseContentResourceSerializer.isType2(serialized));
+        t2.parse(sc, serialized);
+        sc.check();
+
+        // Type1 is written unless Type2 is turned on
+        Type2BaseContentResourceSerializer unset = new Type2BaseContentResourceSerializer();
+        unset.setTimeService(MockTimeService.mockTimeMillisSince());
+        Assert.assertFalse(Type2BaseContentResourceSerializer.isType2(unset.serialize(sc)));
+    }
+
+    @Test
+    public void testConversionOnlyUpdatesTheRecordRead() throws Exception {
+        Type1BaseContentResourceSerializer t1 = new Type1BaseContentResourceSerializer();
+        t1.setTimeService(MockTimeService.mockTimeMillisSince());
+        byte[] serialized = t1.serialize(new MockSerializableResourceAcccess());
+        Type2BlobResourcesConversionHandler handler = new Type2BlobResourcesConversionHandler();
+
+        PreparedStatement update = Mockito.mock(PreparedStatement.class);
+        Assert.assertTrue(handler.convertSource("/a", serialized, update));
+        ArgumentCaptor<byte[]> converted = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(update).setBytes(Mockito.eq(1), converted.capture());
+        Assert.assertTrue(Type2BaseContentResourceSerializer.isType2(converted.getValue()));
+        Mockito.verify(update).setString(2, "/a");
+        Mockito.verify(update).setBytes(3, serialized);
+
+        handler.setCompareOnUpdate(false);
+        update = Mockito.mock(PreparedStatement.class);
+        Assert.assertTrue(handler.convertSource("/a", serialized, update));
+        Mockito.verify(update, Mockito.never()).setBytes(Mockito.eq(3), Mockito.any());
+    }
+
+    @Test
+    public void testAccept() {
+        Assert.assertTrue(t2.accept((Type1BaseContentResourceSerializer.BLOB_ID + "the rest of the  blob").getBytes()));
+        Assert.assertFalse(t2.accept((Type1BaseContentCollectionSerializer.BLOB_ID + "the rest of the  blob").getBytes()));
+        Assert.assertFalse(t2.accept(null));
+        try {
+            t2.parse(new MockSerializableResourceAcccess(), (Type1BaseContentResourceSerializer.BLOB_ID + "\0\0\0\2\5").getBytes());
+            Assert.fail("Should have refused a truncated serialization");
+        } catch (EntityParseException epe) {
+        }
+    }
+
+    @Test
+    public void testLazyProperties() throws Exception {
+        Type2BaseResourcePropertiesSerializer serializer = new Type2BaseResourcePropertiesSerializer();
+        Map<String, Object> props = new HashMap<>();
+        props.put(ResourceProperties.PROP_DISPLAY_NAME, "notes.txt");
+        props.put(ResourceProperties.PROP_CREATOR, "admin");
+        props.put(ResourceProperties.PROP_MODIFIED_BY, "admin");
+        props.put(ResourceProperties.PROP_HAS_CUSTOM_SORT, "true");
+        props.put("custom", Arrays.asList("a", "b", "a"));
+        byte[] section = serializer.serialize(props);
+        // the well known names are not written out and the value used twice is written once
+        String written = new String(section, StandardCharsets.UTF_8);
+        Assert.assertFalse(written.contains(ResourceProperties.PROP_DISPLAY_NAME));
+        Assert.assertEquals(written.indexOf("admin"), written.lastIndexOf("admin"));
+
+        BaseResourceProperties properties = new BaseResourceProperties();
+        serializer.parseLazily(properties, section, 0, section.length);
+        Assert.assertEquals("notes.txt", properties.getProperty(ResourceProperties.PROP_DISPLAY_NAME));
+        Assert.assertEquals(Arrays.asList("a", "b", "a"), properties.getPropertyList("custom"));
+        Assert.assertEquals(5, properties.size());
+
+        // a later set wins over a decoder that was never used
+        serializer.parseLazily(properties, section, 0, section.length);
+        properties.setSerializableProperties(new HashMap<>());
+        Assert.assertTrue(properties.isEmpty());
+
+        // a section that cannot be decoded fails every access rather than reading as empty
+        serializer.parseLazily(properties, new byte[] {5}, 0, 1);
+        for (int i = 0; i < 2; i++) {
+            try {
+                properties.getSerializableProperties();
+                Assert.fail("Should have refused properties that cannot be decoded");
+            } catch (IllegalStateException ise) {
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTripsAllStrings() throws Exception {
+        Type2BaseResourcePropertiesSerializer serializer = new Type2BaseResourcePropertiesSerializer();
+        Map<String, Object> props = new HashMap<>();
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 70000; i++) big.append((char) ('a' + i % 26));
+        props.put("big", big.toString());
+        props.put("unicode é中", "😀");
+        props.put("empty", "");
+        List<String> list = Arrays.asList("x", "", "é");
+        props.put("list", list);
+        byte[] section = serializer.serialize(props);
+        Assert.assertEquals(props, serializer.parse(section, 0, section.length));
+    }
+}
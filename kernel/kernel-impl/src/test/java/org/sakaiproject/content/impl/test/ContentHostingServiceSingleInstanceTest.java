@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl.test;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.sakaiproject.content.api.ContentHostingService;
+import org.sakaiproject.content.api.ContentResourceEdit;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.test.SakaiKernelTestBase;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+
+/**
+ * Test the bodies shared by copies in the file system, counted by the resources referring to their FILE_PATH.
+ */
+@Slf4j
+public class ContentHostingServiceSingleInstanceTest extends SakaiKernelTestBase {
+
+    private static final String FOLDER = "/user/admin/";
+
+    private static Path bodyPath;
+
+    private ContentHostingService ch;
+
+    @BeforeClass
+    public static void beforeClass() {
+        try {
+            // bodies in the file system and no recycle bin, so a body goes as soon as the last resource referring to it
+            // does, the single instance store being on by default
+            Properties properties = new Properties();
+            bodyPath = Files.createTempDirectory(FileSystems.getDefault().getPath(System.getProperty("java.io.tmpdir")), "files");
+            properties.put("org.sakaiproject.content.api.ContentHostingService@bodyPath", bodyPath.toString());
+            oneTimeSetup(null, null, properties);
+        } catch (Exception e) {
+            log.warn(e.getMessage(), e);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        getService(ThreadLocalManager.class).clear();
+        Session session = getService(SessionManager.class).getCurrentSession();
+        session.setUserId("admin");
+        session.setUserEid("admin");
+        ch = getService(ContentHostingService.class);
+    }
+
+    private long bodies() throws IOException {
+        try (Stream<Path> files = Files.walk(bodyPath)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private String add(String id, byte[] body) throws Exception {
+        ContentResourceEdit resource = ch.addResource(id);
+        resource.setContent(body);
+        ch.commitResource(resource);
+        return id;
+    }
+
+    @Test
+    public void testCopySharesTheBody() throws Exception {
+        long before = bodies();
+        byte[] body = ("Shared " + UUID.randomUUID()).getBytes();
+        String original = add(FOLDER + UUID.randomUUID() + ".txt", body);
+        Assert.assertEquals("The body is stored", before + 1, bodies());
+
+        String copy = ch.copy(original, FOLDER + UUID.randomUUID() + ".txt");
+        Assert.assertEquals("The copy refers to the same body", before + 1, bodies());
+        Assert.assertArrayEquals(body, ch.getResource(copy).getContent());
+
+        ch.removeResource(original);
+        Assert.assertEquals("The copy still refers to the body", before + 1, bodies());
+        Assert.assertArrayEquals(body, ch.getResource(copy).getContent());
+
+        ch.removeResource(copy);
+        Assert.assertEquals("The last reference takes the body with it", before, bodies());
+        try {
+            ch.getResource(copy);
+            Assert.fail("We shouldn't be able to find: " + copy);
+        } catch (IdUnusedException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRemovingTheCopyKeepsTheOriginal() throws Exception {
+        long before = bodies();
+        byte[] body = ("Original " + UUID.randomUUID()).getBytes();
+        String original = add(FOLDER + UUID.randomUUID() + ".txt", body);
+        String copy = ch.copy(original, FOLDER + UUID.randomUUID() + ".txt");
+
+        ch.removeResource(copy);
+        Assert.assertEquals("The original still refers to the body", before + 1, bodies());
+        Assert.assertArrayEquals(body, ch.getResource(original).getContent());
+
+        ch.removeResource(original);
+        Assert.assertEquals(before, bodies());
+    }
+
+    @Test
+    public void testUpdatingTheCopyLeavesTheSharedBody() throws Exception {
+        long before = bodies();
+        byte[] body = ("Before " + UUID.randomUUID()).getBytes();
+        String original = add(FOLDER + UUID.randomUUID() + ".txt", body);
+        String copy = ch.copy(original, FOLDER + UUID.randomUUID() + ".txt");
+
+        byte[] changed = ("After " + UUID.randomUUID()).getBytes();
+        ContentResourceEdit edit = ch.editResource(copy);
+        edit.setContent(changed);
+        ch.commitResource(edit);
+
+        Assert.assertEquals("The changed copy has a body of its own", before + 2, bodies());
+        Assert.assertArrayEquals(body, ch.getResource(original).getContent());
+        Assert.assertArrayEquals(changed, ch.getResource(copy).getContent());
+
+        ch.removeResource(original);
+        ch.removeResource(copy);
+        Assert.assertEquals(before, bodies());
+    }
+}
@@ -20,12 +20,16 @@ package org.sakaiproject.content.impl.test;
 
 import static org.junit.runners.MethodSorters.NAME_ASCENDING;
 
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.sakaiproject.content.api.ContentHostingService;
 import org.sakaiproject.content.api.FileConversionService;
+import org.sakaiproject.content.api.persistence.FileConversionQueueItem;
 import org.sakaiproject.content.api.persistence.FileConversionServiceRepository;
 import org.sakaiproject.content.impl.test.FileConversionServiceTestConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -66,4 +70,58 @@ public class FileConversionServiceTest extends AbstractTransactionalJUnit4Spring
         fileConversionService.submit(ref);
         Assert.isTrue(repository.findByReference(ref).size() == 1);
     }
+
+    private List<String> next(Instant now, int limit) {
+        return repository.findNextPerSite(now, limit).stream().map(FileConversionQueueItem::getReference).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testInteractiveFirstThenSiteTurns() {
+
+        fileConversionService.submit("/attachment/site1/a.docx", FileConversionService.PRIORITY_BULK);
+        fileConversionService.submit("/attachment/site1/b.docx", FileConversionService.PRIORITY_BULK);
+        fileConversionService.submit("/attachment/site1/c.docx", FileConversionService.PRIORITY_BULK);
+        fileConversionService.submit("/attachment/site2/d.docx", FileConversionService.PRIORITY_BULK);
+        fileConversionService.submit("/attachment/site3/e.docx");
+
+        Instant now = Instant.now();
+        Assert.isTrue(next(now, 10).equals(List.of("/attachment/site3/e.docx", "/attachment/site1/a.docx", "/attachment/site2/d.docx")),
+                "The interactive item goes first, then one from each site waiting, oldest first");
+        Assert.isTrue(next(now, 1).equals(List.of("/attachment/site3/e.docx")), "Only as many sites as asked for");
+        Assert.isTrue(repository.countWaiting(now) == 5, "All five are waiting");
+    }
+
+    @Test
+    public void testResubmitRaisesPriority() {
+
+        String ref = "/attachment/site1/a.docx";
+        fileConversionService.submit(ref, FileConversionService.PRIORITY_BULK);
+        fileConversionService.submit(ref);
+        List<FileConversionQueueItem> items = repository.findByReference(ref);
+        Assert.isTrue(items.size() == 1, "Still queued once");
+        Assert.isTrue(items.get(0).getPriority() == FileConversionService.PRIORITY_INTERACTIVE, "Moved up to interactive");
+        Assert.isTrue("site1".equals(items.get(0).getSiteId()), "Queued for its site");
+    }
+
+    @Test
+    public void testClaimedOnceUntilLeaseExpires() {
+
+        fileConversionService.submit("/attachment/site1/a.docx");
+        Long id = repository.findByReference("/attachment/site1/a.docx").get(0).getId();
+
+        Instant now = Instant.now();
+        Assert.isTrue(repository.claim(id, "node1", now, now.plusSeconds(600)), "Waiting items can be claimed");
+        Assert.isTrue(!repository.claim(id, "node2", now, now.plusSeconds(600)), "Claimed items cannot be claimed again");
+        Assert.isTrue(next(now, 10).isEmpty(), "Nothing else is waiting");
+
+        Instant later = now.plusSeconds(601);
+        Assert.isTrue(next(later, 10).size() == 1, "The item waits again once its lease expires");
+        Assert.isTrue(repository.countWaiting(later) == 1, "And is counted as waiting");
+        Assert.isTrue(repository.claim(id, "node2", later, later.plusSeconds(600)), "And can be claimed by another server");
+
+        Assert.isTrue(!repository.deleteClaimed(id, "node1"), "The server that lost the lease cannot remove the item");
+        Assert.isTrue(!repository.release(id, "node1", FileConversionQueueItem.Status.NOT_STARTED), "Nor release it");
+        Assert.isTrue(repository.deleteClaimed(id, "node2"), "The server holding the lease can");
+        Assert.isTrue(repository.findByReference("/attachment/site1/a.docx").isEmpty(), "And the item is gone");
+    }
 }
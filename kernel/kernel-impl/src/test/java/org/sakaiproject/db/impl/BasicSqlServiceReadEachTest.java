@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlReaderFinishedException;
+import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BasicSqlServiceReadEachTest {
+
+    private BasicSqlService sqlService;
+    private ThreadLocalManager threadLocalManager;
+    private Connection connection;
+    private PreparedStatement statement;
+    private ResultSet resultSet;
+
+    @Before
+    public void setUp() throws SQLException {
+        threadLocalManager = mock(ThreadLocalManager.class);
+        connection = mock(Connection.class);
+        statement = mock(PreparedStatement.class);
+        resultSet = mock(ResultSet.class);
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString(), anyInt(), anyInt())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, true, true, true, false);
+        when(resultSet.getString(1)).thenReturn("a", null, "c", "d");
+
+        sqlService = new BasicSqlService() {
+            protected UsageSessionService usageSessionService() {
+                return null;
+            }
+
+            protected ThreadLocalManager threadLocalManager() {
+                return threadLocalManager;
+            }
+        };
+        sqlService.setDefaultDataSource(dataSource);
+        sqlService.sqlServiceSql = new BasicSqlServiceSqlDefault();
+    }
+
+    @Test
+    public void testRecordsHandedOnAsRead() throws SQLException {
+        List<String> read = new ArrayList<>();
+        sqlService.dbReadEach("SELECT X FROM T", null, this::readString, read::add);
+
+        // null records are skipped
+        assertEquals(List.of("a", "c", "d"), read);
+        verify(statement).setFetchSize(1000);
+        verify(connection).close();
+        // the borrowed connection is not made the transaction connection
+        verify(threadLocalManager, never()).set(anyString(), any());
+    }
+
+    @Test
+    public void testReaderEndsRead() throws SQLException {
+        List<String> read = new ArrayList<>();
+        SqlReader<String> reader = result -> {
+            String s = readString(result);
+            if ("c".equals(s)) throw new SqlReaderFinishedException();
+            return s;
+        };
+        sqlService.dbReadEach(null, "SELECT X FROM T", null, 50, reader, read::add);
+
+        assertEquals(List.of("a"), read);
+        verify(statement).setFetchSize(50);
+        verify(resultSet).close();
+        verify(connection).close();
+    }
+
+    @Test
+    public void testMySqlConnectorStreams() throws SQLException {
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        when(metaData.getDriverName()).thenReturn("MySQL Connector/J");
+        when(metaData.getURL()).thenReturn("jdbc:mysql://localhost:3306/sakai");
+        when(connection.getMetaData()).thenReturn(metaData);
+        sqlService.sqlServiceSql = new BasicSqlServiceSqlMySql();
+
+        sqlService.dbReadEach("SELECT X FROM T", null, this::readString, x -> {});
+        verify(statement).setFetchSize(Integer.MIN_VALUE);
+
+        // a connection the caller shares keeps the plain fetch size
+        sqlService.dbReadEach(connection, "SELECT X FROM T", null, 50, this::readString, x -> {});
+        verify(statement).setFetchSize(50);
+
+        // with cursor fetch on the url the fetch size is honoured
+        when(metaData.getURL()).thenReturn("jdbc:mysql://localhost:3306/sakai?useCursorFetch=true");
+        sqlService.dbReadEach("SELECT X FROM T", null, this::readString, x -> {});
+        verify(statement).setFetchSize(1000);
+    }
+
+    private String readString(ResultSet result) {
+        try {
+            return result.getString(1);
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+}
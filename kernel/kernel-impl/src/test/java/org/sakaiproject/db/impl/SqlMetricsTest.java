@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SqlMetricsTest {
+
+    private SqlMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new SqlMetrics();
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("SELECT A FROM T WHERE ID = ? AND NAME = ?",
+                SqlMetrics.normalize("SELECT A FROM T\n\t WHERE ID = 42 AND NAME = 'it''s'  "));
+        assertEquals("SELECT A FROM T WHERE ID IN (?...)", SqlMetrics.normalize("SELECT A FROM T WHERE ID IN (?, ?,?)"));
+        assertEquals("SELECT A FROM T WHERE ID IN (?...)", SqlMetrics.normalize("SELECT A FROM T WHERE ID IN (1, 2)"));
+        assertEquals("SELECT COL1 FROM SAKAI_T2 WHERE X = ?", SqlMetrics.normalize("SELECT COL1 FROM SAKAI_T2 WHERE X = ?"));
+    }
+
+    @Test
+    public void testStatementsShareTemplate() {
+        metrics.record("SELECT A FROM T WHERE ID IN (?,?)", new Object[] {"a", "b"}, TimeUnit.MILLISECONDS.toNanos(3), 2);
+        metrics.record("SELECT A FROM T WHERE ID IN (?,?,?)", new Object[] {"a", "b", "c"}, TimeUnit.MILLISECONDS.toNanos(5), 3);
+        metrics.record("DELETE FROM T", null, 0, 7);
+
+        assertEquals(2, metrics.getTemplateCount());
+        assertEquals(3, metrics.getStatementCount());
+        List<SqlMetrics.Stats> top = metrics.getTopStatements(1);
+        assertEquals(1, top.size());
+        SqlMetrics.Stats stats = top.get(0);
+        assertEquals("SELECT A FROM T WHERE ID IN (?...)", stats.getTemplate());
+        assertEquals(2, stats.getCount());
+        assertEquals(5, stats.getRows());
+        assertEquals(5, TimeUnit.NANOSECONDS.toMillis(stats.getMaxNanos()));
+        assertEquals(8, stats.getPercentileMillis(0.99));
+        // the caller is the first frame outside the db service, which is junit as this test is in the db package
+        assertFalse(stats.getCaller().startsWith("org.sakaiproject.db."));
+    }
+
+    @Test
+    public void testSlowAndOverflow() {
+        metrics.setSlowQueryMillis(10);
+        metrics.setMaxTemplates(2);
+        metrics.record("SELECT A FROM T1", null, TimeUnit.MILLISECONDS.toNanos(20), 0);
+        metrics.record("SELECT A FROM T2", null, TimeUnit.MILLISECONDS.toNanos(1), 0);
+        metrics.record("SELECT A FROM T3", null, TimeUnit.MILLISECONDS.toNanos(1), 0);
+        metrics.record("SELECT A FROM T4", null, TimeUnit.MILLISECONDS.toNanos(1), 0);
+
+        assertEquals(1, metrics.getSlowCount());
+        assertEquals(3, metrics.getTemplateCount());
+        assertTrue(metrics.getTopStatements(10).stream().anyMatch(s -> SqlMetrics.OTHER_TEMPLATE.equals(s.getTemplate()) && s.getCount() == 2));
+
+        metrics.reset();
+        assertEquals(0, metrics.getSlowCount());
+        assertEquals(0, metrics.getStatementCount());
+    }
+
+    @Test
+    public void testSlowSqlLoggedAsTemplate() {
+        String sql = "SELECT A FROM T WHERE ID IN ('alice','bob') AND KEY = 'secret'";
+        assertEquals("SELECT A FROM T WHERE ID IN (?...) AND KEY = ?", metrics.loggedSql(sql, SqlMetrics.normalize(sql)));
+        metrics.setRedact(false);
+        assertEquals(sql, metrics.loggedSql(sql, SqlMetrics.normalize(sql)));
+    }
+
+    @Test
+    public void testBatchesAreTimed() throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+        BasicSqlService sqlService = new BasicSqlService() {
+            protected UsageSessionService usageSessionService() {
+                return null;
+            }
+
+            protected ThreadLocalManager threadLocalManager() {
+                return null;
+            }
+        };
+
+        sqlService.dbWriteBatch(connection, "INSERT INTO T VALUES (?, ?)", List.of(new Object[] {"a", 1}, new Object[] {"b", 2}));
+
+        SqlMetrics.Stats stats = sqlService.getMetrics().getTopStatements(1).get(0);
+        assertEquals("INSERT INTO T VALUES (?...)", stats.getTemplate());
+        assertEquals(1, stats.getCount());
+        assertEquals(2, stats.getRows());
+    }
+
+    @Test
+    public void testRedactFields() {
+        assertEquals("[String(5), null, Long, byte[3]]", SqlMetrics.redactFields(new Object[] {"hello", null, 3L, new byte[3]}));
+        assertEquals("[]", SqlMetrics.redactFields(null));
+    }
+}
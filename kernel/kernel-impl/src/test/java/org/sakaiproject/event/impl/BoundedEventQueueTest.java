@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.sakaiproject.event.api.Event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class BoundedEventQueueTest {
+
+    @Test
+    public void testDrainKeepsPostOrder() {
+        BoundedEventQueue queue = new BoundedEventQueue(10, BoundedEventQueue.OverflowPolicy.DROP, 0);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Event event = mock(Event.class);
+            events.add(event);
+            assertTrue(queue.offer(event));
+        }
+
+        List<Event> first = queue.drain(3);
+        List<Event> rest = queue.drain(10);
+
+        assertEquals(3, first.size());
+        assertEquals(2, rest.size());
+        assertSame(events.get(0), first.get(0));
+        assertSame(events.get(4), rest.get(1));
+        assertEquals(0, queue.size());
+        assertTrue(queue.drain(10).isEmpty());
+    }
+
+    @Test
+    public void testDropPolicy() {
+        BoundedEventQueue queue = new BoundedEventQueue(2, BoundedEventQueue.OverflowPolicy.DROP, 0);
+
+        assertTrue(queue.offer(mock(Event.class)));
+        assertTrue(queue.offer(mock(Event.class)));
+        assertFalse(queue.offer(mock(Event.class)));
+
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(0, queue.getBlockedCount());
+    }
+
+    @Test
+    public void testBlockPolicyTimesOut() {
+        BoundedEventQueue queue = new BoundedEventQueue(1, BoundedEventQueue.OverflowPolicy.BLOCK, 20);
+
+        assertTrue(queue.offer(mock(Event.class)));
+        assertFalse(queue.offer(mock(Event.class)));
+
+        assertEquals(1, queue.getBlockedCount());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testBlockPolicyWaitsForRoom() throws Exception {
+        BoundedEventQueue queue = new BoundedEventQueue(1, BoundedEventQueue.OverflowPolicy.BLOCK, 10000);
+        assertTrue(queue.offer(mock(Event.class)));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                Thread.sleep(50);
+                return queue.drain(1);
+            });
+            assertTrue(queue.offer(mock(Event.class)));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getBlockedCount());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testConcurrentPostsRespectCapacity() throws Exception {
+        int threads = 8;
+        int perThread = 1000;
+        BoundedEventQueue queue = new BoundedEventQueue(5000, BoundedEventQueue.OverflowPolicy.DROP, 0);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Event event = mock(Event.class);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    queue.offer(event);
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(5000, queue.size());
+        assertEquals(threads * perThread - 5000, queue.getDroppedCount());
+        assertEquals(5000, queue.drain(Integer.MAX_VALUE).size());
+    }
+}
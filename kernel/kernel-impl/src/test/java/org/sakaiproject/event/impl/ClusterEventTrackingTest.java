@@ -0,0 +1,438 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observer;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCluster;
+import org.apache.ignite.IgniteMessaging;
+import org.apache.ignite.cluster.ClusterGroup;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.NotificationService;
+import org.sakaiproject.event.api.SimpleEvent;
+import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.time.api.TimeService;
+import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.tool.api.ToolManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClusterEventTrackingTest {
+
+    private static final String EVENTS_CACHE = "org.sakaiproject.event.impl.ClusterEventTracking.eventsCache";
+    private static final String EVENT_LAST_CACHE = "org.sakaiproject.event.impl.ClusterEventTracking.eventLastCache";
+
+    @Rule
+    public MockitoRule mockito = MockitoJUnit.rule();
+
+    @Mock private SqlService sqlService;
+    @Mock private ServerConfigurationService serverConfigurationService;
+    @Mock private MemoryService memoryService;
+    @Mock private SessionManager sessionManager;
+    @Mock private ToolManager toolManager;
+    @Mock private EntityManager entityManager;
+    @Mock private Connection connection;
+    @Mock private Cache eventCache;
+    @Mock private Cache eventLastCache;
+    @Mock private Ignite ignite;
+    @Mock private IgniteCluster igniteCluster;
+    @Mock private ClusterGroup remotes;
+    @Mock private IgniteMessaging messaging;
+    @Mock private Observer observer;
+
+    private ClusterEventTracking eventTracking;
+
+    @Before
+    public void setUp() throws Exception {
+        eventTracking = new ClusterEventTrackingConcrete();
+        eventTracking.setCheckDb("false");
+        eventTracking.setBatchWrite("true");
+        // the tests flush the queue themselves
+        eventTracking.setWritePeriod("600000");
+
+        Map<String, ClusterEventTrackingServiceSql> databaseBeans = new HashMap<>();
+        databaseBeans.put("default", new ClusterEventTrackingServiceSqlDefault());
+        databaseBeans.put("hsqldb", new ClusterEventTrackingServiceSqlHSql());
+        databaseBeans.put("mysql", new ClusterEventTrackingServiceSqlMySql());
+        databaseBeans.put("oracle", new ClusterEventTrackingServiceSqlOracle());
+        eventTracking.setDatabaseBeans(databaseBeans);
+
+        when(sqlService.borrowConnection()).thenReturn(connection);
+        when(serverConfigurationService.getServerId()).thenReturn("server1");
+        when(serverConfigurationService.getServerIdInstance()).thenReturn("server1-1");
+        when(serverConfigurationService.getString(anyString(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(serverConfigurationService.getBoolean(anyString(), anyBoolean())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(serverConfigurationService.getBoolean(eq("events.size.check"), anyBoolean())).thenReturn(false);
+        when(memoryService.newCache(EVENTS_CACHE)).thenReturn(eventCache);
+        when(memoryService.newCache(EVENT_LAST_CACHE)).thenReturn(eventLastCache);
+        when(ignite.cluster()).thenReturn(igniteCluster);
+        when(igniteCluster.forRemotes()).thenReturn(remotes);
+        when(ignite.message(remotes)).thenReturn(messaging);
+    }
+
+    private void enableCaching() {
+        when(serverConfigurationService.getBoolean(eq("memory.cluster.enabled"), anyBoolean())).thenReturn(true);
+        when(serverConfigurationService.getStrings("memory.cluster.names")).thenReturn(new String[] {EVENTS_CACHE, EVENT_LAST_CACHE});
+    }
+
+    private List<Event> newEvents(int count) {
+        Event[] events = new Event[count];
+        for (int i = 0; i < count; i++) {
+            BaseEventTrackingService.BaseEvent event = (BaseEventTrackingService.BaseEvent)
+                    eventTracking.newEvent("test.event", "/site/test/" + i, "test", true, NotificationService.NOTI_NONE);
+            event.time = new Date();
+            events[i] = event;
+        }
+        return Arrays.asList(events);
+    }
+
+    @Test
+    public void testBatchInsertWithSequence() {
+        enableCaching();
+        when(sqlService.getVendor()).thenReturn("hsqldb");
+        when(sqlService.dbRead(eq(connection), anyString(), isNull(), ArgumentMatchers.<SqlReader<Long>>any())).thenReturn(Arrays.asList(101L, 102L, 103L));
+        when(sqlService.dbWriteBatch(eq(connection), anyString(), anyList())).thenReturn(true);
+        eventTracking.init();
+
+        eventTracking.writeBatchEvents(newEvents(3));
+
+        ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+        verify(sqlService).dbWriteBatch(eq(connection), eq(new ClusterEventTrackingServiceSqlHSql().getInsertEventWithIdSql()), batch.capture());
+        assertEquals(3, batch.getValue().size());
+        assertEquals(101L, ((Object[]) batch.getValue().get(0))[0]);
+        assertEquals(103L, ((Object[]) batch.getValue().get(2))[0]);
+        verify(sqlService, never()).dbInsert(any(), anyString(), any(), anyString());
+
+        ArgumentCaptor<Map> cached = ArgumentCaptor.forClass(Map.class);
+        verify(eventCache).putAll(cached.capture());
+        assertEquals(3, cached.getValue().size());
+        assertEquals("/site/test/1", ((Event) cached.getValue().get("102")).getResource());
+        verify(eventCache, never()).put(any(), any());
+        verify(eventLastCache).put("lastEventId", 103L);
+    }
+
+    @Test
+    public void testUnknownVendorUsesGeneratedKeys() {
+        enableCaching();
+        when(sqlService.getVendor()).thenReturn("postgres");
+        when(sqlService.dbInsertBatch(eq(connection), anyString(), anyList(), eq("EVENT_ID"))).thenReturn(Arrays.asList(5L, 6L));
+        eventTracking.init();
+
+        eventTracking.writeBatchEvents(newEvents(2));
+
+        // no block of ids is allocated with vendor specific sql
+        verify(sqlService, never()).dbRead(eq(connection), anyString(), isNull(), ArgumentMatchers.<SqlReader<Long>>any());
+        verify(sqlService).dbInsertBatch(eq(connection), eq(new ClusterEventTrackingServiceSqlDefault().getInsertEventSql()), anyList(), eq("EVENT_ID"));
+        verify(eventLastCache).put("lastEventId", 6L);
+    }
+
+    @Test
+    public void testBatchInsertWithGeneratedKeys() {
+        enableCaching();
+        when(sqlService.getVendor()).thenReturn("mysql");
+        when(sqlService.dbInsertBatch(eq(connection), anyString(), anyList(), eq("EVENT_ID"))).thenReturn(Arrays.asList(7L, 8L));
+        eventTracking.init();
+
+        eventTracking.writeBatchEvents(newEvents(2));
+
+        verify(sqlService).dbInsertBatch(eq(connection), eq(new ClusterEventTrackingServiceSqlMySql().getInsertEventSql()), anyList(), eq("EVENT_ID"));
+        verify(sqlService, never()).dbInsert(any(), anyString(), any(), anyString());
+
+        ArgumentCaptor<Map> cached = ArgumentCaptor.forClass(Map.class);
+        verify(eventCache).putAll(cached.capture());
+        assertEquals(2, cached.getValue().size());
+        verify(eventLastCache).put("lastEventId", 8L);
+    }
+
+    @Test
+    public void testBatchInsertMissingKeysSkipsCache() {
+        enableCaching();
+        when(sqlService.getVendor()).thenReturn("mysql");
+        when(sqlService.dbInsertBatch(eq(connection), anyString(), anyList(), eq("EVENT_ID"))).thenReturn(Arrays.asList(7L));
+        eventTracking.init();
+
+        eventTracking.writeBatchEvents(newEvents(2));
+
+        verify(eventCache, never()).putAll(any());
+        verify(eventLastCache, never()).put(any(), any());
+    }
+
+    @Test
+    public void testLegacyIndividualInserts() {
+        enableCaching();
+        eventTracking.setBatchInsert("false");
+        when(sqlService.getVendor()).thenReturn("mysql");
+        when(sqlService.dbInsert(eq(connection), anyString(), any(), eq("EVENT_ID"))).thenReturn(1L, 2L, 3L);
+        eventTracking.init();
+
+        eventTracking.writeBatchEvents(newEvents(3));
+
+        verify(sqlService, times(3)).dbInsert(eq(connection), anyString(), any(), eq("EVENT_ID"));
+        verify(sqlService, never()).dbInsertBatch(any(), anyString(), anyList(), anyString());
+        verify(eventCache, times(3)).put(anyString(), any());
+        verify(eventLastCache).put("lastEventId", 3L);
+    }
+
+    @Test
+    public void testNoCachingWritesBatch() {
+        when(sqlService.getVendor()).thenReturn("mysql");
+        when(sqlService.dbWriteBatch(eq(connection), anyString(), anyList())).thenReturn(true);
+        eventTracking.init();
+
+        eventTracking.writeBatchEvents(newEvents(4));
+
+        ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+        verify(sqlService).dbWriteBatch(eq(connection), eq(new ClusterEventTrackingServiceSqlMySql().getInsertEventSql()), batch.capture());
+        assertEquals(4, batch.getValue().size());
+        verify(sqlService, never()).dbInsert(any(), anyString(), any(), anyString());
+        verify(sqlService, never()).dbInsertBatch(any(), anyString(), anyList(), anyString());
+    }
+
+    @Test
+    public void testPostedEventsAreFlushedInBatches() {
+        when(sqlService.getVendor()).thenReturn("mysql");
+        when(sqlService.dbWriteBatch(eq(connection), anyString(), anyList())).thenReturn(true);
+        eventTracking.setWriteBatchSize("2");
+        eventTracking.init();
+
+        for (Event event : newEvents(5)) {
+            eventTracking.postEvent(event);
+        }
+        assertEquals(5, eventTracking.getEventQueueSize());
+
+        eventTracking.flushEvents();
+
+        ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+        verify(sqlService, times(3)).dbWriteBatch(eq(connection), anyString(), batch.capture());
+        assertEquals(2, batch.getAllValues().get(0).size());
+        assertEquals(1, batch.getAllValues().get(2).size());
+        assertEquals(0, eventTracking.getEventQueueSize());
+        assertEquals(3, eventTracking.getFlushCount());
+        assertEquals(5, eventTracking.getFlushedEventCount());
+    }
+
+    @Test
+    public void testFullQueueDropsEvents() {
+        when(sqlService.getVendor()).thenReturn("mysql");
+        eventTracking.setQueueCapacity("3");
+        eventTracking.setOverflowPolicy("drop");
+        eventTracking.init();
+
+        for (Event event : newEvents(5)) {
+            eventTracking.postEvent(event);
+        }
+
+        assertEquals(3, eventTracking.getEventQueueSize());
+        assertEquals(2, eventTracking.getDroppedEventCount());
+        // only the first drop is reported until the interval passes
+        assertEquals(1, eventTracking.m_dropReportCount.get());
+    }
+
+    @Test
+    public void testCachedEventsReadInBlocks() {
+        enableCaching();
+        eventTracking.setCheckDb("true");
+        when(sqlService.getVendor()).thenReturn("mysql");
+        eventTracking.init();
+        eventTracking.addObserver(observer);
+
+        // 1200 new events in the cache, only 3 of them still there
+        when(eventLastCache.get("lastEventId")).thenReturn(1200L);
+        Map<String, Object> cached = new HashMap<>();
+        for (String id : new String[] {"1", "600", "1200"}) {
+            cached.put(id, new SimpleEvent(newEvents(1).get(0), "server2-1"));
+        }
+        when(eventCache.getAll(any())).thenAnswer(invocation -> {
+            Map<String, Object> found = new HashMap<>();
+            for (Object key : (Set<?>) invocation.getArgument(0)) {
+                if (cached.containsKey(key)) found.put((String) key, cached.get(key));
+            }
+            return found;
+        });
+
+        eventTracking.run();
+
+        ArgumentCaptor<Set> keys = ArgumentCaptor.forClass(Set.class);
+        verify(eventCache, times(3)).getAll(keys.capture());
+        assertEquals(500, keys.getAllValues().get(0).size());
+        assertEquals(200, keys.getAllValues().get(2).size());
+        assertTrue(keys.getAllValues().get(2).contains("1200"));
+        verify(eventCache, never()).get(any());
+        verify(observer, times(3)).update(any(), any());
+    }
+
+    @Test
+    public void testPushPublishesWrittenEvents() {
+        eventTracking.setPropagation("push");
+        when(sqlService.getVendor()).thenReturn("mysql");
+        when(sqlService.dbInsertBatch(eq(connection), anyString(), anyList(), eq("EVENT_ID"))).thenReturn(Arrays.asList(7L, 8L), Arrays.asList(9L));
+        eventTracking.init();
+
+        eventTracking.writeBatchEvents(newEvents(2));
+        eventTracking.writeBatchEvents(newEvents(1));
+
+        ArgumentCaptor<ClusterEventMessage> sent = ArgumentCaptor.forClass(ClusterEventMessage.class);
+        verify(messaging, times(2)).sendOrdered(eq(ClusterEventTracking.EVENT_TOPIC), sent.capture(), anyLong());
+        ClusterEventMessage first = sent.getAllValues().get(0);
+        assertEquals(1, first.getSequence());
+        assertEquals(2, first.getEvents().size());
+        assertEquals(7L, first.getEvents().get(0).getSeq());
+        assertEquals("/site/test/1", first.getEvents().get(1).getResource());
+        assertEquals(2, sent.getAllValues().get(1).getSequence());
+        // without cluster caching nothing goes to the event cache
+        verify(eventCache, never()).putAll(any());
+    }
+
+    @Test
+    public void testPollDoesNotPublish() {
+        when(sqlService.getVendor()).thenReturn("mysql");
+        when(sqlService.dbWriteBatch(eq(connection), anyString(), anyList())).thenReturn(true);
+        eventTracking.init();
+
+        eventTracking.writeBatchEvents(newEvents(2));
+
+        verify(ignite, never()).message(any());
+        verify(sqlService, never()).dbInsertBatch(any(), anyString(), anyList(), anyString());
+    }
+
+    @Test
+    public void testPushReceiveCatchesUpOnGap() {
+        eventTracking.setPropagation("push");
+        eventTracking.setCheckDb("true");
+        when(sqlService.getVendor()).thenReturn("mysql");
+        String eventSql = new ClusterEventTrackingServiceSqlMySql().getEventSql();
+        List<Event> stored = newEvents(2);
+        ((BaseEventTrackingService.BaseEvent) stored.get(0)).seq = 4;
+        ((BaseEventTrackingService.BaseEvent) stored.get(1)).seq = 5;
+        when(sqlService.dbRead(eq(eventSql), any(Object[].class), any())).thenReturn((List) stored);
+        eventTracking.init();
+        eventTracking.addObserver(observer);
+        verify(messaging).localListen(eq(ClusterEventTracking.EVENT_TOPIC), any());
+
+        UUID node = UUID.randomUUID();
+        eventTracking.receiveEvents(node, pushed(1, 1));
+        eventTracking.receiveEvents(node, pushed(2, 2));
+        assertEquals(0, eventTracking.getMessageGapCount());
+        verify(sqlService, never()).dbRead(eq(eventSql), any(Object[].class), any());
+
+        // message 3 was missed, so 4 catches up from the db, which also holds the event pushed in message 4
+        eventTracking.receiveEvents(node, pushed(4, 5));
+        assertEquals(1, eventTracking.getMessageGapCount());
+        assertEquals(3, eventTracking.getReceivedMessageCount());
+        verify(sqlService).dbRead(eq(eventSql), any(Object[].class), any());
+        verify(observer, times(4)).update(any(), any());
+
+        // a repeated push is not delivered twice
+        eventTracking.receiveEvents(node, pushed(5, 5));
+        verify(observer, times(4)).update(any(), any());
+    }
+
+    private ClusterEventMessage pushed(long sequence, long eventId) {
+        SimpleEvent event = new SimpleEvent(newEvents(1).get(0), "server2-1");
+        event.setSeq(eventId);
+        return new ClusterEventMessage(sequence, Arrays.asList(event));
+    }
+
+    private class ClusterEventTrackingConcrete extends ClusterEventTracking {
+
+        @Override
+        protected SqlService sqlService() {
+            return sqlService;
+        }
+
+        @Override
+        protected ServerConfigurationService serverConfigurationService() {
+            return serverConfigurationService;
+        }
+
+        @Override
+        protected MemoryService memoryService() {
+            return memoryService;
+        }
+
+        @Override
+        protected Ignite ignite() {
+            return ignite;
+        }
+
+        @Override
+        protected UsageSessionService usageSessionService() {
+            return mock(UsageSessionService.class);
+        }
+
+        @Override
+        protected SessionManager sessionManager() {
+            return sessionManager;
+        }
+
+        @Override
+        protected SecurityService securityService() {
+            return mock(SecurityService.class);
+        }
+
+        @Override
+        protected ToolManager toolManager() {
+            return toolManager;
+        }
+
+        @Override
+        protected EntityManager entityManager() {
+            return entityManager;
+        }
+
+        @Override
+        protected TimeService timeService() {
+            return mock(TimeService.class);
+        }
+    }
+}
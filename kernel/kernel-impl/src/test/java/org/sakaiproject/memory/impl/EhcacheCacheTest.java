@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.memory.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EhcacheCacheTest {
+
+    private CacheManager cacheManager;
+    private EhcacheCache<String, String> cache;
+
+    @Before
+    public void setUp() {
+        cacheManager = new CacheManager(new Configuration().name("EhcacheCacheTest"));
+        Cache ehcache = new Cache("test", 100, false, true, 0, 0);
+        cacheManager.addCache(ehcache);
+        cache = new EhcacheCache<>(ehcache);
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testGetAllSkipsMissingKeys() {
+        Map<String, String> values = new HashMap<>();
+        values.put("1", "one");
+        values.put("3", "three");
+        cache.putAll(values);
+
+        Map<String, String> found = cache.getAll(new HashSet<>(Arrays.asList("1", "2", "3")));
+
+        assertEquals(2, found.size());
+        assertEquals("one", found.get("1"));
+        assertEquals("three", found.get("3"));
+        assertFalse(found.containsKey("2"));
+    }
+
+    @Test
+    public void testGetAllNoKeys() {
+        assertTrue(cache.getAll(new HashSet<>()).isEmpty());
+    }
+}
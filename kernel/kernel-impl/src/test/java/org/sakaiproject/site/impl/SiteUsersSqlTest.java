@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.site.impl;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SiteUsersSqlTest {
+
+    private final SiteServiceSql sql = new SiteServiceSqlHSql();
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:siteusers", "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table SAKAI_SITE (SITE_ID varchar(99), TITLE varchar(99), TYPE varchar(99), PUBLISHED int,"
+                    + " IS_USER char(1), IS_SPECIAL char(1), IS_SOFTLY_DELETED char(1))");
+            statement.execute("create table SAKAI_SITE_PROPERTY (SITE_ID varchar(99), NAME varchar(99), VALUE varchar(255))");
+            statement.execute("create table SAKAI_SITE_USER (SITE_ID varchar(99), USER_ID varchar(99), PERMISSION int)");
+            for (String site : new String[] {"c", "a", "d", "b"}) {
+                // c is unpublished, d softly deleted
+                statement.execute("insert into SAKAI_SITE values ('" + site + "', 'Site " + site + "', 'course', " + ("c".equals(site) ? 0 : 1)
+                        + ", '0', '0', '" + ("d".equals(site) ? 1 : 0) + "')");
+                statement.execute("insert into SAKAI_SITE_USER values ('" + site + "', 'maintain', -1)");
+                statement.execute("insert into SAKAI_SITE_USER values ('" + site + "', 'student', 1)");
+                statement.execute("insert into SAKAI_SITE_USER values ('" + site + "', 'ta', 0)");
+            }
+            statement.execute("insert into SAKAI_SITE_PROPERTY values ('a', 'term', 'fall')");
+            statement.execute("insert into SAKAI_SITE values ('~ta', 'My Workspace', null, 1, '1', '0', '0')");
+            statement.execute("insert into SAKAI_SITE_USER values ('~ta', 'ta', -1)");
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("shutdown");
+        }
+        connection.close();
+    }
+
+    /** Read the first two columns of each row, joined with a colon. */
+    private List<String> read(String statement, Object... fields) throws SQLException {
+        List<String> rv = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(statement)) {
+            for (int i = 0; i < fields.length; i++) {
+                select.setObject(i + 1, fields[i]);
+            }
+            try (ResultSet result = select.executeQuery()) {
+                while (result.next()) {
+                    rv.add(result.getMetaData().getColumnCount() > 1 ? result.getString(1) + ":" + result.getString(2) : result.getString(1));
+                }
+            }
+        }
+        return rv;
+    }
+
+    @Test
+    public void testReadsOnlyTheGivenUsers() throws SQLException {
+        // the bucket padded with nulls as DbSiteService fills it
+        List<String> rows = read(sql.getSiteUsersPermissionSql(4), "b", "student", "ta", null, null);
+        rows.sort(null);
+        Assert.assertEquals(List.of("student:1", "ta:0"), rows);
+        Assert.assertTrue(read(sql.getSiteUsersPermissionSql(1), "b", "nobody").isEmpty());
+    }
+
+    @Test
+    public void testUpdatesOneUsersPermission() throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement(sql.getUpdateUserPermissionSql())) {
+            update.setInt(1, -1);
+            update.setString(2, "a");
+            update.setString(3, "ta");
+            Assert.assertEquals(1, update.executeUpdate());
+        }
+        Assert.assertEquals(List.of("ta:-1"), read(sql.getSiteUsersPermissionSql(1), "a", "ta"));
+        Assert.assertEquals(List.of("ta:0"), read(sql.getSiteUsersPermissionSql(1), "b", "ta"));
+    }
+
+    @Test
+    public void testReadsUserSiteMemberships() throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(sql.getUserSiteMembershipsSql())) {
+            select.setString(1, "term");
+            select.setString(2, "ta");
+            try (ResultSet result = select.executeQuery()) {
+                while (result.next()) {
+                    rows.add(result.getString(1) + ":" + result.getInt(4) + ":" + result.getInt(5) + ":" + result.getString(6));
+                }
+            }
+        }
+        rows.sort(null);
+        // no user site and no softly deleted site
+        Assert.assertEquals(List.of("a:1:0:fall", "b:1:0:null", "c:0:0:null"), rows);
+    }
+
+    @Test
+    public void testWalksSitesInIdOrder() throws SQLException {
+        Assert.assertEquals(List.of("a", "b"), read(sql.getSiteIdsAfterSql(false, 2)));
+        Assert.assertEquals(List.of("c", "d"), read(sql.getSiteIdsAfterSql(true, 2), "b"));
+        Assert.assertEquals(List.of("~ta"), read(sql.getSiteIdsAfterSql(true, 2), "d"));
+        Assert.assertTrue(read(sql.getSiteIdsAfterSql(true, 2), "~ta").isEmpty());
+        Assert.assertEquals("select SITE_ID from SAKAI_SITE order by SITE_ID fetch first 2 rows only",
+                new SiteServiceSqlOracle().getSiteIdsAfterSql(false, 2));
+    }
+}
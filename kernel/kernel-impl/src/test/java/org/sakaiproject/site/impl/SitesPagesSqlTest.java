@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.site.impl;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SitesPagesSqlTest {
+
+    private final SiteServiceSql sql = new SiteServiceSqlHSql();
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:sitespages", "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table SAKAI_SITE_PROPERTY (SITE_ID varchar(99), NAME varchar(99), VALUE varchar(255))");
+            statement.execute("create table SAKAI_SITE_PAGE (PAGE_ID varchar(99), SITE_ID varchar(99), TITLE varchar(99), LAYOUT char(1), SITE_ORDER int, POPUP char(1))");
+            statement.execute("create table SAKAI_SITE_PAGE_PROPERTY (SITE_ID varchar(99), PAGE_ID varchar(99), NAME varchar(99), VALUE varchar(255))");
+            statement.execute("create table SAKAI_SITE_TOOL (TOOL_ID varchar(99), PAGE_ID varchar(99), SITE_ID varchar(99), REGISTRATION varchar(99),"
+                    + " PAGE_ORDER int, TITLE varchar(99), LAYOUT_HINTS varchar(99))");
+            statement.execute("create table SAKAI_SITE_TOOL_PROPERTY (SITE_ID varchar(99), TOOL_ID varchar(99), NAME varchar(99), VALUE varchar(255))");
+
+            for (String site : new String[] {"a", "b", "c"}) {
+                statement.execute("insert into SAKAI_SITE_PROPERTY values ('" + site + "', 'term', 'fall')");
+                // pages in reverse of their order
+                for (int p = 2; p >= 1; p--) {
+                    String page = site + "-page" + p;
+                    statement.execute("insert into SAKAI_SITE_PAGE values ('" + page + "', '" + site + "', 'Page " + p + "', '0', " + p + ", '0')");
+                    statement.execute("insert into SAKAI_SITE_PAGE_PROPERTY values ('" + site + "', '" + page + "', 'sitePage.customTitle', 'true')");
+                    for (int t = 2; t >= 1; t--) {
+                        String tool = page + "-tool" + t;
+                        statement.execute("insert into SAKAI_SITE_TOOL values ('" + tool + "', '" + page + "', '" + site + "', 'sakai.tool', " + t + ", 'Tool', null)");
+                        statement.execute("insert into SAKAI_SITE_TOOL_PROPERTY values ('" + site + "', '" + tool + "', 'key', 'value')");
+                    }
+                }
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("shutdown");
+        }
+        connection.close();
+    }
+
+    /** Read the first column of each row, the bucket padded with nulls as DbSiteService fills it. */
+    private List<String> read(String statement, String... siteIds) throws SQLException {
+        List<String> rv = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(statement)) {
+            for (int i = 0; i < 10; i++) {
+                select.setString(i + 1, i < siteIds.length ? siteIds[i] : null);
+            }
+            try (ResultSet result = select.executeQuery()) {
+                while (result.next()) {
+                    rv.add(result.getString(1) + (statement.contains("SAKAI_SITE_PAGE where") ? "/" + result.getString(2) : ""));
+                }
+            }
+        }
+        return rv;
+    }
+
+    @Test
+    public void testReadsOnlyTheBucketsSites() throws SQLException {
+        Assert.assertEquals(List.of("a", "c"), read(sql.getSitesPropertiesSql(10), "a", "c"));
+        Assert.assertEquals(4, read(sql.getSitesPagePropertiesSql(10), "a", "c").size());
+        Assert.assertEquals(4, read(sql.getSitesToolPropertiesSql(10), "b").size());
+        Assert.assertTrue(read(sql.getSitesPropertiesSql(10), "d").isEmpty());
+    }
+
+    @Test
+    public void testReadsPagesAndToolsInOrder() throws SQLException {
+        Assert.assertEquals(List.of("a/a-page1", "a/a-page2", "c/c-page1", "c/c-page2"), read(sql.getSitesPagesSql(10), "c", "a"));
+        Assert.assertEquals(List.of("b-page1-tool1", "b-page1-tool2", "b-page2-tool1", "b-page2-tool2"), read(sql.getSitesToolsSql(10), "b"));
+    }
+}
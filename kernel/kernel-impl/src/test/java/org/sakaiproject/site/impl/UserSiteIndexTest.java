@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.site.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.CacheEventListener;
+import org.sakaiproject.memory.api.CacheEventListener.CacheEntryEvent;
+import org.sakaiproject.memory.api.CacheEventListener.EventType;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteMembership;
+import org.sakaiproject.site.api.SiteService;
+
+public class UserSiteIndexTest {
+
+    private final Map<String, List<SiteMembership>> held = new HashMap<>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private Cache<String, List<SiteMembership>> cache;
+    private UserSiteIndex index;
+    private Runnable onLoad;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(i -> held.get(i.getArgument(0)));
+        doAnswer(i -> held.put(i.getArgument(0), i.getArgument(1))).when(cache).put(anyString(), any());
+        doAnswer(i -> held.remove(i.getArgument(0)) != null).when(cache).remove(anyString());
+
+        index = new UserSiteIndex(cache, userId -> {
+            loads.incrementAndGet();
+            if (onLoad != null) onLoad.run();
+            return List.of(
+                    new SiteMembership("b", "Biology", "course", "fall", "student", true, false, 0L),
+                    new SiteMembership("a", "art", "project", null, "maintain", false, true, 0L));
+        }, siteId -> !siteId.startsWith("~") && !siteId.startsWith("!"));
+    }
+
+    private static Role role(String id, String... functions) {
+        Role role = mock(Role.class);
+        when(role.getId()).thenReturn(id);
+        Set<String> allowed = Set.of(functions);
+        when(role.isAllowed(anyString())).thenAnswer(i -> allowed.contains(i.getArgument(0)));
+        return role;
+    }
+
+    private static Member member(String userId, Role role, boolean active) {
+        Member member = mock(Member.class);
+        when(member.getUserId()).thenReturn(userId);
+        when(member.getRole()).thenReturn(role);
+        when(member.isActive()).thenReturn(active);
+        return member;
+    }
+
+    private static Site site(String id, String title, boolean published, Member... members) {
+        Site site = mock(Site.class);
+        ResourceProperties properties = mock(ResourceProperties.class);
+        when(properties.getProperty(Site.PROP_SITE_TERM)).thenReturn("spring");
+        when(site.getId()).thenReturn(id);
+        when(site.getTitle()).thenReturn(title);
+        when(site.getType()).thenReturn("course");
+        when(site.isPublished()).thenReturn(published);
+        when(site.getProperties()).thenReturn(properties);
+        when(site.getMembers()).thenReturn(Set.of(members));
+        return site;
+    }
+
+    private static List<String> siteIds(List<SiteMembership> memberships) {
+        return memberships.stream().map(SiteMembership::getSiteId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testReadOnceInTitleOrder() {
+        Assert.assertEquals(List.of("a", "b"), siteIds(index.get("user")));
+        index.get("user");
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testSiteChangesUpdateHeldListsInPlace() {
+        index.get("user");
+        Role access = role("access", SiteService.SITE_VISIT);
+
+        // joining a site, and another member whose list is not held
+        index.updateSite(site("c", "Chemistry", true, member("user", access, true), member("other", access, true)));
+        Assert.assertEquals(List.of("a", "b", "c"), siteIds(index.get("user")));
+        SiteMembership chemistry = index.get("user").get(2);
+        Assert.assertEquals("access", chemistry.getRole());
+        Assert.assertEquals("spring", chemistry.getTerm());
+        Assert.assertFalse(chemistry.isMaintainer());
+        Assert.assertFalse(held.containsKey("other"));
+
+        // a visit is kept through a retitle
+        index.visited("user", "c", 420_000L);
+        index.updateSite(site("c", "Alchemy", true, member("user", access, true)));
+        Assert.assertEquals(List.of("c", "a", "b"), siteIds(index.get("user")));
+        Assert.assertEquals(420_000L, index.get("user").get(0).getLastVisited());
+
+        // made inactive, then removed
+        index.updateSite(site("b", "Biology", true, member("user", access, false)));
+        Assert.assertEquals(List.of("c", "a"), siteIds(index.get("user")));
+        index.removeSite("c", Set.of("user"));
+        Assert.assertEquals(List.of("a"), siteIds(index.get("user")));
+        Assert.assertEquals(1, loads.get());
+
+        index.evict("user");
+        Assert.assertEquals(List.of("a", "b"), siteIds(index.get("user")));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testMembersGoneFromTheSiteLoseIt() {
+        index.get("user");
+        index.get("other");
+        Role access = role("access", SiteService.SITE_VISIT);
+
+        // as seen from an invalidate event, only the members who are left are given
+        index.updateSite(site("b", "Biology", true, member("other", access, true)));
+        Assert.assertEquals(List.of("a"), siteIds(index.get("user")));
+        Assert.assertEquals(List.of("a", "b"), siteIds(index.get("other")));
+
+        // a user no longer held is not touched
+        index.evict("other");
+        index.updateSite(site("a", "art", true));
+        Assert.assertEquals(List.of(), siteIds(index.get("user")));
+        Assert.assertFalse(held.containsKey("other"));
+    }
+
+    @Test
+    public void testUserAndSpecialSitesAreNotListed() {
+        index.get("user");
+        Role maintain = role("maintain", SiteService.SECURE_UPDATE_SITE);
+        index.updateSite(site("~user", "My Workspace", true, member("user", maintain, true)));
+        index.updateSite(site("!admin", "Administration", true, member("user", maintain, true)));
+        Assert.assertEquals(List.of("a", "b"), siteIds(index.get("user")));
+    }
+
+    @Test
+    public void testListReadDuringAChangeIsNotHeld() {
+        Role access = role("access", SiteService.SITE_VISIT);
+        onLoad = () -> index.updateSite(site("b", "Biology", true, member("user", access, false)));
+        Assert.assertEquals(List.of("a", "b"), siteIds(index.get("user")));
+        Assert.assertFalse(held.containsKey("user"));
+
+        onLoad = null;
+        index.get("user");
+        Assert.assertTrue(held.containsKey("user"));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testListReadDuringAnotherUsersChangeIsHeld() {
+        Role access = role("access", SiteService.SITE_VISIT);
+        onLoad = () -> index.updateSite(site("b", "Biology", true, member("other", access, false)));
+        index.get("user");
+        Assert.assertTrue(held.containsKey("user"));
+    }
+
+    @Test
+    public void testRecentVisitsAreNotRewritten() {
+        index.get("user");
+        index.visited("user", "a", 600_000L);
+        List<SiteMembership> visited = index.get("user");
+        index.visited("user", "a", 600_000L + UserSiteIndex.VISIT_RESOLUTION - 1);
+        Assert.assertSame(visited, index.get("user"));
+        index.visited("user", "a", 600_000L + UserSiteIndex.VISIT_RESOLUTION);
+        Assert.assertEquals(600_000L + UserSiteIndex.VISIT_RESOLUTION, index.get("user").get(0).getLastVisited());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListsGoneFromTheCacheNoLongerHoldTheirSites() {
+        ArgumentCaptor<CacheEventListener> listener = ArgumentCaptor.forClass(CacheEventListener.class);
+        verify(cache, atLeastOnce()).registerCacheEventListener(listener.capture());
+        index.get("user");
+        index.get("other");
+        Assert.assertEquals(Set.of("user", "other"), index.holders("a"));
+
+        // expired by the cache, as it does by itself when idle or full
+        List<SiteMembership> expired = held.remove("user");
+        listener.getValue().onExpired(List.of(new CacheEntryEvent<>(cache, "user", expired, EventType.EXPIRED)));
+        Assert.assertEquals(Set.of("other"), index.holders("a"));
+
+        index.evict("other");
+        Assert.assertTrue(index.holders("a").isEmpty());
+        Assert.assertTrue(index.holders("b").isEmpty());
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.user.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.sakaiproject.user.api.UserEdit;
+
+public class UserLoaderTest {
+
+    private final Map<String, UserEdit> cache = new ConcurrentHashMap<>();
+    private final List<Integer> batches = new ArrayList<>();
+    private final AtomicInteger loadedIds = new AtomicInteger();
+    private final ExecutorService executor = Executors.newFixedThreadPool(5);
+    private CountDownLatch release = new CountDownLatch(0);
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** Loads every id asked for, not "missing", caching them as the storage does. */
+    private Map<String, UserEdit> load(Collection<String> ids) {
+        synchronized (batches) {
+            batches.add(ids.size());
+        }
+        loadedIds.addAndGet(ids.size());
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failures.getAndDecrement() > 0) throw new IllegalStateException("provider down");
+        Map<String, UserEdit> rv = new HashMap<>();
+        for (String id : ids) {
+            if ("missing".equals(id)) continue;
+            UserEdit user = mock(UserEdit.class);
+            when(user.getId()).thenReturn(id);
+            rv.put(id, user);
+            cache.put(id, user);
+        }
+        return rv;
+    }
+
+    private UserLoader loader(int batchSize, long waitMillis) {
+        return new UserLoader(cache::get, this::load, batchSize, waitMillis);
+    }
+
+    private static List<String> ids(int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add("user" + i);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testConcurrentLookupsShareOneLoad() throws Exception {
+        UserLoader loader = loader(500, 5000L);
+        release = new CountDownLatch(1);
+        List<String> roster = ids(1200);
+
+        List<Future<List<UserEdit>>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(executor.submit(() -> loader.getUsers(roster)));
+        }
+        // let the lookups all miss before the first load finishes
+        Thread.sleep(200);
+        release.countDown();
+
+        for (Future<List<UserEdit>> result : results) {
+            Assert.assertEquals(1200, result.get(5, TimeUnit.SECONDS).size());
+        }
+        Assert.assertEquals(1200, loadedIds.get());
+        Assert.assertEquals(1200, loader.getLoadedCount());
+        Assert.assertEquals(6000, loader.getHitCount() + loader.getMissCount());
+    }
+
+    @Test
+    public void testHitsAndBatches() {
+        UserLoader loader = loader(2, 5000L);
+        List<String> ids = ids(5);
+        ids.add("missing");
+        Assert.assertEquals(5, loader.getUsers(ids).size());
+        Assert.assertEquals(List.of(2, 2, 2), batches);
+        Assert.assertEquals(6, loader.getMissCount());
+
+        // the found users come from the cache now, the missing one is loaded again
+        Assert.assertEquals(5, loader.getUsers(ids).size());
+        Assert.assertEquals(5, loader.getHitCount());
+        Assert.assertEquals(4, loader.getLoadCount());
+    }
+
+    @Test
+    public void testWaitingLookupLoadsAfterFailure() throws Exception {
+        UserLoader loader = loader(500, 5000L);
+        release = new CountDownLatch(1);
+        failures.set(1);
+        Future<List<UserEdit>> first = executor.submit(() -> loader.getUsers(ids(3)));
+        Thread.sleep(100);
+        Future<List<UserEdit>> second = executor.submit(() -> loader.getUsers(ids(3)));
+        Thread.sleep(100);
+        release.countDown();
+
+        try {
+            first.get(5, TimeUnit.SECONDS);
+            Assert.fail("the failed load is reported to the lookup that ran it");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // the waiting lookup loads the users itself
+        Assert.assertEquals(3, second.get(5, TimeUnit.SECONDS).size());
+        Assert.assertEquals(3, loader.getSharedCount());
+        Assert.assertEquals(2, loader.getLoadCount());
+    }
+
+    @Test
+    public void testFailedBatchReleasesTheLaterBatches() {
+        UserLoader loader = loader(2, 60000L);
+        failures.set(1);
+        try {
+            loader.getUsers(ids(5));
+            Assert.fail("the failed load is reported");
+        } catch (IllegalStateException e) {
+        }
+        Assert.assertEquals(List.of(2), batches);
+
+        // nothing is left claimed, so the next lookup loads the users rather than waiting on the failed one
+        Assert.assertEquals(5, loader.getUsers(ids(5)).size());
+        Assert.assertEquals(0, loader.getSharedCount());
+    }
+}
@@ -379,20 +379,14 @@ public class BaseDbDoubleStorage
 	{
 		List all = new Vector();
 
-		// read all users from the db
+		// read all users from the db, streaming the xml into objects so it is not all held at once
 		String sql = doubleStorageSql.getSelectXml1Sql(m_containerTableName);
 		// %%% order by...
-		List xml = m_sql.dbRead(sql);
-
-		// process all result xml into user objects
-		if (!xml.isEmpty())
+		m_sql.dbReadEach(sql, null, null, xml ->
 		{
-			for (int i = 0; i < xml.size(); i++)
-			{
-				Entity entry = readContainer((String) xml.get(i));
-				if (entry != null) all.add(entry);
-			}
-		}
+			Entity entry = readContainer((String) xml);
+			if (entry != null) all.add(entry);
+		});
 
 		return all;
 	}
@@ -867,9 +861,10 @@ public class BaseDbDoubleStorage
 		String sql = doubleStorageSql.getSelectXml5Sql(m_resourceTableName, m_resourceTableContainerIdField, null, false);
 		Object[] fields = new Object[1];
 		fields[0] = container.getReference();
-		List all = m_sql.dbRead(sql, fields, new SearchFilterReader(container, filter,  null, true));
-		int count = all.size();
-		return count;
+		// count as the records stream by rather than collecting them
+		final int[] count = new int[1];
+		m_sql.dbReadEach(sql, fields, new SearchFilterReader(container, filter,  null, true), match -> count[0]++);
+		return count[0];
 	}
 
 	/**
@@ -1045,7 +1040,8 @@ public class BaseDbDoubleStorage
 		}
 
 		// If we are paged in SQL - then do not pass in the pager
-		List all = m_sql.dbRead(sql, fields, new SearchFilterReader(container, softFilter,  pagedInSql ? null : pager, false));
+		List all = new Vector();
+		m_sql.dbReadEach(sql, fields, new SearchFilterReader(container, softFilter,  pagedInSql ? null : pager, false), all::add);
 		
 		return all;
 	}
@@ -30,6 +30,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Vector;
+import java.util.function.Consumer;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -350,6 +352,20 @@ public class BaseDbFlatStorage
 	}
 
 	public List getAllResources()
+	{
+		List rv = new Vector();
+		forEachResource(rv::add);
+
+		return rv;
+	}
+
+	/**
+	 * Hand each Resource to the consumer as it is read, so that all the Resources are never held at once.
+	 * 
+	 * @param consumer
+	 *        Given each Resource.
+	 */
+	public void forEachResource(Consumer consumer)
 	{
 		// read all resources from the db
 		String sql = flatStorageSql.getSelectFieldsSql(m_resourceTableName, fieldList(m_resourceTableReadFields, null));
@@ -357,9 +373,7 @@ public class BaseDbFlatStorage
 		if (StringUtils.equalsIgnoreCase(SAKAI_USER_TABLE, m_resourceTableName)) {
 			sql = sql + ROLEVIEW_TYPE_FILTER;
 		}
-		List rv = m_sql.dbRead(sql, null, m_reader);
-
-		return rv;
+		m_sql.dbReadEach(sql, null, m_reader, consumer);
 	}
 
 	public int countAllResources()
@@ -488,13 +502,38 @@ public class BaseDbFlatStorage
 	 */
 	protected List getSelectedResources(String where, String order, Object[] values, String join, SqlReader reader)
 	{
-		// read all resources from the db with a where
-		String sql = getResourceSql(where, order, values, join);
-		List all = m_sql.dbRead(sql, values, reader);
+		List all = new Vector();
+		forEachSelectedResource(where, order, values, join, reader, all::add);
 
 		return all;
 	}
 
+	/**
+	 * Hand each Resource matching a SQL where clause to the consumer as it is read, so that all the Resources are never held at once.
+	 * 
+	 * @param where
+	 *        The SQL where clause with bind variables indicated (not including the preceding "where ").
+	 * @param order
+	 *        the SQL order clause (not including the preceding "order by ").
+	 * @param values
+	 *        The bind values
+	 * @param join
+	 *        a single or comma separated set of other tables to join in the from clause
+	 * @param consumer
+	 *        Given each Resource that meets the criteria.
+	 */
+	public void forEachSelectedResource(String where, String order, Object[] values, String join, Consumer consumer)
+	{
+		forEachSelectedResource(where, order, values, join, m_reader, consumer);
+	}
+
+	protected void forEachSelectedResource(String where, String order, Object[] values, String join, SqlReader reader, Consumer consumer)
+	{
+		// read all resources from the db with a where
+		String sql = getResourceSql(where, order, values, join);
+		m_sql.dbReadEach(sql, values, reader, consumer);
+	}
+
 	/**
 	 * Get the SQL to retrieve all resources matching specified conditions.
 	 *
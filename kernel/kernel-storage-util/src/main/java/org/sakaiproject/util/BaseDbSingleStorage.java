@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.Vector;
+import java.util.function.Consumer;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -327,24 +328,29 @@ public class BaseDbSingleStorage implements DbSingleStorage
 	public List getAllResources()
 	{
 		List all = new Vector();
+		forEachResource(all::add);
 
+		return all;
+	}
+
+	/**
+	 * Hand each Resource to the consumer as it is read, so that neither the xml nor the Resources are all held at once.
+	 * 
+	 * @param consumer
+	 *        Given each Resource.
+	 */
+	public void forEachResource(Consumer<Entity> consumer)
+	{
 		// read all users from the db
 		String sql = singleStorageSql.getXmlSql(m_resourceTableName);
 		// %%% + "order by " + m_resourceTableOrderField + " asc";
 
-		List xml = m_sql.dbRead(sql);
-
-		// process all result xml into user objects
-		if (!xml.isEmpty())
+		// process the result xml into user objects as it is read
+		m_sql.dbReadEach(sql, null, null, xml ->
 		{
-			for (int i = 0; i < xml.size(); i++)
-			{
-				Entity entry = readResource((String) xml.get(i));
-				if (entry != null) all.add(entry);
-			}
-		}
-
-		return all;
+			Entity entry = readResource((String) xml);
+			if (entry != null) consumer.accept(entry);
+		});
 	}
 
 	/* (non-Javadoc)
@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.util;
+
+/**
+ * Limits a query to its first rows, for the database dependent sql beans. A default bean implements this for the
+ * limit clause HSQLDB and MySQL take, and its Oracle subclass implements {@link FetchFirst} for the standard clause.
+ */
+public interface LimitSql {
+
+    /**
+     * @return the query limited to its first rows
+     */
+    default String limit(String sql, int limit) {
+        return sql + " limit " + limit;
+    }
+
+    /**
+     * Limits a query with the standard fetch first clause, as Oracle takes.
+     */
+    interface FetchFirst extends LimitSql {
+
+        @Override
+        default String limit(String sql, int limit) {
+            return sql + " fetch first " + limit + " rows only";
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.util.serialize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.entity.api.serialize.EntityParseException;
+import org.sakaiproject.entity.api.serialize.SerializablePropertiesAccess;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serializes resource properties as a self contained section of a Type2 serialization.
+ * <p>
+ * The section starts with a table of the distinct strings of the properties, each written once, followed by the
+ * properties as references into it: a varint count, then for each property the reference of its name, a kind byte
+ * (0 for a single value, 1 for a list) and the reference of the value or a count and the references of the values.
+ * References below the number of {@link #WELL_KNOWN} strings refer to those and are never written in the table, so
+ * the names every resource has cost a byte each.
+ * <p>
+ * {@link #WELL_KNOWN} is part of the format: strings may only ever be appended to it.
+ */
+@Slf4j
+public class Type2BaseResourcePropertiesSerializer {
+
+    private static final int KIND_STRING = 0;
+
+    private static final int KIND_LIST = 1;
+
+    /** Strings referred to by their index, append only. */
+    static final String[] WELL_KNOWN = {
+            ResourceProperties.PROP_CREATOR,
+            ResourceProperties.PROP_MODIFIED_BY,
+            ResourceProperties.PROP_CREATION_DATE,
+            ResourceProperties.PROP_MODIFIED_DATE,
+            ResourceProperties.PROP_DISPLAY_NAME,
+            ResourceProperties.PROP_ORIGINAL_FILENAME,
+            ResourceProperties.PROP_CONTENT_LENGTH,
+            ResourceProperties.PROP_CONTENT_TYPE,
+            ResourceProperties.PROP_CONTENT_SHA256,
+            ResourceProperties.PROP_CONTENT_ENCODING,
+            ResourceProperties.PROP_CONTENT_PRIORITY,
+            ResourceProperties.PROP_IS_COLLECTION,
+            ResourceProperties.PROP_COLLECTION_BODY_QUOTA,
+            ResourceProperties.PROP_DESCRIPTION,
+            ResourceProperties.PROP_COPYRIGHT,
+            ResourceProperties.PROP_COPYRIGHT_CHOICE,
+            ResourceProperties.PROP_COPYRIGHT_ALERT,
+            ResourceProperties.PROP_PUBVIEW,
+            ResourceProperties.PROP_HAS_CUSTOM_SORT,
+            ResourceProperties.PROP_RESOURCE_TYPE,
+            ResourceProperties.PROP_STRUCTOBJ_TYPE,
+            ResourceProperties.PROP_ADD_HTML,
+            ResourceProperties.PROP_HIDDEN_WITH_ACCESSIBLE_CONTENT,
+            ResourceProperties.PROP_DO_NOT_DUPLICATE,
+            ResourceProperties.PROP_SECURED,
+            ResourceProperties.PROP_ALLOW_INLINE,
+            "true",
+            "false",
+            "UTF-8",
+            ""
+    };
+
+    private static final Map<String, Integer> WELL_KNOWN_REFS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < WELL_KNOWN.length; i++) {
+            WELL_KNOWN_REFS.put(WELL_KNOWN[i], i);
+        }
+    }
+
+    /**
+     * Serialize properties as a section.
+     *
+     * @param properties the properties, null keys and values and non String values are dropped
+     * @return the section
+     */
+    public byte[] serialize(Map<String, Object> properties) {
+        return section(properties).toByteArray();
+    }
+
+    /**
+     * Serialize properties as a section preceded by its length.
+     *
+     * @param properties the properties, null keys and values and non String values are dropped
+     * @param out written to
+     */
+    public void serialize(Map<String, Object> properties, Type2Codec.Writer out) {
+        Type2Codec.Writer section = section(properties);
+        out.writeVarInt(section.size());
+        out.write(section);
+    }
+
+    private Type2Codec.Writer section(Map<String, Object> properties) {
+        Map<String, Integer> refs = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        Type2Codec.Writer entries = new Type2Codec.Writer(properties.size() * 4);
+        int count = 0;
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (key == null || value == null) continue;
+            if (value instanceof String) {
+                entries.writeVarInt(ref(key, refs, table));
+                entries.writeByte(KIND_STRING);
+                entries.writeVarInt(ref((String) value, refs, table));
+            } else if (value instanceof List) {
+                List<String> values = new ArrayList<>();
+                for (Object v : (List<?>) value) {
+                    if (v instanceof String) {
+                        values.add((String) v);
+                    } else if (v != null) {
+                        log.warn("Non String found in property list {}", v);
+                    }
+                }
+                entries.writeVarInt(ref(key, refs, table));
+                entries.writeByte(KIND_LIST);
+                entries.writeVarInt(values.size());
+                for (String v : values) {
+                    entries.writeVarInt(ref(v, refs, table));
+                }
+            } else {
+                log.warn("Non String found in property {}", value);
+                continue;
+            }
+            count++;
+        }
+
+        int size = entries.size() + 10;
+        for (String s : table) {
+            size += s.length() + 2;
+        }
+        Type2Codec.Writer out = new Type2Codec.Writer(size);
+        out.writeVarInt(table.size());
+        for (String s : table) {
+            out.writeString(s);
+        }
+        out.writeVarInt(count);
+        out.write(entries);
+        return out;
+    }
+
+    private static int ref(String s, Map<String, Integer> refs, List<String> table) {
+        Integer ref = WELL_KNOWN_REFS.get(s);
+        if (ref == null) {
+            ref = refs.get(s);
+            if (ref == null) {
+                ref = WELL_KNOWN.length + table.size();
+                refs.put(s, ref);
+                table.add(s);
+            }
+        }
+        return ref;
+    }
+
+    /**
+     * Parse a section.
+     *
+     * @param buffer holds the section
+     * @param offset the start of the section
+     * @param length the length of the section
+     * @return the properties
+     * @throws EntityParseException if the section is malformed
+     */
+    public Map<String, Object> parse(byte[] buffer, int offset, int length) throws EntityParseException {
+        Type2Codec.Reader in = new Type2Codec.Reader(buffer, offset, length);
+        int n = in.readVarInt();
+        String[] table = new String[n];
+        for (int i = 0; i < n; i++) {
+            table[i] = in.readString();
+        }
+        int count = in.readVarInt();
+        Map<String, Object> properties = new HashMap<>(Math.max(4, count * 4 / 3 + 1));
+        for (int i = 0; i < count; i++) {
+            String key = lookup(in.readVarInt(), table);
+            int kind = in.readByte();
+            if (kind == KIND_STRING) {
+                properties.put(key, lookup(in.readVarInt(), table));
+            } else if (kind == KIND_LIST) {
+                int size = in.readVarInt();
+                List<String> values = new Vector<>(size);
+                for (int j = 0; j < size; j++) {
+                    values.add(lookup(in.readVarInt(), table));
+                }
+                properties.put(key, values);
+            } else {
+                throw new EntityParseException("Unrecognised property kind " + kind);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Set the properties from a section, leaving them to be decoded when they are first used if the properties
+     * support it. A copy of the section is kept until then, rather than the whole buffer.
+     *
+     * @param sp the properties to set
+     * @param buffer holds the section
+     * @param offset the start of the section
+     * @param length the length of the section
+     */
+    public void parseLazily(SerializablePropertiesAccess sp, byte[] buffer, int offset, int length) {
+        byte[] section = Arrays.copyOfRange(buffer, offset, offset + length);
+        sp.setSerializableProperties(() -> {
+            try {
+                return parse(section, 0, section.length);
+            } catch (EntityParseException e) {
+                throw new IllegalStateException("Failed to parse properties", e);
+            }
+        });
+    }
+
+    private static String lookup(int ref, String[] table) throws EntityParseException {
+        if (ref < WELL_KNOWN.length) return WELL_KNOWN[ref];
+        int i = ref - WELL_KNOWN.length;
+        if (i >= table.length) {
+            throw new EntityParseException("Property string reference " + ref + " out of range");
+        }
+        return table[i];
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.util.serialize;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.sakaiproject.entity.api.serialize.EntityParseException;
+
+/**
+ * The primitives of the Type2 serializations, which read and write a byte[] directly rather than through
+ * Data streams. Ints are written as unsigned varints (7 bits a byte, low bits first), longs as 8 bytes big
+ * endian, and strings as a varint of the UTF-8 length + 1 followed by the UTF-8 bytes, with 0 meaning null,
+ * so strings have no 64K limit.
+ */
+public final class Type2Codec {
+
+    private Type2Codec() {
+    }
+
+    /**
+     * A growable byte[] to serialize into.
+     */
+    public static final class Writer {
+
+        private byte[] buf;
+        private int len;
+
+        public Writer(int size) {
+            buf = new byte[Math.max(size, 16)];
+        }
+
+        private void ensure(int n) {
+            if (len + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+            }
+        }
+
+        public void writeByte(int b) {
+            ensure(1);
+            buf[len++] = (byte) b;
+        }
+
+        public void writeInt(int v) {
+            ensure(4);
+            buf[len++] = (byte) (v >>> 24);
+            buf[len++] = (byte) (v >>> 16);
+            buf[len++] = (byte) (v >>> 8);
+            buf[len++] = (byte) v;
+        }
+
+        public void writeVarInt(int v) {
+            if (v < 0) throw new IllegalArgumentException("Negative varint " + v);
+            ensure(5);
+            while (v > 0x7F) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        public void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        public void writeString(String s) {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            int n = s.length();
+            if (n < 0x7F) {
+                // mostly ascii, written straight in without encoding to a new byte[]
+                ensure(n + 1);
+                int start = len;
+                buf[len++] = (byte) (n + 1);
+                for (int i = 0; i < n; i++) {
+                    char c = s.charAt(i);
+                    if (c >= 0x80) {
+                        len = start;
+                        break;
+                    }
+                    buf[len++] = (byte) c;
+                }
+                if (len > start) return;
+            }
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(b.length + 1);
+            write(b, 0, b.length);
+        }
+
+        public void write(byte[] b, int off, int n) {
+            ensure(n);
+            System.arraycopy(b, off, buf, len, n);
+            len += n;
+        }
+
+        public void write(Writer other) {
+            write(other.buf, 0, other.len);
+        }
+
+        public int size() {
+            return len;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+    }
+
+    /**
+     * Reads from a region of a byte[], failing with an EntityParseException if a read runs past the region.
+     */
+    public static final class Reader {
+
+        private final byte[] buf;
+        private final int limit;
+        private int pos;
+
+        public Reader(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.pos = offset;
+            this.limit = offset + length;
+        }
+
+        private void check(int n) throws EntityParseException {
+            if (n < 0 || pos + n > limit) {
+                throw new EntityParseException("Truncated serialization, needed " + n + " bytes at " + pos + " of " + limit);
+            }
+        }
+
+        public int position() {
+            return pos;
+        }
+
+        public void skip(int n) throws EntityParseException {
+            check(n);
+            pos += n;
+        }
+
+        public int readByte() throws EntityParseException {
+            check(1);
+            return buf[pos++] & 0xFF;
+        }
+
+        public int readInt() throws EntityParseException {
+            check(4);
+            int v = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+            pos += 4;
+            return v;
+        }
+
+        public int readVarInt() throws EntityParseException {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (v < 0) break;
+                    return v;
+                }
+            }
+            throw new EntityParseException("Malformed varint at " + pos);
+        }
+
+        public long readLong() throws EntityParseException {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        public String readString() throws EntityParseException {
+            int n = readVarInt();
+            if (n == 0) return null;
+            n--;
+            check(n);
+            String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+
+        public byte[] readBytes(int n) throws EntityParseException {
+            check(n);
+            byte[] b = Arrays.copyOfRange(buf, pos, pos + n);
+            pos += n;
+            return b;
+        }
+    }
+}
@@ -15,13 +15,14 @@
  */
 package org.sakaiproject.content.util;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
@@ -29,12 +30,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import javax.activation.MimetypesFileTypeMap;
 import javax.servlet.http.HttpServletResponse;
@@ -78,6 +90,16 @@ public class ZipContentUtil {
     public static final int BUFFER_SIZE = 32000;
     public static final int MAXIMUM_ATTEMPTS_FOR_UNIQUENESS = 100;
     public static final int MAX_ZIP_EXTRACT_FILES_DEFAULT = 1000;
+    public static final String ZIP_STORED_EXTENSIONS_DEFAULT = "mp4,m4v,mov,avi,mkv,webm,mp3,m4a,aac,ogg,jpg,jpeg,png,gif,webp,heic,zip,gz,tgz,bz2,xz,7z,rar,jar,pdf,docx,xlsx,pptx,odt,ods,odp,epub";
+
+    /** Prepares the entries of the archives being created, shared by all of them. */
+    private static ExecutorService zipExecutor;
+
+    /** Writes the archives handed over as a stream, shared by all of them. */
+    private static ExecutorService zipWriters;
+
+    /** The bytes of the entries read ahead, shared by all the archives being created. */
+    private static Semaphore zipBuffers;
 
     private final ContentHostingService contentHostingService;
     private final ServerConfigurationService serverConfigurationService;
@@ -135,7 +157,7 @@ public class ZipContentUtil {
 			log.error(e.getMessage(), e);
 		}
 
-		try (OutputStream zipOut = response.getOutputStream(); ZipOutputStream out = new ZipOutputStream(zipOut)) {
+		try (OutputStream zipOut = response.getOutputStream()) {
 			// If in dropbox need to add the word Dropbox to the end of the zip filename - use the first entry in the resourcesToZip map to find if we are in the dropthe user ID.
 			if (!resourcesToZip.isEmpty()) {
 				String firstContentResourceId = resourcesToZip.entrySet().iterator().next().getKey();
@@ -150,14 +172,16 @@ public class ZipContentUtil {
 			}
 			response.setContentType("application/zip");
 
+			Map<String, ContentResource> entries = new LinkedHashMap<>();
 			for (ContentResource contentResource : resourcesToZip.values()) {
 				// User sites does not contain "~" prefix before user id when retrieving files from resources, so we remove it
 				siteId = StringUtils.replace(siteId, "~", "");
 				// Find the file path.
 				int siteIdPosition = contentResource.getId().indexOf(siteId);
 				String rootId = contentResource.getId().substring(0, siteIdPosition) + siteId + "/";
-				storeContentResource(rootId, contentResource, out);
+				storeContentResource(rootId, contentResource, entries);
 			}
+			writeZip(entries, zipOut);
 		} catch (Exception e) {
 			log.warn("Could not compress files {}, in site {}", selectedFiles, siteId, e);
 		}
@@ -169,29 +193,14 @@ public class ZipContentUtil {
 	 * @throws Exception on failure
 	 */
     public void compressFolder(Reference reference) { 
-		File temp = null;
 		ToolSession toolSession = sessionManager.getCurrentToolSession();
 		try {
-			// Create the compressed archive in the filesystem
-			ZipOutputStream out = null;
-			try {
-				temp = File.createTempFile("sakai_content-", ".tmp");
-				ContentCollection collection = contentHostingService.getCollection(reference.getId());
-				out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE), java.nio.charset.StandardCharsets.UTF_8);
-				out.setLevel(serverConfigurationService.getInt("zip.compression.level", 1));
-				storeContentCollection(reference.getId(), collection, out);
-			} finally {
-				if (out != null) {
-					try {
-						out.close();
-					} catch (IOException e) {
-						log.warn("failed to close zip output stream");
-					}
-				}
-			}
+			// Find the entries here, where the permissions of the user apply
+			ContentCollection collection = contentHostingService.getCollection(reference.getId());
+			Map<String, ContentResource> entries = new LinkedHashMap<>();
+			storeContentCollection(reference.getId(), collection, entries);
 
 			// Get the name of the parent collection
-			ContentCollection collection = contentHostingService.getCollection(reference.getId());
 			ResourceProperties collectionProps = collection.getProperties();
 			String displayName = collectionProps.getProperty(ResourcePropertiesEdit.PROP_DISPLAY_NAME);
 			String resourceName = displayName + ZIP_EXTENSION;
@@ -200,10 +209,10 @@ public class ZipContentUtil {
 			ResourcePropertiesEdit props = contentHostingService.newResourceProperties();
 			props.addProperty(ResourcePropertiesEdit.PROP_DISPLAY_NAME, resourceName);
 
-			// Store the compressed archive in the repository
-			try (FileInputStream fis = new FileInputStream(temp)) {
+			// Store the compressed archive in the repository as it is written
+			try (InputStream zipIn = streamZip(entries)) {
 				contentHostingService.addResource(resourceName, reference.getId(), MAXIMUM_ATTEMPTS_FOR_UNIQUENESS,
-						"application/zip", fis, props, null, false, null, null,
+						"application/zip", zipIn, props, null, false, null, null,
 						NotificationService.NOTI_NONE);
 			} catch (OverQuotaException oqe) {
 				addAlert(toolSession, resourceLoader.getString("overquota_error_zip"));
@@ -215,12 +224,136 @@ public class ZipContentUtil {
 		} catch (Exception e) {
 			addAlert(toolSession, resourceLoader.getString("generic_error_zip"));
 			log.error(e.toString(), e);
-		} 
-		finally {
-			if (temp != null && temp.exists()) {
-				if (!temp.delete()) {
-					log.warn("failed to remove temp file");
+		}
+	}
+
+	/**
+	 * Writes the archive of the entries to a stream, each resource being read and deflated ahead on the shared
+	 * zip threads, media and other compressed types stored as they are.
+	 *
+	 * @param entries the resources by entry name, folders having no resource
+	 * @param out the stream, closed when done
+	 */
+	private void writeZip(Map<String, ContentResource> entries, OutputStream out) throws IOException {
+		ExecutorService executor = getZipExecutor();
+		int window = serverConfigurationService.getInt("content.zip.threads", 4);
+		String[] stored = StringUtils.split(serverConfigurationService.getString("content.zip.store.extensions", ZIP_STORED_EXTENSIONS_DEFAULT).toLowerCase(), ", ");
+		Set<String> storedExtensions = new HashSet<>(Arrays.asList(stored));
+
+		try (ZipContentWriter zip = new ZipContentWriter(out, serverConfigurationService.getInt("zip.compression.level", 1), executor, window, storedExtensions, getZipBuffers())) {
+			for (Map.Entry<String, ContentResource> entry : entries.entrySet()) {
+				if (entry.getValue() == null) {
+					zip.addFolder(entry.getKey());
+				} else {
+					zip.addResource(entry.getKey(), entry.getValue());
+				}
+			}
+			zip.finish();
+		}
+	}
+
+	/**
+	 * Writes the archive of the entries on one of the shared writer threads, handing it over as it is written rather
+	 * than through a temporary file. A failure to write it is thrown by the stream once it reaches the end.
+	 */
+	private InputStream streamZip(Map<String, ContentResource> entries) throws IOException {
+		PipedInputStream in = new PipedInputStream(BUFFER_SIZE * 32);
+		PipedOutputStream out = new PipedOutputStream(in);
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		try {
+			getZipWriters().execute(() -> {
+				try {
+					writeZip(entries, out);
+				} catch (Exception e) {
+					failure.set(e);
+					try {
+						out.close();
+					} catch (IOException ioe) {
+						log.debug("failed to close the zip pipe: {}", ioe.toString());
+					}
 				}
+			});
+		} catch (RejectedExecutionException e) {
+			in.close();
+			throw new IOException("Unable to write the zip archive, the zip writers have been shut down", e);
+		}
+
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				return checked(super.read());
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return checked(super.read(b, off, len));
+			}
+
+			private int checked(int read) throws IOException {
+				if (read < 0 && failure.get() != null) {
+					throw new IOException("Unable to write the zip archive", failure.get());
+				}
+				return read;
+			}
+		};
+	}
+
+	private ExecutorService getZipExecutor() {
+		int threads = serverConfigurationService.getInt("content.zip.threads", 4);
+		if (threads <= 0) {
+			return null;
+		}
+		synchronized (ZipContentUtil.class) {
+			if (zipExecutor == null) {
+				zipExecutor = newZipPool(Math.min(threads, Runtime.getRuntime().availableProcessors()), "zip-content-");
+			}
+			return zipExecutor;
+		}
+	}
+
+	private ExecutorService getZipWriters() {
+		synchronized (ZipContentUtil.class) {
+			if (zipWriters == null) {
+				zipWriters = newZipPool(Math.max(1, serverConfigurationService.getInt("content.zip.writers", 8)), "zip-content-writer-");
+			}
+			return zipWriters;
+		}
+	}
+
+	private Semaphore getZipBuffers() {
+		synchronized (ZipContentUtil.class) {
+			if (zipBuffers == null) {
+				long mb = Math.max(0, serverConfigurationService.getInt("content.zip.buffer.mb", 256));
+				zipBuffers = new Semaphore((int) Math.min(Integer.MAX_VALUE, mb * 1024L * 1024L));
+			}
+			return zipBuffers;
+		}
+	}
+
+	/** A fixed number of daemon threads, which stop when idle for a minute. */
+	private static ExecutorService newZipPool(int threads, String name) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread t = new Thread(r, name + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Stop the threads shared by the zip archives being created, interrupting those under way.
+	 */
+	public static void shutdown() {
+		synchronized (ZipContentUtil.class) {
+			if (zipExecutor != null) {
+				zipExecutor.shutdownNow();
+				zipExecutor = null;
+			}
+			if (zipWriters != null) {
+				zipWriters.shutdownNow();
+				zipWriters = null;
 			}
 		}
 	}
@@ -463,14 +596,14 @@ public class ZipContentUtil {
 	}
 
 	/**
-	 * Iterates the collection.getMembers() and streams content resources recursively to the ZipOutputStream
+	 * Iterates the collection.getMembers() and adds content resources recursively to the zip entries
 	 * 
 	 * @param rootId
 	 * @param collection
 	 * @param out
 	 * @throws Exception
 	 */
-	private void storeContentCollection(String rootId, ContentCollection collection, ZipOutputStream out) throws Exception {
+	private void storeContentCollection(String rootId, ContentCollection collection, Map<String, ContentResource> out) throws Exception {
 		List<String> members = collection.getMembers();
 		if (members.isEmpty()) storeEmptyFolder(rootId,collection,out);
 		else {
@@ -495,7 +628,7 @@ public class ZipContentUtil {
 	 * @param out
 	 * @throws Exception
 	 */
-	private void storeEmptyFolder(String rootId, ContentCollection resource, ZipOutputStream out) throws Exception {
+	private void storeEmptyFolder(String rootId, ContentCollection resource, Map<String, ContentResource> out) throws Exception {
 		String folderName = resource.getId().substring(rootId.length());
 		if(contentHostingService.isInDropbox(rootId) && serverConfigurationService.getBoolean("dropbox.zip.haveDisplayname", true)) {
 			try {
@@ -506,20 +639,18 @@ public class ZipContentUtil {
 			}
 		}
 		folderName = this.replaceIllegalFilenameCharacters(folderName);
-		ZipEntry zipEntry = new ZipEntry(folderName);
-		out.putNextEntry(zipEntry);
-		out.closeEntry();
+		putEntry(out, folderName, null);
 	}
 
 	/**
-	 * Streams content resource to the ZipOutputStream
+	 * Adds a content resource to the zip entries
 	 * 
 	 * @param rootId
 	 * @param resource
 	 * @param out
 	 * @throws Exception
 	 */
-	private void storeContentResource(String rootId, ContentResource resource, ZipOutputStream out) throws Exception {
+	private void storeContentResource(String rootId, ContentResource resource, Map<String, ContentResource> out) throws Exception {
 		String filename = resource.getId().substring(rootId.length());
 		// Inorder to have username as the folder name rather than having eids
 		if(contentHostingService.isInDropbox(rootId) && serverConfigurationService.getBoolean("dropbox.zip.haveDisplayname", true)) {
@@ -531,12 +662,15 @@ public class ZipContentUtil {
 			}
 		}
 		filename = this.replaceIllegalFilenameCharacters(filename);
-		ZipEntry zipEntry = new ZipEntry(filename);
-		zipEntry.setSize(resource.getContentLength());
-		out.putNextEntry(zipEntry);
-        try (InputStream contentStream = resource.streamContent()) {
-            IOUtils.copy(contentStream, out);
-        }
+		putEntry(out, filename, resource);
+	}
+
+	/** Adds an entry, failing on a name already added as the zip stream would. */
+	private void putEntry(Map<String, ContentResource> out, String name, ContentResource resource) throws ZipException {
+		if (out.containsKey(name)) {
+			throw new ZipException("duplicate entry: " + name);
+		}
+		out.put(name, resource);
 	}
 	
 	private String extractZipCollectionPrefix(ContentResource resource) {
@@ -0,0 +1,305 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import org.sakaiproject.content.api.ContentResource;
+import org.sakaiproject.exception.ServerOverloadException;
+
+/**
+ * Writes content resources to a zip archive as it is produced, in the order they are added.
+ * <p>
+ * Resources up to {@link #MAX_BUFFERED_ENTRY} bytes are read and deflated ahead on the executor, a few at a time, and
+ * written as they complete. Larger resources, and those that would take the buffers past what is shared by all the
+ * archives being written, are streamed on the calling thread. Types that are already compressed, such as video, images,
+ * archives and pdf, are stored rather than deflated again. An entry name added twice fails as it does for
+ * {@link java.util.zip.ZipOutputStream}.
+ */
+public class ZipContentWriter implements Closeable {
+
+    /** The largest resource read and deflated ahead in memory. */
+    public static final int MAX_BUFFERED_ENTRY = 8 * 1024 * 1024;
+
+    private final ZipArchiveOutputStream zip;
+    private final int level;
+    private final ExecutorService executor;
+    private final int window;
+    private final Collection<String> storedExtensions;
+    private final Semaphore buffers;
+
+    /** The entries added but not yet written, oldest first. */
+    private final Deque<Pending> pending = new ArrayDeque<>();
+
+    /** The names of the entries added. */
+    private final Set<String> names = new HashSet<>();
+
+    private static final class Pending {
+        final String name;
+        final ContentResource resource;
+        final Future<Prepared> prepared;
+        /** The bytes of the buffers taken for it. */
+        final int buffered;
+
+        Pending(String name, ContentResource resource, Future<Prepared> prepared, int buffered) {
+            this.name = name;
+            this.resource = resource;
+            this.prepared = prepared;
+            this.buffered = buffered;
+        }
+    }
+
+    /** A resource read and compressed ahead, ready to be written raw. */
+    private static final class Prepared {
+        int method;
+        long crc;
+        long size;
+        byte[] data;
+        int length;
+    }
+
+    /**
+     * @param out the stream the archive is written to, closed with the writer
+     * @param level the deflate level
+     * @param executor the executor preparing resources ahead, or null to write every resource on the calling thread
+     * @param window how many resources may be prepared ahead
+     * @param storedExtensions the file extensions, lower case, of the types stored rather than deflated
+     * @param buffers the bytes that may be read ahead, shared by the archives being written, or null for no limit
+     */
+    public ZipContentWriter(OutputStream out, int level, ExecutorService executor, int window, Collection<String> storedExtensions, Semaphore buffers) {
+        this.zip = new ZipArchiveOutputStream(out);
+        this.zip.setLevel(level);
+        this.level = level;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+        this.storedExtensions = storedExtensions;
+        this.buffers = buffers;
+    }
+
+    /**
+     * Add a folder.
+     *
+     * @param name the entry name, ending with a slash
+     */
+    public void addFolder(String name) throws IOException {
+        checkUnique(name);
+        pending.add(new Pending(name, null, null, 0));
+        drain(window);
+    }
+
+    /**
+     * Add a resource, waiting for earlier ones to be written once the window is full.
+     *
+     * @param name the entry name
+     * @param resource the resource
+     */
+    public void addResource(String name, ContentResource resource) throws IOException {
+        checkUnique(name);
+        Future<Prepared> prepared = null;
+        int buffered = 0;
+        long length = resource.getContentLength();
+        boolean store = isStored(name);
+        // a deflated resource holds its body and a compressed copy no bigger than it
+        int reserved = (int) (store ? length : 2 * length);
+        if (executor != null && length >= 0 && length <= MAX_BUFFERED_ENTRY && reserve(reserved)) {
+            buffered = reserved;
+            try {
+                prepared = executor.submit(() -> prepare(resource, store));
+            } catch (RuntimeException e) {
+                release(buffered);
+                throw e;
+            }
+        }
+        pending.add(new Pending(name, resource, prepared, buffered));
+        drain(window);
+    }
+
+    /**
+     * Write the entries still pending and the end of the archive.
+     */
+    public void finish() throws IOException {
+        drain(0);
+        zip.finish();
+    }
+
+    /**
+     * Close the archive and its stream, dropping any entry not yet written.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Pending p : pending) {
+            if (p.prepared != null) p.prepared.cancel(true);
+            release(p.buffered);
+        }
+        pending.clear();
+        zip.close();
+    }
+
+    boolean isStored(String name) {
+        String extension = StringUtils.substringAfterLast(name, ".").toLowerCase(Locale.ROOT);
+        return level == Deflater.NO_COMPRESSION || storedExtensions.contains(extension);
+    }
+
+    private void checkUnique(String name) throws ZipException {
+        if (!names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+    }
+
+    /**
+     * Take buffers for a resource to be read ahead, writing the entries this archive has pending to free its own if
+     * the shared buffers run short.
+     *
+     * @return false if the resource is to be streamed instead
+     */
+    private boolean reserve(int bytes) throws IOException {
+        if (buffers == null || buffers.tryAcquire(bytes)) return true;
+        drain(0);
+        return buffers.tryAcquire(bytes);
+    }
+
+    private void release(int bytes) {
+        if (buffers != null && bytes > 0) buffers.release(bytes);
+    }
+
+    private void drain(int keep) throws IOException {
+        while (pending.size() > keep) {
+            Pending p = pending.poll();
+            try {
+                if (p.resource == null) {
+                    zip.putArchiveEntry(new ZipArchiveEntry(p.name));
+                    zip.closeArchiveEntry();
+                } else if (p.prepared != null) {
+                    writePrepared(p.name, get(p));
+                } else {
+                    writeStreamed(p.name, p.resource);
+                }
+            } finally {
+                if (p.prepared != null) p.prepared.cancel(true);
+                release(p.buffered);
+            }
+        }
+    }
+
+    private Prepared get(Pending p) throws IOException {
+        try {
+            return p.prepared.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted reading " + p.resource.getId(), e);
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private void writePrepared(String name, Prepared prepared) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setMethod(prepared.method);
+        entry.setCrc(prepared.crc);
+        entry.setSize(prepared.size);
+        entry.setCompressedSize(prepared.length);
+        zip.addRawArchiveEntry(entry, new ByteArrayInputStream(prepared.data, 0, prepared.length));
+    }
+
+    private void writeStreamed(String name, ContentResource resource) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        if (resource.getContentLength() >= 0) {
+            entry.setSize(resource.getContentLength());
+        }
+        // the crc of a stored entry is needed before its body, so an already compressed type is deflated at level 0
+        zip.setLevel(isStored(name) ? Deflater.NO_COMPRESSION : level);
+        zip.putArchiveEntry(entry);
+        try (InputStream in = stream(resource)) {
+            IOUtils.copy(in, zip);
+        }
+        zip.closeArchiveEntry();
+    }
+
+    private Prepared prepare(ContentResource resource, boolean store) throws IOException {
+        byte[] body;
+        try (InputStream in = stream(resource)) {
+            body = IOUtils.toByteArray(in);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+
+        Prepared prepared = new Prepared();
+        prepared.crc = crc.getValue();
+        prepared.size = body.length;
+        if (!store) {
+            // deflated into a buffer the size of the body, given up on if it does not fit
+            Deflater deflater = new Deflater(level, true);
+            try {
+                byte[] deflated = new byte[body.length];
+                deflater.setInput(body);
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished() && length < deflated.length) {
+                    length += deflater.deflate(deflated, length, deflated.length - length);
+                }
+                if (deflater.finished() && length < body.length) {
+                    prepared.method = ZipEntry.DEFLATED;
+                    prepared.data = deflated;
+                    prepared.length = length;
+                    return prepared;
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        // a stored type, or incompressible after all
+        prepared.method = ZipEntry.STORED;
+        prepared.data = body;
+        prepared.length = body.length;
+        return prepared;
+    }
+
+    private static InputStream stream(ContentResource resource) throws IOException {
+        try {
+            InputStream in = resource.streamContent();
+            if (in == null) {
+                throw new IOException("No content for " + resource.getId());
+            }
+            return in;
+        } catch (ServerOverloadException e) {
+            throw new IOException("Unable to read " + resource.getId(), e);
+        }
+    }
+}
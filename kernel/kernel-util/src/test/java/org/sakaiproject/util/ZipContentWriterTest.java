@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2003-2026 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sakaiproject.content.api.ContentResource;
+import org.sakaiproject.content.util.ZipContentWriter;
+
+public class ZipContentWriterTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static ContentResource resource(String id, byte[] body) throws Exception {
+        ContentResource resource = Mockito.mock(ContentResource.class);
+        Mockito.when(resource.getId()).thenReturn(id);
+        Mockito.when(resource.getContentLength()).thenReturn((long) body.length);
+        Mockito.when(resource.streamContent()).thenAnswer(i -> new ByteArrayInputStream(body));
+        return resource;
+    }
+
+    private static byte[] text(int size) {
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; i++) {
+            body[i] = (byte) ('a' + (i % 7));
+        }
+        return body;
+    }
+
+    private ZipContentWriter writer(ByteArrayOutputStream out) {
+        return new ZipContentWriter(out, 1, executor, 3, new HashSet<>(Arrays.asList("jpg", "mp4")), null);
+    }
+
+    @Test
+    public void testWritesEntriesInOrder() throws Exception {
+        byte[] small = text(10000);
+        byte[] photo = text(5000);
+        byte[] large = text(ZipContentWriter.MAX_BUFFERED_ENTRY + 1000);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipContentWriter zip = writer(out)) {
+            zip.addFolder("empty/");
+            for (int i = 0; i < 10; i++) {
+                zip.addResource("notes/" + i + ".txt", resource("/group/site/notes/" + i + ".txt", small));
+            }
+            zip.addResource("photo.JPG", resource("/group/site/photo.JPG", photo));
+            zip.addResource("lecture.mp4", resource("/group/site/lecture.mp4", large));
+            zip.addResource("last.txt", resource("/group/site/last.txt", small));
+            zip.finish();
+        }
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                names.add(entry.getName());
+                byte[] body = IOUtils.toByteArray(in);
+                if (entry.getName().endsWith(".txt")) {
+                    Assert.assertArrayEquals(small, body);
+                    Assert.assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+                } else if (entry.getName().equals("photo.JPG")) {
+                    Assert.assertArrayEquals(photo, body);
+                    Assert.assertEquals(ZipEntry.STORED, entry.getMethod());
+                } else if (entry.getName().equals("lecture.mp4")) {
+                    Assert.assertArrayEquals(large, body);
+                } else {
+                    Assert.assertEquals(0, body.length);
+                }
+            }
+        }
+        Assert.assertEquals(14, names.size());
+        Assert.assertEquals("empty/", names.get(0));
+        Assert.assertEquals("notes/0.txt", names.get(1));
+        Assert.assertEquals("notes/9.txt", names.get(10));
+        Assert.assertEquals("last.txt", names.get(13));
+        // the video was not deflated again
+        Assert.assertTrue(out.size() > large.length);
+    }
+
+    @Test
+    public void testWritesWithoutExecutor() throws Exception {
+        byte[] small = text(1000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipContentWriter zip = new ZipContentWriter(out, 6, null, 1, new HashSet<>(), null)) {
+            zip.addResource("a.txt", resource("/group/site/a.txt", small));
+            zip.finish();
+        }
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            Assert.assertEquals("a.txt", in.getNextEntry().getName());
+            Assert.assertArrayEquals(small, IOUtils.toByteArray(in));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailsOnUnreadableResource() throws Exception {
+        ContentResource broken = resource("/group/site/broken.txt", text(100));
+        Mockito.when(broken.streamContent()).thenReturn(null);
+
+        try (ZipContentWriter zip = writer(new ByteArrayOutputStream())) {
+            zip.addResource("broken.txt", broken);
+            zip.finish();
+        }
+    }
+
+    @Test
+    public void testBuffersShared() throws Exception {
+        byte[] small = text(10000);
+        Semaphore buffers = new Semaphore(25000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipContentWriter zip = new ZipContentWriter(out, 1, executor, 5, new HashSet<>(), buffers)) {
+            for (int i = 0; i < 10; i++) {
+                zip.addResource(i + ".txt", resource("/group/site/" + i + ".txt", small));
+                Assert.assertTrue(buffers.availablePermits() >= 0);
+            }
+            zip.finish();
+        }
+        Assert.assertEquals("All the buffers are given back", 25000, buffers.availablePermits());
+
+        int entries = 0;
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                Assert.assertEquals(entries++ + ".txt", entry.getName());
+                Assert.assertArrayEquals(small, IOUtils.toByteArray(in));
+            }
+        }
+        Assert.assertEquals(10, entries);
+    }
+
+    @Test
+    public void testStreamsWithoutBuffers() throws Exception {
+        byte[] small = text(1000);
+        Semaphore buffers = new Semaphore(0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipContentWriter zip = new ZipContentWriter(out, 1, executor, 3, new HashSet<>(), buffers)) {
+            zip.addResource("a.txt", resource("/group/site/a.txt", small));
+            zip.addResource("b.txt", resource("/group/site/b.txt", small));
+            zip.finish();
+        }
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            Assert.assertEquals("a.txt", in.getNextEntry().getName());
+            Assert.assertArrayEquals(small, IOUtils.toByteArray(in));
+            Assert.assertEquals("b.txt", in.getNextEntry().getName());
+        }
+    }
+
+    @Test
+    public void testDeflatedResourcesReserveTheirCompressedCopy() throws Exception {
+        byte[] body = text(10000);
+        byte[] noise = new byte[10000];
+        new Random(42L).nextBytes(noise);
+        Semaphore buffers = new Semaphore(25000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipContentWriter zip = new ZipContentWriter(out, 1, executor, 5, new HashSet<>(Arrays.asList("jpg")), buffers)) {
+            zip.addResource("a.jpg", resource("/group/site/a.jpg", body));
+            Assert.assertEquals("A stored resource holds its body", 15000, buffers.availablePermits());
+            zip.addResource("b.txt", resource("/group/site/b.txt", noise));
+            // too much with the first held, which is written to give its buffers back
+            Assert.assertEquals("A deflated resource holds its body and the compressed copy", 5000, buffers.availablePermits());
+            zip.addResource("c.txt", resource("/group/site/c.txt", body));
+            zip.finish();
+        }
+        Assert.assertEquals(25000, buffers.availablePermits());
+
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            Assert.assertEquals("a.jpg", in.getNextEntry().getName());
+            Assert.assertArrayEquals(body, IOUtils.toByteArray(in));
+            // incompressible, so stored after all
+            ZipEntry entry = in.getNextEntry();
+            Assert.assertEquals(ZipEntry.STORED, entry.getMethod());
+            Assert.assertArrayEquals(noise, IOUtils.toByteArray(in));
+            entry = in.getNextEntry();
+            Assert.assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            Assert.assertArrayEquals(body, IOUtils.toByteArray(in));
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void testFailsOnDuplicateEntry() throws Exception {
+        try (ZipContentWriter zip = writer(new ByteArrayOutputStream())) {
+            zip.addResource("a.txt", resource("/group/site/a.txt", text(100)));
+            zip.addResource("a.txt", resource("/group/site/b/a.txt", text(100)));
+        }
+    }
+}
@@ -458,6 +458,9 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
             List<Map<String, Object>> pinnedSiteMaps = getSiteMaps(pinnedSites, currentSiteId, userId,true, false, true);
             contextSites.put("pinnedSites", pinnedSiteMaps);
 
+			// Keep the visit on the user's membership so site lists can be ordered by it
+			siteService.setUserSiteVisited(userId, currentSiteId);
+
 			// Get most recent sites
 			Collection<String> recentSiteIds = portalService.getRecentSites(userId);
 			// The current site is added to recent sites, except when it:
@@ -37,6 +37,7 @@ import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -84,6 +85,7 @@ import org.sakaiproject.portal.api.model.RecentSite;
 import org.sakaiproject.portal.api.repository.PinnedSiteRepository;
 import org.sakaiproject.portal.api.repository.RecentSiteRepository;
 import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteMembership;
 import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.site.api.ToolConfiguration;
 import org.sakaiproject.tool.api.Placement;
@@ -1067,14 +1069,18 @@ public class PortalServiceImpl implements PortalService, Observer
 			removeFavoriteSiteData(userId);
 		}
 
-		// This should not call getUserSites(boolean, boolean) because the property is variable, while the call is cacheable otherwise
-		List<String> userSiteIds = siteService.getSiteIds(SiteService.SelectionType.MEMBER, null, null, null, SiteService.SortType.CREATED_ON_DESC, null);
-		combinedSiteIds.addAll(userSiteIds);
+		// the membership index holds the user's sites with their role and published state, so most of them
+		// can be sorted without loading the site
+		Map<String, SiteMembership> memberships = siteService.getUserSiteMemberships(userId).stream()
+				.collect(Collectors.toMap(SiteMembership::getSiteId, Function.identity(), (a, b) -> a));
+		combinedSiteIds.addAll(memberships.keySet());
 
 		// all the possible sites the user has access to have been collected into combinedSiteIds
 		// next test each site to see if the user can access them sorting them into 2 sets
 		for (String id : combinedSiteIds) {
-			if (canAccessSite(id, userId)) sitesToPin.add(id);
+			SiteMembership membership = memberships.get(id);
+			boolean indexed = membership != null && (membership.isPublished() || membership.isMaintainer());
+			if (indexed || canAccessSite(id, userId)) sitesToPin.add(id);
 			else sitesToRemove.add(id);
 		}
 
@@ -44,6 +44,7 @@ import org.sakaiproject.portal.api.PortalService;
 import org.sakaiproject.portal.api.model.PinnedSite;
 import org.sakaiproject.portal.api.repository.PinnedSiteRepository;
 import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteMembership;
 import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.test.SakaiTests;
 import org.sakaiproject.tool.api.Session;
@@ -413,7 +414,7 @@ public class PortalServiceTests extends SakaiTests {
             }
         });
 
-        when(siteService.getSiteIds(SiteService.SelectionType.MEMBER, null, null, null, SiteService.SortType.CREATED_ON_DESC, null)).thenReturn(siteIds);
+        when(siteService.getUserSiteMemberships(user1)).thenReturn(createMemberships(siteIds));
 
         // simulate a login
         ((Observer) portalService).update(null, event);
@@ -498,7 +499,7 @@ public class PortalServiceTests extends SakaiTests {
         when(preferencesService.getPreferences(user1)).thenReturn(preferences);
 
         List<String> userSiteIds = List.of(site1Id);
-        when(siteService.getSiteIds(SiteService.SelectionType.MEMBER, null, null, null, SiteService.SortType.CREATED_ON_DESC, null)).thenReturn(userSiteIds);
+        when(siteService.getUserSiteMemberships(user1)).thenReturn(createMemberships(userSiteIds));
 
         Assert.assertTrue(portalService.getPinnedSites(user1).isEmpty());
 
@@ -510,6 +511,37 @@ public class PortalServiceTests extends SakaiTests {
         Assert.assertEquals(site1Id, pinnedSites.get(0));
     }
 
+    /**
+     * Sites the membership index shows the user can reach are pinned without being loaded,
+     * an unpublished site the user does not maintain is still checked.
+     */
+    @Test
+    public void testAutoPinningFromMembershipIndex() throws IdUnusedException, PermissionException {
+
+        String sessionId = UUID.randomUUID().toString();
+        Session session = createMockSession(sessionId, user1);
+        when(sessionManager.getCurrentSession()).thenReturn(session);
+
+        when(securityService.isSuperUser(user1)).thenReturn(false);
+        Preferences preferences = createMockPreferences(user1, PreferencesService.SITENAV_PREFS_KEY, new BaseResourceProperties());
+        when(preferencesService.getPreferences(user1)).thenReturn(preferences);
+
+        List<SiteMembership> memberships = List.of(
+                new SiteMembership("published", "Published", "course", null, "access", true, false, 0L),
+                new SiteMembership("maintained", "Maintained", "project", null, "maintain", false, true, 0L),
+                new SiteMembership("unpublished", "Unpublished", "course", null, "access", false, false, 0L));
+        when(siteService.getUserSiteMemberships(user1)).thenReturn(memberships);
+        when(siteService.getSiteVisit("unpublished")).thenThrow(new PermissionException(user1, SiteService.SITE_VISIT, "/site/unpublished"));
+
+        ((Observer) portalService).update(null, createMockEvent("user.login", user1, sessionId, null));
+
+        List<String> pinnedSites = portalService.getPinnedSites(user1);
+        Assert.assertEquals(2, pinnedSites.size());
+        Assert.assertTrue(pinnedSites.containsAll(List.of("published", "maintained")));
+        Mockito.verify(siteService, Mockito.never()).getSiteVisit("published");
+        Mockito.verify(siteService, Mockito.never()).getSiteVisit("maintained");
+    }
+
     /**
      * This will test the migration from the previous favorites that were stored in preferences
      * to pinned which are stored in the db. A passing test indicates that it took 2 sites
@@ -541,7 +573,7 @@ public class PortalServiceTests extends SakaiTests {
         when(preferencesService.getPreferences(user1)).thenReturn(preferences);
 
         List<String> userSiteIds = List.of(site1Id, site2Id);
-        when(siteService.getSiteIds(SiteService.SelectionType.MEMBER, null, null, null, SiteService.SortType.CREATED_ON_DESC, null)).thenReturn(userSiteIds);
+        when(siteService.getUserSiteMemberships(user1)).thenReturn(createMemberships(userSiteIds));
 
         Assert.assertFalse(preferences.getProperties(PreferencesService.SITENAV_PREFS_KEY).getPropertyList(PortalService.FAVORITES_PROPERTY).isEmpty());
         Assert.assertTrue(portalService.getRecentSites(user1).isEmpty());
@@ -598,7 +630,7 @@ public class PortalServiceTests extends SakaiTests {
             }
         });
 
-        when(siteService.getSiteIds(SiteService.SelectionType.MEMBER, null, null, null, SiteService.SortType.CREATED_ON_DESC, null)).thenReturn(siteIds);
+        when(siteService.getUserSiteMemberships(user1)).thenReturn(createMemberships(siteIds));
         when(securityService.isSuperUser(user1)).thenReturn(false);
 
         Event event = createMockEvent("user.login", user1, sessionId, null);
@@ -642,6 +674,7 @@ public class PortalServiceTests extends SakaiTests {
         // now lets make site2 inaccessible, but not update pinned table
         PermissionException pe = new PermissionException(user1, SiteService.SITE_VISIT, "/site/site2Id");
         when(siteService.getSiteVisit("site2")).thenThrow(pe);
+        when(siteService.getUserSiteMemberships(user1)).thenReturn(createMemberships(List.of("site1", "site3", "site4", "site5", "site6")));
 
         // check pinned sites havn't changed since making site2 inaccessible
         pinnedSites = portalService.getPinnedSites(user1);
@@ -706,6 +739,12 @@ public class PortalServiceTests extends SakaiTests {
         return member;
     }
 
+    private List<SiteMembership> createMemberships(List<String> siteIds) {
+        List<SiteMembership> memberships = new ArrayList<>();
+        siteIds.forEach(siteId -> memberships.add(new SiteMembership(siteId, siteId, "project", null, "access", true, false, 0L)));
+        return memberships;
+    }
+
     private Preferences createMockPreferences(String userId, String propertyKey, ResourceProperties properties) {
         Preferences preferences = Mockito.mock(Preferences.class);
         when(preferences.getId()).thenReturn(userId);
@@ -30,6 +30,7 @@ import org.sakaiproject.antivirus.api.VirusFoundException;
 import org.sakaiproject.authz.api.AuthzPermissionException;
 import org.sakaiproject.content.api.ContentCollection;
 import org.sakaiproject.content.api.ContentCollectionEdit;
+import org.sakaiproject.content.api.ContentEntity;
 import org.sakaiproject.content.api.ContentHostingService;
 import org.sakaiproject.content.api.ContentResource;
 import org.sakaiproject.content.api.ContentResourceEdit;
@@ -419,6 +420,12 @@ public class MockContentHostingService implements ContentHostingService
         return Collections.emptyList();
     }
 
+    @Override
+    public List<ContentEntity> getCollectionMembers( String id, String sortProperty, boolean ascending, ContentEntity after, int pageSize )
+    {
+        return Collections.emptyList();
+    }
+
     @Override
     public ContentCollection getCollection( String id ) throws IdUnusedException, TypeException, PermissionException
     {
@@ -35,6 +35,7 @@ import org.sakaiproject.site.api.AllowedJoinableAccount;
 import org.sakaiproject.site.api.Group;
 import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.api.SiteAdvisor;
+import org.sakaiproject.site.api.SiteMembership;
 import org.sakaiproject.site.api.SitePage;
 import org.sakaiproject.site.api.SiteRemovalAdvisor;
 import org.sakaiproject.site.api.SiteService;
@@ -442,6 +443,17 @@ public class MockSiteService implements SiteService
         return Collections.emptyList();
     }
 
+    @Override
+    public List<SiteMembership> getUserSiteMemberships( String userId )
+    {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void setUserSiteVisited( String userId, String siteId )
+    {
+    }
+
     @Override
     public String getUserSpecificSiteTitle( Site site, String userID )
     {
@@ -589,6 +601,11 @@ public class MockSiteService implements SiteService
     {
     }
 
+    @Override
+    public void setSiteSecurityForUsers( String siteId, Set<String> userIds, Set<String> updateUsers, Set<String> visitUnpUsers, Set<String> visitUsers )
+    {
+    }
+
     @Override
     public void setUserSecurity( String userId, Set<String> updateSites, Set<String> visitUnpSites, Set<String> visitSites )
     {